@@ -0,0 +1,172 @@
+package clearcontrol.com.serial;
+
+import java.util.Arrays;
+
+/**
+ * Latency histogram with logarithmic (power of two) microsecond bins: bin i
+ * counts the latencies within [2^i, 2^(i+1)) microseconds, bin 0 also counts
+ * the latencies below one microsecond. Recording a latency does not allocate.
+ *
+ * @author royer
+ */
+public class LatencyHistogram
+{
+  private static final int cNumberOfBins = 40;
+
+  private final long[] mCounts = new long[cNumberOfBins];
+  private long mNumberOfLatencies;
+  private long mTotalLatencyInNs;
+  private long mMaxLatencyInNs;
+
+  /**
+   * Instantiates an empty latency histogram
+   */
+  public LatencyHistogram()
+  {
+    super();
+  }
+
+  /**
+   * Records a latency
+   *
+   * @param pLatencyInNs
+   *          latency in nanoseconds
+   */
+  public synchronized void addLatency(long pLatencyInNs)
+  {
+    final long lLatencyInNs = Math.max(0, pLatencyInNs);
+    mCounts[getBinIndex(lLatencyInNs)]++;
+    mNumberOfLatencies++;
+    mTotalLatencyInNs += lLatencyInNs;
+    mMaxLatencyInNs = Math.max(mMaxLatencyInNs, lLatencyInNs);
+  }
+
+  private static int getBinIndex(long pLatencyInNs)
+  {
+    final long lLatencyInUs = pLatencyInNs / 1000;
+    if (lLatencyInUs == 0)
+      return 0;
+    return Math.min(cNumberOfBins - 1,
+                    63 - Long.numberOfLeadingZeros(lLatencyInUs));
+  }
+
+  /**
+   * Returns the number of bins
+   *
+   * @return number of bins
+   */
+  public int getNumberOfBins()
+  {
+    return cNumberOfBins;
+  }
+
+  /**
+   * Returns the (exclusive) upper bound of a given bin in milliseconds
+   *
+   * @param pBinIndex
+   *          bin index
+   * @return upper bound in milliseconds
+   */
+  public double getBinUpperBoundInMs(int pBinIndex)
+  {
+    return (1L << (pBinIndex + 1)) * 1e-3;
+  }
+
+  /**
+   * Returns a copy of the bin counts
+   *
+   * @return bin counts
+   */
+  public synchronized long[] getCounts()
+  {
+    return Arrays.copyOf(mCounts, cNumberOfBins);
+  }
+
+  /**
+   * Returns the number of recorded latencies
+   *
+   * @return number of latencies
+   */
+  public synchronized long getNumberOfLatencies()
+  {
+    return mNumberOfLatencies;
+  }
+
+  /**
+   * Returns the mean latency in milliseconds
+   *
+   * @return mean latency, NaN if no latency has been recorded
+   */
+  public synchronized double getMeanLatencyInMs()
+  {
+    if (mNumberOfLatencies == 0)
+      return Double.NaN;
+    return mTotalLatencyInNs * 1e-6 / mNumberOfLatencies;
+  }
+
+  /**
+   * Returns the max latency in milliseconds
+   *
+   * @return max latency, NaN if no latency has been recorded
+   */
+  public synchronized double getMaxLatencyInMs()
+  {
+    if (mNumberOfLatencies == 0)
+      return Double.NaN;
+    return mMaxLatencyInNs * 1e-6;
+  }
+
+  /**
+   * Returns an upper bound of a latency percentile: the upper bound of the bin
+   * that contains it, or the max latency if smaller.
+   *
+   * @param pPercentile
+   *          percentile within [0,100]
+   * @return latency in milliseconds, NaN if no latency has been recorded
+   */
+  public synchronized double getLatencyPercentileInMs(double pPercentile)
+  {
+    if (mNumberOfLatencies == 0)
+      return Double.NaN;
+
+    final double lRank = pPercentile / 100 * mNumberOfLatencies;
+    long lCount = 0;
+    for (int i = 0; i < cNumberOfBins; i++)
+    {
+      lCount += mCounts[i];
+      if (lCount > 0 && lCount >= lRank)
+        return Math.min(getBinUpperBoundInMs(i), getMaxLatencyInMs());
+    }
+    return getMaxLatencyInMs();
+  }
+
+  /**
+   * Clears the histogram
+   */
+  public synchronized void clear()
+  {
+    Arrays.fill(mCounts, 0);
+    mNumberOfLatencies = 0;
+    mTotalLatencyInNs = 0;
+    mMaxLatencyInNs = 0;
+  }
+
+  @Override
+  public synchronized String toString()
+  {
+    final StringBuilder lStringBuilder = new StringBuilder();
+    lStringBuilder.append(String.format("LatencyHistogram [n=%d, mean=%.3f ms, p50<=%.3f ms, p99<=%.3f ms, max=%.3f ms]",
+                                        mNumberOfLatencies,
+                                        getMeanLatencyInMs(),
+                                        getLatencyPercentileInMs(50),
+                                        getLatencyPercentileInMs(99),
+                                        getMaxLatencyInMs()));
+    for (int i = 0; i < cNumberOfBins; i++)
+      if (mCounts[i] > 0)
+        lStringBuilder.append(String.format("\n  < %10.3f ms: %d",
+                                            getBinUpperBoundInMs(i),
+                                            mCounts[i]));
+    return lStringBuilder.toString();
+  }
+
+}
@@ -420,34 +420,42 @@ public class Serial implements SerialInterface, LoggingInterface
 
   public byte[] readTextMessage()
   {
+    return readTextMessage(0);
+  }
 
+  // A time out of zero or less waits indefinitely for the end of the message:
+  public byte[] readTextMessage(final int pTimeOutInMilliseconds)
+  {
     int data;
     try
     {
+      final long lDeadlineInMs = System.currentTimeMillis()
+                                 + pTimeOutInMilliseconds;
       mBuffer.clear();
       while ((data =
-                   mSerialPort.readBytes(1)[0]) != mEndOfMessageCharacter.charValue())
+                   readByte(pTimeOutInMilliseconds > 0 ? lDeadlineInMs
+                                                       : 0)) != mEndOfMessageCharacter.charValue())
       {
         mBuffer.add((byte) data);
       }
 
-      if (mEcho)
-      {
-        final String lMessage = new String(mBuffer.toArray(),
-                                           0,
-                                           mBuffer.size());
-        // System.out.print(lMessage);
-      }
-
       return mBuffer.toArray();
-
     }
     catch (final Throwable e)
     {
       errorOccured(e);
       return null;
     }
+  }
 
+  private byte readByte(final long pDeadlineInMs) throws Exception
+  {
+    if (pDeadlineInMs == 0)
+      return mSerialPort.readBytes(1)[0];
+    return mSerialPort.readBytes(1,
+                                 (int) Math.max(1,
+                                                pDeadlineInMs
+                                                   - System.currentTimeMillis()))[0];
   }
 
   public String readTextMessageAsString()
@@ -0,0 +1,594 @@
+package clearcontrol.com.serial;
+
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import jssc.SerialPortException;
+import clearcontrol.core.concurrent.asyncprocs.BlockingQueueWorker;
+import clearcontrol.core.concurrent.executors.ClearControlExecutors;
+import clearcontrol.core.log.LoggingInterface;
+
+/**
+ * Command engine of a serial port: get and set round trips are queued and
+ * executed one after the other by a dedicated worker thread, so that callers
+ * only wait for their own command, and not for a device lock.
+ *
+ * Commands are identified by a key (typically the variable they belong to). A
+ * coalescable set for a key that already has a coalescable set waiting in the
+ * queue replaces the round trip of that set (only the latest target matters),
+ * sets are not coalescable unless requested. A get for a key that already has
+ * a get waiting in the queue, and no set queued after it, shares its result.
+ * Gets can be
+ * served from a cache of recently read values, and values that are more than
+ * half their time to live old can be refreshed in the background.
+ *
+ * When the engine is not running, commands are executed by the calling
+ * thread.
+ *
+ * @author royer
+ */
+public class SerialCommandEngine implements LoggingInterface
+{
+  private static final long cStopTimeOutInMilliseconds = 10 * 1000;
+
+  /**
+   * Round trip to a device: sends a command and reads back its response if
+   * any.
+   *
+   * @param <O>
+   *          value type
+   */
+  @FunctionalInterface
+  public interface RoundTrip<O>
+  {
+    /**
+     * Executes the round trip
+     *
+     * @return value read, or null if none
+     * @throws SerialPortException
+     *           if the communication failed
+     */
+    O execute() throws SerialPortException;
+  }
+
+  private static final class Command
+  {
+    private final Object mKey;
+    private final boolean mIsSet;
+    private final boolean mCoalescable;
+    private RoundTrip<?> mRoundTrip;
+    private final CompletableFuture<Object> mFuture =
+                                                    new CompletableFuture<>();
+
+    private Command(Object pKey,
+                    boolean pIsSet,
+                    boolean pCoalescable,
+                    RoundTrip<?> pRoundTrip)
+    {
+      mKey = pKey;
+      mIsSet = pIsSet;
+      mCoalescable = pCoalescable;
+      mRoundTrip = pRoundTrip;
+    }
+  }
+
+  private static final class CachedValue
+  {
+    private final Object mValue;
+    private final long mTimeStampInNs;
+
+    private CachedValue(Object pValue, long pTimeStampInNs)
+    {
+      mValue = pValue;
+      mTimeStampInNs = pTimeStampInNs;
+    }
+  }
+
+  private final String mName;
+  private final LinkedBlockingQueue<Command> mQueue =
+                                                    new LinkedBlockingQueue<>();
+  private final BlockingQueueWorker<Command> mWorker;
+  private volatile Thread mWorkerThread;
+
+  // guards the pending commands, the cache, the statistics and mRunning:
+  private final Object mLock = new Object();
+  // serializes round trips:
+  private final Object mRoundTripLock = new Object();
+
+  private final HashMap<Object, Command> mPendingGets = new HashMap<>();
+  private final HashMap<Object, Command> mPendingSets = new HashMap<>();
+  private final HashMap<Object, CachedValue> mCache = new HashMap<>();
+  private boolean mRunning;
+
+  private volatile long mTimeToLiveInNs;
+  private volatile boolean mBackgroundRefresh;
+  private volatile boolean mAsynchronousSets;
+
+  private final LatencyHistogram mGetLatencyHistogram =
+                                                      new LatencyHistogram();
+  private final LatencyHistogram mSetLatencyHistogram =
+                                                      new LatencyHistogram();
+  private long mNumberOfCacheHits;
+  private long mNumberOfCoalescedGets;
+  private long mNumberOfCoalescedSets;
+
+  /**
+   * Instantiates a command engine
+   *
+   * @param pName
+   *          name, used for the worker thread name
+   */
+  public SerialCommandEngine(String pName)
+  {
+    mName = pName;
+    final ThreadFactory lThreadFactory =
+                                       ClearControlExecutors.getThreadFactory("SerialCommandEngine-"
+                                                                              + pName,
+                                                                              Thread.NORM_PRIORITY);
+    mWorker = new BlockingQueueWorker<>(mQueue,
+                                        this::consume,
+                                        (pRunnable) -> {
+                                          final Thread lThread =
+                                                               lThreadFactory.newThread(pRunnable);
+                                          mWorkerThread = lThread;
+                                          return lThread;
+                                        });
+  }
+
+  /**
+   * Returns the name of this engine
+   *
+   * @return name
+   */
+  public String getName()
+  {
+    return mName;
+  }
+
+  /**
+   * Starts the worker thread
+   *
+   * @return true -> success
+   */
+  public boolean start()
+  {
+    synchronized (mLock)
+    {
+      mRunning = true;
+      return mWorker.start();
+    }
+  }
+
+  /**
+   * Stops the worker thread. Commands still in the queue are executed by the
+   * calling thread before returning, and the cache is cleared.
+   *
+   * @return true -> the worker thread has stopped
+   */
+  public boolean stop()
+  {
+    synchronized (mLock)
+    {
+      mRunning = false;
+    }
+    final boolean lStopped =
+                           mWorker.stop(cStopTimeOutInMilliseconds,
+                                        TimeUnit.MILLISECONDS);
+    Command lCommand;
+    while ((lCommand = mQueue.poll()) != null)
+      consume(lCommand);
+    clearCache();
+    return lStopped;
+  }
+
+  /**
+   * Returns true if the worker thread is running
+   *
+   * @return true if running
+   */
+  public boolean isRunning()
+  {
+    synchronized (mLock)
+    {
+      return mRunning;
+    }
+  }
+
+  /**
+   * Gets a value: from the cache if a value read less than the time to live
+   * ago is available, otherwise by queueing the round trip and waiting for
+   * it.
+   *
+   * @param pKey
+   *          key
+   * @param pRoundTrip
+   *          get round trip
+   * @return value, or null if none could be read
+   * @throws SerialPortException
+   *           if the communication failed
+   */
+  @SuppressWarnings("unchecked")
+  public <O> O get(Object pKey, RoundTrip<O> pRoundTrip) throws SerialPortException
+  {
+    final Command lCommand;
+    final boolean lInline;
+    synchronized (mLock)
+    {
+      final long lTimeToLiveInNs = mTimeToLiveInNs;
+      final CachedValue lCachedValue = mCache.get(pKey);
+      if (lTimeToLiveInNs > 0 && lCachedValue != null)
+      {
+        final long lAgeInNs = System.nanoTime()
+                              - lCachedValue.mTimeStampInNs;
+        if (lAgeInNs < lTimeToLiveInNs)
+        {
+          mNumberOfCacheHits++;
+          if (mBackgroundRefresh && mRunning
+              && 2 * lAgeInNs >= lTimeToLiveInNs)
+            enqueue(mPendingGets, pKey, false, true, pRoundTrip);
+          return (O) lCachedValue.mValue;
+        }
+      }
+
+      lInline = isInline();
+      if (lInline)
+        lCommand = new Command(pKey, false, true, pRoundTrip);
+      else
+        lCommand = enqueue(mPendingGets, pKey, false, true, pRoundTrip);
+    }
+
+    if (lInline)
+      execute(lCommand, pRoundTrip);
+    return (O) await(lCommand);
+  }
+
+  /**
+   * Sets a value by queueing the given round trip, the set is not coalesced
+   * with other sets. Unless sets are asynchronous, waits for the set to be
+   * done.
+   *
+   * @param pKey
+   *          key
+   * @param pRoundTrip
+   *          set round trip
+   * @throws SerialPortException
+   *           if the communication failed
+   */
+  public void set(Object pKey, RoundTrip<?> pRoundTrip) throws SerialPortException
+  {
+    set(pKey, pRoundTrip, false);
+  }
+
+  /**
+   * Sets a value by queueing the given round trip. If the set is coalescable
+   * and a coalescable set with the same key is still waiting in the queue, the
+   * round trip of that set is replaced by the given one. Only idempotent sets,
+   * for which only the latest value matters, should be coalescable. Unless
+   * sets are asynchronous, waits for the set to be done.
+   *
+   * @param pKey
+   *          key
+   * @param pRoundTrip
+   *          set round trip
+   * @param pCoalescable
+   *          true if the set can replace, or be replaced by, another set
+   * @throws SerialPortException
+   *           if the communication failed
+   */
+  public void set(Object pKey,
+                  RoundTrip<?> pRoundTrip,
+                  boolean pCoalescable) throws SerialPortException
+  {
+    final Command lCommand;
+    final boolean lInline;
+    synchronized (mLock)
+    {
+      mCache.remove(pKey);
+      lInline = isInline();
+      if (lInline)
+        lCommand = new Command(pKey, true, pCoalescable, pRoundTrip);
+      else
+        lCommand = enqueue(mPendingSets,
+                           pKey,
+                           true,
+                           pCoalescable,
+                           pRoundTrip);
+    }
+
+    if (lInline)
+      execute(lCommand, pRoundTrip);
+    if (lInline || !mAsynchronousSets)
+      await(lCommand);
+  }
+
+  private boolean isInline()
+  {
+    return !mRunning || Thread.currentThread() == mWorkerThread;
+  }
+
+  private Command enqueue(HashMap<Object, Command> pPendingCommands,
+                          Object pKey,
+                          boolean pIsSet,
+                          boolean pCoalescable,
+                          RoundTrip<?> pRoundTrip)
+  {
+    // the pending command of a key is the latest one queued for that key:
+    Command lCommand = pPendingCommands.get(pKey);
+    if (lCommand != null && lCommand.mCoalescable && pCoalescable)
+    {
+      if (pIsSet)
+      {
+        lCommand.mRoundTrip = pRoundTrip;
+        mNumberOfCoalescedSets++;
+      }
+      else
+        mNumberOfCoalescedGets++;
+      return lCommand;
+    }
+
+    // a get queued before this set would read the value from before the set,
+    // later gets must not share its result:
+    if (pIsSet)
+      mPendingGets.remove(pKey);
+
+    lCommand = new Command(pKey, pIsSet, pCoalescable, pRoundTrip);
+    pPendingCommands.put(pKey, lCommand);
+    mQueue.add(lCommand);
+    return lCommand;
+  }
+
+  private void consume(Command pCommand)
+  {
+    final RoundTrip<?> lRoundTrip;
+    synchronized (mLock)
+    {
+      if (pCommand.mIsSet)
+        mPendingSets.remove(pCommand.mKey, pCommand);
+      else
+        mPendingGets.remove(pCommand.mKey, pCommand);
+      lRoundTrip = pCommand.mRoundTrip;
+    }
+    execute(pCommand, lRoundTrip);
+
+    if (pCommand.mIsSet && mAsynchronousSets
+        && pCommand.mFuture.isCompletedExceptionally())
+    {
+      try
+      {
+        await(pCommand);
+      }
+      catch (Throwable e)
+      {
+        warning("Set failed on %s for %s: %s \n",
+                mName,
+                pCommand.mKey,
+                e);
+      }
+    }
+  }
+
+  private void execute(Command pCommand, RoundTrip<?> pRoundTrip)
+  {
+    try
+    {
+      final Object lValue;
+      final long lStartTimeInNs;
+      synchronized (mRoundTripLock)
+      {
+        lStartTimeInNs = System.nanoTime();
+        lValue = pRoundTrip.execute();
+        (pCommand.mIsSet ? mSetLatencyHistogram
+                         : mGetLatencyHistogram).addLatency(System.nanoTime()
+                                                            - lStartTimeInNs);
+      }
+
+      synchronized (mLock)
+      {
+        if (pCommand.mIsSet)
+          mCache.remove(pCommand.mKey);
+        else if (lValue != null
+                 && !mPendingSets.containsKey(pCommand.mKey))
+          mCache.put(pCommand.mKey,
+                     new CachedValue(lValue, lStartTimeInNs));
+      }
+      pCommand.mFuture.complete(lValue);
+    }
+    catch (Throwable e)
+    {
+      pCommand.mFuture.completeExceptionally(e);
+    }
+  }
+
+  private Object await(Command pCommand) throws SerialPortException
+  {
+    try
+    {
+      return pCommand.mFuture.get();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+    catch (ExecutionException e)
+    {
+      final Throwable lCause = e.getCause();
+      if (lCause instanceof SerialPortException)
+        throw (SerialPortException) lCause;
+      if (lCause instanceof RuntimeException)
+        throw (RuntimeException) lCause;
+      if (lCause instanceof Error)
+        throw (Error) lCause;
+      throw new RuntimeException(lCause);
+    }
+  }
+
+  /**
+   * Removes all cached values
+   */
+  public void clearCache()
+  {
+    synchronized (mLock)
+    {
+      mCache.clear();
+    }
+  }
+
+  /**
+   * Returns the time to live of cached values
+   *
+   * @param pTimeUnit
+   *          time unit
+   * @return time to live, zero if gets are not cached
+   */
+  public long getTimeToLive(TimeUnit pTimeUnit)
+  {
+    return pTimeUnit.convert(mTimeToLiveInNs, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Sets the time to live of cached values, zero disables the cache.
+   *
+   * @param pTimeToLive
+   *          time to live
+   * @param pTimeUnit
+   *          time unit
+   */
+  public void setTimeToLive(long pTimeToLive, TimeUnit pTimeUnit)
+  {
+    mTimeToLiveInNs = pTimeUnit.toNanos(pTimeToLive);
+    if (mTimeToLiveInNs <= 0)
+      clearCache();
+  }
+
+  /**
+   * Returns true if cached values are refreshed in the background
+   *
+   * @return true if background refresh is enabled
+   */
+  public boolean isBackgroundRefresh()
+  {
+    return mBackgroundRefresh;
+  }
+
+  /**
+   * Sets whether cached values that are more than half their time to live old
+   * are refreshed in the background when they are served.
+   *
+   * @param pBackgroundRefresh
+   *          true to enable background refresh
+   */
+  public void setBackgroundRefresh(boolean pBackgroundRefresh)
+  {
+    mBackgroundRefresh = pBackgroundRefresh;
+  }
+
+  /**
+   * Returns true if sets return without waiting for the set to be done
+   *
+   * @return true if sets are asynchronous
+   */
+  public boolean isAsynchronousSets()
+  {
+    return mAsynchronousSets;
+  }
+
+  /**
+   * Sets whether sets return without waiting for the set to be done. Failures
+   * of asynchronous sets are logged.
+   *
+   * @param pAsynchronousSets
+   *          true for asynchronous sets
+   */
+  public void setAsynchronousSets(boolean pAsynchronousSets)
+  {
+    mAsynchronousSets = pAsynchronousSets;
+  }
+
+  /**
+   * Returns the number of commands waiting in the queue
+   *
+   * @return queue length
+   */
+  public int getQueueLength()
+  {
+    return mQueue.size();
+  }
+
+  /**
+   * Returns the histogram of the get round trip latencies
+   *
+   * @return get latency histogram
+   */
+  public LatencyHistogram getGetLatencyHistogram()
+  {
+    return mGetLatencyHistogram;
+  }
+
+  /**
+   * Returns the histogram of the set round trip latencies
+   *
+   * @return set latency histogram
+   */
+  public LatencyHistogram getSetLatencyHistogram()
+  {
+    return mSetLatencyHistogram;
+  }
+
+  /**
+   * Returns the number of gets served from the cache
+   *
+   * @return number of cache hits
+   */
+  public long getNumberOfCacheHits()
+  {
+    synchronized (mLock)
+    {
+      return mNumberOfCacheHits;
+    }
+  }
+
+  /**
+   * Returns the number of gets that shared the result of a queued get
+   *
+   * @return number of coalesced gets
+   */
+  public long getNumberOfCoalescedGets()
+  {
+    synchronized (mLock)
+    {
+      return mNumberOfCoalescedGets;
+    }
+  }
+
+  /**
+   * Returns the number of sets that replaced a queued set
+   *
+   * @return number of coalesced sets
+   */
+  public long getNumberOfCoalescedSets()
+  {
+    synchronized (mLock)
+    {
+      return mNumberOfCoalescedSets;
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("SerialCommandEngine [name=%s, queue=%d, cachehits=%d, coalescedgets=%d, coalescedsets=%d]\n gets: %s\n sets: %s",
+                         mName,
+                         getQueueLength(),
+                         getNumberOfCacheHits(),
+                         getNumberOfCoalescedGets(),
+                         getNumberOfCoalescedSets(),
+                         mGetLatencyHistogram,
+                         mSetLatencyHistogram);
+  }
+
+}
@@ -1,27 +1,36 @@
 package clearcontrol.com.serial;
 
+import java.util.concurrent.TimeUnit;
+
 import jssc.SerialPortException;
 import clearcontrol.com.serial.adapters.SerialBinaryDeviceAdapter;
 import clearcontrol.com.serial.adapters.SerialTextDeviceAdapter;
+import clearcontrol.core.configuration.MachineConfiguration;
 import clearcontrol.core.device.VirtualDevice;
 import clearcontrol.core.device.openclose.OpenCloseDeviceInterface;
 import clearcontrol.core.variable.Variable;
 import clearcontrol.core.variable.bundle.VariableBundle;
 
 /**
- * Serial communication device
+ * Serial communication device. The get and set round trips of its serial
+ * variables are executed by a command engine (see {@link SerialCommandEngine})
+ * that queues them, coalesces the sets of adapters that allow it, and
+ * optionally caches gets. Responses are read as soon as they are complete
+ * (message length or termination character), the adapter wait times only
+ * apply to commands without response.
  *
  * @author royer
  */
 public class SerialDevice extends VirtualDevice
                           implements OpenCloseDeviceInterface
 {
+  private static final int cResponseTimeOutInMilliseconds = 10 * 1000;
 
   private final Serial mSerial;
   private final String mPortName;
   private final VariableBundle mVariableBundle;
 
-  private final Object mDeviceLock = new Object();
+  private final SerialCommandEngine mCommandEngine;
 
   /**
    * Instanciates a serila communication device
@@ -42,6 +51,17 @@ public class SerialDevice extends VirtualDevice
     mSerial = new Serial(pBaudRate);
     getSerial().setNotifyEvents(false);
 
+    final MachineConfiguration lCurrentMachineConfiguration =
+                                                            MachineConfiguration.getCurrentMachineConfiguration();
+    mCommandEngine = new SerialCommandEngine(pDeviceName);
+    mCommandEngine.setTimeToLive(lCurrentMachineConfiguration.getLongProperty("device.serial.cachettlms",
+                                                                              0L),
+                                 TimeUnit.MILLISECONDS);
+    mCommandEngine.setBackgroundRefresh(lCurrentMachineConfiguration.getBooleanProperty("device.serial.backgroundrefresh",
+                                                                                        false));
+    mCommandEngine.setAsynchronousSets(lCurrentMachineConfiguration.getBooleanProperty("device.serial.asynchronoussets",
+                                                                                       false));
+
     mVariableBundle = new VariableBundle(String.format("$s($s)",
                                                        pDeviceName,
                                                        pPortName));
@@ -53,10 +73,23 @@ public class SerialDevice extends VirtualDevice
     return mSerial;
   }
 
+  /**
+   * Returns the command engine that executes the get and set round trips of
+   * the serial variables of this device, it also holds the round trip latency
+   * histograms.
+   * 
+   * @return command engine
+   */
+  public SerialCommandEngine getCommandEngine()
+  {
+    return mCommandEngine;
+  }
+
   public void removeAllVariables()
   {
     mVariableBundle.removeAllListeners();
     mVariableBundle.removeAllVariables();
+    mCommandEngine.clearCache();
   }
 
   public <O> Variable<O> addSerialVariable(final String pVariableName,
@@ -75,32 +108,31 @@ public class SerialDevice extends VirtualDevice
 
           if (cGetValueCommand != null)
           {
-            synchronized (mDeviceLock)
-            {
+            final O lParsedValue = mCommandEngine.get(this, () -> {
               getSerial().setBinaryMode(true);
               getSerial().setMessageLength(pSerialBinaryDevice.getGetValueReturnMessageLength());
               getSerial().write(cGetValueCommand);
-              sleep(pSerialBinaryDevice.getGetValueReturnWaitTimeInMilliseconds());
               if (pSerialBinaryDevice.hasResponseForGet()
                   && pSerialBinaryDevice.getGetValueReturnMessageLength() > 0)
               {
                 final byte[] lAnswerMessage =
-                                            getSerial().readBinaryMessage();
+                                            getSerial().readBinaryMessage(getResponseTimeOutInMilliseconds(pSerialBinaryDevice.getGetValueReturnWaitTimeInMilliseconds()));
 
                 if (pSerialBinaryDevice.purgeAfterGet())
                 {
                   mSerial.purge();
                 }
 
-                final O lParsedValue =
-                                     pSerialBinaryDevice.parseValue(lAnswerMessage);
-                if (lParsedValue != null)
-                  return super.getEventHook(lParsedValue);
-                else
-                  return super.getEventHook(pCurrentValue);
+                if (lAnswerMessage == null)
+                  return null;
+                return pSerialBinaryDevice.parseValue(lAnswerMessage);
               }
+              sleep(pSerialBinaryDevice.getGetValueReturnWaitTimeInMilliseconds());
+              return null;
+            });
 
-            }
+            if (lParsedValue != null)
+              return super.getEventHook(lParsedValue);
           }
         }
         catch (final SerialPortException e)
@@ -123,28 +155,29 @@ public class SerialDevice extends VirtualDevice
                                                                                              pNewValue);
           if (lSetValueCommandMessage != null)
           {
-            synchronized (mDeviceLock)
-            {
+            mCommandEngine.set(this, () -> {
               getSerial().setBinaryMode(true);
               getSerial().setMessageLength(pSerialBinaryDevice.getSetValueReturnMessageLength());
               getSerial().write(lSetValueCommandMessage);
-              sleep(pSerialBinaryDevice.getSetValueReturnWaitTimeInMilliseconds());
               if (pSerialBinaryDevice.hasResponseForSet()
                   && pSerialBinaryDevice.getSetValueReturnMessageLength() > 0)
               {
                 final byte[] lAnswerMessage =
-                                            getSerial().readBinaryMessage();
+                                            getSerial().readBinaryMessage(getResponseTimeOutInMilliseconds(pSerialBinaryDevice.getSetValueReturnWaitTimeInMilliseconds()));
                 if (lAnswerMessage != null)
                 {
                   pSerialBinaryDevice.checkAcknowledgementSetValueReturnMessage(lAnswerMessage);
                 }
               }
+              else
+                sleep(pSerialBinaryDevice.getSetValueReturnWaitTimeInMilliseconds());
 
               if (pSerialBinaryDevice.purgeAfterSet())
               {
                 mSerial.purge();
               }
-            }
+              return null;
+            }, pSerialBinaryDevice.isSetValueCoalescable());
           }
         }
         catch (final SerialPortException e)
@@ -177,30 +210,35 @@ public class SerialDevice extends VirtualDevice
 
           if (cGetValueCommand != null && getSerial().isConnected())
           {
-            synchronized (mDeviceLock)
-            {
+            final O lParsedValue = mCommandEngine.get(this, () -> {
               getSerial().setBinaryMode(false);
               getSerial().setLineTerminationCharacter(pSerialTextDeviceAdapter.getGetValueReturnMessageTerminationCharacter());
               getSerial().write(cGetValueCommand);
-              sleep(pSerialTextDeviceAdapter.getGetValueReturnWaitTimeInMilliseconds());
-              if (pSerialTextDeviceAdapter.hasResponseForGet())
+              if (!pSerialTextDeviceAdapter.hasResponseForGet())
               {
-                final byte[] lAnswerMessage =
-                                            getSerial().readTextMessage();
+                sleep(pSerialTextDeviceAdapter.getGetValueReturnWaitTimeInMilliseconds());
+                return null;
+              }
 
-                if (pSerialTextDeviceAdapter.purgeAfterGet())
-                {
-                  mSerial.purge();
-                }
+              final byte[] lAnswerMessage =
+                                          getSerial().readTextMessage(getResponseTimeOutInMilliseconds(pSerialTextDeviceAdapter.getGetValueReturnWaitTimeInMilliseconds()));
 
-                final O lParsedValue =
-                                     pSerialTextDeviceAdapter.parseValue(lAnswerMessage);
-                if (lParsedValue != null)
-                  return super.getEventHook(lParsedValue);
-                else
-                  return super.getEventHook(pCurrentValue);
+              if (pSerialTextDeviceAdapter.purgeAfterGet())
+              {
+                mSerial.purge();
               }
 
+              if (lAnswerMessage == null)
+                return null;
+              return pSerialTextDeviceAdapter.parseValue(lAnswerMessage);
+            });
+
+            if (pSerialTextDeviceAdapter.hasResponseForGet())
+            {
+              if (lParsedValue != null)
+                return super.getEventHook(lParsedValue);
+              else
+                return super.getEventHook(pCurrentValue);
             }
           }
         }
@@ -226,27 +264,28 @@ public class SerialDevice extends VirtualDevice
           if (lSetValueCommandMessage != null
               && getSerial().isConnected())
           {
-            synchronized (mDeviceLock)
-            {
+            mCommandEngine.set(this, () -> {
               getSerial().setBinaryMode(false);
               getSerial().setLineTerminationCharacter(pSerialTextDeviceAdapter.getSetValueReturnMessageTerminationCharacter());
               getSerial().write(lSetValueCommandMessage);
-              sleep(pSerialTextDeviceAdapter.getSetValueReturnWaitTimeInMilliseconds());
               if (pSerialTextDeviceAdapter.hasResponseForSet())
               {
                 final byte[] lAnswerMessage =
-                                            getSerial().readTextMessage();
+                                            getSerial().readTextMessage(getResponseTimeOutInMilliseconds(pSerialTextDeviceAdapter.getSetValueReturnWaitTimeInMilliseconds()));
                 if (lAnswerMessage != null)
                 {
                   pSerialTextDeviceAdapter.checkAcknowledgementSetValueReturnMessage(lAnswerMessage);
                 }
               }
+              else
+                sleep(pSerialTextDeviceAdapter.getSetValueReturnWaitTimeInMilliseconds());
 
               if (pSerialTextDeviceAdapter.purgeAfterSet())
               {
                 mSerial.purge();
               }
-            }
+              return null;
+            }, pSerialTextDeviceAdapter.isSetValueCoalescable());
           }
         }
         catch (final SerialPortException e)
@@ -262,6 +301,13 @@ public class SerialDevice extends VirtualDevice
     return lObjectVariable;
   }
 
+  private int getResponseTimeOutInMilliseconds(long pReturnWaitTimeInMilliseconds)
+  {
+    return (int) Math.min(Integer.MAX_VALUE,
+                          cResponseTimeOutInMilliseconds
+                                             + pReturnWaitTimeInMilliseconds);
+  }
+
   protected void sleep(final long pSleepTimeInMilliseconds)
   {
     if (pSleepTimeInMilliseconds > 0)
@@ -293,6 +339,8 @@ public class SerialDevice extends VirtualDevice
     {
       final boolean lConnected = getSerial().connect(mPortName);
       getSerial().purge();
+      if (lConnected)
+        mCommandEngine.start();
       return lConnected;
     }
     catch (final SerialPortException e)
@@ -307,6 +355,7 @@ public class SerialDevice extends VirtualDevice
   {
     try
     {
+      mCommandEngine.stop();
       getSerial().close();
       return true;
     }
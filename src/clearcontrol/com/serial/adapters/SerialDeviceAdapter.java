@@ -29,4 +29,11 @@ public interface SerialDeviceAdapter<O>
 
   public boolean purgeAfterSet();
 
+  // A set that is waiting to be sent can be replaced by a later set only if
+  // only the latest value matters, which is not the case by default:
+  public default boolean isSetValueCoalescable()
+  {
+    return false;
+  }
+
 }
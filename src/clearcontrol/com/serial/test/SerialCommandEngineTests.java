@@ -0,0 +1,279 @@
+package clearcontrol.com.serial.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jssc.SerialPortException;
+import clearcontrol.com.serial.SerialCommandEngine;
+
+import org.junit.Test;
+
+/**
+ * Serial command engine tests, round trips are simulated and do not require a
+ * serial device.
+ *
+ * @author royer
+ */
+public class SerialCommandEngineTests
+{
+
+  /**
+   * Tests that coalescable sets waiting in the queue are coalesced, only the
+   * latest value is sent.
+   *
+   * @throws Exception
+   *           NA
+   */
+  @Test
+  public void testSetCoalescing() throws Exception
+  {
+    final SerialCommandEngine lEngine = new SerialCommandEngine("test");
+    lEngine.setAsynchronousSets(true);
+    lEngine.start();
+
+    final CountDownLatch lStartedLatch = new CountDownLatch(1);
+    final CountDownLatch lBlockLatch = new CountDownLatch(1);
+    final AtomicInteger lNumberOfSets = new AtomicInteger();
+    final AtomicInteger lLastValue = new AtomicInteger(-1);
+
+    // keeps the worker busy while the next sets are queued:
+    lEngine.set("block", () -> {
+      lStartedLatch.countDown();
+      await(lBlockLatch);
+      return null;
+    });
+    await(lStartedLatch);
+
+    for (int i = 0; i < 100; i++)
+    {
+      final int lValue = i;
+      lEngine.set("power", () -> {
+        lNumberOfSets.incrementAndGet();
+        lLastValue.set(lValue);
+        return null;
+      }, true);
+    }
+    assertEquals(1, lEngine.getQueueLength());
+    lBlockLatch.countDown();
+
+    // commands are executed in order, so this waits for the power set:
+    lEngine.setAsynchronousSets(false);
+    lEngine.set("sync", () -> null);
+    assertEquals(1, lNumberOfSets.get());
+    assertEquals(99, lLastValue.get());
+    assertEquals(99, lEngine.getNumberOfCoalescedSets());
+    assertEquals(3, lEngine.getSetLatencyHistogram()
+                           .getNumberOfLatencies());
+
+    assertTrue(lEngine.stop());
+  }
+
+  /**
+   * Tests that sets that are not coalescable are all sent, in order, even if
+   * coalescable sets for the same key are queued in between.
+   *
+   * @throws Exception
+   *           NA
+   */
+  @Test
+  public void testNoSetCoalescing() throws Exception
+  {
+    final SerialCommandEngine lEngine = new SerialCommandEngine("test");
+    lEngine.setAsynchronousSets(true);
+    lEngine.start();
+
+    final CountDownLatch lStartedLatch = new CountDownLatch(1);
+    final CountDownLatch lBlockLatch = new CountDownLatch(1);
+    final StringBuffer lSentValues = new StringBuffer();
+
+    // keeps the worker busy while the next sets are queued:
+    lEngine.set("block", () -> {
+      lStartedLatch.countDown();
+      await(lBlockLatch);
+      return null;
+    });
+    await(lStartedLatch);
+
+    for (int i = 0; i < 4; i++)
+    {
+      final int lValue = i;
+      lEngine.set("move", () -> {
+        lSentValues.append(lValue);
+        return null;
+      }, i % 2 == 1);
+    }
+    assertEquals(4, lEngine.getQueueLength());
+    lBlockLatch.countDown();
+
+    lEngine.setAsynchronousSets(false);
+    lEngine.set("sync", () -> null);
+    assertEquals("0123", lSentValues.toString());
+    assertEquals(0, lEngine.getNumberOfCoalescedSets());
+
+    assertTrue(lEngine.stop());
+  }
+
+  /**
+   * Tests that a get queued after a set does not share the result of a get
+   * queued before that set.
+   *
+   * @throws Exception
+   *           NA
+   */
+  @Test
+  public void testGetAfterSet() throws Exception
+  {
+    final SerialCommandEngine lEngine = new SerialCommandEngine("test");
+    lEngine.setAsynchronousSets(true);
+    lEngine.start();
+
+    final CountDownLatch lStartedLatch = new CountDownLatch(1);
+    final CountDownLatch lBlockLatch = new CountDownLatch(1);
+    final AtomicInteger lDeviceValue = new AtomicInteger(0);
+    final SerialCommandEngine.RoundTrip<Integer> lGet =
+                                                      () -> lDeviceValue.get();
+
+    // keeps the worker busy while the next commands are queued:
+    lEngine.set("block", () -> {
+      lStartedLatch.countDown();
+      await(lBlockLatch);
+      return null;
+    });
+    await(lStartedLatch);
+
+    final AtomicInteger lValueBeforeSet = new AtomicInteger(-1);
+    final AtomicInteger lValueAfterSet = new AtomicInteger(-1);
+    final Thread lGetBeforeSetThread = new Thread(() -> {
+      try
+      {
+        lValueBeforeSet.set(lEngine.get("position", lGet));
+      }
+      catch (SerialPortException e)
+      {
+        e.printStackTrace();
+      }
+    });
+    lGetBeforeSetThread.start();
+    waitForQueueLength(lEngine, 1);
+
+    lEngine.set("position", () -> {
+      lDeviceValue.set(5);
+      return null;
+    });
+
+    final Thread lGetAfterSetThread = new Thread(() -> {
+      try
+      {
+        lValueAfterSet.set(lEngine.get("position", lGet));
+      }
+      catch (SerialPortException e)
+      {
+        e.printStackTrace();
+      }
+    });
+    lGetAfterSetThread.start();
+    waitForQueueLength(lEngine, 3);
+
+    lBlockLatch.countDown();
+    lGetBeforeSetThread.join();
+    lGetAfterSetThread.join();
+
+    assertEquals(0, lValueBeforeSet.get());
+    assertEquals(5, lValueAfterSet.get());
+    assertEquals(0, lEngine.getNumberOfCoalescedGets());
+
+    assertTrue(lEngine.stop());
+  }
+
+  /**
+   * Tests that gets are served from the cache within their time to live, and
+   * that sets invalidate the cache.
+   *
+   * @throws Exception
+   *           NA
+   */
+  @Test
+  public void testGetCaching() throws Exception
+  {
+    final SerialCommandEngine lEngine = new SerialCommandEngine("test");
+    lEngine.setTimeToLive(1, TimeUnit.HOURS);
+    lEngine.start();
+
+    final AtomicInteger lNumberOfGets = new AtomicInteger();
+    final SerialCommandEngine.RoundTrip<Integer> lGet =
+                                                      () -> lNumberOfGets.incrementAndGet();
+
+    assertEquals(1, (int) lEngine.get("position", lGet));
+    assertEquals(1, (int) lEngine.get("position", lGet));
+    assertEquals(1, lEngine.getNumberOfCacheHits());
+    assertEquals(2, (int) lEngine.get("speed", lGet));
+
+    lEngine.set("position", () -> null);
+    assertEquals(3, (int) lEngine.get("position", lGet));
+    assertEquals(3, lEngine.getGetLatencyHistogram()
+                           .getNumberOfLatencies());
+
+    lEngine.setTimeToLive(0, TimeUnit.HOURS);
+    assertEquals(4, (int) lEngine.get("position", lGet));
+
+    assertTrue(lEngine.stop());
+    System.out.println(lEngine);
+  }
+
+  /**
+   * Tests that commands are executed by the calling thread when the engine is
+   * not running, and that failures are reported to the caller.
+   *
+   * @throws Exception
+   *           NA
+   */
+  @Test
+  public void testNotRunning() throws Exception
+  {
+    final SerialCommandEngine lEngine = new SerialCommandEngine("test");
+    final Thread lCallerThread = Thread.currentThread();
+    assertEquals(lCallerThread,
+                 lEngine.get("thread", () -> Thread.currentThread()));
+    assertNull(lEngine.get("null", () -> null));
+
+    try
+    {
+      lEngine.set("fail", () -> {
+        throw new SerialPortException("test", "set", "failed");
+      });
+      assertTrue(false);
+    }
+    catch (SerialPortException e)
+    {
+      assertEquals("set", e.getMethodName());
+    }
+  }
+
+  private static void waitForQueueLength(SerialCommandEngine pEngine,
+                                         int pQueueLength) throws InterruptedException
+  {
+    // bounded, a get that joins a queued get does not lengthen the queue:
+    final long lDeadline = System.currentTimeMillis() + 1000;
+    while (pEngine.getQueueLength() < pQueueLength
+           && System.currentTimeMillis() < lDeadline)
+      Thread.sleep(1);
+  }
+
+  private static void await(CountDownLatch pLatch)
+  {
+    try
+    {
+      pLatch.await();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -0,0 +1,140 @@
+package clearcontrol.core.compression;
+
+/**
+ * Lossless codec for 16-bit data. Each value is predicted from the previous one
+ * (delta coding), the signed residuals are zigzag-mapped to unsigned values,
+ * and blocks of 128 residuals are bit-packed using the smallest bit width that
+ * fits the whole block. For camera images where neighbouring pixels are
+ * correlated this typically needs a few bits per pixel instead of 16, and it is
+ * fast since it only involves a couple of integer operations per value.
+ *
+ * @author royer
+ */
+public class DeltaBitPackingCodec
+{
+  private static final int cBlockLength = 128;
+
+  /**
+   * Returns the maximal number of bytes needed to compress a given number of
+   * values (worst case: all blocks need 16 bits per value)
+   *
+   * @param pLength
+   *          number of values
+   * @return maximal compressed size in bytes
+   */
+  public static int getMaxCompressedSizeInBytes(int pLength)
+  {
+    final int lNumberOfBlocks = (pLength + cBlockLength - 1)
+                                / cBlockLength;
+    return lNumberOfBlocks + 2 * pLength;
+  }
+
+  /**
+   * Compresses 16-bit values
+   *
+   * @param pInput
+   *          input values (interpreted as unsigned)
+   * @param pLength
+   *          number of values to compress
+   * @param pOutput
+   *          output array, must be at least getMaxCompressedSizeInBytes(pLength)
+   *          long
+   * @return number of bytes written to the output array
+   */
+  public static int compress(short[] pInput, int pLength, byte[] pOutput)
+  {
+    final int[] lBlock = new int[cBlockLength];
+    int lOutputIndex = 0;
+    int lPrevious = 0;
+
+    for (int b = 0; b < pLength; b += cBlockLength)
+    {
+      final int lBlockLength = Math.min(cBlockLength, pLength - b);
+
+      int lOr = 0;
+      for (int i = 0; i < lBlockLength; i++)
+      {
+        final int lValue = pInput[b + i] & 0xFFFF;
+        final int lDelta = (short) (lValue - lPrevious);
+        final int lZigZag = (lDelta << 1) ^ (lDelta >> 31);
+        lBlock[i] = lZigZag;
+        lOr |= lZigZag;
+        lPrevious = lValue;
+      }
+
+      final int lBitWidth = 32 - Integer.numberOfLeadingZeros(lOr);
+      pOutput[lOutputIndex++] = (byte) lBitWidth;
+
+      if (lBitWidth == 0)
+        continue;
+
+      long lAccumulator = 0;
+      int lAccumulatedBits = 0;
+      for (int i = 0; i < lBlockLength; i++)
+      {
+        lAccumulator |= ((long) lBlock[i]) << lAccumulatedBits;
+        lAccumulatedBits += lBitWidth;
+        while (lAccumulatedBits >= 8)
+        {
+          pOutput[lOutputIndex++] = (byte) lAccumulator;
+          lAccumulator >>>= 8;
+          lAccumulatedBits -= 8;
+        }
+      }
+      if (lAccumulatedBits > 0)
+        pOutput[lOutputIndex++] = (byte) lAccumulator;
+    }
+
+    return lOutputIndex;
+  }
+
+  /**
+   * Decompresses 16-bit values
+   *
+   * @param pInput
+   *          compressed input
+   * @param pInputOffset
+   *          offset in input array
+   * @param pOutput
+   *          output array
+   * @param pLength
+   *          number of values to decompress
+   * @return offset in the input array after the last byte read
+   */
+  public static int decompress(byte[] pInput,
+                               int pInputOffset,
+                               short[] pOutput,
+                               int pLength)
+  {
+    int lInputIndex = pInputOffset;
+    int lPrevious = 0;
+
+    for (int b = 0; b < pLength; b += cBlockLength)
+    {
+      final int lBlockLength = Math.min(cBlockLength, pLength - b);
+      final int lBitWidth = pInput[lInputIndex++] & 0xFF;
+      final int lMask = (1 << lBitWidth) - 1;
+
+      long lAccumulator = 0;
+      int lAccumulatedBits = 0;
+      for (int i = 0; i < lBlockLength; i++)
+      {
+        while (lAccumulatedBits < lBitWidth)
+        {
+          lAccumulator |= ((long) (pInput[lInputIndex++] & 0xFF)) << lAccumulatedBits;
+          lAccumulatedBits += 8;
+        }
+        final int lZigZag = (int) (lAccumulator & lMask);
+        lAccumulator >>>= lBitWidth;
+        lAccumulatedBits -= lBitWidth;
+
+        final int lDelta = (lZigZag >>> 1) ^ -(lZigZag & 1);
+        lPrevious = (lPrevious + lDelta) & 0xFFFF;
+        pOutput[b + i] = (short) lPrevious;
+      }
+    }
+
+    return lInputIndex;
+  }
+
+}
@@ -0,0 +1,99 @@
+package clearcontrol.core.compression.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import clearcontrol.core.compression.DeltaBitPackingCodec;
+
+import org.junit.Test;
+
+/**
+ * Delta bit packing codec tests
+ *
+ * @author royer
+ */
+public class DeltaBitPackingCodecTests
+{
+
+  /**
+   * Tests round trips for various lengths and data distributions
+   */
+  @Test
+  public void testRoundTrip()
+  {
+    final Random lRandom = new Random(42);
+    final int[] lLengths = new int[]
+    { 0, 1, 127, 128, 129, 1000, 512 * 512 };
+
+    for (int lLength : lLengths)
+    {
+      // uniformly random (incompressible) data:
+      final short[] lRandomData = new short[lLength];
+      for (int i = 0; i < lLength; i++)
+        lRandomData[i] = (short) lRandom.nextInt(1 << 16);
+      roundTrip(lRandomData);
+
+      // random walk, similar to smooth images:
+      final short[] lSmoothData = new short[lLength];
+      int lValue = 100;
+      for (int i = 0; i < lLength; i++)
+      {
+        lValue = Math.max(0, lValue + lRandom.nextInt(21) - 10);
+        lSmoothData[i] = (short) lValue;
+      }
+      roundTrip(lSmoothData);
+
+      // constant data:
+      roundTrip(new short[lLength]);
+    }
+  }
+
+  /**
+   * Tests that correlated data is actually compressed
+   */
+  @Test
+  public void testRatio()
+  {
+    final Random lRandom = new Random(42);
+    final int lLength = 512 * 512;
+    final short[] lData = new short[lLength];
+    int lValue = 1000;
+    for (int i = 0; i < lLength; i++)
+    {
+      lValue = Math.max(0, lValue + lRandom.nextInt(21) - 10);
+      lData[i] = (short) lValue;
+    }
+
+    final byte[] lCompressed =
+                             new byte[DeltaBitPackingCodec.getMaxCompressedSizeInBytes(lLength)];
+    final int lCompressedSize = DeltaBitPackingCodec.compress(lData,
+                                                              lLength,
+                                                              lCompressed);
+    final double lRatio = (2.0 * lLength) / lCompressedSize;
+    System.out.format("ratio: %g \n", lRatio);
+    assertTrue(lRatio > 2);
+  }
+
+  private void roundTrip(short[] pData)
+  {
+    final int lLength = pData.length;
+    final byte[] lCompressed =
+                             new byte[DeltaBitPackingCodec.getMaxCompressedSizeInBytes(lLength)];
+    final int lCompressedSize = DeltaBitPackingCodec.compress(pData,
+                                                              lLength,
+                                                              lCompressed);
+    assertTrue(lCompressedSize <= lCompressed.length);
+
+    final short[] lDecompressed = new short[lLength];
+    final int lEnd = DeltaBitPackingCodec.decompress(lCompressed,
+                                                     0,
+                                                     lDecompressed,
+                                                     lLength);
+    assertEquals(lCompressedSize, lEnd);
+    assertArrayEquals(pData, lDecompressed);
+  }
+
+}
@@ -3,18 +3,23 @@ package clearcontrol.core.concurrent.asyncprocs;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import clearcontrol.core.concurrent.executors.AsynchronousExecutorServiceAccess;
 import clearcontrol.core.concurrent.executors.AsynchronousSchedulerServiceAccess;
+import clearcontrol.core.concurrent.executors.ClearControlExecutors;
 import clearcontrol.core.concurrent.executors.WaitingScheduledFuture;
 import clearcontrol.core.concurrent.timing.WaitingInterface;
 import clearcontrol.core.log.LoggingInterface;
 
 /**
- * Asynchronous processor base
+ * Asynchronous processor base. By default inputs are taken from the input queue
+ * by a dedicated worker thread that blocks on the queue. The legacy execution
+ * mode, in which a task is rescheduled at a fixed rate and polls the queue, is
+ * still available for comparison.
  *
  * @param <I>
  *          input type
@@ -30,13 +35,36 @@ public abstract class AsynchronousProcessorBase<I, O> implements
                                                WaitingInterface
 {
 
+  /**
+   * Execution mode
+   */
+  public enum ExecutionMode
+  {
+   /**
+    * A dedicated worker thread blocks on the input queue
+    */
+   DedicatedWorker,
+
+   /**
+    * A task is rescheduled at a fixed rate and polls the input queue (legacy)
+    */
+   ScheduledPolling
+  }
+
   private final String mName;
   private AsynchronousProcessorInterface<O, ?> mReceiver;
   private final BlockingQueue<I> mInputQueue;
+  private volatile ExecutionMode mExecutionMode =
+                                                ExecutionMode.DedicatedWorker;
+  private volatile ThreadFactory mThreadFactory;
   private final AtomicReference<WaitingScheduledFuture<?>> mScheduledFuture =
                                                                             new AtomicReference<>();
-  private final AtomicBoolean mIsProcessing =
-                                            new AtomicBoolean(false);
+  private final AtomicReference<BlockingQueueWorker<I>> mWorker =
+                                                                new AtomicReference<>();
+
+  // number of inputs passed but not yet processed:
+  private final AtomicInteger mNumberOfPendingInputs =
+                                                     new AtomicInteger();
 
   /**
    * Instanciates a processor given a name and max input queue size.
@@ -63,9 +91,72 @@ public abstract class AsynchronousProcessorBase<I, O> implements
     mReceiver = pAsynchronousProcessor;
   }
 
+  /**
+   * Sets the execution mode, must be called before start.
+   * 
+   * @param pExecutionMode
+   *          execution mode
+   */
+  public void setExecutionMode(ExecutionMode pExecutionMode)
+  {
+    mExecutionMode = pExecutionMode;
+  }
+
+  /**
+   * Returns the execution mode
+   * 
+   * @return execution mode
+   */
+  public ExecutionMode getExecutionMode()
+  {
+    return mExecutionMode;
+  }
+
+  /**
+   * Sets the thread factory used to create the dedicated worker thread, must be
+   * called before start. By default a daemon thread named after this processor
+   * is used.
+   * 
+   * @param pThreadFactory
+   *          thread factory
+   */
+  public void setThreadFactory(ThreadFactory pThreadFactory)
+  {
+    mThreadFactory = pThreadFactory;
+  }
+
+  /**
+   * Returns the thread factory used to create worker threads
+   * 
+   * @return thread factory
+   */
+  protected ThreadFactory getThreadFactory()
+  {
+    if (mThreadFactory == null)
+      mThreadFactory =
+                     ClearControlExecutors.getThreadFactory(mName == null
+                                                            || mName.isEmpty() ? getClass().getName()
+                                                                               : mName,
+                                                            Thread.NORM_PRIORITY);
+    return mThreadFactory;
+  }
+
   @Override
   public boolean start()
   {
+    if (isStarted())
+      return true;
+
+    if (mExecutionMode == ExecutionMode.DedicatedWorker)
+    {
+      final BlockingQueueWorker<I> lWorker =
+                                           new BlockingQueueWorker<>(mInputQueue,
+                                                                     this::processAndSend,
+                                                                     getThreadFactory());
+      mWorker.set(lWorker);
+      return lWorker.start();
+    }
+
     try
     {
       final Runnable lRunnable = () -> {
@@ -77,13 +168,7 @@ public abstract class AsynchronousProcessorBase<I, O> implements
           {
             return;
           }
-          mIsProcessing.set(true);
-          final O lOutput = process(lInput);
-          mIsProcessing.set(false);
-          if (lOutput != null)
-          {
-            send(lOutput);
-          }
+          processAndSend(lInput);
         }
         catch (final Throwable e)
         {
@@ -105,6 +190,27 @@ public abstract class AsynchronousProcessorBase<I, O> implements
     }
   }
 
+  private void processAndSend(final I pInput)
+  {
+    try
+    {
+      final O lOutput = process(pInput);
+      if (lOutput != null)
+      {
+        send(lOutput);
+      }
+    }
+    finally
+    {
+      mNumberOfPendingInputs.decrementAndGet();
+    }
+  }
+
+  private boolean isStarted()
+  {
+    return mScheduledFuture.get() != null || mWorker.get() != null;
+  }
+
   @Override
   public boolean stop()
   {
@@ -116,6 +222,10 @@ public abstract class AsynchronousProcessorBase<I, O> implements
   {
     try
     {
+      final BlockingQueueWorker<I> lWorker = mWorker.getAndSet(null);
+      if (lWorker != null)
+        return lWorker.stop(pTimeOut, pTimeUnit);
+
       final WaitingScheduledFuture<?> lWaitingScheduledFuture =
                                                               mScheduledFuture.getAndSet(null);
       if (lWaitingScheduledFuture != null)
@@ -135,10 +245,9 @@ public abstract class AsynchronousProcessorBase<I, O> implements
   @Override
   public boolean waitToFinish(final long pTimeOut, TimeUnit pTimeUnit)
   {
-    waitFor(pTimeOut,
-            pTimeUnit,
-            () -> !mIsProcessing.get() && mInputQueue.isEmpty());
-    return mInputQueue.isEmpty();
+    return waitFor(pTimeOut,
+                   pTimeUnit,
+                   () -> mNumberOfPendingInputs.get() == 0);
   }
 
   @Override
@@ -152,35 +261,39 @@ public abstract class AsynchronousProcessorBase<I, O> implements
                             final long pTimeOut,
                             TimeUnit pTimeUnit)
   {
-    waitFor(pTimeOut,
-            pTimeUnit,
-            () -> mScheduledFuture.get() != null);
+    waitFor(pTimeOut, pTimeUnit, () -> isStarted());
     try
     {
       if (pObject == null)
         return false;
-      mInputQueue.offer(pObject, pTimeOut, pTimeUnit);
+      mNumberOfPendingInputs.incrementAndGet();
+      if (mInputQueue.offer(pObject, pTimeOut, pTimeUnit))
+        return true;
+      mNumberOfPendingInputs.decrementAndGet();
+      return false;
     }
     catch (final InterruptedException e)
     {
+      mNumberOfPendingInputs.decrementAndGet();
       return passOrWait(pObject, pTimeOut, pTimeUnit);
     }
-    return false;
   }
 
   @Override
   public boolean passOrWait(final I pObject)
   {
-    waitFor(() -> mScheduledFuture.get() != null);
+    waitFor(() -> isStarted());
     try
     {
       if (pObject == null)
         return false;
+      mNumberOfPendingInputs.incrementAndGet();
       mInputQueue.put(pObject);
       return true;
     }
     catch (final InterruptedException e)
     {
+      mNumberOfPendingInputs.decrementAndGet();
       return passOrWait(pObject);
     }
 
@@ -189,15 +302,19 @@ public abstract class AsynchronousProcessorBase<I, O> implements
   @Override
   public boolean passOrFail(final I pObject)
   {
-    if (mScheduledFuture.get() == null)
+    if (!isStarted())
     {
       return false;
     }
 
-    if (pObject != null)
-      return mInputQueue.offer(pObject);
-    else
+    if (pObject == null)
       return false;
+
+    mNumberOfPendingInputs.incrementAndGet();
+    if (mInputQueue.offer(pObject))
+      return true;
+    mNumberOfPendingInputs.decrementAndGet();
+    return false;
   }
 
   @Override
@@ -231,10 +348,10 @@ public abstract class AsynchronousProcessorBase<I, O> implements
   @Override
   public String toString()
   {
-    return String.format("AsynchronousProcessorBase [mName=%s, mReceiver=%s, mIsProcessing=%s, getInputQueueLength()=%s]",
+    return String.format("AsynchronousProcessorBase [mName=%s, mReceiver=%s, mExecutionMode=%s, getInputQueueLength()=%s]",
                          mName,
                          mReceiver,
-                         mIsProcessing,
+                         mExecutionMode,
                          getInputQueueLength());
   }
 
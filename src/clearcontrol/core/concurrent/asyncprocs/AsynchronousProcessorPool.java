@@ -1,9 +1,8 @@
 package clearcontrol.core.concurrent.asyncprocs;
 
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import clearcontrol.core.concurrent.executors.AsynchronousExecutorServiceAccess;
 import clearcontrol.core.concurrent.executors.AsynchronousSchedulerServiceAccess;
@@ -12,7 +11,9 @@ import clearcontrol.core.concurrent.executors.CompletingThreadPoolExecutor;
 import clearcontrol.core.log.LoggingInterface;
 
 /**
- * Asynchronous processor pool
+ * Asynchronous processor pool. Inputs are processed concurrently by a thread
+ * pool, outputs are sent either strictly in input order (through a
+ * {@link ReorderBuffer}) or as soon as they are ready (see {@link Ordering}).
  *
  * @param <I>
  *          input type
@@ -29,12 +30,41 @@ public class AsynchronousProcessorPool<I, O> extends
                                       LoggingInterface
 {
 
+  /**
+   * Output ordering
+   */
+  public enum Ordering
+  {
+   /**
+    * Outputs are sent strictly in the order in which inputs were received.
+    * Items are processed in parallel and their results go through a reorder
+    * buffer with a bounded window.
+    */
+   Ordered,
+
+   /**
+    * Outputs are sent as soon as they are available, from the thread that
+    * computed them.
+    */
+   Unordered
+  }
+
   private final ProcessorInterface<I, O> mProcessor;
-  private CompletingThreadPoolExecutor mThreadPoolExecutor;
+  private final CompletingThreadPoolExecutor mThreadPoolExecutor;
+  private final Ordering mOrdering;
+
+  // Bounds the number of items in the thread pool, so that the input queue
+  // fills up (and applies back pressure) instead of tasks being rejected. In
+  // ordered mode the reorder window plays the same role:
+  private final Semaphore mInFlightSemaphore;
+  private final ReorderBuffer<O> mReorderBuffer;
+  private final AtomicInteger mNumberOfPendingOutputs =
+                                                      new AtomicInteger();
 
   /**
    * Instanciates an asynchronous processor pool given a name, max input queue
-   * size, thread pool size, and processor.
+   * size, thread pool size, output ordering, reorder window size and
+   * processor.
    * 
    * @param pName
    *          processor pool name
@@ -42,25 +72,97 @@ public class AsynchronousProcessorPool<I, O> extends
    *          max input queue size
    * @param pThreadPoolSize
    *          thread pool size
+   * @param pOrdering
+   *          output ordering
+   * @param pReorderWindowSize
+   *          maximal number of items between the oldest item not yet sent and
+   *          the newest item being processed (ordered mode only)
    * @param pProcessor
    *          processor
    */
   public AsynchronousProcessorPool(final String pName,
                                    final int pMaxQueueSize,
                                    final int pThreadPoolSize,
+                                   final Ordering pOrdering,
+                                   final int pReorderWindowSize,
                                    final ProcessorInterface<I, O> pProcessor)
   {
     super(pName, pMaxQueueSize);
+    final int lMaxNumberOfItemsInFlight = pThreadPoolSize
+                                          + Math.max(1, pMaxQueueSize);
+    // The executor queue can hold all items in flight, so tasks are never
+    // rejected even if a permit is released just before its thread is free:
     mThreadPoolExecutor =
                         ClearControlExecutors.getOrCreateThreadPoolExecutor(this,
                                                                             Thread.NORM_PRIORITY,
                                                                             pThreadPoolSize,
                                                                             pThreadPoolSize,
-                                                                            pMaxQueueSize);
-
+                                                                            Math.max(lMaxNumberOfItemsInFlight,
+                                                                                     pReorderWindowSize));
+    mInFlightSemaphore = new Semaphore(lMaxNumberOfItemsInFlight);
+    mOrdering = pOrdering;
+    mReorderBuffer = pOrdering == Ordering.Ordered
+                                                   ? new ReorderBuffer<>(pReorderWindowSize,
+                                                                         this::emit)
+                                                   : null;
     mProcessor = pProcessor;
   }
 
+  /**
+   * Instanciates an asynchronous processor pool given a name, max input queue
+   * size, thread pool size, output ordering and processor. In ordered mode,
+   * the reorder window is the thread pool size plus the max input queue size.
+   * 
+   * @param pName
+   *          processor pool name
+   * @param pMaxQueueSize
+   *          max input queue size
+   * @param pThreadPoolSize
+   *          thread pool size
+   * @param pOrdering
+   *          output ordering
+   * @param pProcessor
+   *          processor
+   */
+  public AsynchronousProcessorPool(final String pName,
+                                   final int pMaxQueueSize,
+                                   final int pThreadPoolSize,
+                                   final Ordering pOrdering,
+                                   final ProcessorInterface<I, O> pProcessor)
+  {
+    this(pName,
+         pMaxQueueSize,
+         pThreadPoolSize,
+         pOrdering,
+         pThreadPoolSize + Math.max(1, pMaxQueueSize),
+         pProcessor);
+  }
+
+  /**
+   * Instanciates an asynchronous processor pool given a name, max input queue
+   * size, thread pool size, and processor. Outputs are ordered.
+   * 
+   * @param pName
+   *          processor pool name
+   * @param pMaxQueueSize
+   *          max input queue size
+   * @param pThreadPoolSize
+   *          thread pool size
+   * @param pProcessor
+   *          processor
+   */
+  public AsynchronousProcessorPool(final String pName,
+                                   final int pMaxQueueSize,
+                                   final int pThreadPoolSize,
+                                   final ProcessorInterface<I, O> pProcessor)
+  {
+    this(pName,
+         pMaxQueueSize,
+         pThreadPoolSize,
+         Ordering.Ordered,
+         pProcessor);
+  }
+
   /**
    * Instanciates an asynchronous processor pool given a name, max queue size,
    * and processor.
@@ -82,42 +184,47 @@ public class AsynchronousProcessorPool<I, O> extends
          pProcessor);
   }
 
-  @Override
-  public boolean start()
+  /**
+   * Returns the output ordering
+   * 
+   * @return output ordering
+   */
+  public Ordering getOrdering()
   {
-    final Runnable lRunnable = () -> {
-      try
-      {
-
-        @SuppressWarnings("unchecked")
-        final Future<O> lFuture =
-                                (Future<O>) mThreadPoolExecutor.getFutur(1,
-                                                                         TimeUnit.NANOSECONDS);
-        if (lFuture != null)
-        {
-          final O lResult = lFuture.get();
-          send(lResult);
-        }
-      }
-      catch (final InterruptedException e)
-      {
-        return;
-      }
-      catch (final ExecutionException e)
-      {
-        e.printStackTrace();
-      }
-    };
-
-    scheduleAtFixedRate(lRunnable, 1, TimeUnit.NANOSECONDS);
-
-    return super.start();
+    return mOrdering;
   }
 
-  @Override
-  public boolean stop(final long pTimeOut, TimeUnit pTimeUnit)
+  /**
+   * Returns the reorder window size, or 0 if outputs are unordered
+   * 
+   * @return reorder window size
+   */
+  public int getReorderWindowSize()
   {
-    return super.stop(pTimeOut, pTimeUnit);
+    return mReorderBuffer == null ? 0 : mReorderBuffer.getWindowSize();
+  }
+
+  /**
+   * Shuts down the thread pool of this processor pool. Items already submitted
+   * are still processed, but this processor pool cannot be started again.
+   */
+  public void shutdown()
+  {
+    mThreadPoolExecutor.shutdown();
+    ClearControlExecutors.resetThreadPoolExecutor(this);
+  }
+
+  private void emit(O pResult)
+  {
+    try
+    {
+      if (pResult != null)
+        send(pResult);
+    }
+    finally
+    {
+      mNumberOfPendingOutputs.decrementAndGet();
+    }
   }
 
   @Override
@@ -127,25 +234,58 @@ public class AsynchronousProcessorPool<I, O> extends
                              super.waitToFinish(pTimeOut, pTimeUnit);
     if (!lNoTimeOut)
       return false;
-    try
-    {
-      return waitForCompletion(pTimeOut, pTimeUnit);
-    }
-    catch (final ExecutionException e)
-    {
-      e.printStackTrace();
-      return false;
-    }
 
+    return waitFor(pTimeOut,
+                   pTimeUnit,
+                   () -> mNumberOfPendingOutputs.get() == 0);
   }
 
   @Override
   public final O process(final I pInput)
   {
-    final Callable<O> lCallable = () -> {
-      return mProcessor.process(pInput);
-    };
-    mThreadPoolExecutor.submit(lCallable);
+    mNumberOfPendingOutputs.incrementAndGet();
+
+    if (mOrdering == Ordering.Ordered)
+    {
+      final long lSequenceNumber =
+                                 mReorderBuffer.acquireSequenceNumber();
+      mThreadPoolExecutor.execute(() -> {
+        O lResult = null;
+        try
+        {
+          lResult = mProcessor.process(pInput);
+        }
+        catch (Throwable e)
+        {
+          e.printStackTrace();
+        }
+        finally
+        {
+          mReorderBuffer.complete(lSequenceNumber, lResult);
+        }
+      });
+    }
+    else
+    {
+      mInFlightSemaphore.acquireUninterruptibly();
+      mThreadPoolExecutor.execute(() -> {
+        try
+        {
+          final O lResult = mProcessor.process(pInput);
+          if (lResult != null)
+            send(lResult);
+        }
+        catch (Throwable e)
+        {
+          e.printStackTrace();
+        }
+        finally
+        {
+          mInFlightSemaphore.release();
+          mNumberOfPendingOutputs.decrementAndGet();
+        }
+      });
+    }
     return null;
   }
 
@@ -0,0 +1,163 @@
+package clearcontrol.core.concurrent.asyncprocs;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Dedicated worker thread that blocks on a queue and hands each element to a
+ * consumer. Unlike a task rescheduled at a fixed rate, an idle worker does not
+ * consume any CPU and wakes up as soon as an element is available. The worker
+ * is only interrupted while it waits on the queue, never while the consumer
+ * runs (interrupting for example file IO would close the channels involved).
+ *
+ * Threads are obtained from a thread factory, so any kind of thread (including
+ * virtual threads on recent JVMs) can be used.
+ *
+ * @param <T>
+ *          element type
+ * @author royer
+ */
+public class BlockingQueueWorker<T>
+{
+  private final BlockingQueue<T> mQueue;
+  private final Consumer<T> mConsumer;
+  private final ThreadFactory mThreadFactory;
+
+  private final Object mLock = new Object();
+  private Thread mThread;
+  private boolean mRunning;
+  private boolean mWaiting;
+
+  /**
+   * Instantiates a worker for a given queue, consumer and thread factory
+   *
+   * @param pQueue
+   *          queue to take elements from
+   * @param pConsumer
+   *          consumer of elements
+   * @param pThreadFactory
+   *          thread factory
+   */
+  public BlockingQueueWorker(BlockingQueue<T> pQueue,
+                             Consumer<T> pConsumer,
+                             ThreadFactory pThreadFactory)
+  {
+    mQueue = pQueue;
+    mConsumer = pConsumer;
+    mThreadFactory = pThreadFactory;
+  }
+
+  /**
+   * Starts the worker thread, does nothing if already started.
+   *
+   * @return true -> success
+   */
+  public boolean start()
+  {
+    synchronized (mLock)
+    {
+      if (mThread != null)
+        return true;
+      mRunning = true;
+      mThread = mThreadFactory.newThread(this::run);
+      mThread.start();
+      return true;
+    }
+  }
+
+  /**
+   * Stops the worker thread, the element being consumed (if any) is finished
+   * first.
+   *
+   * @param pTimeOut
+   *          time out
+   * @param pTimeUnit
+   *          time unit
+   * @return true -> the thread has stopped before the time out
+   */
+  public boolean stop(long pTimeOut, TimeUnit pTimeUnit)
+  {
+    final Thread lThread;
+    synchronized (mLock)
+    {
+      lThread = mThread;
+      mThread = null;
+      mRunning = false;
+      if (lThread != null && mWaiting)
+        lThread.interrupt();
+    }
+
+    if (lThread == null || lThread == Thread.currentThread())
+      return true;
+
+    try
+    {
+      lThread.join(Math.max(1, pTimeUnit.toMillis(pTimeOut)));
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+    return !lThread.isAlive();
+  }
+
+  /**
+   * Returns true if the worker is running
+   *
+   * @return true if running
+   */
+  public boolean isRunning()
+  {
+    synchronized (mLock)
+    {
+      return mThread != null;
+    }
+  }
+
+  private void run()
+  {
+    while (true)
+    {
+      synchronized (mLock)
+      {
+        if (!mRunning || mThread != Thread.currentThread())
+          return;
+        mWaiting = true;
+      }
+
+      T lElement = null;
+      try
+      {
+        lElement = mQueue.take();
+      }
+      catch (InterruptedException e)
+      {
+        // we check below whether we have been stopped
+      }
+      finally
+      {
+        synchronized (mLock)
+        {
+          mWaiting = false;
+          // clears interrupts that arrived after take() returned:
+          Thread.interrupted();
+        }
+      }
+
+      if (lElement == null)
+        continue;
+
+      try
+      {
+        mConsumer.accept(lElement);
+      }
+      catch (Throwable e)
+      {
+        e.printStackTrace();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,148 @@
+package clearcontrol.core.concurrent.asyncprocs;
+
+import java.util.function.Consumer;
+
+/**
+ * Reorder buffer. Items are given consecutive sequence numbers when they enter
+ * a parallel computation, and their results - which may complete in any order -
+ * are handed to a consumer strictly in sequence order. The number of items
+ * between the oldest item not yet emitted and the newest item is bounded by
+ * the window size: acquiring a sequence number blocks while the window is
+ * full, this bounds the memory used for buffered results.
+ *
+ * Results are emitted by the thread that completes the oldest pending item, so
+ * no additional thread is needed. Only one thread emits at a time.
+ *
+ * @param <T>
+ *          result type
+ * @author royer
+ */
+public class ReorderBuffer<T>
+{
+  private final Object[] mSlots;
+  private final boolean[] mCompleted;
+  private final Consumer<T> mConsumer;
+
+  private long mNextSequenceNumber;
+  private long mNextSequenceNumberToEmit;
+  private boolean mEmitting;
+
+  /**
+   * Instantiates a reorder buffer with given window size and consumer
+   *
+   * @param pWindowSize
+   *          window size
+   * @param pConsumer
+   *          consumer receiving results in sequence order (results can be
+   *          null)
+   */
+  public ReorderBuffer(int pWindowSize, Consumer<T> pConsumer)
+  {
+    final int lWindowSize = Math.max(1, pWindowSize);
+    mSlots = new Object[lWindowSize];
+    mCompleted = new boolean[lWindowSize];
+    mConsumer = pConsumer;
+  }
+
+  /**
+   * Returns the window size
+   *
+   * @return window size
+   */
+  public int getWindowSize()
+  {
+    return mSlots.length;
+  }
+
+  /**
+   * Returns the next sequence number, waits while the window is full.
+   *
+   * @return sequence number
+   */
+  public synchronized long acquireSequenceNumber()
+  {
+    boolean lInterrupted = false;
+    while (mNextSequenceNumber
+           - mNextSequenceNumberToEmit >= mSlots.length)
+    {
+      try
+      {
+        wait();
+      }
+      catch (InterruptedException e)
+      {
+        lInterrupted = true;
+      }
+    }
+    if (lInterrupted)
+      Thread.currentThread().interrupt();
+    return mNextSequenceNumber++;
+  }
+
+  /**
+   * Returns the number of items that have a sequence number but have not been
+   * emitted yet
+   *
+   * @return number of pending items
+   */
+  public synchronized int getNumberOfPendingItems()
+  {
+    return (int) (mNextSequenceNumber - mNextSequenceNumberToEmit);
+  }
+
+  /**
+   * Completes the item with a given sequence number, and emits all results
+   * that are now in sequence.
+   *
+   * @param pSequenceNumber
+   *          sequence number
+   * @param pResult
+   *          result (can be null)
+   */
+  public void complete(long pSequenceNumber, T pResult)
+  {
+    synchronized (this)
+    {
+      final int lSlot = (int) (pSequenceNumber % mSlots.length);
+      mSlots[lSlot] = pResult;
+      mCompleted[lSlot] = true;
+
+      // another thread is already emitting, it will pick up this result:
+      if (mEmitting)
+        return;
+      mEmitting = true;
+    }
+
+    while (true)
+    {
+      final T lResult;
+      synchronized (this)
+      {
+        final int lSlot = (int) (mNextSequenceNumberToEmit
+                                 % mSlots.length);
+        if (!mCompleted[lSlot])
+        {
+          mEmitting = false;
+          return;
+        }
+        @SuppressWarnings("unchecked")
+        final T lSlotResult = (T) mSlots[lSlot];
+        lResult = lSlotResult;
+        mSlots[lSlot] = null;
+        mCompleted[lSlot] = false;
+        mNextSequenceNumberToEmit++;
+        notifyAll();
+      }
+
+      try
+      {
+        mConsumer.accept(lResult);
+      }
+      catch (Throwable e)
+      {
+        e.printStackTrace();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,214 @@
+package clearcontrol.core.concurrent.asyncprocs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import clearcontrol.core.concurrent.asyncprocs.AsynchronousProcessorBase;
+import clearcontrol.core.concurrent.asyncprocs.AsynchronousProcessorBase.ExecutionMode;
+import clearcontrol.core.concurrent.asyncprocs.AsynchronousProcessorPool;
+import clearcontrol.core.concurrent.asyncprocs.AsynchronousProcessorPool.Ordering;
+import clearcontrol.core.concurrent.asyncprocs.ProcessorInterface;
+
+import org.junit.Test;
+
+/**
+ * Hand-off latency and throughput benchmark for asynchronous processors,
+ * comparing the dedicated worker execution mode with the legacy scheduled
+ * polling mode.
+ *
+ * @author royer
+ */
+public class AsynchronousProcessorBenchmarkTests
+{
+  private static final int cNumberOfWarmupItems = 10000;
+  private static final int cNumberOfLatencyItems = 2000;
+  private static final int cNumberOfThroughputItems = 200000;
+
+  /**
+   * Benchmarks hand-off latency (time between passing an item and the start of
+   * its processing, one item in flight at a time) and throughput (two-stage
+   * pipeline, queue always full).
+   */
+  @Test
+  public void benchmark()
+  {
+    for (ExecutionMode lExecutionMode : ExecutionMode.values())
+    {
+      benchmarkLatency(lExecutionMode, cNumberOfWarmupItems / 10);
+      final long[] lLatencies = benchmarkLatency(lExecutionMode,
+                                                 cNumberOfLatencyItems);
+      Arrays.sort(lLatencies);
+
+      benchmarkThroughput(lExecutionMode, cNumberOfWarmupItems);
+      final double lThroughput =
+                               benchmarkThroughput(lExecutionMode,
+                                                   cNumberOfThroughputItems);
+
+      System.out.format("%s: hand-off latency median %.1f us, p99 %.1f us, throughput %.0f items/s \n",
+                        lExecutionMode,
+                        lLatencies[lLatencies.length / 2] * 1e-3,
+                        lLatencies[(int) (lLatencies.length * 0.99)]
+                                                                    * 1e-3,
+                        lThroughput);
+    }
+  }
+
+  private long[] benchmarkLatency(ExecutionMode pExecutionMode,
+                                  int pNumberOfItems)
+  {
+    final long[] lLatencies = new long[pNumberOfItems];
+    final AtomicInteger lCounter = new AtomicInteger();
+
+    final AsynchronousProcessorBase<Long, Long> lProcessor =
+                                                           new AsynchronousProcessorBase<Long, Long>("Latency",
+                                                                                                     16)
+                                                           {
+                                                             @Override
+                                                             public Long process(Long pInput)
+                                                             {
+                                                               lLatencies[lCounter.getAndIncrement()] =
+                                                                                                      System.nanoTime()
+                                                                                                        - pInput;
+                                                               return null;
+                                                             }
+                                                           };
+    lProcessor.setExecutionMode(pExecutionMode);
+    assertTrue(lProcessor.start());
+
+    for (int i = 0; i < pNumberOfItems; i++)
+    {
+      lProcessor.passOrWait(System.nanoTime());
+      assertTrue(lProcessor.waitToFinish(1, TimeUnit.SECONDS));
+    }
+
+    assertTrue(lProcessor.stop(1, TimeUnit.SECONDS));
+    assertEquals(pNumberOfItems, lCounter.get());
+    return lLatencies;
+  }
+
+  private double benchmarkThroughput(ExecutionMode pExecutionMode,
+                                     int pNumberOfItems)
+  {
+    final AtomicInteger lCounter = new AtomicInteger();
+
+    final AsynchronousProcessorBase<Integer, Integer> lProcessorA =
+                                                                  new AsynchronousProcessorBase<Integer, Integer>("A",
+                                                                                                                  1024)
+                                                                  {
+                                                                    @Override
+                                                                    public Integer process(Integer pInput)
+                                                                    {
+                                                                      return pInput;
+                                                                    }
+                                                                  };
+    final AsynchronousProcessorBase<Integer, Integer> lProcessorB =
+                                                                  new AsynchronousProcessorBase<Integer, Integer>("B",
+                                                                                                                  1024)
+                                                                  {
+                                                                    @Override
+                                                                    public Integer process(Integer pInput)
+                                                                    {
+                                                                      lCounter.incrementAndGet();
+                                                                      return null;
+                                                                    }
+                                                                  };
+    lProcessorA.setExecutionMode(pExecutionMode);
+    lProcessorB.setExecutionMode(pExecutionMode);
+    lProcessorA.connectToReceiver(lProcessorB);
+    assertTrue(lProcessorA.start());
+    assertTrue(lProcessorB.start());
+
+    final Integer lItem = 1;
+    final long lStart = System.nanoTime();
+    for (int i = 0; i < pNumberOfItems; i++)
+      lProcessorA.passOrWait(lItem);
+    assertTrue(lProcessorA.waitToFinish(60, TimeUnit.SECONDS));
+    assertTrue(lProcessorB.waitToFinish(60, TimeUnit.SECONDS));
+    final long lStop = System.nanoTime();
+
+    assertTrue(lProcessorA.stop(1, TimeUnit.SECONDS));
+    assertTrue(lProcessorB.stop(1, TimeUnit.SECONDS));
+    assertEquals(pNumberOfItems, lCounter.get());
+
+    return pNumberOfItems / ((lStop - lStart) * 1e-9);
+  }
+
+  /**
+   * Tests that an unordered pool delivers all outputs, and that an ordered pool
+   * delivers them in input order.
+   */
+  @Test
+  public void testPoolOrdering()
+  {
+    for (Ordering lOrdering : Ordering.values())
+    {
+      final ProcessorInterface<Integer, Integer> lProcessor =
+                                                            new ProcessorInterface<Integer, Integer>()
+                                                            {
+                                                              @Override
+                                                              public Integer process(Integer pInput)
+                                                              {
+                                                                // later items
+                                                                // are faster:
+                                                                try
+                                                                {
+                                                                  Thread.sleep(pInput % 3);
+                                                                }
+                                                                catch (InterruptedException e)
+                                                                {
+                                                                }
+                                                                return pInput;
+                                                              }
+
+                                                              @Override
+                                                              public void close() throws IOException
+                                                              {
+                                                              }
+                                                            };
+
+      final AsynchronousProcessorPool<Integer, Integer> lPool =
+                                                              new AsynchronousProcessorPool<>("Pool",
+                                                                                              8,
+                                                                                              4,
+                                                                                              lOrdering,
+                                                                                              lProcessor);
+
+      final ConcurrentLinkedQueue<Integer> lOutputs =
+                                                    new ConcurrentLinkedQueue<>();
+      final AsynchronousProcessorBase<Integer, Integer> lReceiver =
+                                                                  new AsynchronousProcessorBase<Integer, Integer>("Receiver",
+                                                                                                                  8)
+                                                                  {
+                                                                    @Override
+                                                                    public Integer process(Integer pInput)
+                                                                    {
+                                                                      lOutputs.add(pInput);
+                                                                      return null;
+                                                                    }
+                                                                  };
+      lPool.connectToReceiver(lReceiver);
+      assertTrue(lReceiver.start());
+      assertTrue(lPool.start());
+
+      for (int i = 0; i < 300; i++)
+        lPool.passOrWait(i);
+
+      assertTrue(lPool.waitToFinish(10, TimeUnit.SECONDS));
+      assertTrue(lReceiver.waitToFinish(10, TimeUnit.SECONDS));
+      assertTrue(lPool.stop(1, TimeUnit.SECONDS));
+      assertTrue(lReceiver.stop(1, TimeUnit.SECONDS));
+
+      assertEquals(300, lOutputs.size());
+      if (lOrdering == Ordering.Ordered)
+        for (int i = 0; i < 300; i++)
+          assertEquals(i, (int) lOutputs.poll());
+    }
+  }
+
+}
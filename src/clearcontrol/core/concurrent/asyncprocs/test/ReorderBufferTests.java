@@ -0,0 +1,112 @@
+package clearcontrol.core.concurrent.asyncprocs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import clearcontrol.core.concurrent.asyncprocs.ReorderBuffer;
+
+import org.junit.Test;
+
+/**
+ * Reorder buffer tests
+ *
+ * @author royer
+ */
+public class ReorderBufferTests
+{
+
+  /**
+   * Tests that results completed in random order are emitted in sequence order
+   */
+  @Test
+  public void testRandomCompletionOrder()
+  {
+    final ArrayList<Integer> lOutputs = new ArrayList<>();
+    final ReorderBuffer<Integer> lReorderBuffer =
+                                                new ReorderBuffer<>(16,
+                                                                    lOutputs::add);
+
+    for (int lBlock = 0; lBlock < 10; lBlock++)
+    {
+      final ArrayList<Long> lSequenceNumbers = new ArrayList<>();
+      for (int i = 0; i < 16; i++)
+        lSequenceNumbers.add(lReorderBuffer.acquireSequenceNumber());
+      assertEquals(16, lReorderBuffer.getNumberOfPendingItems());
+
+      Collections.shuffle(lSequenceNumbers);
+      for (long lSequenceNumber : lSequenceNumbers)
+        lReorderBuffer.complete(lSequenceNumber, (int) lSequenceNumber);
+      assertEquals(0, lReorderBuffer.getNumberOfPendingItems());
+    }
+
+    assertEquals(160, lOutputs.size());
+    for (int i = 0; i < 160; i++)
+      assertEquals(i, (int) lOutputs.get(i));
+  }
+
+  /**
+   * Tests that acquiring a sequence number blocks while the window is full,
+   * and that results computed concurrently are emitted in sequence order
+   *
+   * @throws InterruptedException
+   *           NA
+   */
+  @Test
+  public void testWindowAndConcurrency() throws InterruptedException
+  {
+    final ConcurrentLinkedQueue<Integer> lOutputs =
+                                                  new ConcurrentLinkedQueue<>();
+    final ReorderBuffer<Integer> lReorderBuffer =
+                                                new ReorderBuffer<>(4,
+                                                                    lOutputs::add);
+
+    // the oldest item is held back, the window fills up:
+    final long lFirst = lReorderBuffer.acquireSequenceNumber();
+    for (int i = 1; i < 4; i++)
+      lReorderBuffer.complete(lReorderBuffer.acquireSequenceNumber(), i);
+    assertEquals(0, lOutputs.size());
+
+    final CountDownLatch lAcquired = new CountDownLatch(1);
+    final Thread lThread = new Thread(() -> {
+      lReorderBuffer.complete(lReorderBuffer.acquireSequenceNumber(),
+                              4);
+      lAcquired.countDown();
+    });
+    lThread.start();
+    assertTrue(!lAcquired.await(100, TimeUnit.MILLISECONDS));
+
+    lReorderBuffer.complete(lFirst, 0);
+    assertTrue(lAcquired.await(10, TimeUnit.SECONDS));
+    lThread.join();
+    assertEquals(5, lOutputs.size());
+
+    lOutputs.clear();
+    final ExecutorService lExecutor = Executors.newFixedThreadPool(4);
+    for (int i = 0; i < 10000; i++)
+    {
+      final long lSequenceNumber = lReorderBuffer.acquireSequenceNumber();
+      lExecutor.execute(() -> {
+        if (ThreadLocalRandom.current().nextInt(8) == 0)
+          Thread.yield();
+        lReorderBuffer.complete(lSequenceNumber, (int) lSequenceNumber);
+      });
+    }
+    lExecutor.shutdown();
+    assertTrue(lExecutor.awaitTermination(10, TimeUnit.SECONDS));
+
+    assertEquals(10000, lOutputs.size());
+    int lExpected = 5;
+    for (int lOutput : lOutputs)
+      assertEquals(lExpected++, lOutput);
+  }
+
+}
@@ -1,24 +1,179 @@
 package clearcontrol.core.concurrent.executors;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.EnumMap;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Class managing executors via static methods
+ * Class managing executors via static methods.
+ *
+ * Executors are either owned by an object (key), or shared and named (see
+ * {@link SharedExecutorPool}). Owners are only weakly referenced: once an
+ * owner is garbage collected its executors are shut down. Owned executors do
+ * not keep idle threads alive, and all thread pool executors record metrics
+ * (see {@link ExecutorMetrics}).
  *
  * @author royer
  */
 public class ClearControlExecutors
 {
+  private static final long cMetricsUpdatePeriodInMs = 1000;
+
+  private static final ReferenceQueue<Object> cOwnerReferenceQueue =
+                                                                   new ReferenceQueue<>();
+
+  private static ConcurrentHashMap<OwnerKey, CompletingThreadPoolExecutor> cThreadPoolExecutorMap =
+                                                                                                  new ConcurrentHashMap<>(100);
+  private static ConcurrentHashMap<OwnerKey, ScheduledThreadPoolExecutor> cScheduledThreadPoolExecutorMap =
+                                                                                                          new ConcurrentHashMap<>(100);
+
+  private static final EnumMap<SharedExecutorPool, InstrumentedThreadPoolExecutor> cSharedExecutorMap =
+                                                                                                     new EnumMap<>(SharedExecutorPool.class);
+
+  private static ScheduledExecutorService sMetricsUpdater;
+
+  /**
+   * Weak reference to an owner, with identity semantics: two keys are equal if
+   * they refer to the same owner object.
+   */
+  private static final class OwnerKey extends WeakReference<Object>
+  {
+    private final int mHashCode;
+
+    OwnerKey(Object pOwner, ReferenceQueue<Object> pReferenceQueue)
+    {
+      super(pOwner, pReferenceQueue);
+      mHashCode = System.identityHashCode(pOwner);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return mHashCode;
+    }
+
+    @Override
+    public boolean equals(Object pObject)
+    {
+      if (this == pObject)
+        return true;
+      final Object lOwner = get();
+      if (pObject instanceof LookupKey)
+        return lOwner != null && lOwner == ((LookupKey) pObject).mOwner;
+      if (!(pObject instanceof OwnerKey))
+        return false;
+      return lOwner != null && lOwner == ((OwnerKey) pObject).get();
+    }
+  }
+
+  /**
+   * Reusable key to look up the executor of an owner without allocating a
+   * weak reference, equal to the owner key of the same owner.
+   */
+  private static final class LookupKey
+  {
+    private Object mOwner;
+
+    @Override
+    public int hashCode()
+    {
+      return System.identityHashCode(mOwner);
+    }
+
+    @Override
+    public boolean equals(Object pObject)
+    {
+      return mOwner != null && pObject instanceof OwnerKey
+             && mOwner == ((OwnerKey) pObject).get();
+    }
+  }
 
-  private static ConcurrentHashMap<Object, CompletingThreadPoolExecutor> cThreadPoolExecutorMap =
-                                                                                                new ConcurrentHashMap<>(100);
-  private static ConcurrentHashMap<Object, ScheduledThreadPoolExecutor> cScheduledThreadPoolExecutorMap =
-                                                                                                        new ConcurrentHashMap<>(100);
+  private static final ThreadLocal<LookupKey> cLookupKey =
+                                                         ThreadLocal.withInitial(LookupKey::new);
+
+  private static <V> V get(ConcurrentHashMap<OwnerKey, V> pMap,
+                           final Object pObject)
+  {
+    final LookupKey lLookupKey = cLookupKey.get();
+    lLookupKey.mOwner = pObject;
+    try
+    {
+      return pMap.get(lLookupKey);
+    }
+    finally
+    {
+      // the owner must not be kept alive by the thread:
+      lLookupKey.mOwner = null;
+    }
+  }
+
+  private static <V> V remove(ConcurrentHashMap<OwnerKey, V> pMap,
+                              final Object pObject)
+  {
+    final LookupKey lLookupKey = cLookupKey.get();
+    lLookupKey.mOwner = pObject;
+    try
+    {
+      return pMap.remove(lLookupKey);
+    }
+    finally
+    {
+      lLookupKey.mOwner = null;
+    }
+  }
+
+  private static OwnerKey newKey(final Object pObject)
+  {
+    // collected owners are expunged when executors are registered, lookups
+    // stay cheap:
+    expungeCollectedOwners();
+    return new OwnerKey(pObject, cOwnerReferenceQueue);
+  }
+
+  /**
+   * Shuts down the executors of owners that have been garbage collected. This
+   * is done automatically whenever executors are created, and periodically
+   * when metrics are updated.
+   */
+  public static void expungeCollectedOwners()
+  {
+    Reference<?> lReference;
+    while ((lReference = cOwnerReferenceQueue.poll()) != null)
+    {
+      final ThreadPoolExecutor lThreadPoolExecutor =
+                                                   cThreadPoolExecutorMap.remove(lReference);
+      if (lThreadPoolExecutor != null)
+        lThreadPoolExecutor.shutdown();
+      final ScheduledThreadPoolExecutor lScheduledThreadPoolExecutor =
+                                                                     cScheduledThreadPoolExecutorMap.remove(lReference);
+      if (lScheduledThreadPoolExecutor != null)
+        lScheduledThreadPoolExecutor.shutdown();
+    }
+  }
+
+  /**
+   * Returns the number of owners that currently have a thread pool executor or
+   * a scheduled thread pool executor.
+   * 
+   * @return number of owned executors
+   */
+  public static int getNumberOfOwnedExecutors()
+  {
+    expungeCollectedOwners();
+    return cThreadPoolExecutorMap.size()
+           + cScheduledThreadPoolExecutorMap.size();
+  }
 
   /**
    * Returns a completing thread pool executor given a key
@@ -30,7 +185,7 @@ public class ClearControlExecutors
   public static final CompletingThreadPoolExecutor getThreadPoolExecutor(final Object pObject)
   {
     final CompletingThreadPoolExecutor lExecutor =
-                                                 cThreadPoolExecutorMap.get(pObject);
+                                                 get(cThreadPoolExecutorMap, pObject);
 
     return lExecutor;
   }
@@ -45,7 +200,8 @@ public class ClearControlExecutors
   public static final ScheduledThreadPoolExecutor getScheduledThreadPoolExecutor(final Object pObject)
   {
     final ScheduledThreadPoolExecutor lExecutor =
-                                                cScheduledThreadPoolExecutorMap.get(pObject);
+                                                get(cScheduledThreadPoolExecutorMap,
+                                                    pObject);
 
     return lExecutor;
   }
@@ -74,7 +230,7 @@ public class ClearControlExecutors
    */
   public static void resetThreadPoolExecutor(final Object pObject)
   {
-    cThreadPoolExecutorMap.remove(pObject);
+    remove(cThreadPoolExecutorMap, pObject);
   }
 
   /**
@@ -85,11 +241,14 @@ public class ClearControlExecutors
    */
   public static void resetScheduledThreadPoolExecutor(final Object pObject)
   {
-    cScheduledThreadPoolExecutorMap.remove(pObject);
+    remove(cScheduledThreadPoolExecutorMap, pObject);
   }
 
   /**
    * Returns (or creates) a completing thread pool executor for a given key.
+   * The key is weakly referenced, the executor is shut down once the key is
+   * garbage collected. Threads are started on demand and stopped after one
+   * minute of inactivity.
    * 
    * @param pObject
    *          key
@@ -110,7 +269,8 @@ public class ClearControlExecutors
                                                                                  final int pMaxQueueLength)
   {
     CompletingThreadPoolExecutor lThreadPoolExecutor =
-                                                     cThreadPoolExecutorMap.get(pObject);
+                                                     get(cThreadPoolExecutorMap,
+                                                         pObject);
 
     if (lThreadPoolExecutor == null)
     {
@@ -128,10 +288,19 @@ public class ClearControlExecutors
                                                            getThreadFactory(lThreadName,
                                                                             pPriority));
 
-      lThreadPoolExecutor.allowCoreThreadTimeOut(false);
-      lThreadPoolExecutor.prestartAllCoreThreads();
+      // threads are started on demand, and idle owners do not hold on to
+      // threads:
+      lThreadPoolExecutor.allowCoreThreadTimeOut(true);
+      lThreadPoolExecutor.getMetrics().setName(lThreadName);
 
-      cThreadPoolExecutorMap.put(pObject, lThreadPoolExecutor);
+      final CompletingThreadPoolExecutor lExistingThreadPoolExecutor =
+                                                                     cThreadPoolExecutorMap.putIfAbsent(newKey(pObject),
+                                                                                                        lThreadPoolExecutor);
+      if (lExistingThreadPoolExecutor != null)
+      {
+        lThreadPoolExecutor.shutdown();
+        lThreadPoolExecutor = lExistingThreadPoolExecutor;
+      }
     }
 
     return lThreadPoolExecutor;
@@ -157,7 +326,8 @@ public class ClearControlExecutors
   {
 
     ScheduledThreadPoolExecutor lScheduledThreadPoolExecutor =
-                                                             cScheduledThreadPoolExecutorMap.get(pObject);
+                                                             get(cScheduledThreadPoolExecutorMap,
+                                                                 pObject);
 
     if (lScheduledThreadPoolExecutor == null)
     {
@@ -168,19 +338,178 @@ public class ClearControlExecutors
                                                                    getThreadFactory(lThreadName,
                                                                                     pPriority));
 
+      // threads are started on demand:
       lScheduledThreadPoolExecutor.allowCoreThreadTimeOut(false);
-      lScheduledThreadPoolExecutor.prestartAllCoreThreads();
       lScheduledThreadPoolExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
       lScheduledThreadPoolExecutor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
       lScheduledThreadPoolExecutor.setRemoveOnCancelPolicy(true);
 
-      cScheduledThreadPoolExecutorMap.put(pObject,
-                                          lScheduledThreadPoolExecutor);
+      final ScheduledThreadPoolExecutor lExistingScheduledThreadPoolExecutor =
+                                                                           cScheduledThreadPoolExecutorMap.putIfAbsent(newKey(pObject),
+                                                                                                                       lScheduledThreadPoolExecutor);
+      if (lExistingScheduledThreadPoolExecutor != null)
+      {
+        lScheduledThreadPoolExecutor.shutdown();
+        lScheduledThreadPoolExecutor =
+                                     lExistingScheduledThreadPoolExecutor;
+      }
     }
 
     return lScheduledThreadPoolExecutor;
   }
 
+  /**
+   * Returns (or creates) one of the shared, named and bounded executors. Shared
+   * executors are not completing executors: they do not keep track of
+   * submitted tasks, use the returned futures to wait for tasks. Threads are
+   * started on demand and stopped after one minute of inactivity.
+   * 
+   * @param pSharedExecutorPool
+   *          shared pool
+   * @return shared executor
+   */
+  public static final InstrumentedThreadPoolExecutor getSharedExecutor(final SharedExecutorPool pSharedExecutorPool)
+  {
+    synchronized (cSharedExecutorMap)
+    {
+      InstrumentedThreadPoolExecutor lExecutor =
+                                               cSharedExecutorMap.get(pSharedExecutorPool);
+      if (lExecutor == null || lExecutor.isShutdown())
+      {
+        final RejectedExecutionHandler lRejectedExecutionHandler;
+        if (pSharedExecutorPool.isDropOldestWhenFull())
+          lRejectedExecutionHandler = (r, e) -> {
+            if (e.isShutdown())
+              return;
+            e.getQueue().poll();
+            e.getQueue().offer(r);
+          };
+        else
+          // unlike CallerRunsPolicy, tasks rejected after a shutdown also run,
+          // so nobody waits forever on their futures:
+          lRejectedExecutionHandler = (r, e) -> r.run();
+
+        final String lName = pSharedExecutorPool.name() + "Executor";
+        lExecutor =
+                  new InstrumentedThreadPoolExecutor(pSharedExecutorPool.getNumberOfThreads(),
+                                                     pSharedExecutorPool.getNumberOfThreads(),
+                                                     1,
+                                                     TimeUnit.MINUTES,
+                                                     new LinkedBlockingQueue<>(pSharedExecutorPool.getMaxQueueLength()),
+                                                     getThreadFactory(lName,
+                                                                      pSharedExecutorPool.getPriority()),
+                                                     lRejectedExecutionHandler);
+        lExecutor.allowCoreThreadTimeOut(true);
+        lExecutor.getMetrics().setName(lName);
+        cSharedExecutorMap.put(pSharedExecutorPool, lExecutor);
+      }
+      return lExecutor;
+    }
+  }
+
+  /**
+   * Shuts down a shared executor, tasks already submitted are completed. The
+   * executor is recreated on next use.
+   * 
+   * @param pSharedExecutorPool
+   *          shared pool
+   * @param pTimeOut
+   *          time out
+   * @param pTimeUnit
+   *          time unit
+   * @return true if all tasks completed before the time out
+   */
+  public static boolean shutdownSharedExecutor(final SharedExecutorPool pSharedExecutorPool,
+                                               long pTimeOut,
+                                               TimeUnit pTimeUnit)
+  {
+    final ExecutorService lExecutor;
+    synchronized (cSharedExecutorMap)
+    {
+      lExecutor = cSharedExecutorMap.remove(pSharedExecutorPool);
+    }
+    if (lExecutor == null)
+      return true;
+
+    lExecutor.shutdown();
+    try
+    {
+      return lExecutor.awaitTermination(pTimeOut, pTimeUnit);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Returns the metrics of a shared executor
+   * 
+   * @param pSharedExecutorPool
+   *          shared pool
+   * @return executor metrics
+   */
+  public static ExecutorMetrics getMetrics(final SharedExecutorPool pSharedExecutorPool)
+  {
+    return getSharedExecutor(pSharedExecutorPool).getMetrics();
+  }
+
+  /**
+   * Returns the metrics of the thread pool executor of a given key
+   * 
+   * @param pObject
+   *          key
+   * @return executor metrics, or null if there is no executor for that key
+   */
+  public static ExecutorMetrics getMetrics(final Object pObject)
+  {
+    final CompletingThreadPoolExecutor lExecutor =
+                                                 getThreadPoolExecutor(pObject);
+    return lExecutor == null ? null : lExecutor.getMetrics();
+  }
+
+  /**
+   * Starts the periodic update of metrics variables, called when metrics
+   * variables are first requested.
+   */
+  static void startMetricsUpdates()
+  {
+    synchronized (cSharedExecutorMap)
+    {
+      if (sMetricsUpdater != null)
+        return;
+      sMetricsUpdater =
+                      new ScheduledThreadPoolExecutor(1,
+                                                      getThreadFactory("ExecutorMetrics",
+                                                                       Thread.MIN_PRIORITY));
+      sMetricsUpdater.scheduleAtFixedRate(ClearControlExecutors::updateMetrics,
+                                          cMetricsUpdatePeriodInMs,
+                                          cMetricsUpdatePeriodInMs,
+                                          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private static void updateMetrics()
+  {
+    try
+    {
+      expungeCollectedOwners();
+      synchronized (cSharedExecutorMap)
+      {
+        for (InstrumentedThreadPoolExecutor lExecutor : cSharedExecutorMap.values())
+          lExecutor.getMetrics().update();
+      }
+      for (CompletingThreadPoolExecutor lExecutor : cThreadPoolExecutorMap.values())
+        lExecutor.getMetrics().update();
+    }
+    catch (Throwable e)
+    {
+      // a failing update must not cancel the periodic task:
+      e.printStackTrace();
+    }
+  }
+
   private static String getThreadName(final Object pObject)
   {
     String lName = pObject.getClass().getSimpleName();
@@ -7,11 +7,11 @@ import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
-public class CompletingThreadPoolExecutor extends ThreadPoolExecutor
+public class CompletingThreadPoolExecutor extends
+                                          InstrumentedThreadPoolExecutor
 {
 
   private final BlockingQueue<Future<?>> mFutureQueue =
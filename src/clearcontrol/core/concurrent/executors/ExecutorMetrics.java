@@ -0,0 +1,233 @@
+package clearcontrol.core.concurrent.executors;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import clearcontrol.core.variable.Variable;
+
+/**
+ * Live metrics of a thread pool executor: number of active threads, pool size,
+ * queue depth, number of completed tasks, and task latency percentiles (from
+ * submission to completion) over the most recent tasks. Recording latencies is
+ * cheap; the metrics variables are only created when first requested, and are
+ * then refreshed periodically by {@link ClearControlExecutors}.
+ *
+ * @author royer
+ */
+public class ExecutorMetrics
+{
+  private static final int cLatencyWindowSize = 1024;
+
+  private final ThreadPoolExecutor mThreadPoolExecutor;
+  private volatile String mName = "Executor";
+
+  private final long[] mLatencies = new long[cLatencyWindowSize];
+  private long mNumberOfLatencies;
+
+  private volatile boolean mVariablesCreated;
+  private Variable<Integer> mActiveThreadsVariable;
+  private Variable<Integer> mPoolSizeVariable;
+  private Variable<Integer> mQueueDepthVariable;
+  private Variable<Long> mCompletedTasksVariable;
+  private Variable<Double> mLatencyMedianInMsVariable;
+  private Variable<Double> mLatency90PercentileInMsVariable;
+  private Variable<Double> mLatency99PercentileInMsVariable;
+
+  /**
+   * Instanciates metrics for a given executor
+   *
+   * @param pThreadPoolExecutor
+   *          thread pool executor
+   */
+  public ExecutorMetrics(ThreadPoolExecutor pThreadPoolExecutor)
+  {
+    mThreadPoolExecutor = pThreadPoolExecutor;
+  }
+
+  /**
+   * Returns the name used as prefix for the metrics variables
+   *
+   * @return name
+   */
+  public String getName()
+  {
+    return mName;
+  }
+
+  /**
+   * Sets the name used as prefix for the metrics variables, must be set before
+   * the variables are requested.
+   *
+   * @param pName
+   *          name
+   */
+  public void setName(String pName)
+  {
+    mName = pName;
+  }
+
+  /**
+   * Records the latency of a completed task
+   *
+   * @param pLatencyInNs
+   *          latency in nanoseconds
+   */
+  public void addLatency(long pLatencyInNs)
+  {
+    synchronized (mLatencies)
+    {
+      mLatencies[(int) (mNumberOfLatencies++ % cLatencyWindowSize)] =
+                                                                   pLatencyInNs;
+    }
+  }
+
+  /**
+   * Returns a latency percentile over the most recent tasks
+   *
+   * @param pPercentile
+   *          percentile within [0,100]
+   * @return latency in milliseconds, NaN if no task has completed yet
+   */
+  public double getLatencyPercentileInMs(double pPercentile)
+  {
+    final long[] lLatencies;
+    synchronized (mLatencies)
+    {
+      lLatencies = Arrays.copyOf(mLatencies,
+                                 (int) Math.min(mNumberOfLatencies,
+                                                cLatencyWindowSize));
+    }
+    if (lLatencies.length == 0)
+      return Double.NaN;
+
+    Arrays.sort(lLatencies);
+    final int lIndex =
+                     (int) Math.min(lLatencies.length - 1,
+                                    Math.floor(pPercentile / 100
+                                               * lLatencies.length));
+    return lLatencies[lIndex] * 1e-6;
+  }
+
+  /**
+   * Refreshes the metrics variables, does nothing if they have not been
+   * requested yet.
+   */
+  public void update()
+  {
+    if (!mVariablesCreated)
+      return;
+    ensureVariables();
+    mActiveThreadsVariable.set(mThreadPoolExecutor.getActiveCount());
+    mPoolSizeVariable.set(mThreadPoolExecutor.getPoolSize());
+    mQueueDepthVariable.set(mThreadPoolExecutor.getQueue().size());
+    mCompletedTasksVariable.set(mThreadPoolExecutor.getCompletedTaskCount());
+    mLatencyMedianInMsVariable.set(getLatencyPercentileInMs(50));
+    mLatency90PercentileInMsVariable.set(getLatencyPercentileInMs(90));
+    mLatency99PercentileInMsVariable.set(getLatencyPercentileInMs(99));
+  }
+
+  private synchronized void ensureVariables()
+  {
+    if (mActiveThreadsVariable != null)
+      return;
+    mActiveThreadsVariable = new Variable<>(mName + "ActiveThreads", 0);
+    mPoolSizeVariable = new Variable<>(mName + "PoolSize", 0);
+    mQueueDepthVariable = new Variable<>(mName + "QueueDepth", 0);
+    mCompletedTasksVariable = new Variable<>(mName + "CompletedTasks",
+                                             0L);
+    mLatencyMedianInMsVariable =
+                               new Variable<>(mName + "LatencyMedianInMs",
+                                              Double.NaN);
+    mLatency90PercentileInMsVariable =
+                                     new Variable<>(mName
+                                                    + "Latency90PercentileInMs",
+                                                    Double.NaN);
+    mLatency99PercentileInMsVariable =
+                                     new Variable<>(mName
+                                                    + "Latency99PercentileInMs",
+                                                    Double.NaN);
+    mVariablesCreated = true;
+    ClearControlExecutors.startMetricsUpdates();
+  }
+
+  /**
+   * Returns the variable holding the number of threads actively executing
+   * tasks
+   *
+   * @return active threads variable
+   */
+  public Variable<Integer> getActiveThreadsVariable()
+  {
+    ensureVariables();
+    return mActiveThreadsVariable;
+  }
+
+  /**
+   * Returns the variable holding the current number of threads in the pool
+   *
+   * @return pool size variable
+   */
+  public Variable<Integer> getPoolSizeVariable()
+  {
+    ensureVariables();
+    return mPoolSizeVariable;
+  }
+
+  /**
+   * Returns the variable holding the number of queued tasks
+   *
+   * @return queue depth variable
+   */
+  public Variable<Integer> getQueueDepthVariable()
+  {
+    ensureVariables();
+    return mQueueDepthVariable;
+  }
+
+  /**
+   * Returns the variable holding the number of completed tasks
+   *
+   * @return completed tasks variable
+   */
+  public Variable<Long> getCompletedTasksVariable()
+  {
+    ensureVariables();
+    return mCompletedTasksVariable;
+  }
+
+  /**
+   * Returns the variable holding the median task latency in milliseconds
+   *
+   * @return median latency variable
+   */
+  public Variable<Double> getLatencyMedianInMsVariable()
+  {
+    ensureVariables();
+    return mLatencyMedianInMsVariable;
+  }
+
+  /**
+   * Returns the variable holding the 90th percentile of the task latency in
+   * milliseconds
+   *
+   * @return 90th percentile latency variable
+   */
+  public Variable<Double> getLatency90PercentileInMsVariable()
+  {
+    ensureVariables();
+    return mLatency90PercentileInMsVariable;
+  }
+
+  /**
+   * Returns the variable holding the 99th percentile of the task latency in
+   * milliseconds
+   *
+   * @return 99th percentile latency variable
+   */
+  public Variable<Double> getLatency99PercentileInMsVariable()
+  {
+    ensureVariables();
+    return mLatency99PercentileInMsVariable;
+  }
+
+}
@@ -0,0 +1,114 @@
+package clearcontrol.core.concurrent.executors;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread pool executor that measures the latency (from submission to
+ * completion) of the tasks it executes, see {@link ExecutorMetrics}.
+ *
+ * @author royer
+ */
+public class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor
+{
+
+  private final ExecutorMetrics mExecutorMetrics =
+                                                 new ExecutorMetrics(this);
+
+  @SuppressWarnings("javadoc")
+  public InstrumentedThreadPoolExecutor(int pCorePoolSize,
+                                        int pMaximumPoolSize,
+                                        long pKeepAliveTime,
+                                        TimeUnit pUnit,
+                                        BlockingQueue<Runnable> pWorkQueue)
+  {
+    super(pCorePoolSize,
+          pMaximumPoolSize,
+          pKeepAliveTime,
+          pUnit,
+          pWorkQueue);
+  }
+
+  @SuppressWarnings("javadoc")
+  public InstrumentedThreadPoolExecutor(int pCorePoolSize,
+                                        int pMaximumPoolSize,
+                                        long pKeepAliveTime,
+                                        TimeUnit pUnit,
+                                        BlockingQueue<Runnable> pWorkQueue,
+                                        RejectedExecutionHandler pHandler)
+  {
+    super(pCorePoolSize,
+          pMaximumPoolSize,
+          pKeepAliveTime,
+          pUnit,
+          pWorkQueue,
+          pHandler);
+  }
+
+  @SuppressWarnings("javadoc")
+  public InstrumentedThreadPoolExecutor(int pCorePoolSize,
+                                        int pMaximumPoolSize,
+                                        long pKeepAliveTime,
+                                        TimeUnit pUnit,
+                                        BlockingQueue<Runnable> pWorkQueue,
+                                        ThreadFactory pThreadFactory,
+                                        RejectedExecutionHandler pHandler)
+  {
+    super(pCorePoolSize,
+          pMaximumPoolSize,
+          pKeepAliveTime,
+          pUnit,
+          pWorkQueue,
+          pThreadFactory,
+          pHandler);
+  }
+
+  @SuppressWarnings("javadoc")
+  public InstrumentedThreadPoolExecutor(int pCorePoolSize,
+                                        int pMaximumPoolSize,
+                                        long pKeepAliveTime,
+                                        TimeUnit pUnit,
+                                        BlockingQueue<Runnable> pWorkQueue,
+                                        ThreadFactory pThreadFactory)
+  {
+    super(pCorePoolSize,
+          pMaximumPoolSize,
+          pKeepAliveTime,
+          pUnit,
+          pWorkQueue,
+          pThreadFactory);
+  }
+
+  @Override
+  public void execute(Runnable pCommand)
+  {
+    if (pCommand == null)
+      throw new NullPointerException();
+    final long lSubmissionTimeInNs = System.nanoTime();
+    super.execute(() -> {
+      try
+      {
+        pCommand.run();
+      }
+      finally
+      {
+        mExecutorMetrics.addLatency(System.nanoTime()
+                                    - lSubmissionTimeInNs);
+      }
+    });
+  }
+
+  /**
+   * Returns the metrics of this executor
+   *
+   * @return executor metrics
+   */
+  public ExecutorMetrics getMetrics()
+  {
+    return mExecutorMetrics;
+  }
+
+}
@@ -0,0 +1,94 @@
+package clearcontrol.core.concurrent.executors;
+
+/**
+ * Named, bounded executor pools shared by the whole application, see
+ * {@link ClearControlExecutors#getSharedExecutor(SharedExecutorPool)}. When
+ * the queue of a pool is full the submitting thread runs the task itself,
+ * which throttles submitters; GUI feed pools instead drop their oldest queued
+ * task since only the latest updates matter for display.
+ *
+ * @author royer
+ */
+public enum SharedExecutorPool
+{
+ /**
+  * File and network input/output, data copies
+  */
+ IO(Thread.NORM_PRIORITY, 4, 256, false),
+
+ /**
+  * CPU bound computations, one thread per core
+  */
+ Compute(Thread.NORM_PRIORITY - 1,
+         Runtime.getRuntime().availableProcessors(),
+         64 * Runtime.getRuntime().availableProcessors(),
+         false),
+
+ /**
+  * Short, latency sensitive device control operations
+  */
+ DeviceControl(Thread.NORM_PRIORITY + 1, 4, 1024, false),
+
+ /**
+  * Fire-and-forget updates of the graphical user interface
+  */
+ GUIFeed(Thread.NORM_PRIORITY - 2, 2, 64, true);
+
+  private final int mPriority;
+  private final int mNumberOfThreads;
+  private final int mMaxQueueLength;
+  private final boolean mDropOldestWhenFull;
+
+  private SharedExecutorPool(int pPriority,
+                             int pNumberOfThreads,
+                             int pMaxQueueLength,
+                             boolean pDropOldestWhenFull)
+  {
+    mPriority = pPriority;
+    mNumberOfThreads = pNumberOfThreads;
+    mMaxQueueLength = pMaxQueueLength;
+    mDropOldestWhenFull = pDropOldestWhenFull;
+  }
+
+  /**
+   * Returns the thread priority
+   *
+   * @return thread priority
+   */
+  public int getPriority()
+  {
+    return mPriority;
+  }
+
+  /**
+   * Returns the default number of threads
+   *
+   * @return number of threads
+   */
+  public int getNumberOfThreads()
+  {
+    return mNumberOfThreads;
+  }
+
+  /**
+   * Returns the maximal queue length
+   *
+   * @return max queue length
+   */
+  public int getMaxQueueLength()
+  {
+    return mMaxQueueLength;
+  }
+
+  /**
+   * Returns true if the oldest queued task is dropped when the queue is full,
+   * false if the submitting thread runs the task
+   *
+   * @return true if dropping oldest tasks
+   */
+  public boolean isDropOldestWhenFull()
+  {
+    return mDropOldestWhenFull;
+  }
+
+}
@@ -2,8 +2,10 @@ package clearcontrol.core.concurrent.executors.test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -12,6 +14,11 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import clearcontrol.core.concurrent.executors.AsynchronousExecutorServiceAccess;
 import clearcontrol.core.concurrent.executors.AsynchronousSchedulerServiceAccess;
+import clearcontrol.core.concurrent.executors.ClearControlExecutors;
+import clearcontrol.core.concurrent.executors.CompletingThreadPoolExecutor;
+import clearcontrol.core.concurrent.executors.ExecutorMetrics;
+import clearcontrol.core.concurrent.executors.InstrumentedThreadPoolExecutor;
+import clearcontrol.core.concurrent.executors.SharedExecutorPool;
 import clearcontrol.core.concurrent.executors.WaitingScheduledFuture;
 import clearcontrol.core.concurrent.thread.ThreadUtils;
 
@@ -161,4 +168,54 @@ public class ExecutorServiceTests
 
   }
 
+  @Test
+  public void testOwnedExecutorShutdownWhenOwnerCollected() throws InterruptedException
+  {
+    Object lOwner = new Object();
+    final CompletingThreadPoolExecutor lExecutor =
+                                                 ClearControlExecutors.getOrCreateThreadPoolExecutor(lOwner,
+                                                                                                     Thread.NORM_PRIORITY,
+                                                                                                     1,
+                                                                                                     1,
+                                                                                                     10);
+    assertSame(lExecutor,
+               ClearControlExecutors.getThreadPoolExecutor(lOwner));
+
+    lOwner = null;
+    for (int i = 0; i < 100 && !lExecutor.isShutdown(); i++)
+    {
+      System.gc();
+      ThreadUtils.sleep(10, TimeUnit.MILLISECONDS);
+      ClearControlExecutors.expungeCollectedOwners();
+    }
+    assertTrue(lExecutor.isShutdown());
+  }
+
+  @Test
+  public void testSharedExecutorMetrics() throws InterruptedException,
+                                          ExecutionException
+  {
+    final InstrumentedThreadPoolExecutor lExecutor =
+                                                   ClearControlExecutors.getSharedExecutor(SharedExecutorPool.IO);
+    assertSame(lExecutor,
+               ClearControlExecutors.getSharedExecutor(SharedExecutorPool.IO));
+
+    final ArrayList<Future<?>> lFutureList = new ArrayList<>();
+    for (int i = 0; i < cNumberOfTasks; i++)
+      lFutureList.add(lExecutor.submit(() -> {
+        mCounter.incrementAndGet();
+      }));
+    for (final Future<?> lFuture : lFutureList)
+      lFuture.get();
+
+    final ExecutorMetrics lMetrics = lExecutor.getMetrics();
+    assertTrue(lMetrics.getLatencyPercentileInMs(50) >= 0);
+    assertTrue(lMetrics.getLatencyPercentileInMs(99) >= lMetrics.getLatencyPercentileInMs(50));
+
+    lMetrics.getCompletedTasksVariable();
+    lMetrics.update();
+    assertTrue(lMetrics.getCompletedTasksVariable().get() > 0);
+    assertTrue(lExecutor.getMaximumPoolSize() <= SharedExecutorPool.IO.getNumberOfThreads());
+  }
+
 }
@@ -1,7 +1,7 @@
 package clearcontrol.core.device.queue;
 
 import java.util.ArrayList;
-import java.util.Map.Entry;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
 
 import clearcontrol.core.variable.Variable;
@@ -10,14 +10,22 @@ import org.apache.commons.math3.analysis.UnivariateFunction;
 
 /**
  * The state of variables register to instances of this class can be recorded
- * into queues.
+ * into queues. Each registered variable gets a slot, and the states of a
+ * variable are stored in a column: a primitive array for numbers and booleans
+ * (no boxed object per state), a plain object array otherwise. Columns can be
+ * read and transformed in bulk, the boxed per-state accessors are kept for
+ * convenience.
  *
  * @author royer
  */
 public class VariableQueueBase implements QueueInterface, Cloneable
 {
-  private ConcurrentHashMap<Variable<?>, ArrayList<Object>> mVariablesToQueueListsMap =
-                                                                                      new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Variable<?>, Integer> mVariableToSlotMap =
+                                                                           new ConcurrentHashMap<>();
+  private final ArrayList<Variable<?>> mSlotVariableList =
+                                                         new ArrayList<>();
+  private volatile VariableQueueColumn[] mColumns =
+                                                  new VariableQueueColumn[0];
 
   private Object mLock = new Object();
 
@@ -41,15 +49,15 @@ public class VariableQueueBase implements QueueInterface, Cloneable
 
     synchronized (pVariableStateQueues.mLock)
     {
-      for (Entry<Variable<?>, ArrayList<Object>> lEntrySet : pVariableStateQueues.mVariablesToQueueListsMap.entrySet())
-      {
-        Variable<?> lVariable = lEntrySet.getKey();
-
-        ArrayList<Object> lQueueStatesList =
-                                           new ArrayList<>(lEntrySet.getValue());
-
-        mVariablesToQueueListsMap.put(lVariable, lQueueStatesList);
-      }
+      mVariableToSlotMap.putAll(pVariableStateQueues.mVariableToSlotMap);
+      mSlotVariableList.addAll(pVariableStateQueues.mSlotVariableList);
+      VariableQueueColumn[] lColumns =
+                                     pVariableStateQueues.mColumns;
+      VariableQueueColumn[] lColumnsCopy =
+                                         new VariableQueueColumn[lColumns.length];
+      for (int i = 0; i < lColumns.length; i++)
+        lColumnsCopy[i] = new VariableQueueColumn(lColumns[i]);
+      mColumns = lColumnsCopy;
     }
 
   }
@@ -75,7 +83,7 @@ public class VariableQueueBase implements QueueInterface, Cloneable
   }
 
   /**
-   * Register a variable.
+   * Register a variable. Registering a variable again empties its queue.
    * 
    * @param pVariable
    *          variable
@@ -84,11 +92,37 @@ public class VariableQueueBase implements QueueInterface, Cloneable
   {
     synchronized (mLock)
     {
-      ArrayList<Object> lPair = new ArrayList<Object>();
-      mVariablesToQueueListsMap.put(pVariable, lPair);
+      Integer lSlot = mVariableToSlotMap.get(pVariable);
+      if (lSlot != null)
+      {
+        mColumns[lSlot] = new VariableQueueColumn();
+        return;
+      }
+
+      VariableQueueColumn[] lColumns = Arrays.copyOf(mColumns,
+                                                     mColumns.length
+                                                               + 1);
+      lColumns[lColumns.length - 1] = new VariableQueueColumn();
+      mSlotVariableList.add(pVariable);
+      mVariableToSlotMap.put(pVariable, lColumns.length - 1);
+      mColumns = lColumns;
     }
   }
 
+  /**
+   * Returns the slot of a registered variable, slots are attributed in order
+   * of registration.
+   * 
+   * @param pVariable
+   *          variable
+   * @return slot index, or -1 if the variable is not registered
+   */
+  public int getVariableSlot(Variable<?> pVariable)
+  {
+    Integer lSlot = mVariableToSlotMap.get(pVariable);
+    return lSlot == null ? -1 : lSlot;
+  }
+
   /**
    * Returns the boolean value of a given variable at a given position of the
    * queue.
@@ -103,10 +137,7 @@ public class VariableQueueBase implements QueueInterface, Cloneable
                                        int pQueuePositionIndex)
 
   {
-    Boolean lValue =
-                   (Boolean) mVariablesToQueueListsMap.get(pVariable)
-                                                      .get(pQueuePositionIndex);
-    return lValue;
+    return getColumn(pVariable).getBoolean(pQueuePositionIndex);
   }
 
   /**
@@ -122,10 +153,7 @@ public class VariableQueueBase implements QueueInterface, Cloneable
                                int pQueuePositionIndex)
 
   {
-    Number lValue =
-                  (Number) mVariablesToQueueListsMap.get(pVariable)
-                                                    .get(pQueuePositionIndex);
-    return lValue;
+    return (Number) getColumn(pVariable).get(pQueuePositionIndex);
   }
 
   /**
@@ -145,9 +173,46 @@ public class VariableQueueBase implements QueueInterface, Cloneable
                                int pQueuePositionIndex)
 
   {
-    Number lValue = getQueuedValue(pVariable, pQueuePositionIndex);
-    Number lTransformedValue = pFunction.value(lValue.doubleValue());
-    return lTransformedValue;
+    return getQueuedDoubleValue(pFunction,
+                                pVariable,
+                                pQueuePositionIndex);
+  }
+
+  /**
+   * Returns the value of a given numeric variable at a given position of the
+   * queue, without boxing.
+   * 
+   * @param pVariable
+   *          variable
+   * @param pQueuePositionIndex
+   *          position in queue
+   * @return value
+   */
+  public double getQueuedDoubleValue(Variable<? extends Number> pVariable,
+                                     int pQueuePositionIndex)
+  {
+    return getColumn(pVariable).getDouble(pQueuePositionIndex);
+  }
+
+  /**
+   * Returns the value of a given numeric variable at a given position of the
+   * queue after transforming with a given univariate function, without
+   * boxing.
+   * 
+   * @param pFunction
+   *          univariate function
+   * @param pVariable
+   *          variable
+   * @param pQueuePositionIndex
+   *          position in queue
+   * @return transformed value
+   */
+  public double getQueuedDoubleValue(UnivariateFunction pFunction,
+                                     Variable<? extends Number> pVariable,
+                                     int pQueuePositionIndex)
+  {
+    return pFunction.value(getQueuedDoubleValue(pVariable,
+                                                pQueuePositionIndex));
   }
 
   /**
@@ -161,9 +226,15 @@ public class VariableQueueBase implements QueueInterface, Cloneable
    */
   public <T> ArrayList<T> getVariableQueue(Variable<T> pVariable)
   {
-    @SuppressWarnings("unchecked")
-    ArrayList<T> lArrayList =
-                            (ArrayList<T>) new ArrayList<>(mVariablesToQueueListsMap.get(pVariable));
+    VariableQueueColumn lColumn = getColumn(pVariable);
+    int lLength = lColumn.size();
+    ArrayList<T> lArrayList = new ArrayList<>(lLength);
+    for (int i = 0; i < lLength; i++)
+    {
+      @SuppressWarnings("unchecked")
+      T lValue = (T) lColumn.get(i);
+      lArrayList.add(lValue);
+    }
     return lArrayList;
   }
 
@@ -182,26 +253,107 @@ public class VariableQueueBase implements QueueInterface, Cloneable
   public ArrayList<Number> getVariableQueue(UnivariateFunction pFunction,
                                             Variable<Number> pValueVariable)
   {
-    ArrayList<Number> lTransformedValueList = new ArrayList<Number>();
+    double[] lTransformedValues = transformColumn(pFunction,
+                                                  pValueVariable,
+                                                  null);
+
+    ArrayList<Number> lTransformedValueList =
+                                            new ArrayList<Number>(lTransformedValues.length);
+    for (double lTransformedValue : lTransformedValues)
+      lTransformedValueList.add(lTransformedValue);
+
+    return lTransformedValueList;
+  }
+
+  /**
+   * Copies the states of a given numeric variable into an array.
+   * 
+   * @param pVariable
+   *          variable
+   * @param pOut
+   *          array to write to, a new array is allocated if null or shorter
+   *          than the queue
+   * @return array holding the states in its first queue-length entries
+   */
+  public double[] getDoubleColumn(Variable<? extends Number> pVariable,
+                                  double[] pOut)
+  {
+    VariableQueueColumn lColumn = getNumericColumn(pVariable);
+    double[] lOut = ensureLength(pOut, lColumn.size());
+    lColumn.copyTo(lOut);
+    return lOut;
+  }
 
-    ArrayList<Object> lStateList =
-                                 mVariablesToQueueListsMap.get(pValueVariable);
+  /**
+   * Copies the states of a given boolean variable into an array.
+   * 
+   * @param pVariable
+   *          variable
+   * @param pOut
+   *          array to write to, a new array is allocated if null or shorter
+   *          than the queue
+   * @return array holding the states in its first queue-length entries
+   */
+  public boolean[] getBooleanColumn(Variable<Boolean> pVariable,
+                                    boolean[] pOut)
+  {
+    VariableQueueColumn lColumn = getColumn(pVariable);
+    boolean[] lOut = pOut;
+    if (lOut == null || lOut.length < lColumn.size())
+      lOut = new boolean[lColumn.size()];
+    lColumn.copyTo(lOut);
+    return lOut;
+  }
 
-    if (lStateList.size() == 0)
-      return lTransformedValueList;
+  /**
+   * Transforms the states of a given numeric variable with a univariate
+   * function, in bulk.
+   * 
+   * @param pFunction
+   *          function to apply to each enqueued state value
+   * @param pVariable
+   *          variable
+   * @param pOut
+   *          array to write to, a new array is allocated if null or shorter
+   *          than the queue
+   * @return array holding the transformed states in its first queue-length
+   *         entries
+   */
+  public double[] transformColumn(UnivariateFunction pFunction,
+                                  Variable<? extends Number> pVariable,
+                                  double[] pOut)
+  {
+    VariableQueueColumn lColumn = getNumericColumn(pVariable);
+    int lLength = lColumn.size();
+    double[] lOut = ensureLength(pOut, lLength);
+    lColumn.copyTo(lOut);
+    for (int i = 0; i < lLength; i++)
+      lOut[i] = pFunction.value(lOut[i]);
+    return lOut;
+  }
 
-    if (!(lStateList.get(0) instanceof Number))
-      throw new IllegalArgumentException("Should be a variable of type Number");
+  private VariableQueueColumn getColumn(Variable<?> pVariable)
+  {
+    Integer lSlot = mVariableToSlotMap.get(pVariable);
+    if (lSlot == null)
+      throw new IllegalArgumentException("Variable not registered: "
+                                         + pVariable);
+    return mColumns[lSlot];
+  }
 
-    for (Object lObject : lStateList)
-    {
-      Number lNumber = (Number) lObject;
-      double lTransformedValue =
-                               pFunction.value(lNumber.doubleValue());
-      lTransformedValueList.add(lTransformedValue);
-    }
+  private VariableQueueColumn getNumericColumn(Variable<?> pVariable)
+  {
+    VariableQueueColumn lColumn = getColumn(pVariable);
+    if (!lColumn.isNumeric())
+      throw new IllegalArgumentException("Should be a variable of type Number");
+    return lColumn;
+  }
 
-    return lTransformedValueList;
+  private static double[] ensureLength(double[] pArray, int pLength)
+  {
+    if (pArray == null || pArray.length < pLength)
+      return new double[pLength];
+    return pArray;
   }
 
   @Override
@@ -209,9 +361,9 @@ public class VariableQueueBase implements QueueInterface, Cloneable
   {
     synchronized (mLock)
     {
-      for (ArrayList<Object> lStateList : mVariablesToQueueListsMap.values())
+      for (VariableQueueColumn lColumn : mColumns)
       {
-        lStateList.clear();
+        lColumn.clear();
       }
     }
   }
@@ -221,14 +373,11 @@ public class VariableQueueBase implements QueueInterface, Cloneable
   {
     synchronized (mLock)
     {
-      for (Entry<Variable<?>, ArrayList<Object>> lEntrySet : mVariablesToQueueListsMap.entrySet())
+      VariableQueueColumn[] lColumns = mColumns;
+      for (int i = 0; i < lColumns.length; i++)
       {
-        Variable<?> lVariable = lEntrySet.getKey();
-        Object lCurrentValue = lVariable.get();
-
-        ArrayList<Object> lStateList = lEntrySet.getValue();
-
-        lStateList.add(lCurrentValue);
+        Object lCurrentValue = mSlotVariableList.get(i).get();
+        lColumns[i].add(lCurrentValue);
       }
     }
   }
@@ -244,10 +393,7 @@ public class VariableQueueBase implements QueueInterface, Cloneable
   {
     synchronized (mLock)
     {
-      return mVariablesToQueueListsMap.values()
-                                      .iterator()
-                                      .next()
-                                      .size();
+      return mColumns[0].size();
     }
   }
 
@@ -0,0 +1,325 @@
+package clearcontrol.core.device.queue;
+
+import java.util.Arrays;
+
+/**
+ * Queue of the states of one variable, stored in a primitive array when all
+ * states are boxed numbers or booleans of the same class, and as plain objects
+ * otherwise. Boxed values handed out are reboxed to the class they were
+ * enqueued with.
+ *
+ * @author royer
+ */
+class VariableQueueColumn
+{
+  private enum Kind
+  {
+   Unset, Floating, Integral, Logical, Reference
+  }
+
+  private static final int cInitialCapacity = 16;
+
+  private Kind mKind = Kind.Unset;
+  private Class<?> mBoxClass;
+  private double[] mFloatingValues;
+  private long[] mIntegralValues;
+  private boolean[] mLogicalValues;
+  private Object[] mReferenceValues;
+  private int mLength;
+
+  /**
+   * Instantiates an empty column
+   */
+  VariableQueueColumn()
+  {
+    super();
+  }
+
+  /**
+   * Instantiates a copy of a given column
+   *
+   * @param pColumn
+   *          column to copy
+   */
+  VariableQueueColumn(VariableQueueColumn pColumn)
+  {
+    super();
+    mKind = pColumn.mKind;
+    mBoxClass = pColumn.mBoxClass;
+    mLength = pColumn.mLength;
+    if (pColumn.mFloatingValues != null)
+      mFloatingValues = Arrays.copyOf(pColumn.mFloatingValues, mLength);
+    if (pColumn.mIntegralValues != null)
+      mIntegralValues = Arrays.copyOf(pColumn.mIntegralValues, mLength);
+    if (pColumn.mLogicalValues != null)
+      mLogicalValues = Arrays.copyOf(pColumn.mLogicalValues, mLength);
+    if (pColumn.mReferenceValues != null)
+      mReferenceValues = Arrays.copyOf(pColumn.mReferenceValues,
+                                       mLength);
+  }
+
+  /**
+   * Returns the number of enqueued states
+   *
+   * @return number of states
+   */
+  int size()
+  {
+    return mLength;
+  }
+
+  /**
+   * Removes all states, the storage is kept for reuse.
+   */
+  void clear()
+  {
+    if (mReferenceValues != null)
+      Arrays.fill(mReferenceValues, 0, mLength, null);
+    mLength = 0;
+  }
+
+  /**
+   * Returns true if all states are numbers
+   *
+   * @return true if numeric
+   */
+  boolean isNumeric()
+  {
+    switch (mKind)
+    {
+    case Floating:
+    case Integral:
+      return true;
+    case Reference:
+      for (int i = 0; i < mLength; i++)
+        if (!(mReferenceValues[i] instanceof Number))
+          return false;
+      return true;
+    default:
+      return mLength == 0;
+    }
+  }
+
+  /**
+   * Appends a state
+   *
+   * @param pValue
+   *          state value
+   */
+  void add(Object pValue)
+  {
+    if (mLength == 0)
+      setKindFor(pValue);
+    else if (mKind != Kind.Reference && !accepts(pValue))
+      convertToReferences();
+
+    switch (mKind)
+    {
+    case Floating:
+      mFloatingValues = ensureCapacity(mFloatingValues);
+      mFloatingValues[mLength] = ((Number) pValue).doubleValue();
+      break;
+    case Integral:
+      mIntegralValues = ensureCapacity(mIntegralValues);
+      mIntegralValues[mLength] = ((Number) pValue).longValue();
+      break;
+    case Logical:
+      mLogicalValues = ensureCapacity(mLogicalValues);
+      mLogicalValues[mLength] = (Boolean) pValue;
+      break;
+    default:
+      mReferenceValues = ensureCapacity(mReferenceValues);
+      mReferenceValues[mLength] = pValue;
+    }
+    mLength++;
+  }
+
+  /**
+   * Returns the state at a given position, boxed as it was enqueued
+   *
+   * @param pIndex
+   *          position in queue
+   * @return state value
+   */
+  Object get(int pIndex)
+  {
+    checkIndex(pIndex);
+    switch (mKind)
+    {
+    case Floating:
+      if (mBoxClass == Float.class)
+        return (float) mFloatingValues[pIndex];
+      return mFloatingValues[pIndex];
+    case Integral:
+      final long lValue = mIntegralValues[pIndex];
+      if (mBoxClass == Integer.class)
+        return (int) lValue;
+      if (mBoxClass == Short.class)
+        return (short) lValue;
+      if (mBoxClass == Byte.class)
+        return (byte) lValue;
+      return lValue;
+    case Logical:
+      return mLogicalValues[pIndex];
+    default:
+      return mReferenceValues[pIndex];
+    }
+  }
+
+  /**
+   * Returns the numeric state at a given position as a double
+   *
+   * @param pIndex
+   *          position in queue
+   * @return state value
+   */
+  double getDouble(int pIndex)
+  {
+    checkIndex(pIndex);
+    switch (mKind)
+    {
+    case Floating:
+      return mFloatingValues[pIndex];
+    case Integral:
+      return mIntegralValues[pIndex];
+    default:
+      return ((Number) get(pIndex)).doubleValue();
+    }
+  }
+
+  /**
+   * Returns the boolean state at a given position
+   *
+   * @param pIndex
+   *          position in queue
+   * @return state value
+   */
+  boolean getBoolean(int pIndex)
+  {
+    checkIndex(pIndex);
+    if (mKind == Kind.Logical)
+      return mLogicalValues[pIndex];
+    return (Boolean) get(pIndex);
+  }
+
+  /**
+   * Copies all numeric states as doubles into a given array
+   *
+   * @param pOut
+   *          array of length at least the number of states
+   */
+  void copyTo(double[] pOut)
+  {
+    switch (mKind)
+    {
+    case Floating:
+      System.arraycopy(mFloatingValues, 0, pOut, 0, mLength);
+      break;
+    case Integral:
+      for (int i = 0; i < mLength; i++)
+        pOut[i] = mIntegralValues[i];
+      break;
+    default:
+      for (int i = 0; i < mLength; i++)
+        pOut[i] = getDouble(i);
+    }
+  }
+
+  /**
+   * Copies all boolean states into a given array
+   *
+   * @param pOut
+   *          array of length at least the number of states
+   */
+  void copyTo(boolean[] pOut)
+  {
+    if (mKind == Kind.Logical)
+      System.arraycopy(mLogicalValues, 0, pOut, 0, mLength);
+    else
+      for (int i = 0; i < mLength; i++)
+        pOut[i] = getBoolean(i);
+  }
+
+  private void setKindFor(Object pValue)
+  {
+    mBoxClass = pValue == null ? null : pValue.getClass();
+    if (pValue instanceof Double || pValue instanceof Float)
+      mKind = Kind.Floating;
+    else if (pValue instanceof Long || pValue instanceof Integer
+             || pValue instanceof Short
+             || pValue instanceof Byte)
+      mKind = Kind.Integral;
+    else if (pValue instanceof Boolean)
+      mKind = Kind.Logical;
+    else
+      mKind = Kind.Reference;
+  }
+
+  private boolean accepts(Object pValue)
+  {
+    return pValue != null && pValue.getClass() == mBoxClass;
+  }
+
+  private void convertToReferences()
+  {
+    final Object[] lReferenceValues =
+                                    new Object[Math.max(cInitialCapacity,
+                                                        2 * mLength)];
+    for (int i = 0; i < mLength; i++)
+      lReferenceValues[i] = get(i);
+    mReferenceValues = lReferenceValues;
+    mFloatingValues = null;
+    mIntegralValues = null;
+    mLogicalValues = null;
+    mKind = Kind.Reference;
+  }
+
+  private void checkIndex(int pIndex)
+  {
+    if (pIndex < 0 || pIndex >= mLength)
+      throw new IndexOutOfBoundsException("Index: " + pIndex
+                                          + ", Size: "
+                                          + mLength);
+  }
+
+  private double[] ensureCapacity(double[] pArray)
+  {
+    if (pArray == null)
+      return new double[cInitialCapacity];
+    if (mLength < pArray.length)
+      return pArray;
+    return Arrays.copyOf(pArray,
+                         Math.max(cInitialCapacity, 2 * pArray.length));
+  }
+
+  private long[] ensureCapacity(long[] pArray)
+  {
+    if (pArray == null)
+      return new long[cInitialCapacity];
+    if (mLength < pArray.length)
+      return pArray;
+    return Arrays.copyOf(pArray,
+                         Math.max(cInitialCapacity, 2 * pArray.length));
+  }
+
+  private boolean[] ensureCapacity(boolean[] pArray)
+  {
+    if (pArray == null)
+      return new boolean[cInitialCapacity];
+    if (mLength < pArray.length)
+      return pArray;
+    return Arrays.copyOf(pArray,
+                         Math.max(cInitialCapacity, 2 * pArray.length));
+  }
+
+  private Object[] ensureCapacity(Object[] pArray)
+  {
+    if (pArray == null)
+      return new Object[cInitialCapacity];
+    if (mLength < pArray.length)
+      return pArray;
+    return Arrays.copyOf(pArray,
+                         Math.max(cInitialCapacity, 2 * pArray.length));
+  }
+
+}
@@ -51,4 +51,82 @@ public class VariableStateQueuesTests
 
   }
 
+  /**
+   * Tests typed columns and bulk accessors
+   */
+  @Test
+  public void testColumns()
+  {
+    VariableQueueBase lVariableStateQueues = new VariableQueueBase();
+
+    Variable<Number> lDoubleVariable =
+                                     new Variable<Number>("DoubleVariable",
+                                                          0.0);
+    Variable<Long> lLongVariable = new Variable<Long>("LongVariable",
+                                                      0L);
+    Variable<Boolean> lBooleanVariable =
+                                       new Variable<Boolean>("BooleanVariable",
+                                                             false);
+    Variable<Number> lMixedVariable =
+                                    new Variable<Number>("MixedVariable",
+                                                         0);
+    Variable<String> lStringVariable =
+                                     new Variable<String>("StringVariable",
+                                                          "");
+
+    lVariableStateQueues.registerVariables(lDoubleVariable,
+                                           lLongVariable,
+                                           lBooleanVariable,
+                                           lMixedVariable,
+                                           lStringVariable);
+    assertEquals(2, lVariableStateQueues.getVariableSlot(lBooleanVariable));
+
+    for (int i = 0; i < 100; i++)
+    {
+      lDoubleVariable.set(i * 0.5);
+      lLongVariable.set((long) i);
+      lBooleanVariable.set(i % 3 == 0);
+      if (i % 2 == 0)
+        lMixedVariable.set(i);
+      else
+        lMixedVariable.set(i + 0.25);
+      lStringVariable.set("s" + i);
+      lVariableStateQueues.addCurrentStateToQueue();
+    }
+
+    VariableQueueBase lCopy = lVariableStateQueues.clone();
+    lVariableStateQueues.clearQueue();
+    assertEquals(0, lVariableStateQueues.getQueueLength());
+    assertEquals(100, lCopy.getQueueLength());
+
+    double[] lTransformed = lCopy.transformColumn(x -> 2 * x + 1,
+                                                  lDoubleVariable,
+                                                  new double[200]);
+    double[] lMixed = lCopy.getDoubleColumn(lMixedVariable, null);
+    boolean[] lBooleans = lCopy.getBooleanColumn(lBooleanVariable,
+                                                 null);
+    ArrayList<Long> lLongs = lCopy.getVariableQueue(lLongVariable);
+    ArrayList<Number> lMixedNumbers =
+                                    lCopy.getVariableQueue(lMixedVariable);
+    ArrayList<String> lStrings = lCopy.getVariableQueue(lStringVariable);
+    assertEquals(100, lMixed.length);
+
+    for (int i = 0; i < 100; i++)
+    {
+      assertEquals(2 * i * 0.5 + 1, lTransformed[i], 0);
+      assertEquals(i * 0.5, lCopy.getQueuedDoubleValue(lDoubleVariable, i), 0);
+      assertEquals(i * 0.5,
+                   lCopy.getQueuedValue(lDoubleVariable, i).doubleValue(),
+                   0);
+      assertEquals(Long.valueOf(i), lLongs.get(i));
+      assertEquals(i % 3 == 0, lBooleans[i]);
+      assertEquals(i % 3 == 0,
+                   lCopy.getQueuedBooleanValue(lBooleanVariable, i));
+      assertEquals(i % 2 == 0 ? i : i + 0.25, lMixed[i], 0);
+      assertEquals(i % 2 == 0 ? Integer.class : Double.class,
+                   lMixedNumbers.get(i).getClass());
+      assertEquals("s" + i, lStrings.get(i));
+    }
+  }
+
 }
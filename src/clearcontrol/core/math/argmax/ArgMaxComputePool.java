@@ -0,0 +1,254 @@
+package clearcontrol.core.math.argmax;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+import clearcontrol.core.concurrent.executors.ClearControlExecutors;
+import clearcontrol.core.concurrent.executors.InstrumentedThreadPoolExecutor;
+
+/**
+ * Bounded compute pool for the argmax and fit probability subsystem. The pool
+ * has its own threads, so that resizing or shutting it down does not affect
+ * the rest of the application. It has a fixed number of threads and a bounded
+ * queue; when the queue is full (or the pool has been shut down) tasks are run
+ * by the submitting thread, which throttles submitters instead of failing. The
+ * pool is created on first use and can be shut down explicitly, it is then
+ * recreated on the next use.
+ *
+ * Parallel loops should use {@link #parallelFor}: the calling thread takes
+ * part in the loop, and only waits for iterations that are actually running.
+ * This makes nested parallel loops (e.g. an ensemble of methods evaluated for
+ * each curve of a batch) safe with a bounded number of threads.
+ *
+ * @author royer
+ */
+public final class ArgMaxComputePool
+{
+  private static final int cQueueLengthPerThread = 64;
+
+  private static final Object cLock = new Object();
+  private static int sNumberOfThreads =
+                                      Runtime.getRuntime()
+                                             .availableProcessors();
+  private static InstrumentedThreadPoolExecutor sExecutor;
+
+  private ArgMaxComputePool()
+  {
+  }
+
+  /**
+   * Returns the executor service of the compute pool, creates it if needed
+   *
+   * @return executor service
+   */
+  public static ExecutorService getExecutorService()
+  {
+    synchronized (cLock)
+    {
+      if (sExecutor == null || sExecutor.isShutdown())
+      {
+        final ThreadFactory lThreadFactory =
+                                           ClearControlExecutors.getThreadFactory("ArgMaxComputePool",
+                                                                                  Thread.NORM_PRIORITY
+                                                                                                       - 1);
+        sExecutor =
+                  new InstrumentedThreadPoolExecutor(sNumberOfThreads,
+                                                     sNumberOfThreads,
+                                                     1,
+                                                     TimeUnit.MINUTES,
+                                                     new LinkedBlockingQueue<>(cQueueLengthPerThread
+                                                                               * sNumberOfThreads),
+                                                     lThreadFactory,
+                                                     // unlike CallerRunsPolicy,
+                                                     // tasks rejected after a
+                                                     // shutdown also run, so no
+                                                     // caller waits forever:
+                                                     (r, e) -> r.run());
+        sExecutor.allowCoreThreadTimeOut(true);
+        sExecutor.getMetrics().setName("ArgMaxComputePool");
+      }
+      return sExecutor;
+    }
+  }
+
+  /**
+   * Runs a parallel loop on the shared compute pool, see
+   * {@link #parallelFor(ExecutorService, int, int, IntConsumer, long, TimeUnit)}
+   *
+   * @param pCount
+   *          number of iterations
+   * @param pBody
+   *          loop body, receives the iteration index
+   * @param pTimeOut
+   *          time out
+   * @param pTimeUnit
+   *          time unit
+   * @return true if all iterations completed before the time out
+   */
+  public static boolean parallelFor(int pCount,
+                                    IntConsumer pBody,
+                                    long pTimeOut,
+                                    TimeUnit pTimeUnit)
+  {
+    return parallelFor(getExecutorService(),
+                       getNumberOfThreads(),
+                       pCount,
+                       pBody,
+                       pTimeOut,
+                       pTimeUnit);
+  }
+
+  /**
+   * Runs a parallel loop: iterations are claimed one after the other by the
+   * calling thread and by up to pNumberOfWorkers-1 helper tasks submitted to
+   * the given executor. The calling thread never waits for an iteration that
+   * has not started, so the loop completes even if no pool thread is free.
+   * No iteration is started after the time out, by the calling thread or by
+   * the helpers: the calling thread returns once the iteration it is running
+   * completes, iterations that were not started are skipped. Exceptions
+   * thrown by the loop body are printed and do not stop the loop.
+   *
+   * @param pExecutorService
+   *          executor service running the helper tasks
+   * @param pNumberOfWorkers
+   *          maximal number of threads (including the calling thread)
+   * @param pCount
+   *          number of iterations
+   * @param pBody
+   *          loop body, receives the iteration index
+   * @param pTimeOut
+   *          time out
+   * @param pTimeUnit
+   *          time unit
+   * @return true if all iterations completed before the time out
+   */
+  public static boolean parallelFor(ExecutorService pExecutorService,
+                                    int pNumberOfWorkers,
+                                    int pCount,
+                                    IntConsumer pBody,
+                                    long pTimeOut,
+                                    TimeUnit pTimeUnit)
+  {
+    final long lDeadlineInNs = System.nanoTime()
+                               + pTimeUnit.toNanos(pTimeOut);
+    final AtomicInteger lNextIndex = new AtomicInteger();
+    final CountDownLatch lIterationsDone = new CountDownLatch(pCount);
+    final Runnable lWorker = () -> {
+      int i;
+      while (System.nanoTime() - lDeadlineInNs < 0
+             && (i = lNextIndex.getAndIncrement()) < pCount)
+      {
+        try
+        {
+          pBody.accept(i);
+        }
+        catch (Throwable e)
+        {
+          e.printStackTrace();
+        }
+        finally
+        {
+          lIterationsDone.countDown();
+        }
+      }
+    };
+
+    final int lNumberOfHelpers = Math.min(pCount, pNumberOfWorkers) - 1;
+    for (int t = 0; t < lNumberOfHelpers; t++)
+      pExecutorService.execute(lWorker);
+    lWorker.run();
+
+    try
+    {
+      return lIterationsDone.await(lDeadlineInNs - System.nanoTime(),
+                                   TimeUnit.NANOSECONDS);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Returns the number of threads of the compute pool
+   *
+   * @return number of threads
+   */
+  public static int getNumberOfThreads()
+  {
+    synchronized (cLock)
+    {
+      return sNumberOfThreads;
+    }
+  }
+
+  /**
+   * Sets the number of threads of the compute pool, applies immediately if the
+   * pool is running.
+   *
+   * @param pNumberOfThreads
+   *          number of threads
+   */
+  public static void setNumberOfThreads(int pNumberOfThreads)
+  {
+    synchronized (cLock)
+    {
+      final int lNumberOfThreads = Math.max(1, pNumberOfThreads);
+      if (sExecutor != null && !sExecutor.isShutdown())
+      {
+        // core and max sizes are changed in the order that keeps core <= max:
+        if (lNumberOfThreads > sNumberOfThreads)
+        {
+          sExecutor.setMaximumPoolSize(lNumberOfThreads);
+          sExecutor.setCorePoolSize(lNumberOfThreads);
+        }
+        else
+        {
+          sExecutor.setCorePoolSize(lNumberOfThreads);
+          sExecutor.setMaximumPoolSize(lNumberOfThreads);
+        }
+      }
+      sNumberOfThreads = lNumberOfThreads;
+    }
+  }
+
+  /**
+   * Shuts down the compute pool, tasks already submitted are completed. The
+   * pool is recreated on the next call to {@link #getExecutorService()}.
+   *
+   * @param pTimeOut
+   *          time out
+   * @param pTimeUnit
+   *          time unit
+   * @return true if all tasks completed before the time out
+   */
+  public static boolean shutdown(long pTimeOut, TimeUnit pTimeUnit)
+  {
+    final ExecutorService lExecutor;
+    synchronized (cLock)
+    {
+      lExecutor = sExecutor;
+      sExecutor = null;
+    }
+    if (lExecutor == null)
+      return true;
+
+    lExecutor.shutdown();
+    try
+    {
+      return lExecutor.awaitTermination(pTimeOut, pTimeUnit);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+}
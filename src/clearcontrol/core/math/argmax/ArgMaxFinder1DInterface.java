@@ -3,4 +3,50 @@ package clearcontrol.core.math.argmax;
 public interface ArgMaxFinder1DInterface
 {
   public Double argmax(double[] pX, double[] pY);
+
+  /**
+   * Finds the argmax of several curves sampled at the same positions. The
+   * curves are stored one after the other in a single flat array: curve i
+   * occupies pY[i*pX.length] to pY[(i+1)*pX.length-1]. The default
+   * implementation copies each curve into a scratch array reused for all
+   * curves and calls {@link #argmax(double[], double[])}; implementations
+   * override it to avoid copies and boxing, or to process curves in parallel.
+   *
+   * @param pX
+   *          positions
+   * @param pY
+   *          values of all curves, flat
+   * @param pNumberOfCurves
+   *          number of curves
+   * @param pArgMax
+   *          array receiving the argmax of each curve, NaN if there is none
+   * @param pFitProbabilities
+   *          array receiving the fit probability of each curve (NaN if not
+   *          available), can be null
+   */
+  public default void argmax(double[] pX,
+                             double[] pY,
+                             int pNumberOfCurves,
+                             double[] pArgMax,
+                             double[] pFitProbabilities)
+  {
+    final int lLength = pX.length;
+    final double[] lCurve = new double[lLength];
+    for (int i = 0; i < pNumberOfCurves; i++)
+    {
+      System.arraycopy(pY, i * lLength, lCurve, 0, lLength);
+      final Double lArgMax = argmax(pX, lCurve);
+      pArgMax[i] = lArgMax == null ? Double.NaN : lArgMax;
+
+      if (pFitProbabilities != null)
+      {
+        Double lFitProbability = null;
+        if (lArgMax != null && this instanceof FitProbabilityInterface)
+          lFitProbability =
+                          ((FitProbabilityInterface) this).getLastFitProbability();
+        pFitProbabilities[i] = lFitProbability == null ? Double.NaN
+                                                       : lFitProbability;
+      }
+    }
+  }
 }
@@ -1,5 +1,7 @@
 package clearcontrol.core.math.argmax;
 
+import java.util.concurrent.TimeUnit;
+
 import clearcontrol.core.math.argmax.fitprob.FitQualityEstimator;
 import clearcontrol.core.math.argmax.methods.COMArgMaxFinder;
 import clearcontrol.core.math.argmax.methods.ClampingArgMaxFinder;
@@ -25,6 +27,10 @@ public class SmartArgMaxFinder implements
 
   private static final double cDefaultFitProbabilityThreshold = 0.95;
 
+  // finders used by the batch argmax, one per thread since finders keep state:
+  private static final ThreadLocal<SmartArgMaxFinder> cBatchArgMaxFinder =
+                                                                         ThreadLocal.withInitial(SmartArgMaxFinder::new);
+
   private FitQualityEstimator mFitQualityEstimator;
 
   private final ParabolaFitArgMaxFinder mParabolaFitArgMaxFinder;
@@ -40,6 +46,20 @@ public class SmartArgMaxFinder implements
   private final MedianArgMaxFinder mMedianArgMaxFinder;
   private final DenoisingArgMaxFinder mDenoisingArgMaxFinder;
 
+  // ensembles are built once, their wrappers hold no state:
+  private final EnsembleArgMaxFinder mEnsembleArgMaxFinder;
+  private final EnsembleArgMaxFinder mDenoisingEnsembleArgMaxFinder;
+
+  // batch scratch space, reused from batch to batch:
+  private final FitQualityEstimator mBatchFitQualityEstimator =
+                                                             new FitQualityEstimator();
+  private double[] mBatchCurve = new double[0];
+  private final double[][] mBatchY = new double[][]
+  { new double[0], new double[0] };
+  private final int[][] mBatchIndices = new int[][]
+  { new int[0], new int[0] };
+  private double[] mBatchArgMax = new double[0];
+
   private boolean mDenoisingActive = true;
 
   private Double mFitProbability;
@@ -65,6 +85,38 @@ public class SmartArgMaxFinder implements
     mDenoisingArgMaxFinder =
                            new DenoisingArgMaxFinder(new ModeArgMaxFinder());
 
+    mEnsembleArgMaxFinder = createEnsemble(false);
+    mDenoisingEnsembleArgMaxFinder = createEnsemble(true);
+  }
+
+  private EnsembleArgMaxFinder createEnsemble(boolean pDenoiseBefore)
+  {
+    final EnsembleArgMaxFinder lEnsembleArgMaxFinder =
+                                                     new EnsembleArgMaxFinder();
+    lEnsembleArgMaxFinder.add(denoiseBefore(pDenoiseBefore,
+                                            mParabolaFitArgMaxFinder));
+    lEnsembleArgMaxFinder.add(denoiseBefore(pDenoiseBefore,
+                                            mSymetricParabolaFitArgMaxFinder));
+    lEnsembleArgMaxFinder.add(denoiseBefore(pDenoiseBefore,
+                                            mGaussianFitArgMaxFinder));
+    lEnsembleArgMaxFinder.add(denoiseBefore(pDenoiseBefore,
+                                            mQuarticFitArgMaxFinder));
+    lEnsembleArgMaxFinder.add(denoiseBefore(pDenoiseBefore,
+                                            mSplineFitArgMaxFinder));
+    /*lEnsembleArgMaxFinder.add(denoiseBefore(pDenoiseBefore,
+    																				mRandomSplineFitArgMaxFinder));/**/
+    lEnsembleArgMaxFinder.add(denoiseBefore(pDenoiseBefore,
+                                            mLoessFitArgMaxFinder));
+    lEnsembleArgMaxFinder.add(denoiseBefore(pDenoiseBefore,
+                                            mTop5ParabolaArgMaxFinder));
+    lEnsembleArgMaxFinder.add(denoiseBefore(pDenoiseBefore,
+                                            mCOMArgMaxFinder));
+    lEnsembleArgMaxFinder.add(denoiseBefore(pDenoiseBefore,
+                                            mModeArgMaxFinder));
+    lEnsembleArgMaxFinder.add(denoiseBefore(pDenoiseBefore,
+                                            mMedianArgMaxFinder));
+    lEnsembleArgMaxFinder.add(mDenoisingArgMaxFinder);
+    return lEnsembleArgMaxFinder;
   }
 
   @Override
@@ -87,34 +139,139 @@ public class SmartArgMaxFinder implements
     // return null;
 
     final EnsembleArgMaxFinder lEnsembleArgMaxFinder =
-                                                     new EnsembleArgMaxFinder();
-    lEnsembleArgMaxFinder.add(denoiseBefore(lDenoiseBefore,
-                                            mParabolaFitArgMaxFinder));
-    lEnsembleArgMaxFinder.add(denoiseBefore(lDenoiseBefore,
-                                            mSymetricParabolaFitArgMaxFinder));
-    lEnsembleArgMaxFinder.add(denoiseBefore(lDenoiseBefore,
-                                            mGaussianFitArgMaxFinder));
-    lEnsembleArgMaxFinder.add(denoiseBefore(lDenoiseBefore,
-                                            mQuarticFitArgMaxFinder));
-    lEnsembleArgMaxFinder.add(denoiseBefore(lDenoiseBefore,
-                                            mSplineFitArgMaxFinder));
-    /*lEnsembleArgMaxFinder.add(denoiseBefore(lDenoiseBefore,
-    																				mRandomSplineFitArgMaxFinder));/**/
-    lEnsembleArgMaxFinder.add(denoiseBefore(lDenoiseBefore,
-                                            mLoessFitArgMaxFinder));
-    lEnsembleArgMaxFinder.add(denoiseBefore(lDenoiseBefore,
-                                            mTop5ParabolaArgMaxFinder));
-    lEnsembleArgMaxFinder.add(denoiseBefore(lDenoiseBefore,
-                                            mCOMArgMaxFinder));
-    lEnsembleArgMaxFinder.add(denoiseBefore(lDenoiseBefore,
-                                            mModeArgMaxFinder));
-    lEnsembleArgMaxFinder.add(denoiseBefore(lDenoiseBefore,
-                                            mMedianArgMaxFinder));
-    lEnsembleArgMaxFinder.add(mDenoisingArgMaxFinder);
+                                                     lDenoiseBefore
+                                                     && mDenoisingActive ? mDenoisingEnsembleArgMaxFinder
+                                                                         : mEnsembleArgMaxFinder;
 
     return lEnsembleArgMaxFinder.argmax(pX, pY);
   }
 
+  /**
+   * Finds the argmax of several curves sampled at the same positions, see
+   * {@link #argmax(double[], double[], int, double[], double[])}.
+   * 
+   * @param pX
+   *          positions
+   * @param pY
+   *          one array of values per curve
+   * @param pFitProbabilities
+   *          array receiving the fit probability of each curve, can be null
+   * @return argmax of each curve, NaN if there is none
+   */
+  public double[] argmax(double[] pX,
+                         double[][] pY,
+                         double[] pFitProbabilities)
+  {
+    final int lLength = pX.length;
+    final double[] lY = new double[pY.length * lLength];
+    for (int i = 0; i < pY.length; i++)
+      System.arraycopy(pY[i], 0, lY, i * lLength, lLength);
+
+    final double[] lArgMaxArray = new double[pY.length];
+    argmax(pX, lY, pY.length, lArgMaxArray, pFitProbabilities);
+    return lArgMaxArray;
+  }
+
+  /**
+   * Batch argmax: curves are split in contiguous chunks processed in parallel
+   * on the shared argmax compute pool (curve-parallel), and within each chunk
+   * the ensemble evaluates its methods in parallel (method-parallel). Each
+   * thread uses its own finder and scratch buffers, which are reused from
+   * batch to batch. This does not change the last fit probability of this
+   * finder.
+   */
+  @Override
+  public void argmax(double[] pX,
+                     double[] pY,
+                     int pNumberOfCurves,
+                     double[] pArgMax,
+                     double[] pFitProbabilities)
+  {
+    final int lNumberOfChunks =
+                              Math.min(pNumberOfCurves,
+                                       ArgMaxComputePool.getNumberOfThreads());
+    final boolean lDenoisingActive = mDenoisingActive;
+    ArgMaxComputePool.parallelFor(lNumberOfChunks, (c) -> {
+      final SmartArgMaxFinder lSmartArgMaxFinder =
+                                                 cBatchArgMaxFinder.get();
+      lSmartArgMaxFinder.setDenoisingActive(lDenoisingActive);
+      lSmartArgMaxFinder.argmaxChunk(pX,
+                                     pY,
+                                     (int) ((long) c * pNumberOfCurves
+                                            / lNumberOfChunks),
+                                     (int) ((long) (c + 1)
+                                            * pNumberOfCurves
+                                            / lNumberOfChunks),
+                                     pArgMax,
+                                     pFitProbabilities);
+    }, Long.MAX_VALUE, TimeUnit.DAYS);
+  }
+
+  private void argmaxChunk(double[] pX,
+                           double[] pY,
+                           int pFrom,
+                           int pTo,
+                           double[] pArgMax,
+                           double[] pFitProbabilities)
+  {
+    final int lLength = pX.length;
+    final int lNumberOfCurves = pTo - pFrom;
+    if (mBatchCurve.length != lLength)
+      mBatchCurve = new double[lLength];
+    if (mBatchArgMax.length < lNumberOfCurves)
+    {
+      mBatchArgMax = new double[lNumberOfCurves];
+      for (int g = 0; g < 2; g++)
+        mBatchIndices[g] = new int[lNumberOfCurves];
+    }
+    for (int g = 0; g < 2; g++)
+      if (mBatchY[g].length < lNumberOfCurves * lLength)
+        mBatchY[g] = new double[lNumberOfCurves * lLength];
+
+    // curves with a good enough fit are grouped by whether they need
+    // denoising, each group then goes through its ensemble in one batch:
+    final int[] lGroupSize = new int[2];
+    for (int i = pFrom; i < pTo; i++)
+    {
+      pArgMax[i] = Double.NaN;
+      System.arraycopy(pY, i * lLength, mBatchCurve, 0, lLength);
+
+      final Double lFitProbability =
+                                   mBatchFitQualityEstimator.probability(pX,
+                                                                         mBatchCurve);
+      if (pFitProbabilities != null)
+        pFitProbabilities[i] = lFitProbability == null ? Double.NaN
+                                                       : lFitProbability;
+      if (lFitProbability == null)
+        continue;
+
+      final int g = countLocalMaxima(mBatchCurve) > 1
+                    && mDenoisingActive ? 1 : 0;
+      System.arraycopy(mBatchCurve,
+                       0,
+                       mBatchY[g],
+                       lGroupSize[g] * lLength,
+                       lLength);
+      mBatchIndices[g][lGroupSize[g]++] = i;
+    }
+
+    for (int g = 0; g < 2; g++)
+    {
+      if (lGroupSize[g] == 0)
+        continue;
+      final EnsembleArgMaxFinder lEnsembleArgMaxFinder =
+                                                       g == 1 ? mDenoisingEnsembleArgMaxFinder
+                                                              : mEnsembleArgMaxFinder;
+      lEnsembleArgMaxFinder.argmax(pX,
+                                   mBatchY[g],
+                                   lGroupSize[g],
+                                   mBatchArgMax,
+                                   null);
+      for (int j = 0; j < lGroupSize[g]; j++)
+        pArgMax[mBatchIndices[g][j]] = mBatchArgMax[j];
+    }
+  }
+
   @Override
   public double[] fit(double[] pX, double[] pY)
   {
@@ -10,16 +10,17 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.util.ArrayList;
-import java.util.concurrent.Callable;
+import java.util.Arrays;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import clearcontrol.core.math.argmax.ArgMaxComputePool;
 import gnu.trove.list.array.TDoubleArrayList;
 
 import org.apache.commons.math3.analysis.differentiation.UnivariateDifferentiableFunction;
@@ -30,94 +31,270 @@ import org.apache.commons.math3.stat.descriptive.moment.Variance;
 public class FitQualityEstimator
 {
   private static final int cMaxNumberOfRandomizedDatasets = 100000;
+  private static final long cTimeOutInMilliseconds = 60 * 1000;
+  // maximal distance between tabulated lengths to interpolate between them:
+  private static final int cMaxInterpolationGap = 4;
+  private static final double cDefaultMean = 0.25;
+  private static final double cDefaultStandardDeviation = 0.0625;
 
   private static final ConcurrentHashMap<Integer, NormalDistribution> sNullHypothesisDistribution =
                                                                                                   new ConcurrentHashMap<>();
+  // one lock per length, distributions of different lengths are computed
+  // concurrently:
+  private static final ConcurrentHashMap<Integer, Object> sLengthLocks =
+                                                                     new ConcurrentHashMap<>();
+  // guards loading and updating the tables:
+  private static final Object sTableLock = new Object();
 
   private static final int cBufferLength = 128 * 1024;
 
+  private static final String cUserTableFileName =
+                                                 "NullHypothesisTable.nht";
+  private static volatile boolean sTablesLoaded;
+  private static volatile NullHypothesisTable sUserTable;
+  private static volatile NullHypothesisTable sBundledTable;
+
   private final ExecutorService mExecutorService;
 
   private UnivariateDifferentiableFunction mUnivariateDifferentiableFunction;
 
   private Double mRealDataRMSD;
 
+  /**
+   * Instanciates a fit quality estimator that uses the shared argmax compute
+   * pool
+   */
   public FitQualityEstimator()
   {
-    this(Executors.newFixedThreadPool(Runtime.getRuntime()
-                                             .availableProcessors()));
+    this(null);
   }
 
+  /**
+   * Instanciates a fit quality estimator that uses a given executor service
+   * 
+   * @param pExecutorService
+   *          executor service, or null to use the shared argmax compute pool
+   */
   public FitQualityEstimator(ExecutorService pExecutorService)
   {
     mExecutorService = pExecutorService;
   }
 
+  /**
+   * Returns the null hypothesis distribution for a given curve length. The
+   * distribution is looked up, in this order: in memory, in the user's
+   * memory-mapped table (~/.stats), in the table bundled on the class path, in
+   * legacy per-length cache files, and interpolated between tabulated lengths
+   * that are close enough. Only if all fail is it computed (in parallel) and
+   * added to the user's table. Only callers asking for the same length wait
+   * for each other. Default parameters returned when nothing could be fitted
+   * in time are not kept, the next call computes again.
+   * 
+   * @param lLength
+   *          curve length
+   * @return null hypothesis distribution
+   */
   public NormalDistribution getNullHypothesisDistribution(int lLength)
   {
-    // System.out.println("getNullHypothesisDistribution...");
     NormalDistribution lNormalDistribution =
                                            sNullHypothesisDistribution.get(lLength);
-    if (lNormalDistribution == null)
+    if (lNormalDistribution != null)
+      return lNormalDistribution;
+
+    final Object lLengthLock =
+                             sLengthLocks.computeIfAbsent(lLength,
+                                                          (l) -> new Object());
+    synchronized (lLengthLock)
     {
-      final File lCacheFile = getFile(lLength);
-      if (!lCacheFile.exists())
+      lNormalDistribution = sNullHypothesisDistribution.get(lLength);
+      if (lNormalDistribution != null)
+        return lNormalDistribution;
+
+      loadTables();
+
+      double[] lMeanAndStandardDeviation = null;
+      for (final NullHypothesisTable lTable : new NullHypothesisTable[]
+      { sUserTable, sBundledTable })
+        if (lMeanAndStandardDeviation == null && lTable != null)
+          lMeanAndStandardDeviation = lTable.get(lLength);
+
+      if (lMeanAndStandardDeviation == null)
       {
-        lNormalDistribution =
-                            computeNullHypothesisDistribution(lLength);
-        sNullHypothesisDistribution.put(lLength, lNormalDistribution);
-        try
-        {
-          writeToFile(lNormalDistribution, lCacheFile);
-        }
-        catch (final Throwable e)
+        final NormalDistribution lLegacyDistribution =
+                                                     readLegacyCacheFile(lLength);
+        if (lLegacyDistribution != null)
         {
-          e.printStackTrace();
+          lMeanAndStandardDeviation = new double[]
+          { lLegacyDistribution.getMean(),
+            lLegacyDistribution.getStandardDeviation(),
+            cMaxNumberOfRandomizedDatasets };
+          addToUserTable(lLength, lMeanAndStandardDeviation);
         }
       }
-      else
+
+      for (final NullHypothesisTable lTable : new NullHypothesisTable[]
+      { sUserTable, sBundledTable })
+        if (lMeanAndStandardDeviation == null && lTable != null)
+          lMeanAndStandardDeviation =
+                                    lTable.interpolate(lLength,
+                                                       cMaxInterpolationGap);
+
+      boolean lFittedAny = true;
+      if (lMeanAndStandardDeviation == null)
       {
-        try
-        {
-          lNormalDistribution = readFromFile(lCacheFile);
-        }
-        catch (final ClassNotFoundException e)
-        {
-        }
-        catch (final Throwable e)
-        {
-          e.printStackTrace();
-        }
+        lMeanAndStandardDeviation =
+                                  computeNullHypothesisParameters(lLength);
+        if (isComplete(lMeanAndStandardDeviation))
+          addToUserTable(lLength, lMeanAndStandardDeviation);
+        lFittedAny = lMeanAndStandardDeviation[2] > 0;
       }
 
-      if (lNormalDistribution == null)
-      {
-        lNormalDistribution =
-                            computeNullHypothesisDistribution(lLength);
+      lNormalDistribution =
+                          new NormalDistribution(lMeanAndStandardDeviation[0],
+                                                 lMeanAndStandardDeviation[1]);
+      if (lFittedAny)
         sNullHypothesisDistribution.put(lLength, lNormalDistribution);
-        try
-        {
-          writeToFile(lNormalDistribution, lCacheFile);
-        }
-        catch (final Throwable e)
-        {
-          e.printStackTrace();
-        }
+    }
+    return lNormalDistribution;
+  }
+
+  /**
+   * Computes the null hypothesis distributions for all given lengths that are
+   * not yet in the user's table, and adds them to the table in a single update.
+   * 
+   * @param pLengths
+   *          curve lengths
+   */
+  public void precomputeNullHypothesisDistributions(int... pLengths)
+  {
+    loadTables();
+    final NullHypothesisTable lUserTable = sUserTable;
+    final TreeMap<Integer, double[]> lComputedEntries = new TreeMap<>();
+    for (final int lLength : pLengths)
+      if ((lUserTable == null || lUserTable.get(lLength) == null)
+          && !lComputedEntries.containsKey(lLength))
+      {
+        final double[] lMeanAndStandardDeviation =
+                                                 computeNullHypothesisParameters(lLength);
+        if (isComplete(lMeanAndStandardDeviation))
+          lComputedEntries.put(lLength, lMeanAndStandardDeviation);
       }
 
+    synchronized (sTableLock)
+    {
+      final TreeMap<Integer, double[]> lEntries =
+                                                sUserTable == null ? new TreeMap<>()
+                                                                   : sUserTable.getEntries();
+      lEntries.putAll(lComputedEntries);
+      writeUserTable(lEntries);
     }
-    // System.out.println("getNullHypothesisDistribution=" +
-    // lNormalDistribution);
-    return lNormalDistribution;
   }
 
-  private File getFile(int pLength)
+  /**
+   * Returns the user's null hypothesis table file
+   * 
+   * @return table file
+   */
+  public static File getUserTableFile()
+  {
+    return new File(getStatsFolder(), cUserTableFileName);
+  }
+
+  private static void loadTables()
+  {
+    if (sTablesLoaded)
+      return;
+    synchronized (sTableLock)
+    {
+      if (!sTablesLoaded)
+        readTables();
+      sTablesLoaded = true;
+    }
+  }
+
+  private static void readTables()
+  {
+    final File lUserTableFile = getUserTableFile();
+    if (lUserTableFile.exists())
+      try
+      {
+        sUserTable = NullHypothesisTable.open(lUserTableFile);
+      }
+      catch (final Throwable e)
+      {
+        // outdated or damaged tables are ignored and rewritten later:
+        e.printStackTrace();
+      }
+
+    try (InputStream lInputStream =
+                                  FitQualityEstimator.class.getResourceAsStream(cUserTableFileName))
+    {
+      if (lInputStream != null)
+        sBundledTable = NullHypothesisTable.read(lInputStream);
+    }
+    catch (final Throwable e)
+    {
+      e.printStackTrace();
+    }
+  }
+
+  private static void addToUserTable(int pLength,
+                                     double[] pMeanAndStandardDeviation)
+  {
+    synchronized (sTableLock)
+    {
+      final TreeMap<Integer, double[]> lEntries =
+                                                sUserTable == null ? new TreeMap<>()
+                                                                   : sUserTable.getEntries();
+      lEntries.put(pLength, pMeanAndStandardDeviation);
+      writeUserTable(lEntries);
+    }
+  }
+
+  private static void writeUserTable(TreeMap<Integer, double[]> pEntries)
+  {
+    final File lUserTableFile = getUserTableFile();
+    try
+    {
+      NullHypothesisTable.write(lUserTableFile, pEntries);
+      sUserTable = NullHypothesisTable.open(lUserTableFile);
+    }
+    catch (final Throwable e)
+    {
+      // e.g. on Windows a mapped file cannot be replaced, new entries are then
+      // only kept in memory for this session:
+      e.printStackTrace();
+    }
+  }
+
+  private NormalDistribution readLegacyCacheFile(int pLength)
+  {
+    final File lCacheFile = getFile(pLength);
+    if (!lCacheFile.exists())
+      return null;
+    try
+    {
+      return readFromFile(lCacheFile);
+    }
+    catch (final Throwable e)
+    {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  private static File getStatsFolder()
   {
     final File lUserHome = new File(System.getProperty("user.home"));
     final File lStatsFolder = new File(lUserHome, ".stats");
     if (!lStatsFolder.exists())
       lStatsFolder.mkdirs();
-    final File lFile = new File(lStatsFolder,
+    return lStatsFolder;
+  }
+
+  private File getFile(int pLength)
+  {
+    final File lFile = new File(getStatsFolder(),
                                 String.format("%s_l=%d.obj",
                                               this.getClass()
                                                   .getSimpleName(),
@@ -161,44 +338,79 @@ public class FitQualityEstimator
 
   public NormalDistribution computeNullHypothesisDistribution(int lLength)
   {
-    // System.out.println("computeNullHypothesisDistribution...");
+    final double[] lParameters = computeNullHypothesisParameters(lLength);
+    return new NormalDistribution(lParameters[0], lParameters[1]);
+  }
+
+  /**
+   * Computes the mean and standard deviation of the RMSD of Gaussian fits to
+   * random data of a given length. The computation is bounded in time (one
+   * minute overall): datasets not fitted before the time out are skipped, and
+   * typical default parameters are returned, with zero datasets, if less than
+   * two datasets could be fitted. After a time out the returned number of
+   * datasets is the number of fitted datasets, such results are not stored in
+   * the user's table.
+   * 
+   * @param lLength
+   *          curve length
+   * @return {mean, standard deviation, number of randomized datasets}
+   */
+  public double[] computeNullHypothesisParameters(int lLength)
+  {
     final int lNumberOfRandomizedDatasets =
                                           cMaxNumberOfRandomizedDatasets;
 
-    final ArrayList<FutureTask<Double>> lTaskList =
-                                                  new ArrayList<FutureTask<Double>>(lNumberOfRandomizedDatasets);
-
     final double[] lX = new double[lLength];
     for (int i = 0; i < lLength; i++)
       lX[i] = i;
 
-    for (int i = 0; i < lNumberOfRandomizedDatasets; i++)
-    {
-      final RandomizedDataGaussianFitter lRandomizedDataGaussianFitter =
-                                                                       new RandomizedDataGaussianFitter();
-      final Callable<Double> lCallable = () -> {
-        Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
-        return lRandomizedDataGaussianFitter.computeRMSDForRandomData(lX);
-      };
-      final FutureTask<Double> lFutureTask =
-                                           new FutureTask<Double>(lCallable);
-      mExecutorService.execute(lFutureTask);
-      lTaskList.add(lFutureTask);
-    }
+    // Datasets are processed in a few large chunks instead of one task per
+    // dataset:
+    final int lNumberOfWorkers = mExecutorService == null
+                                                          ? ArgMaxComputePool.getNumberOfThreads()
+                                                          : Runtime.getRuntime()
+                                                                   .availableProcessors();
+    final int lNumberOfChunks = 4 * lNumberOfWorkers;
+    final long lTimeOutInMilliseconds = cTimeOutInMilliseconds;
+    final long lDeadlineInNs = System.nanoTime()
+                               + TimeUnit.MILLISECONDS.toNanos(lTimeOutInMilliseconds);
+    final AtomicBoolean lTimedOut = new AtomicBoolean();
+    final double[] lRMSDs = new double[lNumberOfRandomizedDatasets];
+    Arrays.fill(lRMSDs, Double.NaN);
+    final boolean lCompleted =
+                             ArgMaxComputePool.parallelFor(getExecutorService(),
+                                                           lNumberOfWorkers,
+                                                           lNumberOfChunks,
+                                                           (c) -> fitRandomizedDatasets(lX,
+                                                                                        lRMSDs,
+                                                                                        c
+                                                                                          * lNumberOfRandomizedDatasets
+                                                                                          / lNumberOfChunks,
+                                                                                        (c + 1)
+                                                                                          * lNumberOfRandomizedDatasets
+                                                                                          / lNumberOfChunks,
+                                                                                        lDeadlineInNs,
+                                                                                        lTimedOut),
+                                                           lTimeOutInMilliseconds,
+                                                           TimeUnit.MILLISECONDS);
 
     final TDoubleArrayList lIRMSDList = new TDoubleArrayList();
-    for (final FutureTask<Double> lFutureTask : lTaskList)
+    for (final double lRMSD : lRMSDs)
+      if (!Double.isNaN(lRMSD))
+        lIRMSDList.add(lRMSD);
+
+    final boolean lTimeOut = !lCompleted || lTimedOut.get();
+    if (lTimeOut)
     {
-      try
-      {
-        final Double lRMSD = lFutureTask.get(200,
-                                             TimeUnit.MILLISECONDS);
-        if (lRMSD != null)
-          lIRMSDList.add(lRMSD);
-      }
-      catch (final Throwable e)
-      {
-      }
+      System.err.format("%s: null hypothesis computation for length %d timed out after %d ms, %d datasets fitted \n",
+                        getClass().getSimpleName(),
+                        lLength,
+                        lTimeOutInMilliseconds,
+                        lIRMSDList.size());
+      // fall back to typical values if nothing could be fitted in time:
+      if (lIRMSDList.size() < 2)
+        return new double[]
+        { cDefaultMean, cDefaultStandardDeviation, 0 };
     }
 
     final double[] lIRMSDArray = lIRMSDList.toArray();
@@ -216,11 +428,59 @@ public class FitQualityEstimator
     // lCenterValue = 0.25;// lMean.evaluate(lIRMSDArray);
     // lStandardDeviation = 0.0625; // sqrt(lVarianceValue);
 
-    final NormalDistribution lNormalDistribution =
-                                                 new NormalDistribution(lCenterValue,
-                                                                        lStandardDeviation);
-    return lNormalDistribution;
+    return new double[]
+    { lCenterValue,
+      lStandardDeviation,
+      lTimeOut ? lIRMSDList.size() : lNumberOfRandomizedDatasets };
+  }
 
+  private static void fitRandomizedDatasets(double[] pX,
+                                            double[] pRMSDs,
+                                            int pBegin,
+                                            int pEnd,
+                                            long pDeadlineInNs,
+                                            AtomicBoolean pTimedOut)
+  {
+    // each chunk of datasets reuses its own fitter:
+    final RandomizedDataGaussianFitter lRandomizedDataGaussianFitter =
+                                                                     new RandomizedDataGaussianFitter();
+    for (int i = pBegin; i < pEnd; i++)
+    {
+      if (System.nanoTime() - pDeadlineInNs >= 0)
+      {
+        pTimedOut.set(true);
+        return;
+      }
+      Double lRMSD = null;
+      try
+      {
+        lRMSD = lRandomizedDataGaussianFitter.computeRMSDForRandomData(pX);
+      }
+      catch (final Throwable e)
+      {
+      }
+      pRMSDs[i] = lRMSD == null ? Double.NaN : lRMSD;
+    }
+  }
+
+  /**
+   * Returns true if null hypothesis parameters were computed from all
+   * randomized datasets, i.e. the computation did not time out.
+   * 
+   * @param pMeanAndStandardDeviation
+   *          {mean, standard deviation, number of randomized datasets}
+   * @return true if complete
+   */
+  static boolean isComplete(double[] pMeanAndStandardDeviation)
+  {
+    return pMeanAndStandardDeviation[2] >= cMaxNumberOfRandomizedDatasets;
+  }
+
+  private ExecutorService getExecutorService()
+  {
+    if (mExecutorService == null)
+      return ArgMaxComputePool.getExecutorService();
+    return mExecutorService;
   }
 
   public Double probability(double[] pX, double[] pY)
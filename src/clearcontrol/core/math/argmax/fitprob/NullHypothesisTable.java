@@ -0,0 +1,278 @@
+package clearcontrol.core.math.argmax.fitprob;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Lookup table of null hypothesis distributions (mean and standard deviation
+ * of the RMSD of Gaussian fits to random data) indexed by curve length. The
+ * table is stored in a compact binary file that is memory mapped, entries are
+ * sorted by length and found by binary search without any deserialization.
+ * Lengths that fall between two close enough tabulated lengths are linearly
+ * interpolated.
+ *
+ * File layout (little endian): magic, version, number of entries, then for
+ * each entry: length (int), number of randomized datasets (int), mean
+ * (double), standard deviation (double). Tables with another version are
+ * ignored, the version must be incremented whenever the way the null
+ * hypothesis is computed changes.
+ *
+ * @author royer
+ */
+public class NullHypothesisTable
+{
+  /**
+   * Table file magic number
+   */
+  public static final int cMagic = 0x4E485442;
+
+  /**
+   * Table format and contents version
+   */
+  public static final int cVersion = 1;
+
+  private static final int cHeaderSize = 3 * Integer.BYTES;
+  private static final int cEntrySize = 2 * Integer.BYTES
+                                        + 2 * Double.BYTES;
+
+  private final ByteBuffer mBuffer;
+  private final int mNumberOfEntries;
+
+  private NullHypothesisTable(ByteBuffer pBuffer) throws IOException
+  {
+    mBuffer = pBuffer.order(ByteOrder.LITTLE_ENDIAN);
+    if (mBuffer.capacity() < cHeaderSize || mBuffer.getInt(0) != cMagic)
+      throw new IOException("Not a null hypothesis table");
+    if (mBuffer.getInt(Integer.BYTES) != cVersion)
+      throw new IOException("Unsupported null hypothesis table version: "
+                            + mBuffer.getInt(Integer.BYTES));
+    mNumberOfEntries = mBuffer.getInt(2 * Integer.BYTES);
+    if (mBuffer.capacity() < cHeaderSize
+                             + ((long) mNumberOfEntries) * cEntrySize)
+      throw new IOException("Truncated null hypothesis table");
+  }
+
+  /**
+   * Opens (memory maps) a table file
+   *
+   * @param pFile
+   *          table file
+   * @return table
+   * @throws IOException
+   *           if the file cannot be read or is not a valid table
+   */
+  public static NullHypothesisTable open(File pFile) throws IOException
+  {
+    try (FileChannel lFileChannel =
+                                  FileChannel.open(pFile.toPath(),
+                                                   StandardOpenOption.READ))
+    {
+      // the mapping stays valid after the channel is closed:
+      return new NullHypothesisTable(lFileChannel.map(MapMode.READ_ONLY,
+                                                      0,
+                                                      lFileChannel.size()));
+    }
+  }
+
+  /**
+   * Reads a table from a stream (e.g. a class path resource that cannot be
+   * mapped)
+   *
+   * @param pInputStream
+   *          input stream
+   * @return table
+   * @throws IOException
+   *           if the stream cannot be read or is not a valid table
+   */
+  public static NullHypothesisTable read(InputStream pInputStream) throws IOException
+  {
+    final ByteArrayOutputStream lByteArrayOutputStream =
+                                                       new ByteArrayOutputStream();
+    final byte[] lBuffer = new byte[8192];
+    int lRead;
+    while ((lRead = pInputStream.read(lBuffer)) >= 0)
+      lByteArrayOutputStream.write(lBuffer, 0, lRead);
+    return new NullHypothesisTable(ByteBuffer.wrap(lByteArrayOutputStream.toByteArray()));
+  }
+
+  /**
+   * Writes a table file, the file is first written under a temporary name and
+   * then moved in place.
+   *
+   * @param pFile
+   *          table file
+   * @param pEntries
+   *          map from length to {mean, standard deviation, number of
+   *          randomized datasets}
+   * @throws IOException
+   *           if the file cannot be written
+   */
+  public static void write(File pFile,
+                           Map<Integer, double[]> pEntries) throws IOException
+  {
+    final TreeMap<Integer, double[]> lSortedEntries =
+                                                    new TreeMap<>(pEntries);
+    final ByteBuffer lBuffer =
+                             ByteBuffer.allocate(cHeaderSize
+                                                 + lSortedEntries.size()
+                                                   * cEntrySize)
+                                       .order(ByteOrder.LITTLE_ENDIAN);
+    lBuffer.putInt(cMagic);
+    lBuffer.putInt(cVersion);
+    lBuffer.putInt(lSortedEntries.size());
+    for (Map.Entry<Integer, double[]> lEntry : lSortedEntries.entrySet())
+    {
+      lBuffer.putInt(lEntry.getKey());
+      lBuffer.putInt((int) lEntry.getValue()[2]);
+      lBuffer.putDouble(lEntry.getValue()[0]);
+      lBuffer.putDouble(lEntry.getValue()[1]);
+    }
+    lBuffer.flip();
+
+    final File lTempFile = new File(pFile.getParentFile(),
+                                    pFile.getName() + ".tmp");
+    try (FileChannel lFileChannel =
+                                  FileChannel.open(lTempFile.toPath(),
+                                                   StandardOpenOption.CREATE,
+                                                   StandardOpenOption.TRUNCATE_EXISTING,
+                                                   StandardOpenOption.WRITE))
+    {
+      while (lBuffer.hasRemaining())
+        lFileChannel.write(lBuffer);
+      lFileChannel.force(true);
+    }
+    Files.move(lTempFile.toPath(),
+               pFile.toPath(),
+               StandardCopyOption.REPLACE_EXISTING,
+               StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Returns all entries of this table
+   *
+   * @return map from length to {mean, standard deviation, number of randomized
+   *         datasets}
+   */
+  public TreeMap<Integer, double[]> getEntries()
+  {
+    final TreeMap<Integer, double[]> lEntries = new TreeMap<>();
+    for (int i = 0; i < mNumberOfEntries; i++)
+      lEntries.put(getLength(i), new double[]
+      { getMean(i), getStandardDeviation(i), getNumberOfDatasets(i) });
+    return lEntries;
+  }
+
+  /**
+   * Returns the number of entries
+   *
+   * @return number of entries
+   */
+  public int getNumberOfEntries()
+  {
+    return mNumberOfEntries;
+  }
+
+  /**
+   * Returns the mean and standard deviation for a tabulated length
+   *
+   * @param pLength
+   *          curve length
+   * @return {mean, standard deviation} or null if the length is not tabulated
+   */
+  public double[] get(int pLength)
+  {
+    final int lIndex = find(pLength);
+    if (lIndex < 0)
+      return null;
+    return new double[]
+    { getMean(lIndex), getStandardDeviation(lIndex) };
+  }
+
+  /**
+   * Returns the mean and standard deviation for a given length, linearly
+   * interpolated between the two closest tabulated lengths if needed and if
+   * these are not further apart than a given maximal gap.
+   *
+   * @param pLength
+   *          curve length
+   * @param pMaxGap
+   *          maximal difference between the two tabulated lengths
+   * @return {mean, standard deviation} or null if the length is outside of
+   *         the tabulated range, or if the closest tabulated lengths are
+   *         too far apart
+   */
+  public double[] interpolate(int pLength, int pMaxGap)
+  {
+    final int lIndex = find(pLength);
+    if (lIndex >= 0)
+      return get(pLength);
+
+    final int lUpper = -lIndex - 1;
+    final int lLower = lUpper - 1;
+    if (lLower < 0 || lUpper >= mNumberOfEntries
+        || getLength(lUpper) - getLength(lLower) > pMaxGap)
+      return null;
+
+    final double lAlpha = ((double) (pLength - getLength(lLower)))
+                          / (getLength(lUpper) - getLength(lLower));
+    return new double[]
+    { (1 - lAlpha) * getMean(lLower) + lAlpha * getMean(lUpper),
+      (1 - lAlpha) * getStandardDeviation(lLower)
+        + lAlpha * getStandardDeviation(lUpper) };
+  }
+
+  // binary search, same contract as Arrays.binarySearch:
+  private int find(int pLength)
+  {
+    int lLow = 0;
+    int lHigh = mNumberOfEntries - 1;
+    while (lLow <= lHigh)
+    {
+      final int lMiddle = (lLow + lHigh) >>> 1;
+      final int lLength = getLength(lMiddle);
+      if (lLength < pLength)
+        lLow = lMiddle + 1;
+      else if (lLength > pLength)
+        lHigh = lMiddle - 1;
+      else
+        return lMiddle;
+    }
+    return -(lLow + 1);
+  }
+
+  private int getLength(int pIndex)
+  {
+    return mBuffer.getInt(cHeaderSize + pIndex * cEntrySize);
+  }
+
+  private int getNumberOfDatasets(int pIndex)
+  {
+    return mBuffer.getInt(cHeaderSize + pIndex * cEntrySize
+                          + Integer.BYTES);
+  }
+
+  private double getMean(int pIndex)
+  {
+    return mBuffer.getDouble(cHeaderSize + pIndex * cEntrySize
+                             + 2 * Integer.BYTES);
+  }
+
+  private double getStandardDeviation(int pIndex)
+  {
+    return mBuffer.getDouble(cHeaderSize + pIndex * cEntrySize
+                             + 2 * Integer.BYTES
+                             + Double.BYTES);
+  }
+
+}
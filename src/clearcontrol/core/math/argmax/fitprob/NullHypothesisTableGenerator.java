@@ -0,0 +1,93 @@
+package clearcontrol.core.math.argmax.fitprob;
+
+import java.io.File;
+import java.util.TreeMap;
+
+/**
+ * Offline tool that generates a null hypothesis table for a range of curve
+ * lengths. Lengths already present in an existing (same version) table are
+ * kept. Computations that time out are retried a few times, lengths that still
+ * time out are left out of the table. The generated table can be bundled next to {@link FitQualityEstimator}
+ * on the class path, or copied to the user's stats folder.
+ *
+ * Usage: NullHypothesisTableGenerator [output file] [min length] [max length]
+ *
+ * @author royer
+ */
+public class NullHypothesisTableGenerator
+{
+  private static final int cDefaultMinLength = 3;
+  private static final int cDefaultMaxLength = 64;
+  private static final int cMaxNumberOfAttempts = 3;
+
+  /**
+   * Generates the table
+   *
+   * @param pArguments
+   *          output file, min length, max length (all optional)
+   * @throws Exception
+   *           if the table cannot be written
+   */
+  public static void main(String[] pArguments) throws Exception
+  {
+    final File lOutputFile = pArguments.length > 0
+                                                   ? new File(pArguments[0])
+                                                   : FitQualityEstimator.getUserTableFile();
+    final int lMinLength = pArguments.length > 1
+                                                 ? Integer.parseInt(pArguments[1])
+                                                 : cDefaultMinLength;
+    final int lMaxLength = pArguments.length > 2
+                                                 ? Integer.parseInt(pArguments[2])
+                                                 : cDefaultMaxLength;
+
+    TreeMap<Integer, double[]> lEntries = new TreeMap<>();
+    if (lOutputFile.exists())
+      try
+      {
+        lEntries = NullHypothesisTable.open(lOutputFile).getEntries();
+      }
+      catch (Throwable e)
+      {
+        System.out.println("Existing table ignored: " + e.getMessage());
+      }
+
+    final FitQualityEstimator lFitQualityEstimator =
+                                                   new FitQualityEstimator();
+    for (int lLength = lMinLength; lLength <= lMaxLength; lLength++)
+    {
+      final double[] lExistingParameters = lEntries.get(lLength);
+      if (lExistingParameters != null
+          && FitQualityEstimator.isComplete(lExistingParameters))
+        continue;
+      lEntries.remove(lLength);
+
+      final long lStartTimeInNs = System.nanoTime();
+      double[] lParameters =
+                           lFitQualityEstimator.computeNullHypothesisParameters(lLength);
+      for (int lAttempt = 1; lAttempt < cMaxNumberOfAttempts
+                             && !FitQualityEstimator.isComplete(lParameters); lAttempt++)
+        lParameters =
+                    lFitQualityEstimator.computeNullHypothesisParameters(lLength);
+
+      if (!FitQualityEstimator.isComplete(lParameters))
+      {
+        System.out.format("length=%d skipped, timed out %d times \n",
+                          lLength,
+                          cMaxNumberOfAttempts);
+        continue;
+      }
+
+      lEntries.put(lLength, lParameters);
+      System.out.format("length=%d mean=%g sigma=%g (%.1f s) \n",
+                        lLength,
+                        lParameters[0],
+                        lParameters[1],
+                        (System.nanoTime() - lStartTimeInNs) * 1e-9);
+
+      // written after each length so that an interrupted run is not lost:
+      NullHypothesisTable.write(lOutputFile, lEntries);
+    }
+    NullHypothesisTable.write(lOutputFile, lEntries);
+  }
+
+}
@@ -0,0 +1,118 @@
+package clearcontrol.core.math.argmax.fitprob.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.TreeMap;
+
+import clearcontrol.core.math.argmax.fitprob.NullHypothesisTable;
+
+import org.junit.Test;
+
+/**
+ * Null hypothesis table tests
+ *
+ * @author royer
+ */
+public class NullHypothesisTableTests
+{
+
+  /**
+   * Tests writing, mapping, lookup and interpolation
+   *
+   * @throws IOException
+   *           N/A
+   */
+  @Test
+  public void testWriteOpenLookup() throws IOException
+  {
+    final File lFile = File.createTempFile("NullHypothesisTable",
+                                           ".nht");
+    try
+    {
+      final TreeMap<Integer, double[]> lEntries = new TreeMap<>();
+      lEntries.put(10, new double[]
+      { 0.3, 0.1, 1000 });
+      lEntries.put(5, new double[]
+      { 0.2, 0.05, 1000 });
+      lEntries.put(20, new double[]
+      { 0.5, 0.2, 1000 });
+      NullHypothesisTable.write(lFile, lEntries);
+
+      final NullHypothesisTable lTable = NullHypothesisTable.open(lFile);
+      assertEquals(3, lTable.getNumberOfEntries());
+
+      assertEquals(0.3, lTable.get(10)[0], 0);
+      assertEquals(0.1, lTable.get(10)[1], 0);
+      assertNull(lTable.get(7));
+
+      final double[] lInterpolated = lTable.interpolate(15, 10);
+      assertEquals(0.4, lInterpolated[0], 1e-12);
+      assertEquals(0.15, lInterpolated[1], 1e-12);
+      assertNull(lTable.interpolate(15, 9));
+      assertEquals(0.2, lTable.interpolate(5, 0)[0], 0);
+      assertNull(lTable.interpolate(4, 10));
+      assertNull(lTable.interpolate(21, 10));
+
+      assertEquals(1000, lTable.getEntries().get(20)[2], 0);
+      assertEquals(lEntries.keySet(), lTable.getEntries().keySet());
+
+      try (InputStream lInputStream =
+                                  Files.newInputStream(lFile.toPath()))
+      {
+        assertEquals(0.5,
+                     NullHypothesisTable.read(lInputStream).get(20)[0],
+                     0);
+      }
+    }
+    finally
+    {
+      lFile.delete();
+    }
+  }
+
+  /**
+   * Tests that tables with another version are rejected
+   *
+   * @throws IOException
+   *           N/A
+   */
+  @Test
+  public void testVersionMismatch() throws IOException
+  {
+    final File lFile = File.createTempFile("NullHypothesisTable",
+                                           ".nht");
+    try
+    {
+      NullHypothesisTable.write(lFile, new TreeMap<>());
+      try (RandomAccessFile lRandomAccessFile =
+                                              new RandomAccessFile(lFile,
+                                                                   "rw"))
+      {
+        // version field, little endian:
+        lRandomAccessFile.seek(Integer.BYTES);
+        lRandomAccessFile.write(NullHypothesisTable.cVersion + 1);
+      }
+
+      try
+      {
+        NullHypothesisTable.open(lFile);
+        fail();
+      }
+      catch (IOException e)
+      {
+      }
+    }
+    finally
+    {
+      lFile.delete();
+    }
+  }
+
+}
@@ -30,6 +30,26 @@ public class ClampingArgMaxFinder implements ArgMaxFinder1DInterface
     return lArgmax;
   }
 
+  @Override
+  public void argmax(double[] pX,
+                     double[] pY,
+                     int pNumberOfCurves,
+                     double[] pArgMax,
+                     double[] pFitProbabilities)
+  {
+    mArgMaxFinder1DInterface.argmax(pX,
+                                    pY,
+                                    pNumberOfCurves,
+                                    pArgMax,
+                                    pFitProbabilities);
+
+    final double lMin = pX[0];
+    final double lMax = pX[pX.length - 1];
+    for (int i = 0; i < pNumberOfCurves; i++)
+      if (!Double.isNaN(pArgMax[i]))
+        pArgMax[i] = max(min(pArgMax[i], lMax), lMin);
+  }
+
   @Override
   public String toString()
   {
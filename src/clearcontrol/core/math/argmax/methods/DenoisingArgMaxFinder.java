@@ -2,6 +2,12 @@ package clearcontrol.core.math.argmax.methods;
 
 import clearcontrol.core.math.argmax.ArgMaxFinder1DInterface;
 
+/**
+ * Removes isolated single-point peaks before delegating. The denoised curves
+ * are written to arrays allocated per call, so that instances hold no state and
+ * can be shared between threads, even with calls that did not finish in time
+ * still running.
+ */
 public class DenoisingArgMaxFinder implements ArgMaxFinder1DInterface
 {
 
@@ -20,22 +26,7 @@ public class DenoisingArgMaxFinder implements ArgMaxFinder1DInterface
 
     final double[] lY = new double[lLength];
 
-    if (pY[0] > pY[1])
-      lY[0] = pY[1];
-    else
-      lY[0] = pY[0];
-
-    for (int i = 1; i < lLength - 1; i++)
-    {
-      if (pY[i] > pY[i - 1] && pY[i] > pY[i + 1])
-        lY[i] = 0.5 * (pY[i - 1] + pY[i + 1]);
-      else
-        lY[i] = pY[i];
-    }
-    if (pY[lLength - 2] < pY[lLength - 1])
-      lY[lLength - 1] = pY[lLength - 2];
-    else
-      lY[lLength - 1] = pY[lLength - 1];
+    denoise(pY, 0, lY, 0, lLength);
 
     /*System.out.println("_____________________");
     for (final double y : lY)
@@ -46,6 +37,54 @@ public class DenoisingArgMaxFinder implements ArgMaxFinder1DInterface
     return lArgmax;
   }
 
+  @Override
+  public void argmax(double[] pX,
+                     double[] pY,
+                     int pNumberOfCurves,
+                     double[] pArgMax,
+                     double[] pFitProbabilities)
+  {
+    final int lLength = pX.length;
+    final double[] lDenoisedY = new double[pNumberOfCurves * lLength];
+
+    for (int i = 0; i < pNumberOfCurves; i++)
+      denoise(pY, i * lLength, lDenoisedY, i * lLength, lLength);
+
+    mArgMaxFinder1DInterface.argmax(pX,
+                                    lDenoisedY,
+                                    pNumberOfCurves,
+                                    pArgMax,
+                                    pFitProbabilities);
+  }
+
+  private static void denoise(double[] pY,
+                              int pOffset,
+                              double[] pDenoisedY,
+                              int pDenoisedOffset,
+                              int pLength)
+  {
+    final int o = pOffset;
+    final int d = pDenoisedOffset;
+    final int lLength = pLength;
+
+    if (pY[o] > pY[o + 1])
+      pDenoisedY[d] = pY[o + 1];
+    else
+      pDenoisedY[d] = pY[o];
+
+    for (int i = 1; i < lLength - 1; i++)
+    {
+      if (pY[o + i] > pY[o + i - 1] && pY[o + i] > pY[o + i + 1])
+        pDenoisedY[d + i] = 0.5 * (pY[o + i - 1] + pY[o + i + 1]);
+      else
+        pDenoisedY[d + i] = pY[o + i];
+    }
+    if (pY[o + lLength - 2] < pY[o + lLength - 1])
+      pDenoisedY[d + lLength - 1] = pY[o + lLength - 2];
+    else
+      pDenoisedY[d + lLength - 1] = pY[o + lLength - 1];
+  }
+
   @Override
   public String toString()
   {
@@ -2,13 +2,11 @@ package clearcontrol.core.math.argmax.methods;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import clearcontrol.core.math.argmax.ArgMaxComputePool;
 import clearcontrol.core.math.argmax.ArgMaxFinder1DInterface;
 import gnu.trove.list.array.TDoubleArrayList;
 
@@ -16,8 +14,6 @@ import org.apache.commons.math3.stat.descriptive.rank.Median;
 
 public class EnsembleArgMaxFinder implements ArgMaxFinder1DInterface
 {
-  private static final Executor sExecutor =
-                                          Executors.newCachedThreadPool();
   private static final int cTimeOutInSeconds = 1;
 
   private final ArrayList<ArgMaxFinder1DInterface> mArgMaxFinder1DInterfaceList =
@@ -37,43 +33,6 @@ public class EnsembleArgMaxFinder implements ArgMaxFinder1DInterface
     mArgMaxFinder1DInterfaceList.add(pArgMaxFinder1DInterface);
   }
 
-  private class ArgMaxCallable implements Callable<Double>
-  {
-    private final double[] mX;
-    private final double[] mY;
-    private final ArgMaxFinder1DInterface mArgMaxFinder1DInterface;
-
-    public ArgMaxCallable(ArgMaxFinder1DInterface pArgMaxFinder1DInterface,
-                          double[] pX,
-                          double[] pY)
-    {
-      mArgMaxFinder1DInterface = pArgMaxFinder1DInterface;
-      mX = pX;
-      mY = pY;
-    }
-
-    @Override
-    public Double call() throws Exception
-    {
-      final long lStartTimeInNs = System.nanoTime();
-      final Double lArgMax = mArgMaxFinder1DInterface.argmax(mX, mY);
-      final long lStopTimeInNs = System.nanoTime();
-      /*double lElapsedtimeInSeconds = Magnitude.nano2unit(lStopTimeInNs - lStartTimeInNs);
-      System.out.format("elapsed time: %g for %s \n",
-      										lElapsedtimeInSeconds,
-      										mArgMaxFinder1DInterface.toString());/**/
-
-      return lArgMax;
-    }
-
-    @Override
-    public String toString()
-    {
-      return mArgMaxFinder1DInterface.toString();
-    }
-
-  }
-
   @Override
   public Double argmax(double[] pX, double[] pY)
   {
@@ -82,47 +41,38 @@ public class EnsembleArgMaxFinder implements ArgMaxFinder1DInterface
     if (constant(pY))
       return null;
 
-    final ArrayList<FutureTask<Double>> lTaskList =
-                                                  new ArrayList<FutureTask<Double>>();
-    final HashMap<FutureTask<Double>, ArgMaxCallable> lTaskToCallableMap =
-                                                                         new HashMap<FutureTask<Double>, ArgMaxCallable>();
-
-    for (final ArgMaxFinder1DInterface lArgMaxFinder1DInterface : mArgMaxFinder1DInterfaceList)
-    {
-      final ArgMaxCallable lArgMaxCallable =
-                                           new ArgMaxCallable(lArgMaxFinder1DInterface,
-                                                              pX,
-                                                              pY);
-      final FutureTask<Double> lArgMaxFutureTask =
-                                                 new FutureTask<Double>(lArgMaxCallable);
-      sExecutor.execute(lArgMaxFutureTask);
-      lTaskList.add(lArgMaxFutureTask);
-      lTaskToCallableMap.put(lArgMaxFutureTask, lArgMaxCallable);
-    }
+    final int lNumberOfMethods = mArgMaxFinder1DInterfaceList.size();
+    final AtomicReferenceArray<Double> lArgMaxArray =
+                                                    new AtomicReferenceArray<>(lNumberOfMethods);
 
-    final TDoubleArrayList lArgMaxList = new TDoubleArrayList();
-    for (final FutureTask<Double> lArgMaxFutureTask : lTaskList)
-    {
+    // methods that do not finish in time are ignored:
+    ArgMaxComputePool.parallelFor(lNumberOfMethods, (i) -> {
+      final ArgMaxFinder1DInterface lArgMaxFinder1DInterface =
+                                                             mArgMaxFinder1DInterfaceList.get(i);
       try
       {
-        final Double lArgMax =
-                             lArgMaxFutureTask.get(cTimeOutInSeconds,
-                                                   TimeUnit.SECONDS);
-        if (lArgMax != null)
-        {
-          if (mDebug)
-            System.out.println("class: "
-                               + lTaskToCallableMap.get(lArgMaxFutureTask)
-                               + "\n\t\targmax="
-                               + lArgMax);
-          lArgMaxList.add(lArgMax);
-        }
+        lArgMaxArray.set(i, lArgMaxFinder1DInterface.argmax(pX, pY));
       }
       catch (final Throwable e)
       {
         if (mDebug)
           e.printStackTrace();
       }
+    }, cTimeOutInSeconds, TimeUnit.SECONDS);
+
+    final TDoubleArrayList lArgMaxList = new TDoubleArrayList();
+    for (int i = 0; i < lNumberOfMethods; i++)
+    {
+      final Double lArgMax = lArgMaxArray.get(i);
+      if (lArgMax != null)
+      {
+        if (mDebug)
+          System.out.println("class: "
+                             + mArgMaxFinder1DInterfaceList.get(i)
+                             + "\n\t\targmax="
+                             + lArgMax);
+        lArgMaxList.add(lArgMax);
+      }
     }
 
     final double lArgMaxMedian =
@@ -131,10 +81,95 @@ public class EnsembleArgMaxFinder implements ArgMaxFinder1DInterface
     return lArgMaxMedian;
   }
 
+  /**
+   * Batch argmax: the methods run in parallel, each method processes all
+   * curves. Methods that fail for a curve are ignored for that curve, methods
+   * that do not finish in time are ignored altogether.
+   */
+  @Override
+  public void argmax(double[] pX,
+                     double[] pY,
+                     int pNumberOfCurves,
+                     double[] pArgMax,
+                     double[] pFitProbabilities)
+  {
+    final int lLength = pX.length;
+    final int lNumberOfMethods = mArgMaxFinder1DInterfaceList.size();
+    // not reused: methods that time out may still write to it later:
+    final double[][] lArgMaxPerMethod =
+                                      new double[lNumberOfMethods][pNumberOfCurves];
+    final AtomicIntegerArray lCompleted =
+                                        new AtomicIntegerArray(lNumberOfMethods);
+
+    ArgMaxComputePool.parallelFor(lNumberOfMethods, (m) -> {
+      final ArgMaxFinder1DInterface lArgMaxFinder1DInterface =
+                                                             mArgMaxFinder1DInterfaceList.get(m);
+      try
+      {
+        lArgMaxFinder1DInterface.argmax(pX,
+                                        pY,
+                                        pNumberOfCurves,
+                                        lArgMaxPerMethod[m],
+                                        null);
+      }
+      catch (final Throwable e)
+      {
+        // one curve failed, curves are then processed one by one:
+        if (mDebug)
+          e.printStackTrace();
+        final double[] lCurve = new double[lLength];
+        for (int i = 0; i < pNumberOfCurves; i++)
+          try
+          {
+            System.arraycopy(pY, i * lLength, lCurve, 0, lLength);
+            final Double lArgMax =
+                                 lArgMaxFinder1DInterface.argmax(pX,
+                                                                 lCurve);
+            lArgMaxPerMethod[m][i] = lArgMax == null ? Double.NaN
+                                                     : lArgMax;
+          }
+          catch (final Throwable e2)
+          {
+            lArgMaxPerMethod[m][i] = Double.NaN;
+          }
+      }
+      lCompleted.set(m, 1);
+    },
+                                  cTimeOutInSeconds * Math.max(1,
+                                                               pNumberOfCurves),
+                                  TimeUnit.SECONDS);
+
+    final double[] lValues = new double[lNumberOfMethods];
+    for (int i = 0; i < pNumberOfCurves; i++)
+    {
+      if (pFitProbabilities != null)
+        pFitProbabilities[i] = Double.NaN;
+
+      if (constant(pY, i * lLength, lLength))
+      {
+        pArgMax[i] = Double.NaN;
+        continue;
+      }
+
+      int lCount = 0;
+      for (int m = 0; m < lNumberOfMethods; m++)
+        if (lCompleted.get(m) == 1
+            && !Double.isNaN(lArgMaxPerMethod[m][i]))
+          lValues[lCount++] = lArgMaxPerMethod[m][i];
+
+      pArgMax[i] = mMedian.evaluate(lValues, 0, lCount);
+    }
+  }
+
   private boolean constant(double[] pY)
   {
-    for (int i = 0; i < pY.length; i++)
-      if (pY[i] != pY[0])
+    return constant(pY, 0, pY.length);
+  }
+
+  private boolean constant(double[] pY, int pOffset, int pLength)
+  {
+    for (int i = 0; i < pLength; i++)
+      if (pY[pOffset + i] != pY[pOffset])
         return false;
     return true;
   }
@@ -4,8 +4,13 @@ import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 import clearcontrol.core.math.argmax.ArgMaxFinder1DInterface;
-import gnu.trove.list.array.TDoubleArrayList;
 
+/**
+ * Normalizes curves to [0,1] before delegating. The normalized curves are
+ * written to arrays allocated per call, so that instances hold no state and
+ * can be shared between threads, even with calls that did not finish in time
+ * still running.
+ */
 public class NormalizingArgMaxFinder implements
                                      ArgMaxFinder1DInterface
 {
@@ -21,27 +26,49 @@ public class NormalizingArgMaxFinder implements
   @Override
   public Double argmax(double[] pX, double[] pY)
   {
-    TDoubleArrayList lNormY = new TDoubleArrayList();
+    final double[] lNormY = new double[pY.length];
+    normalize(pY, 0, lNormY, 0, pX.length);
 
+    final Double lArgmax = mArgMaxFinder1DInterface.argmax(pX, lNormY);
+
+    return lArgmax;
+  }
+
+  @Override
+  public void argmax(double[] pX,
+                     double[] pY,
+                     int pNumberOfCurves,
+                     double[] pArgMax,
+                     double[] pFitProbabilities)
+  {
+    final int lLength = pX.length;
+    final double[] lNormY = new double[pNumberOfCurves * lLength];
+    for (int i = 0; i < pNumberOfCurves; i++)
+      normalize(pY, i * lLength, lNormY, i * lLength, lLength);
+
+    mArgMaxFinder1DInterface.argmax(pX,
+                                    lNormY,
+                                    pNumberOfCurves,
+                                    pArgMax,
+                                    pFitProbabilities);
+  }
+
+  private static void normalize(double[] pY,
+                                int pOffset,
+                                double[] pNormY,
+                                int pNormOffset,
+                                int pLength)
+  {
     double lMin = Double.POSITIVE_INFINITY;
     double lMax = Double.NEGATIVE_INFINITY;
-    for (int i = 0; i < pY.length; i++)
+    for (int i = 0; i < pLength; i++)
     {
-      lMin = min(lMin, pY[i]);
-      lMax = max(lMax, pY[i]);
+      lMin = min(lMin, pY[pOffset + i]);
+      lMax = max(lMax, pY[pOffset + i]);
     }
 
-    for (int i = 0; i < pX.length; i++)
-    {
-      final double lScaledValue = (pY[i] - lMin) / (lMax - lMin);
-      lNormY.add(lScaledValue);
-    }
-
-    final Double lArgmax =
-                         mArgMaxFinder1DInterface.argmax(pX,
-                                                         lNormY.toArray());
-
-    return lArgmax;
+    for (int i = 0; i < pLength; i++)
+      pNormY[pNormOffset + i] = (pY[pOffset + i] - lMin) / (lMax - lMin);
   }
 
   @Override
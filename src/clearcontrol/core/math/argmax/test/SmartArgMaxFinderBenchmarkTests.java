@@ -0,0 +1,95 @@
+package clearcontrol.core.math.argmax.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import clearcontrol.core.math.argmax.SmartArgMaxFinder;
+import clearcontrol.core.math.argmax.fitprob.FitQualityEstimator;
+
+import org.junit.Test;
+
+/**
+ * Argmax throughput benchmark: compares fit probability estimation with a new
+ * thread pool per call (previous behaviour) and with the shared compute pool,
+ * and single argmax calls with the batch argmax.
+ *
+ * @author royer
+ */
+public class SmartArgMaxFinderBenchmarkTests
+{
+  private static final int cNumberOfCurves = 200;
+
+  /**
+   * Benchmark
+   */
+  @Test
+  public void benchmark()
+  {
+    final double[] lX = new double[]
+    { 0, 1, 2, 3, 4, 5, 6 };
+    final double[][] lY = new double[cNumberOfCurves][lX.length];
+    final Random lRandom = new Random(42);
+    for (int c = 0; c < cNumberOfCurves; c++)
+    {
+      final double lCenter = 2 + 2 * lRandom.nextDouble();
+      for (int i = 0; i < lX.length; i++)
+        lY[c][i] = Math.exp(-(lX[i] - lCenter) * (lX[i] - lCenter) / 4)
+                   + 0.05 * lRandom.nextGaussian();
+    }
+
+    // warmup, also computes or loads the null hypothesis distribution:
+    new FitQualityEstimator().probability(lX, lY[0]);
+    new SmartArgMaxFinder().argmax(lX, lY[0]);
+
+    long lStart = System.nanoTime();
+    for (int c = 0; c < cNumberOfCurves; c++)
+    {
+      final ExecutorService lExecutorService =
+                                             Executors.newFixedThreadPool(Runtime.getRuntime()
+                                                                                 .availableProcessors());
+      new FitQualityEstimator(lExecutorService).probability(lX, lY[c]);
+      lExecutorService.shutdown();
+    }
+    report("fit probability, new thread pool per call", lStart);
+
+    lStart = System.nanoTime();
+    for (int c = 0; c < cNumberOfCurves; c++)
+      new FitQualityEstimator().probability(lX, lY[c]);
+    report("fit probability, shared compute pool", lStart);
+
+    final SmartArgMaxFinder lSmartArgMaxFinder = new SmartArgMaxFinder();
+    final double[] lSingleArgMax = new double[cNumberOfCurves];
+    lStart = System.nanoTime();
+    for (int c = 0; c < cNumberOfCurves; c++)
+    {
+      final Double lArgMax = lSmartArgMaxFinder.argmax(lX, lY[c]);
+      lSingleArgMax[c] = lArgMax == null ? Double.NaN : lArgMax;
+    }
+    report("argmax, single calls", lStart);
+
+    lStart = System.nanoTime();
+    final double[] lBatchArgMax = lSmartArgMaxFinder.argmax(lX,
+                                                            lY,
+                                                            null);
+    report("argmax, batch", lStart);
+
+    // some ensemble methods are randomized, results agree only roughly:
+    for (int c = 0; c < cNumberOfCurves; c++)
+      if (!Double.isNaN(lSingleArgMax[c]))
+        assertEquals(lSingleArgMax[c], lBatchArgMax[c], 0.5);
+  }
+
+  private void report(String pName, long pStartTimeInNs)
+  {
+    final double lElapsedTimeInSeconds = (System.nanoTime()
+                                          - pStartTimeInNs)
+                                         * 1e-9;
+    System.out.format("%s: %.1f calls/s \n",
+                      pName,
+                      cNumberOfCurves / lElapsedTimeInSeconds);
+  }
+
+}
@@ -0,0 +1,162 @@
+package clearcontrol.core.math.argmax.test.benchmark;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import clearcontrol.core.math.argmax.ArgMaxFinder1DInterface;
+import clearcontrol.core.math.argmax.SmartArgMaxFinder;
+import clearcontrol.core.math.argmax.methods.ClampingArgMaxFinder;
+import clearcontrol.core.math.argmax.methods.DenoisingArgMaxFinder;
+import clearcontrol.core.math.argmax.methods.ModeArgMaxFinder;
+import clearcontrol.core.math.argmax.methods.NormalizingArgMaxFinder;
+import clearcontrol.core.math.argmax.methods.ParabolaFitArgMaxFinder;
+
+import org.junit.Test;
+
+/**
+ * Batch argmax benchmark: single calls versus the flat primitive batch API,
+ * for cheap wrapped methods (where boxing and copies dominate) and for the
+ * full smart argmax ensemble (curve-parallel and method-parallel).
+ *
+ * @author royer
+ */
+public class ArgMaxBatchBenchmarkTests
+{
+  private static final int cLength = 11;
+  private static final int cNumberOfCurves = 256;
+  private static final int cRepeats = 20;
+
+  /**
+   * Benchmarks wrapped single methods
+   */
+  @Test
+  public void benchmarkWrappedMethods()
+  {
+    final double[] lX = createX();
+    final double[] lY = createCurves();
+
+    benchmarkMethod("mode",
+                    new DenoisingArgMaxFinder(new NormalizingArgMaxFinder(new ClampingArgMaxFinder(new ModeArgMaxFinder()))),
+                    lX,
+                    lY);
+    benchmarkMethod("parabola",
+                    new NormalizingArgMaxFinder(new ClampingArgMaxFinder(new ParabolaFitArgMaxFinder())),
+                    lX,
+                    lY);
+  }
+
+  /**
+   * Benchmarks the smart argmax ensemble
+   */
+  @Test
+  public void benchmarkSmartArgMaxFinder()
+  {
+    final double[] lX = createX();
+    final double[] lY = createCurves();
+    final SmartArgMaxFinder lSmartArgMaxFinder = new SmartArgMaxFinder();
+
+    // warmup, also loads or computes the null hypothesis distribution:
+    final double[] lBatchArgMax = new double[cNumberOfCurves];
+    final double[] lBatchFitProbabilities = new double[cNumberOfCurves];
+    lSmartArgMaxFinder.argmax(lX,
+                              lY,
+                              cNumberOfCurves,
+                              lBatchArgMax,
+                              lBatchFitProbabilities);
+
+    final double[] lSingleArgMax = new double[cNumberOfCurves];
+    final double[] lCurve = new double[cLength];
+    long lStart = System.nanoTime();
+    for (int i = 0; i < cNumberOfCurves; i++)
+    {
+      System.arraycopy(lY, i * cLength, lCurve, 0, cLength);
+      final Double lArgMax = lSmartArgMaxFinder.argmax(lX, lCurve);
+      lSingleArgMax[i] = lArgMax == null ? Double.NaN : lArgMax;
+    }
+    report("smart argmax, single calls", lStart, cNumberOfCurves);
+
+    lStart = System.nanoTime();
+    lSmartArgMaxFinder.argmax(lX,
+                              lY,
+                              cNumberOfCurves,
+                              lBatchArgMax,
+                              lBatchFitProbabilities);
+    report("smart argmax, batch", lStart, cNumberOfCurves);
+
+    // some ensemble methods are randomized, results agree only roughly:
+    for (int i = 0; i < cNumberOfCurves; i++)
+      if (!Double.isNaN(lSingleArgMax[i]))
+        assertEquals(lSingleArgMax[i], lBatchArgMax[i], 0.5);
+  }
+
+  private void benchmarkMethod(String pName,
+                               ArgMaxFinder1DInterface pArgMaxFinder,
+                               double[] pX,
+                               double[] pY)
+  {
+    final double[] lSingleArgMax = new double[cNumberOfCurves];
+    final double[] lBatchArgMax = new double[cNumberOfCurves];
+    final double[] lCurve = new double[cLength];
+
+    for (int w = 0; w < 2; w++)
+    {
+      long lStart = System.nanoTime();
+      for (int r = 0; r < cRepeats; r++)
+        for (int i = 0; i < cNumberOfCurves; i++)
+        {
+          System.arraycopy(pY, i * cLength, lCurve, 0, cLength);
+          final Double lArgMax = pArgMaxFinder.argmax(pX, lCurve);
+          lSingleArgMax[i] = lArgMax == null ? Double.NaN : lArgMax;
+        }
+      if (w == 1)
+        report(pName + ", single calls",
+               lStart,
+               cRepeats * cNumberOfCurves);
+
+      lStart = System.nanoTime();
+      for (int r = 0; r < cRepeats; r++)
+        pArgMaxFinder.argmax(pX, pY, cNumberOfCurves, lBatchArgMax, null);
+      if (w == 1)
+        report(pName + ", batch", lStart, cRepeats * cNumberOfCurves);
+    }
+
+    for (int i = 0; i < cNumberOfCurves; i++)
+      assertEquals(lSingleArgMax[i], lBatchArgMax[i], 1e-9);
+  }
+
+  private static double[] createX()
+  {
+    final double[] lX = new double[cLength];
+    for (int i = 0; i < cLength; i++)
+      lX[i] = i;
+    return lX;
+  }
+
+  private static double[] createCurves()
+  {
+    final Random lRandom = new Random(42);
+    final double[] lY = new double[cNumberOfCurves * cLength];
+    for (int c = 0; c < cNumberOfCurves; c++)
+    {
+      final double lCenter = 2 + (cLength - 4) * lRandom.nextDouble();
+      for (int i = 0; i < cLength; i++)
+        lY[c * cLength + i] = Math.exp(-(i - lCenter) * (i - lCenter) / 8)
+                              + 0.05 * lRandom.nextGaussian();
+    }
+    return lY;
+  }
+
+  private static void report(String pName,
+                             long pStartTimeInNs,
+                             int pNumberOfCurves)
+  {
+    final double lElapsedTimeInSeconds = (System.nanoTime()
+                                          - pStartTimeInNs)
+                                         * 1e-9;
+    System.out.format("%s: %.1f curves/s \n",
+                      pName,
+                      pNumberOfCurves / lElapsedTimeInSeconds);
+  }
+
+}
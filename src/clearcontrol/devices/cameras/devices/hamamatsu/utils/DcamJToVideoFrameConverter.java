@@ -2,6 +2,7 @@ package clearcontrol.devices.cameras.devices.hamamatsu.utils;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -11,6 +12,7 @@ import clearcontrol.core.concurrent.asyncprocs.AsynchronousProcessorInterface;
 import clearcontrol.core.concurrent.asyncprocs.ProcessorInterface;
 import clearcontrol.core.concurrent.executors.AsynchronousExecutorServiceAccess;
 import clearcontrol.core.concurrent.executors.ClearControlExecutors;
+import clearcontrol.core.concurrent.executors.SharedExecutorPool;
 import clearcontrol.core.device.VirtualDevice;
 import clearcontrol.core.device.openclose.OpenCloseDeviceInterface;
 import clearcontrol.core.device.startstop.StartStopDeviceInterface;
@@ -219,14 +221,10 @@ public class DcamJToVideoFrameConverter extends VirtualDevice
                                                               .getFrameTimeStampInNs());
       lOffHeapPlanarStack.setNumberOfImagesPerPlane(lNumberOfImagesPerPlane);
 
-      ClearControlExecutors.getOrCreateThreadPoolExecutor(this,
-                                                          Thread.NORM_PRIORITY
-                                                                - 1,
-                                                          Runtime.getRuntime()
-                                                                 .availableProcessors(),
-                                                          Runtime.getRuntime()
-                                                                 .availableProcessors(),
-                                                          Integer.MAX_VALUE);
+      // plane copies run on the shared IO executor, whose futures (unlike
+      // those of a completing executor) are not retained:
+      final ExecutorService lExecutorService =
+                                             ClearControlExecutors.getSharedExecutor(SharedExecutorPool.IO);
 
       ArrayList<Future> lFutureList =
                                     new ArrayList<Future>((int) lNumberOfImages);
@@ -269,7 +267,7 @@ public class DcamJToVideoFrameConverter extends VirtualDevice
             }
           };
 
-          Future<?> lFuture = executeAsynchronously(lRunnable);
+          Future<?> lFuture = lExecutorService.submit(lRunnable);
           lFutureList.add(lFuture);
 
           j++;
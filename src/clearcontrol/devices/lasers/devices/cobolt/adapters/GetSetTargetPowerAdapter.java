@@ -41,4 +41,11 @@ public class GetSetTargetPowerAdapter extends CoboltAdapter<Number>
     return lSetTargetPowerCommandBytes;
   }
 
+  // the power is an absolute target, only the latest one matters:
+  @Override
+  public boolean isSetValueCoalescable()
+  {
+    return true;
+  }
+
 }
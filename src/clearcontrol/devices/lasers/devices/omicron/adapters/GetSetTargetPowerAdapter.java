@@ -85,4 +85,11 @@ public class GetSetTargetPowerAdapter extends OmicronAdapter<Number>
     return super.checkAcknowledgementSetValueReturnMessage(pMessage);
   }
 
+  // the power level is absolute, a newer one replaces a queued one:
+  @Override
+  public boolean isSetValueCoalescable()
+  {
+    return true;
+  }
+
 }
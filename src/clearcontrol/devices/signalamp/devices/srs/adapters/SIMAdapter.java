@@ -151,4 +151,11 @@ public abstract class SIMAdapter extends
     return true;
   }
 
-}
\ No newline at end of file
+  // gain and offset are absolute values, only the latest one matters:
+  @Override
+  public boolean isSetValueCoalescable()
+  {
+    return true;
+  }
+
+}
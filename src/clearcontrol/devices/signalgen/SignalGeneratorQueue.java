@@ -4,6 +4,7 @@ import java.util.concurrent.TimeUnit;
 
 import clearcontrol.core.device.queue.QueueInterface;
 import clearcontrol.devices.signalgen.movement.MovementInterface;
+import clearcontrol.devices.signalgen.movement.MovementInterner;
 import clearcontrol.devices.signalgen.score.Score;
 import clearcontrol.devices.signalgen.score.ScoreInterface;
 
@@ -17,6 +18,9 @@ public class SignalGeneratorQueue implements QueueInterface
   protected volatile int mEnqueuedStateCounter = 0;
   protected final ScoreInterface mQueuedScore;
   protected final ScoreInterface mStagingScore;
+  private final MovementInterner mMovementInterner =
+                                                   new MovementInterner();
+  private volatile long mQueuedDurationInNs = 0;
 
   /**
    * Instantiates a real-time signal generator queue
@@ -58,26 +62,42 @@ public class SignalGeneratorQueue implements QueueInterface
    */
   public long estimatePlayTime(TimeUnit pTimeUnit)
   {
-    long lDuration = 0;
-    for (final MovementInterface lMovement : mQueuedScore.getMovements())
-    {
-      lDuration += lMovement.getDuration(pTimeUnit);
-    }
-    lDuration *= mQueuedScore.getNumberOfMovements();
-    return lDuration;
+    return pTimeUnit.convert(mQueuedDurationInNs, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Returns the movement interner used to take snapshots of the staging score
+   * 
+   * @return movement interner
+   */
+  public MovementInterner getMovementInterner()
+  {
+    return mMovementInterner;
   }
 
   @Override
   public void clearQueue()
   {
     mEnqueuedStateCounter = 0;
+    mQueuedDurationInNs = 0;
     mQueuedScore.clear();
+    mMovementInterner.clear();
   }
 
   @Override
   public void addCurrentStateToQueue()
   {
-    mQueuedScore.addScoreCopy(mStagingScore);
+    // immutable snapshots, staves and movements that did not change since the
+    // previous state are shared instead of copied:
+    long lDurationInNs = 0;
+    for (final MovementInterface lMovement : mStagingScore.getMovements())
+    {
+      final MovementInterface lSnapshot =
+                                        mMovementInterner.intern(lMovement);
+      mQueuedScore.addMovement(lSnapshot);
+      lDurationInNs += lSnapshot.getDuration(TimeUnit.NANOSECONDS);
+    }
+    mQueuedDurationInNs += lDurationInNs;
     mEnqueuedStateCounter++;
   }
 
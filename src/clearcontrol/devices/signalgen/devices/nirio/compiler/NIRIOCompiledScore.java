@@ -1,7 +1,10 @@
 package clearcontrol.devices.signalgen.devices.nirio.compiler;
 
+import java.util.Arrays;
 import java.util.concurrent.locks.ReentrantLock;
 
+import clearcontrol.devices.signalgen.movement.Movement;
+import clearcontrol.devices.signalgen.movement.MovementInterface;
 import coremem.buffers.ContiguousBuffer;
 
 public class NIRIOCompiledScore
@@ -14,6 +17,14 @@ public class NIRIOCompiledScore
   private ContiguousBuffer mNumberOfTimePointsBuffer;
   private ContiguousBuffer mScoreBuffer;
 
+  // content hash, snapshot and offset (in shorts) of the movements in the
+  // score buffer:
+  private long[] mMovementHashes = new long[0];
+  private MovementInterface[] mMovements = new MovementInterface[0];
+  private long[] mMovementOffsets = new long[0];
+  private final NIRIOMovementCache mMovementCache =
+                                                  new NIRIOMovementCache();
+
   public ReentrantLock mReentrantLock = new ReentrantLock();
 
   public NIRIOCompiledScore()
@@ -69,6 +80,86 @@ public class NIRIOCompiledScore
   public void setScoreBuffer(ContiguousBuffer pScoreBuffer)
   {
     mScoreBuffer = pScoreBuffer;
+    invalidateCompiledMovements();
+  }
+
+  /**
+   * Returns true if the score buffer already holds the compiled movement of
+   * given content hash at the given movement index and offset, and if that
+   * compiled movement has the same content as the given movement.
+   * 
+   * @param pMovementIndex
+   *          movement index
+   * @param pContentHash
+   *          movement content hash
+   * @param pMovement
+   *          movement
+   * @param pOffset
+   *          offset of the movement in the score buffer (in shorts)
+   * @return true if already compiled in place
+   */
+  public boolean isMovementCompiled(int pMovementIndex,
+                                    long pContentHash,
+                                    MovementInterface pMovement,
+                                    long pOffset)
+  {
+    return pMovementIndex < mMovementOffsets.length
+           && mMovementOffsets[pMovementIndex] == pOffset
+           && mMovementHashes[pMovementIndex] == pContentHash
+           && Movement.hasSameContent(mMovements[pMovementIndex],
+                                      pMovement);
+  }
+
+  /**
+   * Records that the score buffer holds the compiled movement of given content
+   * hash at the given movement index and offset.
+   * 
+   * @param pMovementIndex
+   *          movement index
+   * @param pContentHash
+   *          movement content hash
+   * @param pMovement
+   *          immutable snapshot of the compiled movement
+   * @param pOffset
+   *          offset of the movement in the score buffer (in shorts)
+   */
+  public void setMovementCompiled(int pMovementIndex,
+                                  long pContentHash,
+                                  MovementInterface pMovement,
+                                  long pOffset)
+  {
+    if (pMovementIndex >= mMovementOffsets.length)
+    {
+      final int lLength = Math.max(16, 2 * pMovementIndex);
+      mMovementHashes = Arrays.copyOf(mMovementHashes, lLength);
+      mMovements = Arrays.copyOf(mMovements, lLength);
+      final int lPreviousLength = mMovementOffsets.length;
+      mMovementOffsets = Arrays.copyOf(mMovementOffsets, lLength);
+      Arrays.fill(mMovementOffsets, lPreviousLength, lLength, -1);
+    }
+    mMovementHashes[pMovementIndex] = pContentHash;
+    mMovements[pMovementIndex] = pMovement;
+    mMovementOffsets[pMovementIndex] = pOffset;
+  }
+
+  /**
+   * Forgets which movements are compiled in the score buffer, they will all be
+   * written again on the next compilation.
+   */
+  public void invalidateCompiledMovements()
+  {
+    Arrays.fill(mMovementOffsets, -1);
+    Arrays.fill(mMovements, null);
+  }
+
+  /**
+   * Returns the cache of compiled movements
+   * 
+   * @return movement cache
+   */
+  public NIRIOMovementCache getMovementCache()
+  {
+    return mMovementCache;
   }
 
   public void setNumberOfMovements(long pNumberOfMovements)
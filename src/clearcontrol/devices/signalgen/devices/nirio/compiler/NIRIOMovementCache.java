@@ -0,0 +1,178 @@
+package clearcontrol.devices.signalgen.devices.nirio.compiler;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import clearcontrol.devices.signalgen.movement.Movement;
+import clearcontrol.devices.signalgen.movement.MovementInterface;
+
+/**
+ * Least-recently-used cache of compiled movements, indexed by movement content
+ * hash. Each compiled movement is kept with an immutable snapshot of its
+ * movement, and is only returned if that snapshot has the same content as the
+ * movement looked up, content hashes can collide. The cache is bounded by the
+ * total number of cached time point values.
+ *
+ * @author royer
+ */
+public class NIRIOMovementCache
+{
+  private static final long cDefaultMaxNumberOfShorts = 16 * 1024 * 1024;
+
+  private final LinkedHashMap<Long, CompiledMovement> mCompiledMovements =
+                                                                        new LinkedHashMap<>(64,
+                                                                                            0.75f,
+                                                                                            true);
+  private final long mMaxNumberOfShorts;
+  private long mNumberOfShorts;
+  private long mNumberOfHits;
+  private long mNumberOfMisses;
+
+  private static class CompiledMovement
+  {
+    final MovementInterface mMovement;
+    final short[] mCompiledMovement;
+
+    CompiledMovement(MovementInterface pMovement,
+                     short[] pCompiledMovement)
+    {
+      mMovement = pMovement;
+      mCompiledMovement = pCompiledMovement;
+    }
+  }
+
+  /**
+   * Instantiates a movement cache of default capacity
+   */
+  public NIRIOMovementCache()
+  {
+    this(cDefaultMaxNumberOfShorts);
+  }
+
+  /**
+   * Instantiates a movement cache of given capacity
+   *
+   * @param pMaxNumberOfShorts
+   *          maximal number of cached time point values (shorts)
+   */
+  public NIRIOMovementCache(long pMaxNumberOfShorts)
+  {
+    super();
+    mMaxNumberOfShorts = pMaxNumberOfShorts;
+  }
+
+  /**
+   * Returns the compiled movement for a given movement and its content hash, or
+   * null if not cached.
+   *
+   * @param pContentHash
+   *          movement content hash
+   * @param pMovement
+   *          movement
+   * @return compiled movement or null
+   */
+  public short[] get(long pContentHash, MovementInterface pMovement)
+  {
+    final CompiledMovement lCompiledMovement =
+                                             mCompiledMovements.get(pContentHash);
+    if (lCompiledMovement == null
+        || !Movement.hasSameContent(lCompiledMovement.mMovement,
+                                    pMovement))
+    {
+      mNumberOfMisses++;
+      return null;
+    }
+    mNumberOfHits++;
+    return lCompiledMovement.mCompiledMovement;
+  }
+
+  /**
+   * Caches a compiled movement, least recently used movements are evicted to
+   * make room for it.
+   *
+   * @param pContentHash
+   *          movement content hash
+   * @param pMovement
+   *          immutable snapshot of the compiled movement
+   * @param pCompiledMovement
+   *          compiled movement, must not be modified afterwards
+   */
+  public void put(long pContentHash,
+                  MovementInterface pMovement,
+                  short[] pCompiledMovement)
+  {
+    if (pCompiledMovement.length > mMaxNumberOfShorts)
+      return;
+
+    final CompiledMovement lPrevious =
+                                     mCompiledMovements.put(pContentHash,
+                                                            new CompiledMovement(pMovement,
+                                                                                 pCompiledMovement));
+    if (lPrevious != null)
+      mNumberOfShorts -= lPrevious.mCompiledMovement.length;
+    mNumberOfShorts += pCompiledMovement.length;
+
+    final Iterator<Map.Entry<Long, CompiledMovement>> lIterator =
+                                                                mCompiledMovements.entrySet()
+                                                                                  .iterator();
+    while (mNumberOfShorts > mMaxNumberOfShorts && lIterator.hasNext())
+    {
+      mNumberOfShorts -= lIterator.next()
+                                  .getValue().mCompiledMovement.length;
+      lIterator.remove();
+    }
+  }
+
+  /**
+   * Removes all compiled movements and resets the statistics
+   */
+  public void clear()
+  {
+    mCompiledMovements.clear();
+    mNumberOfShorts = 0;
+    mNumberOfHits = 0;
+    mNumberOfMisses = 0;
+  }
+
+  /**
+   * Returns the number of cached movements
+   *
+   * @return number of cached movements
+   */
+  public int size()
+  {
+    return mCompiledMovements.size();
+  }
+
+  /**
+   * Returns the number of lookups that found a compiled movement
+   *
+   * @return number of hits
+   */
+  public long getNumberOfHits()
+  {
+    return mNumberOfHits;
+  }
+
+  /**
+   * Returns the number of lookups that did not find a compiled movement
+   *
+   * @return number of misses
+   */
+  public long getNumberOfMisses()
+  {
+    return mNumberOfMisses;
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("NIRIOMovementCache [size=%d, shorts=%d, hits=%d, misses=%d]",
+                         size(),
+                         mNumberOfShorts,
+                         mNumberOfHits,
+                         mNumberOfMisses);
+  }
+
+}
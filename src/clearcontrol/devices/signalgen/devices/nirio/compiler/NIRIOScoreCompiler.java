@@ -10,6 +10,7 @@ import java.util.concurrent.TimeUnit;
 
 import nirioj.direttore.Direttore;
 import clearcontrol.core.concurrent.executors.AsynchronousExecutorServiceAccess;
+import clearcontrol.devices.signalgen.movement.ImmutableMovement;
 import clearcontrol.devices.signalgen.movement.Movement;
 import clearcontrol.devices.signalgen.movement.MovementInterface;
 import clearcontrol.devices.signalgen.score.ScoreInterface;
@@ -23,6 +24,17 @@ public class NIRIOScoreCompiler implements
                                 AsynchronousExecutorServiceAccess
 {
 
+  /**
+   * Compiles a score. Movements already compiled at the same place in the
+   * compiled score are left untouched, and movements compiled before are
+   * copied from the compiled score's movement cache, so that only new or
+   * modified movements are actually compiled.
+   * 
+   * @param pNIRIOCompiledScore
+   *          compiled score
+   * @param pScore
+   *          score to compile
+   */
   public static void compile(NIRIOCompiledScore pNIRIOCompiledScore,
                              ScoreInterface pScore)
   {
@@ -32,9 +44,12 @@ public class NIRIOScoreCompiler implements
     final ArrayList<MovementInterface> lMovements =
                                                   pScore.getMovements();
 
+    long lOffset = 0;
     for (final MovementInterface lMovement : lMovements)
     {
-      compileMovement(pNIRIOCompiledScore, lMovement);
+      lOffset += compileMovement(pNIRIOCompiledScore,
+                                 lMovement,
+                                 lOffset);
     }
 
   }
@@ -93,8 +108,9 @@ public class NIRIOScoreCompiler implements
 
   }
 
-  private static void compileMovement(NIRIOCompiledScore pNIRIOCompiledScore,
-                                      MovementInterface pMovement)
+  private static long compileMovement(NIRIOCompiledScore pNIRIOCompiledScore,
+                                      MovementInterface pMovement,
+                                      long pOffset)
   {
     final int pDeltaTimeInTicks =
                                 round(getDeltaTimeInNs(pMovement)
@@ -111,75 +127,118 @@ public class NIRIOScoreCompiler implements
     pNIRIOCompiledScore.getNumberOfTimePointsBuffer()
                        .writeInt(toIntExact(lNumberOfTimePoints));
 
-    addMovementToBuffer(pNIRIOCompiledScore.getScoreBuffer(),
-                        pMovement);
+    final int lMovementIndex =
+                             toIntExact(pNIRIOCompiledScore.getNumberOfMovements());
+    // the number of time points is a function of the movement duration:
+    final long lContentHash = pMovement.getContentHash();
+
+    // content hashes can collide, contents are compared on hits:
+    if (!pNIRIOCompiledScore.isMovementCompiled(lMovementIndex,
+                                                lContentHash,
+                                                pMovement,
+                                                pOffset))
+    {
+      final MovementInterface lSnapshot = getSnapshot(pMovement);
+      final NIRIOMovementCache lMovementCache =
+                                              pNIRIOCompiledScore.getMovementCache();
+      short[] lCompiledMovement = lMovementCache.get(lContentHash,
+                                                     pMovement);
+      if (lCompiledMovement == null)
+      {
+        lCompiledMovement = compileMovementToArray(pMovement,
+                                                   toIntExact(lNumberOfTimePoints));
+        lMovementCache.put(lContentHash,
+                           lSnapshot,
+                           lCompiledMovement);
+      }
+
+      pNIRIOCompiledScore.getScoreBuffer()
+                         .getContiguousMemory()
+                         .subRegion(2 * pOffset,
+                                    2L * lCompiledMovement.length)
+                         .copyFrom(lCompiledMovement);
+
+      pNIRIOCompiledScore.setMovementCompiled(lMovementIndex,
+                                              lContentHash,
+                                              lSnapshot,
+                                              pOffset);
+    }
 
     pNIRIOCompiledScore.setNumberOfMovements(pNIRIOCompiledScore.getNumberOfMovements()
                                              + 1);
+
+    return lNumberOfTimePoints * pMovement.getNumberOfStaves();
   }
 
-  private static void addMovementToBuffer(ContiguousBuffer pScoreBuffer,
-                                          MovementInterface pMovement)
+  private static MovementInterface getSnapshot(MovementInterface pMovement)
+  {
+    if (pMovement instanceof ImmutableMovement)
+      return pMovement;
+
+    // copies do not carry over the enabled state:
+    final MovementInterface lSnapshot = pMovement.copy();
+    for (int s = 0; s < pMovement.getNumberOfStaves(); s++)
+      lSnapshot.getStave(s).setEnabled(pMovement.getStave(s).isEnabled());
+    return lSnapshot;
+  }
+
+  private static short[] compileMovementToArray(MovementInterface pMovement,
+                                                int pNumberOfTimePoints)
   {
-    final long lNumberOfTimePoints = getNumberOfTimePoints(pMovement);
     final int lNumberOfStaves = pMovement.getNumberOfStaves();
 
-    pScoreBuffer.pushPosition();
-    long lNumberOfShortsInMovement = lNumberOfTimePoints
-                                     * lNumberOfStaves;
-    pScoreBuffer.writeBytes(2 * lNumberOfShortsInMovement, (byte) 0);
-    pScoreBuffer.popPosition();
+    // time points are interleaved, staves are strided by the number of staves:
+    final short[] lCompiledMovement =
+                                    new short[pNumberOfTimePoints
+                                              * lNumberOfStaves];
+    float[] lValues = null;
 
-    pScoreBuffer.pushPosition();
     for (int s = 0; s < lNumberOfStaves; s++)
     {
-
-      pScoreBuffer.pushPosition();
       final StaveInterface lStave = pMovement.getStave(s);
 
       if (lStave instanceof ZeroStave)
       {
-        addZeroStaveToBuffer(pScoreBuffer,
-                             lNumberOfTimePoints,
-                             lNumberOfStaves);
+        // do nothing - already 0
       }
       else if (lStave instanceof ConstantStave)
       {
         final ConstantStave lConstantStave = (ConstantStave) lStave;
-        addConstantStaveToBuffer(pScoreBuffer,
-                                 lNumberOfTimePoints,
-                                 lNumberOfStaves,
-                                 lConstantStave.getConstantValue());
+        fillConstant(lCompiledMovement,
+                     s,
+                     lNumberOfStaves,
+                     pNumberOfTimePoints,
+                     getShortForFloat(lConstantStave.getConstantValue()));
       }
       else if (lStave instanceof IntervalStave)
       {
-        final IntervalStave lIntervalStave = (IntervalStave) lStave;
-        addIntervalStaveToBuffer(pScoreBuffer,
-                                 lNumberOfTimePoints,
-                                 lNumberOfStaves,
-                                 lIntervalStave);
+        fillInterval(lCompiledMovement,
+                     s,
+                     lNumberOfStaves,
+                     pNumberOfTimePoints,
+                     (IntervalStave) lStave);
       }
       else
       {
-        addStaveToBuffer(pScoreBuffer,
-                         lNumberOfTimePoints,
-                         lNumberOfStaves,
-                         lStave);
+        if (lValues == null)
+          lValues = new float[pNumberOfTimePoints];
+        fill(lCompiledMovement,
+             s,
+             lNumberOfStaves,
+             pNumberOfTimePoints,
+             lStave,
+             lValues);
       }
-
-      pScoreBuffer.popPosition();
-      pScoreBuffer.skipShorts(1);
     }
-    pScoreBuffer.popPosition();
-
-    pScoreBuffer.skipShorts(lNumberOfShortsInMovement);
 
+    return lCompiledMovement;
   }
 
-  private static void addIntervalStaveToBuffer(ContiguousBuffer pScoreBuffer,
-                                               long pNumberOfTimePoints,
-                                               int pNumberOfStaves,
-                                               IntervalStave pIntervalStave)
+  private static void fillInterval(short[] pOut,
+                                   int pOffset,
+                                   int pStride,
+                                   int pNumberOfTimePoints,
+                                   IntervalStave pIntervalStave)
   {
     final float lSyncStart = pIntervalStave.getStart();
     final float lSyncStop = pIntervalStave.getStop();
@@ -187,69 +246,57 @@ public class NIRIOScoreCompiler implements
                              getShortForFloat(pIntervalStave.getInsideValue());
     final short lOutsideValue =
                               getShortForFloat(pIntervalStave.getOutsideValue());
-    final boolean lEnabled = pIntervalStave.isEnabled();
+
+    if (!pIntervalStave.isEnabled())
+    {
+      fillConstant(pOut,
+                   pOffset,
+                   pStride,
+                   pNumberOfTimePoints,
+                   lOutsideValue);
+      return;
+    }
 
     final float lInvNumberOfTimepoints = 1f / pNumberOfTimePoints;
-    for (int t = 0; t < pNumberOfTimePoints; t++)
+    for (int t = 0, i = pOffset; t < pNumberOfTimePoints; t++, i +=
+                                                                 pStride)
     {
       final float lNormalizedTime = t * lInvNumberOfTimepoints;
 
-      if (!lEnabled)
-      {
-        pScoreBuffer.writeShort(lOutsideValue);
-      }
-      else if (t == pNumberOfTimePoints - 1 && lSyncStart == 0)
-      {
-        pScoreBuffer.writeShort(lOutsideValue);
-      }
+      if (t == pNumberOfTimePoints - 1 && lSyncStart == 0)
+        pOut[i] = lOutsideValue;
+      else if (lNormalizedTime < lSyncStart
+               || lNormalizedTime > lSyncStop)
+        pOut[i] = lOutsideValue;
       else
-      {
-        if (lNormalizedTime < lSyncStart
-            || lNormalizedTime > lSyncStop)
-          pScoreBuffer.writeShort(lOutsideValue);
-        else
-          pScoreBuffer.writeShort(lInsideValue);
-      }
-
-      pScoreBuffer.skipShorts(pNumberOfStaves - 1);
+        pOut[i] = lInsideValue;
     }
-
   }
 
-  private static void addConstantStaveToBuffer(ContiguousBuffer pScoreBuffer,
-                                               final long pNumberOfTimePoints,
-                                               final int pNumberOfStaves,
-                                               final float pFloatConstant)
+  private static void fillConstant(short[] pOut,
+                                   int pOffset,
+                                   int pStride,
+                                   int pNumberOfTimePoints,
+                                   short pValue)
   {
-    final short lShortValue = getShortForFloat(pFloatConstant);
-    for (int t = 0; t < pNumberOfTimePoints; t++)
-    {
-      pScoreBuffer.writeShort(lShortValue);
-      pScoreBuffer.skipShorts(pNumberOfStaves - 1);
-    }
-  }
-
-  private static void addZeroStaveToBuffer(ContiguousBuffer pScoreBuffer,
-                                           final long pNumberOfTimePoints,
-                                           final int pNumberOfStaves)
-  {
-    // do nothing - already 0
+    if (pValue == 0)
+      return;
+    final int lEnd = pOffset + pNumberOfTimePoints * pStride;
+    for (int i = pOffset; i < lEnd; i += pStride)
+      pOut[i] = pValue;
   }
 
-  private static void addStaveToBuffer(ContiguousBuffer pScoreBuffer,
-                                       final long pNumberOfTimePoints,
-                                       final int pNumberOfStaves,
-                                       final StaveInterface pStave)
+  private static void fill(short[] pOut,
+                           int pOffset,
+                           int pStride,
+                           int pNumberOfTimePoints,
+                           StaveInterface pStave,
+                           float[] pValues)
   {
-    final float lInvNumberOfTimepoints = 1f / pNumberOfTimePoints;
-    for (int t = 0; t < pNumberOfTimePoints; t++)
-    {
-      final float lNormalizedTime = t * lInvNumberOfTimepoints;
-      final float lFloatValue = pStave.getValue(lNormalizedTime);
-      final short lShortValue = getShortForFloat(lFloatValue);
-      pScoreBuffer.writeShort(lShortValue);
-      pScoreBuffer.skipShorts(pNumberOfStaves - 1);
-    }
+    pStave.getValues(pValues, 0, pNumberOfTimePoints, pNumberOfTimePoints);
+    for (int t = 0, i = pOffset; t < pNumberOfTimePoints; t++, i +=
+                                                                 pStride)
+      pOut[i] = getShortForFloat(pValues[t]);
   }
 
   private static short getShortForFloat(final float lFloatValue)
@@ -0,0 +1,175 @@
+package clearcontrol.devices.signalgen.devices.nirio.compiler.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import clearcontrol.devices.signalgen.devices.nirio.compiler.NIRIOCompiledScore;
+import clearcontrol.devices.signalgen.devices.nirio.compiler.NIRIOScoreCompiler;
+import clearcontrol.devices.signalgen.movement.Movement;
+import clearcontrol.devices.signalgen.score.Score;
+import clearcontrol.devices.signalgen.staves.ConstantStave;
+import clearcontrol.devices.signalgen.staves.RampSteppingStave;
+import clearcontrol.devices.signalgen.staves.SinusStave;
+import clearcontrol.devices.signalgen.staves.TriggerStave;
+
+import org.junit.Test;
+
+/**
+ * Score compiler benchmark: measures the compilation throughput of light-sheet
+ * like scores, cold and when recompiling (partly) unchanged scores. Does not
+ * require NI hardware.
+ *
+ * @author royer
+ */
+public class NIRIOScoreCompilerBenchmarkTests
+{
+  private static final int cNumberOfMovements = 500;
+  private static final int cRepeats = 10;
+
+  /**
+   * Benchmark
+   */
+  @Test
+  public void benchmark()
+  {
+    final Score lScore = createScore(cNumberOfMovements, 0);
+
+    // warmup:
+    NIRIOScoreCompiler.compile(new NIRIOCompiledScore(), lScore);
+
+    long lStart = System.nanoTime();
+    for (int r = 0; r < cRepeats; r++)
+      NIRIOScoreCompiler.compile(new NIRIOCompiledScore(), lScore);
+    report("cold compilation", lStart);
+
+    final NIRIOCompiledScore lCompiledScore = new NIRIOCompiledScore();
+    NIRIOScoreCompiler.compile(lCompiledScore, lScore);
+    lStart = System.nanoTime();
+    for (int r = 0; r < cRepeats; r++)
+      NIRIOScoreCompiler.compile(lCompiledScore, lScore);
+    report("recompilation of unchanged score", lStart);
+    assertSameAsColdCompilation(lCompiledScore, lScore);
+
+    lStart = System.nanoTime();
+    for (int r = 0; r < cRepeats; r++)
+    {
+      final ConstantStave lStave =
+                                 (ConstantStave) lScore.getMovements()
+                                                       .get(r)
+                                                       .getStave(3);
+      lStave.setValue(-lStave.getConstantValue());
+      NIRIOScoreCompiler.compile(lCompiledScore, lScore);
+    }
+    report("recompilation with one modified movement", lStart);
+    assertSameAsColdCompilation(lCompiledScore, lScore);
+
+    // same movements, shifted by one movement in the score:
+    final Score lShiftedScore = createScore(cNumberOfMovements, 1);
+    lStart = System.nanoTime();
+    NIRIOScoreCompiler.compile(lCompiledScore, lShiftedScore);
+    report("compilation of shifted score", lStart, 1);
+    assertSameAsColdCompilation(lCompiledScore, lShiftedScore);
+
+    System.out.println(lCompiledScore.getMovementCache());
+    assertTrue(lCompiledScore.getMovementCache()
+                             .getNumberOfHits() >= cNumberOfMovements
+                                                   - cRepeats
+                                                   - 1);
+  }
+
+  private static Score createScore(int pNumberOfMovements, int pShift)
+  {
+    final Score lScore = new Score("Benchmark Score");
+    for (int m = 0; m < pNumberOfMovements; m++)
+    {
+      final int lPlaneIndex = m - pShift;
+      final Movement lMovement = new Movement("Plane " + lPlaneIndex);
+
+      final TriggerStave lCameraTriggerStave =
+                                             new TriggerStave("camera trigger");
+      lCameraTriggerStave.setStart(0.2f);
+      lCameraTriggerStave.setStop(0.6f);
+
+      final RampSteppingStave lGalvoScannerStave =
+                                                 new RampSteppingStave("galvo");
+      lGalvoScannerStave.setSyncStart(0.1f);
+      lGalvoScannerStave.setSyncStop(0.7f);
+      lGalvoScannerStave.setStartValue(-0.5f);
+      lGalvoScannerStave.setStopValue(0.5f);
+      lGalvoScannerStave.setStepHeight(0.02f);
+
+      final TriggerStave lLaserTriggerStave =
+                                            new TriggerStave("laser trigger");
+      lLaserTriggerStave.setStart(0.3f);
+      lLaserTriggerStave.setStop(0.5f);
+
+      final ConstantStave lDetectionZStave =
+                                           new ConstantStave("detection z",
+                                                             lPlaneIndex
+                                                                            / (float) pNumberOfMovements);
+
+      final SinusStave lSinusStave = new SinusStave("sinus",
+                                                    0.1f,
+                                                    0,
+                                                    0.25f);
+
+      lMovement.setStave(0, lCameraTriggerStave);
+      lMovement.setStave(1, lGalvoScannerStave);
+      lMovement.setStave(2, lLaserTriggerStave);
+      lMovement.setStave(3, lDetectionZStave);
+      lMovement.setStave(4, lSinusStave);
+      lMovement.setDuration(5, TimeUnit.MILLISECONDS);
+
+      lScore.addMovement(lMovement);
+    }
+    return lScore;
+  }
+
+  private static void assertSameAsColdCompilation(NIRIOCompiledScore pCompiledScore,
+                                                  Score pScore)
+  {
+    final NIRIOCompiledScore lColdCompiledScore =
+                                                new NIRIOCompiledScore();
+    NIRIOScoreCompiler.compile(lColdCompiledScore, pScore);
+    assertArrayEquals(getCompiledMovements(lColdCompiledScore, pScore),
+                      getCompiledMovements(pCompiledScore, pScore));
+  }
+
+  private static short[] getCompiledMovements(NIRIOCompiledScore pCompiledScore,
+                                              Score pScore)
+  {
+    final int lLength =
+                      pScore.getMovements()
+                            .stream()
+                            .mapToInt(m -> (int) (NIRIOScoreCompiler.getNumberOfTimePoints(m)
+                                                  * m.getNumberOfStaves()))
+                            .sum();
+    final short[] lCompiledMovements = new short[lLength];
+    pCompiledScore.getScoreBuffer()
+                  .getContiguousMemory()
+                  .subRegion(0, 2L * lLength)
+                  .copyTo(lCompiledMovements);
+    return lCompiledMovements;
+  }
+
+  private static void report(String pName, long pStartTimeInNs)
+  {
+    report(pName, pStartTimeInNs, cRepeats);
+  }
+
+  private static void report(String pName,
+                             long pStartTimeInNs,
+                             int pRepeats)
+  {
+    final double lElapsedTimeInSeconds = (System.nanoTime()
+                                          - pStartTimeInNs)
+                                         * 1e-9;
+    final double lMovements = ((double) cNumberOfMovements) * pRepeats;
+    System.out.format("%s: %.1f movements/ms \n",
+                      pName,
+                      lMovements / lElapsedTimeInSeconds * 1e-3);
+  }
+
+}
@@ -0,0 +1,168 @@
+package clearcontrol.devices.signalgen.movement;
+
+import java.util.concurrent.TimeUnit;
+
+import clearcontrol.core.device.name.NameableBase;
+import clearcontrol.devices.signalgen.staves.StaveInterface;
+
+/**
+ * Immutable movement, as obtained from a movement interner. Its staves are
+ * shared with other interned movements and must not be modified. The content
+ * hash is computed once at construction.
+ *
+ * @author royer
+ */
+public class ImmutableMovement extends NameableBase
+                               implements MovementInterface
+{
+  private final long mDurationInNanoseconds;
+  private final StaveInterface[] mStaveArray;
+  private final long[] mStaveContentHashes;
+  private final boolean mIsSync;
+  private final boolean mIsSyncOnRisingEdge;
+  private final int mSyncChannel;
+  private final long mContentHash;
+
+  /**
+   * Instantiates an immutable movement with the same settings as a given
+   * movement, but with the given (shared) staves.
+   *
+   * @param pMovement
+   *          movement to take the name, duration and sync settings from
+   * @param pStaves
+   *          staves, not copied
+   * @param pStaveContentHashes
+   *          content hashes of the staves, not copied
+   * @param pContentHash
+   *          content hash
+   */
+  ImmutableMovement(MovementInterface pMovement,
+                    StaveInterface[] pStaves,
+                    long[] pStaveContentHashes,
+                    long pContentHash)
+  {
+    super(pMovement.getName());
+    mDurationInNanoseconds =
+                           pMovement.getDuration(TimeUnit.NANOSECONDS);
+    mStaveArray = pStaves;
+    mStaveContentHashes = pStaveContentHashes;
+    mIsSync = pMovement.isSync();
+    mIsSyncOnRisingEdge = pMovement.isSyncOnRisingEdge();
+    mSyncChannel = pMovement.getSyncChannel();
+    mContentHash = pContentHash;
+  }
+
+  @Override
+  public void setStave(int pStaveIndex, StaveInterface pStave)
+  {
+    throw new UnsupportedOperationException("Immutable movement");
+  }
+
+  @Override
+  public <O extends StaveInterface> O ensureSetStave(int pStaveIndex,
+                                                     O pNewStave)
+  {
+    throw new UnsupportedOperationException("Immutable movement");
+  }
+
+  @Override
+  public StaveInterface getStave(int pStaveIndex)
+  {
+    return mStaveArray[pStaveIndex];
+  }
+
+  @Override
+  public int getNumberOfStaves()
+  {
+    return mStaveArray.length;
+  }
+
+  @Override
+  public void setDuration(long pDuration, TimeUnit pTimeUnit)
+  {
+    throw new UnsupportedOperationException("Immutable movement");
+  }
+
+  @Override
+  public long getDuration(TimeUnit pTimeUnit)
+  {
+    return pTimeUnit.convert(mDurationInNanoseconds,
+                             TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void setSync(boolean pSync)
+  {
+    throw new UnsupportedOperationException("Immutable movement");
+  }
+
+  @Override
+  public boolean isSync()
+  {
+    return mIsSync;
+  }
+
+  @Override
+  public void setSyncOnRisingEdge(boolean pSyncOnRisingEdge)
+  {
+    throw new UnsupportedOperationException("Immutable movement");
+  }
+
+  @Override
+  public boolean isSyncOnRisingEdge()
+  {
+    return mIsSyncOnRisingEdge;
+  }
+
+  @Override
+  public void setSyncChannel(int pSyncChannel)
+  {
+    throw new UnsupportedOperationException("Immutable movement");
+  }
+
+  @Override
+  public int getSyncChannel()
+  {
+    return mSyncChannel;
+  }
+
+  @Override
+  public long getContentHash()
+  {
+    return mContentHash;
+  }
+
+  long getStaveContentHash(int pStaveIndex)
+  {
+    return mStaveContentHashes[pStaveIndex];
+  }
+
+  @Override
+  public MovementInterface copy()
+  {
+    final MovementInterface lMovementCopy =
+                                          new Movement(getName(),
+                                                       getNumberOfStaves());
+    lMovementCopy.setSync(isSync());
+    lMovementCopy.setSyncChannel(getSyncChannel());
+    lMovementCopy.setSyncOnRisingEdge(isSyncOnRisingEdge());
+    lMovementCopy.setDuration(mDurationInNanoseconds,
+                              TimeUnit.NANOSECONDS);
+
+    for (int i = 0; i < mStaveArray.length; i++)
+    {
+      final StaveInterface lStave = mStaveArray[i].copy();
+      lStave.setEnabled(mStaveArray[i].isEnabled());
+      lMovementCopy.setStave(i, lStave);
+    }
+
+    return lMovementCopy;
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("ImmutableMovement[%s]", getName());
+  }
+
+}
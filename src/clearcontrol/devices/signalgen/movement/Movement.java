@@ -118,6 +118,89 @@ public class Movement extends NameableBase
     return mSyncChannel;
   }
 
+  @Override
+  public long getContentHash()
+  {
+    return getContentHash(this);
+  }
+
+  /**
+   * Computes the content hash of a given movement
+   * 
+   * @param pMovement
+   *          movement
+   * @return content hash
+   */
+  public static long getContentHash(MovementInterface pMovement)
+  {
+    final int lNumberOfStaves = pMovement.getNumberOfStaves();
+    final long[] lStaveContentHashes = new long[lNumberOfStaves];
+    for (int s = 0; s < lNumberOfStaves; s++)
+      lStaveContentHashes[s] = pMovement.getStave(s).getContentHash();
+    return getContentHash(pMovement, lStaveContentHashes);
+  }
+
+  /**
+   * Computes the content hash of a given movement from the content hashes of
+   * its staves
+   * 
+   * @param pMovement
+   *          movement
+   * @param pStaveContentHashes
+   *          content hashes of the movement's staves
+   * @return content hash
+   */
+  public static long getContentHash(MovementInterface pMovement,
+                                    long[] pStaveContentHashes)
+  {
+    long lHash = pMovement.getDuration(TimeUnit.NANOSECONDS);
+    lHash = 31 * lHash + (pMovement.isSync() ? 1231 : 1237);
+    lHash = 31 * lHash
+            + (pMovement.isSyncOnRisingEdge() ? 1231 : 1237);
+    lHash = 31 * lHash + pMovement.getSyncChannel();
+    lHash = 31 * lHash + pStaveContentHashes.length;
+    for (int s = 0; s < pStaveContentHashes.length; s++)
+      lHash = lHash * 0x9E3779B97F4A7C15L + pStaveContentHashes[s];
+    return lHash;
+  }
+
+  /**
+   * Returns true if two movements have the same content: same duration, sync
+   * settings and staves of same content. Content hashes can collide, so this
+   * is checked before reusing anything found by content hash.
+   * 
+   * @param pMovement1
+   *          first movement
+   * @param pMovement2
+   *          second movement
+   * @return true if same content
+   */
+  public static boolean hasSameContent(MovementInterface pMovement1,
+                                       MovementInterface pMovement2)
+  {
+    if (pMovement1 == pMovement2)
+      return true;
+    if (pMovement1 == null || pMovement2 == null)
+      return false;
+
+    final int lNumberOfStaves = pMovement1.getNumberOfStaves();
+    if (pMovement1.getDuration(TimeUnit.NANOSECONDS) != pMovement2.getDuration(TimeUnit.NANOSECONDS)
+        || pMovement1.isSync() != pMovement2.isSync()
+        || pMovement1.isSyncOnRisingEdge() != pMovement2.isSyncOnRisingEdge()
+        || pMovement1.getSyncChannel() != pMovement2.getSyncChannel()
+        || lNumberOfStaves != pMovement2.getNumberOfStaves())
+      return false;
+
+    for (int s = 0; s < lNumberOfStaves; s++)
+    {
+      final StaveInterface lStave = pMovement1.getStave(s);
+      if (lStave != pMovement2.getStave(s)
+          && !lStave.hasSameContent(pMovement2.getStave(s)))
+        return false;
+    }
+    return true;
+  }
+
   @Override
   public String toString()
   {
@@ -117,6 +117,14 @@ public interface MovementInterface extends NameableInterface
    */
   int getSyncChannel();
 
+  /**
+   * Returns a hash of everything that determines the signals played by this
+   * movement: duration, sync settings, and the content hashes of all staves.
+   * 
+   * @return content hash
+   */
+  long getContentHash();
+
   /**
    * Returns a field_for_field copy of this movement.
    * 
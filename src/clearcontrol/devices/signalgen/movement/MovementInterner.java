@@ -0,0 +1,139 @@
+package clearcontrol.devices.signalgen.movement;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import clearcontrol.devices.signalgen.staves.StaveInterface;
+
+/**
+ * Movement interner: takes immutable snapshots of (mutable) movements, staves
+ * with the same content are shared between snapshots, and so are movements
+ * with the same name and content. Each snapshot is compared to the previous
+ * snapshot of the same movement, and only the staves that changed since are
+ * looked up, or copied if never seen before. Staves and movements are looked
+ * up by content hash, and only reused if their contents are equal; on a hash
+ * collision the latest content replaces the interned one.
+ *
+ * @author royer
+ */
+public class MovementInterner
+{
+  private final HashMap<Long, StaveInterface> mInternedStaves =
+                                                              new HashMap<>();
+  private final HashMap<Long, ImmutableMovement> mInternedMovements =
+                                                                    new HashMap<>();
+  private final IdentityHashMap<MovementInterface, ImmutableMovement> mLastSnapshots =
+                                                                                    new IdentityHashMap<>();
+
+  /**
+   * Instantiates a movement interner
+   */
+  public MovementInterner()
+  {
+    super();
+  }
+
+  /**
+   * Returns an immutable snapshot of the given movement, sharing staves and
+   * movements with previous snapshots where their content is unchanged.
+   *
+   * @param pMovement
+   *          movement
+   * @return immutable snapshot
+   */
+  public ImmutableMovement intern(MovementInterface pMovement)
+  {
+    final int lNumberOfStaves = pMovement.getNumberOfStaves();
+    final long[] lStaveContentHashes = new long[lNumberOfStaves];
+    for (int s = 0; s < lNumberOfStaves; s++)
+      lStaveContentHashes[s] = pMovement.getStave(s).getContentHash();
+
+    final long lContentHash = Movement.getContentHash(pMovement,
+                                                      lStaveContentHashes);
+
+    // most of the time only a few staves change from one snapshot of a
+    // movement to the next:
+    final ImmutableMovement lPrevious = mLastSnapshots.get(pMovement);
+    if (lPrevious != null && lPrevious.getContentHash() == lContentHash
+        && lPrevious.getName().equals(pMovement.getName())
+        && Movement.hasSameContent(lPrevious, pMovement))
+      return lPrevious;
+
+    final long lKey = 31 * lContentHash
+                      + pMovement.getName().hashCode();
+
+    // content hashes can collide, contents are compared before reuse:
+    ImmutableMovement lMovement = mInternedMovements.get(lKey);
+    if (lMovement == null
+        || !lMovement.getName().equals(pMovement.getName())
+        || !Movement.hasSameContent(lMovement, pMovement))
+    {
+      final StaveInterface[] lStaves =
+                                     new StaveInterface[lNumberOfStaves];
+      for (int s = 0; s < lNumberOfStaves; s++)
+      {
+        if (lPrevious != null && s < lPrevious.getNumberOfStaves()
+            && lPrevious.getStaveContentHash(s) == lStaveContentHashes[s]
+            && lPrevious.getStave(s)
+                        .hasSameContent(pMovement.getStave(s)))
+          lStaves[s] = lPrevious.getStave(s);
+        else
+          lStaves[s] = intern(pMovement.getStave(s),
+                              lStaveContentHashes[s]);
+      }
+
+      lMovement = new ImmutableMovement(pMovement,
+                                        lStaves,
+                                        lStaveContentHashes,
+                                        lContentHash);
+      mInternedMovements.put(lKey, lMovement);
+    }
+    mLastSnapshots.put(pMovement, lMovement);
+    return lMovement;
+  }
+
+  private StaveInterface intern(StaveInterface pStave,
+                                long pContentHash)
+  {
+    StaveInterface lStave = mInternedStaves.get(pContentHash);
+    if (lStave == null || !lStave.hasSameContent(pStave))
+    {
+      lStave = pStave.copy();
+      // copies do not carry over the enabled state:
+      lStave.setEnabled(pStave.isEnabled());
+      mInternedStaves.put(pContentHash, lStave);
+    }
+    return lStave;
+  }
+
+  /**
+   * Forgets all interned staves and movements
+   */
+  public void clear()
+  {
+    mInternedStaves.clear();
+    mInternedMovements.clear();
+    mLastSnapshots.clear();
+  }
+
+  /**
+   * Returns the number of distinct interned staves
+   *
+   * @return number of interned staves
+   */
+  public int getNumberOfInternedStaves()
+  {
+    return mInternedStaves.size();
+  }
+
+  /**
+   * Returns the number of distinct interned movements
+   *
+   * @return number of interned movements
+   */
+  public int getNumberOfInternedMovements()
+  {
+    return mInternedMovements.size();
+  }
+
+}
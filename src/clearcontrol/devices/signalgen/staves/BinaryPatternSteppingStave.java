@@ -81,6 +81,28 @@ public class BinaryPatternSteppingStave extends PatternSteppingStave
     mPatternPhaseIncrement = pPatternPhaseIncrement;
   }
 
+  @Override
+  public long getContentHash()
+  {
+    long lHash = super.getContentHash();
+    lHash = hash(lHash, getPatternPeriod());
+    lHash = hash(lHash, getPatternPhaseIndex());
+    lHash = hash(lHash, getPatternOnLength());
+    return hash(lHash, getPatternPhaseIncrement());
+  }
+
+  @Override
+  public boolean hasSameContent(StaveInterface pStave)
+  {
+    if (!super.hasSameContent(pStave))
+      return false;
+    final BinaryPatternSteppingStave lStave = (BinaryPatternSteppingStave) pStave;
+    return getPatternPeriod() == lStave.getPatternPeriod()
+           && getPatternPhaseIndex() == lStave.getPatternPhaseIndex()
+           && getPatternOnLength() == lStave.getPatternOnLength()
+           && getPatternPhaseIncrement() == lStave.getPatternPhaseIncrement();
+  }
+
   @Override
   public StaveInterface copy()
   {
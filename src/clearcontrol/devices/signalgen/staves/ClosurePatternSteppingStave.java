@@ -24,11 +24,35 @@ public class ClosurePatternSteppingStave extends PatternSteppingStave
     return getSteppingFunction().function(pIndex);
   }
 
+  @Override
+  public long getContentHash()
+  {
+    // stepping functions are expected to be pure:
+    return hash(super.getContentHash(),
+                System.identityHashCode(getSteppingFunction()));
+  }
+
+  @Override
+  public boolean hasSameContent(StaveInterface pStave)
+  {
+    if (!super.hasSameContent(pStave))
+      return false;
+    // stepping functions are compared by identity:
+    final ClosurePatternSteppingStave lStave =
+                                             (ClosurePatternSteppingStave) pStave;
+    return getSteppingFunction() == lStave.getSteppingFunction();
+  }
+
   @Override
   public StaveInterface copy()
   {
-    return new ClosurePatternSteppingStave(getName(),
-                                           getSteppingFunction());
+    final ClosurePatternSteppingStave lClosurePatternSteppingStave =
+                                                                   new ClosurePatternSteppingStave(getName(),
+                                                                                                   getSteppingFunction());
+    lClosurePatternSteppingStave.setSyncStart(getSyncStart());
+    lClosurePatternSteppingStave.setSyncStop(getSyncStop());
+    lClosurePatternSteppingStave.setNumberOfSteps(getNumberOfSteps());
+    return lClosurePatternSteppingStave;
   }
 
 }
@@ -1,5 +1,7 @@
 package clearcontrol.devices.signalgen.staves;
 
+import java.util.Arrays;
+
 public class ConstantStave extends StaveAbstract
                            implements StaveInterface
 {
@@ -17,6 +19,18 @@ public class ConstantStave extends StaveAbstract
     return mConstantValue;
   }
 
+  @Override
+  public void getValues(float[] pValues,
+                        int pFromTimePoint,
+                        int pToTimePoint,
+                        int pNumberOfTimePoints)
+  {
+    Arrays.fill(pValues,
+                0,
+                pToTimePoint - pFromTimePoint,
+                mConstantValue);
+  }
+
   public float getConstantValue()
   {
     return mConstantValue;
@@ -27,6 +41,21 @@ public class ConstantStave extends StaveAbstract
     mConstantValue = pValue;
   }
 
+  @Override
+  public long getContentHash()
+  {
+    return hash(super.getContentHash(), getConstantValue());
+  }
+
+  @Override
+  public boolean hasSameContent(StaveInterface pStave)
+  {
+    if (!super.hasSameContent(pStave))
+      return false;
+    final ConstantStave lStave = (ConstantStave) pStave;
+    return same(getConstantValue(), lStave.getConstantValue());
+  }
+
   @Override
   public StaveInterface copy()
   {
@@ -1,5 +1,7 @@
 package clearcontrol.devices.signalgen.staves;
 
+import java.util.Arrays;
+
 public class EdgeStave extends IntervalStave implements StaveInterface
 {
 
@@ -23,6 +25,27 @@ public class EdgeStave extends IntervalStave implements StaveInterface
       return getValueBefore();
   }
 
+  @Override
+  public void getValues(float[] pValues,
+                        int pFromTimePoint,
+                        int pToTimePoint,
+                        int pNumberOfTimePoints)
+  {
+    final int lLength = pToTimePoint - pFromTimePoint;
+    Arrays.fill(pValues, 0, lLength, getValueBefore());
+    if (!isEnabled())
+      return;
+
+    final int lEdge = firstTimePointAfter(getEdgePosition(),
+                                          pFromTimePoint,
+                                          pToTimePoint,
+                                          1f / pNumberOfTimePoints);
+    Arrays.fill(pValues,
+                lEdge - pFromTimePoint,
+                lLength,
+                getValueAfter());
+  }
+
   public float getEdgePosition()
   {
     return getStart();
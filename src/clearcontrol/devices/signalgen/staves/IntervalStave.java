@@ -1,5 +1,7 @@
 package clearcontrol.devices.signalgen.staves;
 
+import java.util.Arrays;
+
 public class IntervalStave extends StaveAbstract
                            implements StaveInterface
 {
@@ -37,6 +39,33 @@ public class IntervalStave extends StaveAbstract
       return getInsideValue();
   }
 
+  @Override
+  public void getValues(float[] pValues,
+                        int pFromTimePoint,
+                        int pToTimePoint,
+                        int pNumberOfTimePoints)
+  {
+    final int lLength = pToTimePoint - pFromTimePoint;
+    Arrays.fill(pValues, 0, lLength, getOutsideValue());
+    if (!isEnabled())
+      return;
+
+    final float lInvNumberOfTimepoints = 1f / pNumberOfTimePoints;
+    final int lStart = firstTimePointAtOrAfter(getStart(),
+                                               pFromTimePoint,
+                                               pToTimePoint,
+                                               lInvNumberOfTimepoints);
+    final int lStop = firstTimePointAfter(getStop(),
+                                          pFromTimePoint,
+                                          pToTimePoint,
+                                          lInvNumberOfTimepoints);
+    if (lStop > lStart)
+      Arrays.fill(pValues,
+                  lStart - pFromTimePoint,
+                  lStop - pFromTimePoint,
+                  getInsideValue());
+  }
+
   public float getStart()
   {
     return mStart;
@@ -77,6 +106,28 @@ public class IntervalStave extends StaveAbstract
     mOutsideValue = pOutsideValue;
   }
 
+  @Override
+  public long getContentHash()
+  {
+    long lHash = super.getContentHash();
+    lHash = hash(lHash, getStart());
+    lHash = hash(lHash, getStop());
+    lHash = hash(lHash, getInsideValue());
+    return hash(lHash, getOutsideValue());
+  }
+
+  @Override
+  public boolean hasSameContent(StaveInterface pStave)
+  {
+    if (!super.hasSameContent(pStave))
+      return false;
+    final IntervalStave lStave = (IntervalStave) pStave;
+    return same(getStart(), lStave.getStart())
+           && same(getStop(), lStave.getStop())
+           && same(getInsideValue(), lStave.getInsideValue())
+           && same(getOutsideValue(), lStave.getOutsideValue());
+  }
+
   @Override
   public StaveInterface copy()
   {
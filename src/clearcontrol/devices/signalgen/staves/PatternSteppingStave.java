@@ -2,6 +2,8 @@ package clearcontrol.devices.signalgen.staves;
 
 import static java.lang.Math.floor;
 
+import java.util.Arrays;
+
 public abstract class PatternSteppingStave extends StaveAbstract
                                            implements StaveInterface
 {
@@ -48,6 +50,52 @@ public abstract class PatternSteppingStave extends StaveAbstract
     return function(lNormalizedSteppingRampTime);
   }
 
+  @Override
+  public void getValues(float[] pValues,
+                        int pFromTimePoint,
+                        int pToTimePoint,
+                        int pNumberOfTimePoints)
+  {
+    final int lLength = pToTimePoint - pFromTimePoint;
+    if (!isEnabled())
+    {
+      Arrays.fill(pValues, 0, lLength, 1);
+      return;
+    }
+    Arrays.fill(pValues, 0, lLength, 0);
+
+    final float lInvNumberOfTimepoints = 1f / pNumberOfTimePoints;
+    final float lSyncStart = getSyncStart();
+    final float lSyncStop = getSyncStop();
+    final int lNumberOfSteps = getNumberOfSteps();
+    final int lStart = firstTimePointAtOrAfter(lSyncStart,
+                                               pFromTimePoint,
+                                               pToTimePoint,
+                                               lInvNumberOfTimepoints);
+    final int lStop = firstTimePointAfter(lSyncStop,
+                                          lStart,
+                                          pToTimePoint,
+                                          lInvNumberOfTimepoints);
+
+    // the pattern function is evaluated once per step:
+    int lIndex = Integer.MIN_VALUE;
+    float lValue = 0;
+    for (int t = lStart; t < lStop; t++)
+    {
+      final float lNormalizedRampTime = (t * lInvNumberOfTimepoints
+                                         - lSyncStart)
+                                        / (lSyncStop - lSyncStart);
+      final int lSteppingIndex = (int) floor(lNumberOfSteps
+                                             * lNormalizedRampTime);
+      if (lSteppingIndex != lIndex)
+      {
+        lIndex = lSteppingIndex;
+        lValue = function(lIndex);
+      }
+      pValues[t - pFromTimePoint] = lValue;
+    }
+  }
+
   public abstract float function(int pIndex);
 
   public float getSyncStart()
@@ -80,6 +128,26 @@ public abstract class PatternSteppingStave extends StaveAbstract
     mNumberOfSteps = pNumberOfSteps;
   }
 
+  @Override
+  public long getContentHash()
+  {
+    long lHash = super.getContentHash();
+    lHash = hash(lHash, getSyncStart());
+    lHash = hash(lHash, getSyncStop());
+    return hash(lHash, getNumberOfSteps());
+  }
+
+  @Override
+  public boolean hasSameContent(StaveInterface pStave)
+  {
+    if (!super.hasSameContent(pStave))
+      return false;
+    final PatternSteppingStave lStave = (PatternSteppingStave) pStave;
+    return same(getSyncStart(), lStave.getSyncStart())
+           && same(getSyncStop(), lStave.getSyncStop())
+           && getNumberOfSteps() == lStave.getNumberOfSteps();
+  }
+
   @Override
   public abstract StaveInterface copy();
 
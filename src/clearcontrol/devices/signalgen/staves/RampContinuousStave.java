@@ -4,6 +4,8 @@ import static java.lang.Math.abs;
 import static java.lang.Math.pow;
 import static java.lang.Math.signum;
 
+import java.util.Arrays;
+
 public class RampContinuousStave extends StaveAbstract
                                  implements StaveInterface
 {
@@ -84,6 +86,82 @@ public class RampContinuousStave extends StaveAbstract
     }
   }
 
+  @Override
+  public void getValues(float[] pValues,
+                        int pFromTimePoint,
+                        int pToTimePoint,
+                        int pNumberOfTimePoints)
+  {
+    final float lInvNumberOfTimepoints = 1f / pNumberOfTimePoints;
+    final float lSyncStart = getSyncStart();
+    final float lSyncStop = getSyncStop();
+    final float lStartValue = getStartValue();
+    final float lStopValue = getStopValue();
+    final float lExponent = mExponent;
+
+    final int lStart = fillOutside(pValues,
+                                   pFromTimePoint,
+                                   pToTimePoint,
+                                   lInvNumberOfTimepoints);
+    final int lStop = firstTimePointAfter(lSyncStop,
+                                          lStart,
+                                          pToTimePoint,
+                                          lInvNumberOfTimepoints);
+
+    for (int t = lStart; t < lStop; t++)
+    {
+      final float lNormalizedRampTime = (t * lInvNumberOfTimepoints
+                                         - lSyncStart)
+                                        / (lSyncStop - lSyncStart);
+      if (lExponent == 1)
+        pValues[t - pFromTimePoint] = lStartValue
+                                      + (lStopValue - lStartValue)
+                                        * lNormalizedRampTime;
+      else
+        pValues[t - pFromTimePoint] = lStartValue
+                                      + (lStopValue - lStartValue)
+                                        * abspow(lNormalizedRampTime,
+                                                 lExponent);
+    }
+  }
+
+  /**
+   * Fills the given buffer with the outside value before the sync start and
+   * after the sync stop, and returns the first time point within the ramp.
+   * 
+   * @param pValues
+   *          buffer
+   * @param pFromTimePoint
+   *          first time point (inclusive)
+   * @param pToTimePoint
+   *          last time point (exclusive)
+   * @param pInvNumberOfTimePoints
+   *          inverse of the number of time points
+   * @return first time point within the ramp
+   */
+  protected int fillOutside(float[] pValues,
+                            int pFromTimePoint,
+                            int pToTimePoint,
+                            float pInvNumberOfTimePoints)
+  {
+    final float lOutsideValue = getOutsideValue();
+    final int lStart = firstTimePointAtOrAfter(getSyncStart(),
+                                               pFromTimePoint,
+                                               pToTimePoint,
+                                               pInvNumberOfTimePoints);
+    final int lStop = Math.max(lStart,
+                               firstTimePointAfter(getSyncStop(),
+                                                   pFromTimePoint,
+                                                   pToTimePoint,
+                                                   pInvNumberOfTimePoints));
+    Arrays.fill(pValues, 0, lStart - pFromTimePoint, lOutsideValue);
+    Arrays.fill(pValues,
+                lStop - pFromTimePoint,
+                pToTimePoint - pFromTimePoint,
+                lOutsideValue);
+    return lStart;
+  }
+
   public float abspow(float pValue, float pExponent)
   {
     return (float) (signum(pValue) * pow(abs(pValue), pExponent));
@@ -164,6 +242,32 @@ public class RampContinuousStave extends StaveAbstract
     mExponent = pExponent;
   }
 
+  @Override
+  public long getContentHash()
+  {
+    long lHash = super.getContentHash();
+    lHash = hash(lHash, getSyncStart());
+    lHash = hash(lHash, getSyncStop());
+    lHash = hash(lHash, getStartValue());
+    lHash = hash(lHash, getStopValue());
+    lHash = hash(lHash, getOutsideValue());
+    return hash(lHash, getExponent());
+  }
+
+  @Override
+  public boolean hasSameContent(StaveInterface pStave)
+  {
+    if (!super.hasSameContent(pStave))
+      return false;
+    final RampContinuousStave lStave = (RampContinuousStave) pStave;
+    return same(getSyncStart(), lStave.getSyncStart())
+           && same(getSyncStop(), lStave.getSyncStop())
+           && same(getStartValue(), lStave.getStartValue())
+           && same(getStopValue(), lStave.getStopValue())
+           && same(getOutsideValue(), lStave.getOutsideValue())
+           && same(getExponent(), lStave.getExponent());
+  }
+
   @Override
   public StaveInterface copy()
   {
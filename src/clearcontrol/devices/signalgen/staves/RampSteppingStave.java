@@ -84,6 +84,57 @@ public class RampSteppingStave extends RampContinuousStave
 
   }
 
+  @Override
+  public void getValues(float[] pValues,
+                        int pFromTimePoint,
+                        int pToTimePoint,
+                        int pNumberOfTimePoints)
+  {
+    if (!isStepping())
+    {
+      super.getValues(pValues,
+                      pFromTimePoint,
+                      pToTimePoint,
+                      pNumberOfTimePoints);
+      return;
+    }
+
+    final float lInvNumberOfTimepoints = 1f / pNumberOfTimePoints;
+    final float lSyncStart = getSyncStart();
+    final float lSyncStop = getSyncStop();
+    final float lStartValue = getStartValue();
+    final float lStopValue = getStopValue();
+    final float lExponent = getExponent();
+    final int lNumberOfSteps = getNumberOfSteps();
+
+    final int lStart = fillOutside(pValues,
+                                   pFromTimePoint,
+                                   pToTimePoint,
+                                   lInvNumberOfTimepoints);
+    final int lStop = firstTimePointAfter(lSyncStop,
+                                          lStart,
+                                          pToTimePoint,
+                                          lInvNumberOfTimepoints);
+
+    for (int t = lStart; t < lStop; t++)
+    {
+      float lNormalizedRampTime = (t * lInvNumberOfTimepoints
+                                   - lSyncStart)
+                                  / (lSyncStop - lSyncStart);
+      if (lExponent != 1)
+        lNormalizedRampTime = abspow(lNormalizedRampTime, lExponent);
+
+      final float lNormalizedSteppingRampTime =
+                                              (float) (floor(lNumberOfSteps
+                                                             * lNormalizedRampTime)
+                                                       / lNumberOfSteps);
+
+      pValues[t - pFromTimePoint] = lStartValue
+                                    + (lStopValue - lStartValue)
+                                      * lNormalizedSteppingRampTime;
+    }
+  }
+
   public float getStepHeight()
   {
     return mStepHeight;
@@ -110,6 +161,24 @@ public class RampSteppingStave extends RampContinuousStave
     mStepping = pStepping;
   }
 
+  @Override
+  public long getContentHash()
+  {
+    long lHash = super.getContentHash();
+    lHash = hash(lHash, isStepping());
+    return hash(lHash, getNumberOfSteps());
+  }
+
+  @Override
+  public boolean hasSameContent(StaveInterface pStave)
+  {
+    if (!super.hasSameContent(pStave))
+      return false;
+    final RampSteppingStave lStave = (RampSteppingStave) pStave;
+    return isStepping() == lStave.isStepping()
+           && getNumberOfSteps() == lStave.getNumberOfSteps();
+  }
+
   @Override
   public StaveInterface copy()
   {
@@ -35,6 +35,23 @@ public class SinusStave extends StaveAbstract
     return lValue;
   }
 
+  @Override
+  public void getValues(float[] pValues,
+                        int pFromTimePoint,
+                        int pToTimePoint,
+                        int pNumberOfTimePoints)
+  {
+    final float lInvNumberOfTimepoints = 1f / pNumberOfTimePoints;
+    final float lAmplitude = getSinusAmplitude();
+    final float lPhase = getSinusPhase();
+    final float lOmega = mOmega;
+    for (int t = pFromTimePoint; t < pToTimePoint; t++)
+      pValues[t - pFromTimePoint] =
+                                  (float) (lAmplitude
+                                           * sin((t * lInvNumberOfTimepoints
+                                                  + lPhase) * lOmega));
+  }
+
   public float getSinusPeriod()
   {
     return mSinusPeriod;
@@ -66,6 +83,26 @@ public class SinusStave extends StaveAbstract
     mSinusAmplitude = pSinusAmplitude;
   }
 
+  @Override
+  public long getContentHash()
+  {
+    long lHash = super.getContentHash();
+    lHash = hash(lHash, getSinusPeriod());
+    lHash = hash(lHash, getSinusPhase());
+    return hash(lHash, getSinusAmplitude());
+  }
+
+  @Override
+  public boolean hasSameContent(StaveInterface pStave)
+  {
+    if (!super.hasSameContent(pStave))
+      return false;
+    final SinusStave lStave = (SinusStave) pStave;
+    return same(getSinusPeriod(), lStave.getSinusPeriod())
+           && same(getSinusPhase(), lStave.getSinusPhase())
+           && same(getSinusAmplitude(), lStave.getSinusAmplitude());
+  }
+
   @Override
   public StaveInterface copy()
   {
@@ -32,6 +32,151 @@ public abstract class StaveAbstract extends NameableBase
     mEnabled = pEnabled;
   }
 
+  /**
+   * Returns the first time point t in [pFromTimePoint, pToTimePoint] with a
+   * normalized time t*pInvNumberOfTimePoints greater or equal to the given
+   * normalized time, or pToTimePoint if none.
+   * 
+   * @param pNormalizedTime
+   *          normalized time
+   * @param pFromTimePoint
+   *          first time point
+   * @param pToTimePoint
+   *          last time point (exclusive)
+   * @param pInvNumberOfTimePoints
+   *          inverse of the number of time points
+   * @return time point
+   */
+  protected static int firstTimePointAtOrAfter(float pNormalizedTime,
+                                               int pFromTimePoint,
+                                               int pToTimePoint,
+                                               float pInvNumberOfTimePoints)
+  {
+    int t = clamp(Math.ceil(pNormalizedTime / pInvNumberOfTimePoints),
+                  pFromTimePoint,
+                  pToTimePoint);
+    // corrects for rounding errors, normalized times are monotonic in t:
+    while (t > pFromTimePoint
+           && (t - 1) * pInvNumberOfTimePoints >= pNormalizedTime)
+      t--;
+    while (t < pToTimePoint
+           && t * pInvNumberOfTimePoints < pNormalizedTime)
+      t++;
+    return t;
+  }
+
+  /**
+   * Returns the first time point t in [pFromTimePoint, pToTimePoint] with a
+   * normalized time t*pInvNumberOfTimePoints strictly greater than the given
+   * normalized time, or pToTimePoint if none.
+   * 
+   * @param pNormalizedTime
+   *          normalized time
+   * @param pFromTimePoint
+   *          first time point
+   * @param pToTimePoint
+   *          last time point (exclusive)
+   * @param pInvNumberOfTimePoints
+   *          inverse of the number of time points
+   * @return time point
+   */
+  protected static int firstTimePointAfter(float pNormalizedTime,
+                                           int pFromTimePoint,
+                                           int pToTimePoint,
+                                           float pInvNumberOfTimePoints)
+  {
+    int t = clamp(Math.floor(pNormalizedTime / pInvNumberOfTimePoints),
+                  pFromTimePoint,
+                  pToTimePoint);
+    while (t > pFromTimePoint
+           && (t - 1) * pInvNumberOfTimePoints > pNormalizedTime)
+      t--;
+    while (t < pToTimePoint
+           && t * pInvNumberOfTimePoints <= pNormalizedTime)
+      t++;
+    return t;
+  }
+
+  private static int clamp(double pValue, int pMin, int pMax)
+  {
+    if (!(pValue > pMin))
+      return pMin;
+    if (pValue > pMax)
+      return pMax;
+    return (int) pValue;
+  }
+
+  @Override
+  public long getContentHash()
+  {
+    return hash(getClass().getName().hashCode(), isEnabled());
+  }
+
+  @Override
+  public boolean hasSameContent(StaveInterface pStave)
+  {
+    return pStave != null && pStave.getClass() == getClass()
+           && pStave.isEnabled() == isEnabled();
+  }
+
+  /**
+   * Returns true if two float values are the same, in the same sense as for
+   * the content hash.
+   * 
+   * @param pValue1
+   *          first value
+   * @param pValue2
+   *          second value
+   * @return true if same
+   */
+  protected static boolean same(float pValue1, float pValue2)
+  {
+    return Float.floatToIntBits(pValue1) == Float.floatToIntBits(pValue2);
+  }
+
+  /**
+   * Combines a hash with a value
+   * 
+   * @param pHash
+   *          hash so far
+   * @param pValue
+   *          value
+   * @return combined hash
+   */
+  protected static long hash(long pHash, long pValue)
+  {
+    final long lHash = (pHash ^ pValue) * 0xff51afd7ed558ccdL;
+    return lHash ^ (lHash >>> 33);
+  }
+
+  /**
+   * Combines a hash with a value
+   * 
+   * @param pHash
+   *          hash so far
+   * @param pValue
+   *          value
+   * @return combined hash
+   */
+  protected static long hash(long pHash, float pValue)
+  {
+    return hash(pHash, Float.floatToIntBits(pValue));
+  }
+
+  /**
+   * Combines a hash with a value
+   * 
+   * @param pHash
+   *          hash so far
+   * @param pValue
+   *          value
+   * @return combined hash
+   */
+  protected static long hash(long pHash, boolean pValue)
+  {
+    return hash(pHash, pValue ? 1231 : 1237);
+  }
+
   @Override
   public String toString()
   {
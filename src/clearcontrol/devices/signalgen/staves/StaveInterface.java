@@ -38,6 +38,54 @@ public interface StaveInterface extends NameableInterface, Cloneable
    */
   float getValue(float pNormalizedTime);
 
+  /**
+   * Samples this stave over a range of time points: for each time point t in
+   * [pFromTimePoint, pToTimePoint), the value at normalized time
+   * t*(1f/pNumberOfTimePoints) is written at index t-pFromTimePoint of the
+   * given buffer. Values are the same as the ones given by getValue(float) for
+   * that normalized time, which is computed in float precision with the
+   * inverse of the number of time points, not with a division per time point.
+   * 
+   * @param pValues
+   *          buffer of length at least pToTimePoint-pFromTimePoint
+   * @param pFromTimePoint
+   *          first time point (inclusive)
+   * @param pToTimePoint
+   *          last time point (exclusive)
+   * @param pNumberOfTimePoints
+   *          number of time points spanning the normalized time range [0,1]
+   */
+  default void getValues(float[] pValues,
+                         int pFromTimePoint,
+                         int pToTimePoint,
+                         int pNumberOfTimePoints)
+  {
+    final float lInvNumberOfTimepoints = 1f / pNumberOfTimePoints;
+    for (int t = pFromTimePoint; t < pToTimePoint; t++)
+      pValues[t - pFromTimePoint] = getValue(t * lInvNumberOfTimepoints);
+  }
+
+  /**
+   * Returns a hash of everything that determines the values of this stave:
+   * staves of the same class with the same content hash produce the same
+   * signal. Compilers use it to reuse previously compiled staves and movements.
+   * 
+   * @return content hash
+   */
+  long getContentHash();
+
+  /**
+   * Returns true if the given stave has the same content as this stave: same
+   * class and same values for everything that enters the content hash. Content
+   * hashes can collide, so this is checked before reusing anything found by
+   * content hash.
+   * 
+   * @param pStave
+   *          stave to compare to
+   * @return true if same content
+   */
+  boolean hasSameContent(StaveInterface pStave);
+
   /**
    * Makes a copy of this stave
    * 
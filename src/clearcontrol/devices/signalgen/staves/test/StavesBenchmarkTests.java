@@ -0,0 +1,114 @@
+package clearcontrol.devices.signalgen.staves.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+
+import clearcontrol.devices.signalgen.staves.StaveInterface;
+
+import org.junit.Test;
+
+/**
+ * Staves benchmark: compares bulk sampling with per-sample evaluation of the
+ * built-in staves, at realistic numbers of time points per movement.
+ *
+ * @author royer
+ */
+public class StavesBenchmarkTests
+{
+  private static final int cNumberOfSamples = 10 * 1000 * 1000;
+
+  /**
+   * Benchmark
+   */
+  @Test
+  public void benchmark()
+  {
+    final ArrayList<StaveInterface> lStaves = StavesTests.createStaves();
+
+    for (final int lNumberOfTimePoints : new int[]
+    { 33, 512, 2048 })
+    {
+      final float[] lValues = new float[lNumberOfTimePoints];
+      final int lRepeats = cNumberOfSamples / lNumberOfTimePoints;
+
+      for (final StaveInterface lStave : lStaves)
+      {
+        // warmup:
+        perSample(lStave, lValues, lNumberOfTimePoints, lRepeats / 10);
+        bulk(lStave, lValues, lNumberOfTimePoints, lRepeats / 10);
+
+        long lStart = System.nanoTime();
+        final double lPerSampleSum = perSample(lStave,
+                                               lValues,
+                                               lNumberOfTimePoints,
+                                               lRepeats);
+        final double lPerSampleSpeed = speed(lStart,
+                                             lNumberOfTimePoints,
+                                             lRepeats);
+
+        lStart = System.nanoTime();
+        final double lBulkSum = bulk(lStave,
+                                     lValues,
+                                     lNumberOfTimePoints,
+                                     lRepeats);
+        final double lBulkSpeed = speed(lStart,
+                                        lNumberOfTimePoints,
+                                        lRepeats);
+
+        System.out.format("%s (%d time points): per sample %.1f Msamples/s, bulk %.1f Msamples/s \n",
+                          lStave.getClass().getSimpleName(),
+                          lNumberOfTimePoints,
+                          lPerSampleSpeed,
+                          lBulkSpeed);
+        assertEquals(lPerSampleSum, lBulkSum, 0);
+      }
+    }
+  }
+
+  private static double perSample(StaveInterface pStave,
+                                  float[] pValues,
+                                  int pNumberOfTimePoints,
+                                  int pRepeats)
+  {
+    double lSum = 0;
+    final float lInvNumberOfTimepoints = 1f / pNumberOfTimePoints;
+    for (int r = 0; r < pRepeats; r++)
+    {
+      for (int t = 0; t < pNumberOfTimePoints; t++)
+        pValues[t] = pStave.getValue(t * lInvNumberOfTimepoints);
+      lSum += pValues[r % pNumberOfTimePoints];
+    }
+    return lSum;
+  }
+
+  private static double bulk(StaveInterface pStave,
+                             float[] pValues,
+                             int pNumberOfTimePoints,
+                             int pRepeats)
+  {
+    double lSum = 0;
+    for (int r = 0; r < pRepeats; r++)
+    {
+      pStave.getValues(pValues,
+                       0,
+                       pNumberOfTimePoints,
+                       pNumberOfTimePoints);
+      lSum += pValues[r % pNumberOfTimePoints];
+    }
+    return lSum;
+  }
+
+  private static double speed(long pStartTimeInNs,
+                              int pNumberOfTimePoints,
+                              int pRepeats)
+  {
+    final double lElapsedTimeInSeconds = (System.nanoTime()
+                                          - pStartTimeInNs)
+                                         * 1e-9;
+    return ((double) pNumberOfTimePoints) * pRepeats
+           / lElapsedTimeInSeconds
+           * 1e-6;
+  }
+
+}
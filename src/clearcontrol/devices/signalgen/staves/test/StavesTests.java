@@ -0,0 +1,145 @@
+package clearcontrol.devices.signalgen.staves.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+
+import clearcontrol.devices.signalgen.staves.BinaryPatternSteppingStave;
+import clearcontrol.devices.signalgen.staves.ClosurePatternSteppingStave;
+import clearcontrol.devices.signalgen.staves.ConstantStave;
+import clearcontrol.devices.signalgen.staves.EdgeStave;
+import clearcontrol.devices.signalgen.staves.IntervalStave;
+import clearcontrol.devices.signalgen.staves.RampContinuousStave;
+import clearcontrol.devices.signalgen.staves.RampSteppingStave;
+import clearcontrol.devices.signalgen.staves.SinusStave;
+import clearcontrol.devices.signalgen.staves.StaveInterface;
+import clearcontrol.devices.signalgen.staves.TriggerStave;
+import clearcontrol.devices.signalgen.staves.ZeroStave;
+
+import org.junit.Test;
+
+/**
+ * Staves tests
+ *
+ * @author royer
+ */
+public class StavesTests
+{
+
+  /**
+   * Tests that bulk sampling gives the same values as per-sample evaluation
+   */
+  @Test
+  public void testBulkSampling()
+  {
+    final ArrayList<StaveInterface> lStaves = createStaves();
+    final int[] lNumberOfTimePointsList = new int[]
+    { 1, 7, 33, 100, 1000, 2048 };
+
+    for (final StaveInterface lStave : lStaves)
+      for (final boolean lEnabled : new boolean[]
+      { true, false })
+      {
+        lStave.setEnabled(lEnabled);
+        for (final int lNumberOfTimePoints : lNumberOfTimePointsList)
+        {
+          assertSameValues(lStave,
+                           0,
+                           lNumberOfTimePoints,
+                           lNumberOfTimePoints);
+          assertSameValues(lStave,
+                           lNumberOfTimePoints / 3,
+                           (2 * lNumberOfTimePoints) / 3,
+                           lNumberOfTimePoints);
+        }
+      }
+  }
+
+  private static void assertSameValues(StaveInterface pStave,
+                                       int pFromTimePoint,
+                                       int pToTimePoint,
+                                       int pNumberOfTimePoints)
+  {
+    final float[] lValues = new float[pToTimePoint - pFromTimePoint];
+    pStave.getValues(lValues,
+                     pFromTimePoint,
+                     pToTimePoint,
+                     pNumberOfTimePoints);
+
+    final float lInvNumberOfTimepoints = 1f / pNumberOfTimePoints;
+    for (int t = pFromTimePoint; t < pToTimePoint; t++)
+      assertEquals(pStave.getClass().getSimpleName() + " at " + t,
+                   pStave.getValue(t * lInvNumberOfTimepoints),
+                   lValues[t - pFromTimePoint],
+                   0);
+  }
+
+  /**
+   * Returns instances of all built-in staves, with edge cases
+   * 
+   * @return staves
+   */
+  public static ArrayList<StaveInterface> createStaves()
+  {
+    final ArrayList<StaveInterface> lStaves = new ArrayList<>();
+    lStaves.add(new ZeroStave());
+    lStaves.add(new ConstantStave("constant", 0.3f));
+    lStaves.add(new IntervalStave("interval", 0.1f, 0.7f, 1, -0.5f));
+    lStaves.add(new IntervalStave("interval", 0, 1, 1, 0));
+    lStaves.add(new IntervalStave("interval", 0.7f, 0.1f, 1, 0));
+    lStaves.add(new TriggerStave("trigger", 0.2f, 0.6f, 1, 0));
+    lStaves.add(new EdgeStave("edge", 0.5f, -1, 1));
+    lStaves.add(new EdgeStave("edge", 0, 0, 1));
+    lStaves.add(new RampContinuousStave("ramp",
+                                        0.1f,
+                                        0.9f,
+                                        -0.5f,
+                                        0.5f,
+                                        0.25f));
+    lStaves.add(new RampContinuousStave("ramp",
+                                        0.1f,
+                                        0.9f,
+                                        -0.5f,
+                                        0.5f,
+                                        0.25f,
+                                        2));
+    lStaves.add(new RampSteppingStave("stepping ramp",
+                                      0.1f,
+                                      0.7f,
+                                      0,
+                                      1,
+                                      0,
+                                      0.02f));
+    lStaves.add(new RampSteppingStave("stepping ramp",
+                                      0,
+                                      1,
+                                      1,
+                                      -1,
+                                      0,
+                                      0.5f,
+                                      0.1f));
+    final RampSteppingStave lNonSteppingRamp =
+                                             new RampSteppingStave("ramp",
+                                                                   0.2f,
+                                                                   0.8f,
+                                                                   0,
+                                                                   1,
+                                                                   0,
+                                                                   0.1f);
+    lNonSteppingRamp.setStepping(false);
+    lStaves.add(lNonSteppingRamp);
+    lStaves.add(new BinaryPatternSteppingStave("binary pattern",
+                                               0.1f,
+                                               0.9f,
+                                               100,
+                                               9,
+                                               2,
+                                               3,
+                                               1));
+    lStaves.add(new ClosurePatternSteppingStave("closure pattern",
+                                                i -> (i % 5) * 0.2f));
+    lStaves.add(new SinusStave("sinus", 0.1f, 0.05f, 0.8f));
+    return lStaves;
+  }
+
+}
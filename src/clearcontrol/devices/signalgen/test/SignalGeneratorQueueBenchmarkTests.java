@@ -0,0 +1,206 @@
+package clearcontrol.devices.signalgen.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import clearcontrol.devices.signalgen.SignalGeneratorQueue;
+import clearcontrol.devices.signalgen.devices.nirio.compiler.NIRIOCompiledScore;
+import clearcontrol.devices.signalgen.devices.nirio.compiler.NIRIOScoreCompiler;
+import clearcontrol.devices.signalgen.movement.Movement;
+import clearcontrol.devices.signalgen.score.Score;
+import clearcontrol.devices.signalgen.score.ScoreInterface;
+import clearcontrol.devices.signalgen.staves.ConstantStave;
+import clearcontrol.devices.signalgen.staves.RampSteppingStave;
+import clearcontrol.devices.signalgen.staves.TriggerStave;
+
+import org.junit.Test;
+
+/**
+ * Signal generator queue benchmark: measures queue-build time and allocation
+ * for light-sheet like staging scores, with snapshots of the staging score
+ * (shared staves) versus deep copies of it.
+ *
+ * @author royer
+ */
+public class SignalGeneratorQueueBenchmarkTests
+{
+  private static final int cNumberOfPlanes = 1000;
+  private static final int cRepeats = 20;
+
+  /**
+   * Benchmark
+   */
+  @Test
+  public void benchmark()
+  {
+    final SignalGeneratorQueue lQueue = new SignalGeneratorQueue();
+    setupStagingScore(lQueue.getStagingScore());
+
+    // warmup:
+    buildQueue(lQueue, null);
+    buildDeepCopyQueue(lQueue.getStagingScore());
+
+    long lStartAllocatedBytes = getAllocatedBytes();
+    long lStart = System.nanoTime();
+    for (int r = 0; r < cRepeats; r++)
+      buildDeepCopyQueue(lQueue.getStagingScore());
+    report("deep copies of staging score",
+           lStart,
+           lStartAllocatedBytes);
+
+    lStartAllocatedBytes = getAllocatedBytes();
+    lStart = System.nanoTime();
+    for (int r = 0; r < cRepeats; r++)
+      buildQueue(lQueue, null);
+    report("snapshots of staging score", lStart, lStartAllocatedBytes);
+
+    final long[] lStagingHashes = new long[2 * cNumberOfPlanes];
+    buildQueue(lQueue, lStagingHashes);
+
+    // queued movements have the content of the staging score at enqueue time:
+    final ScoreInterface lQueuedScore = lQueue.getQueuedScore();
+    assertEquals(2 * cNumberOfPlanes,
+                 lQueuedScore.getNumberOfMovements());
+    for (int m = 0; m < lStagingHashes.length; m++)
+      assertEquals(lStagingHashes[m],
+                   Movement.getContentHash(lQueuedScore.getMovement(m)));
+
+    // unchanged staves are shared:
+    assertSame(lQueuedScore.getMovement(0).getStave(0),
+               lQueuedScore.getMovement(2).getStave(0));
+    System.out.format("interned staves: %d, interned movements: %d \n",
+                      lQueue.getMovementInterner()
+                            .getNumberOfInternedStaves(),
+                      lQueue.getMovementInterner()
+                            .getNumberOfInternedMovements());
+    assertTrue(lQueue.getMovementInterner()
+                     .getNumberOfInternedStaves() < 16 * cNumberOfPlanes);
+
+    assertEquals(lQueuedScore.getDuration(TimeUnit.MICROSECONDS),
+                 lQueue.estimatePlayTime(TimeUnit.MICROSECONDS));
+
+    final NIRIOCompiledScore lCompiledScore = new NIRIOCompiledScore();
+    lStart = System.nanoTime();
+    NIRIOScoreCompiler.compile(lCompiledScore, lQueuedScore);
+    final double lElapsedTimeInMs = (System.nanoTime() - lStart) * 1e-6;
+    System.out.format("compilation of queued score: %.1f ms \n",
+                      lElapsedTimeInMs);
+  }
+
+  private static void setupStagingScore(ScoreInterface pStagingScore)
+  {
+    final Movement lBeforeExposureMovement =
+                                           new Movement("BeforeExposure");
+    final Movement lExposureMovement = new Movement("Exposure");
+    lBeforeExposureMovement.setDuration(1, TimeUnit.MILLISECONDS);
+    lExposureMovement.setDuration(5, TimeUnit.MILLISECONDS);
+
+    for (final Movement lMovement : new Movement[]
+    { lBeforeExposureMovement, lExposureMovement })
+    {
+      lMovement.setStave(0,
+                         new TriggerStave("camera trigger",
+                                          0.2f,
+                                          0.6f,
+                                          1,
+                                          0));
+      lMovement.setStave(1,
+                         new RampSteppingStave("galvo y",
+                                               0.1f,
+                                               0.7f,
+                                               -0.5f,
+                                               0.5f,
+                                               0,
+                                               0.02f));
+      for (int s = 2; s < 6; s++)
+        lMovement.setStave(s,
+                           new TriggerStave("laser trigger " + s,
+                                            0.3f,
+                                            0.5f,
+                                            1,
+                                            0));
+      lMovement.setStave(6, new ConstantStave("detection z", 0));
+      lMovement.setStave(7, new ConstantStave("illumination z", 0));
+      for (int s = 8; s < 16; s++)
+        lMovement.setStave(s,
+                           new ConstantStave("illumination " + s,
+                                             0.01f * s));
+    }
+
+    pStagingScore.addMovement(lBeforeExposureMovement);
+    pStagingScore.addMovement(lExposureMovement);
+  }
+
+  private static void updateStagingScore(ScoreInterface pStagingScore,
+                                         int pPlaneIndex)
+  {
+    final float lZ = (pPlaneIndex - 0.5f * cNumberOfPlanes)
+                     / cNumberOfPlanes;
+    for (final Movement lMovement : new Movement[]
+    { (Movement) pStagingScore.getMovement(0),
+      (Movement) pStagingScore.getMovement(1) })
+    {
+      ((ConstantStave) lMovement.getStave(6)).setValue(lZ);
+      ((ConstantStave) lMovement.getStave(7)).setValue(0.98f * lZ);
+      lMovement.getStave(2 + pPlaneIndex % 4).setEnabled(false);
+      lMovement.getStave(2 + (pPlaneIndex + 1) % 4).setEnabled(true);
+    }
+  }
+
+  private static void buildQueue(SignalGeneratorQueue pQueue,
+                                 long[] pStagingHashes)
+  {
+    final ScoreInterface lStagingScore = pQueue.getStagingScore();
+    pQueue.clearQueue();
+    for (int z = 0; z < cNumberOfPlanes; z++)
+    {
+      updateStagingScore(lStagingScore, z);
+      if (pStagingHashes != null)
+        for (int m = 0; m < 2; m++)
+          pStagingHashes[2 * z + m] = lStagingScore.getMovement(m)
+                                                   .getContentHash();
+      pQueue.addCurrentStateToQueue();
+    }
+    pQueue.finalizeQueue();
+  }
+
+  private static Score buildDeepCopyQueue(ScoreInterface pStagingScore)
+  {
+    final Score lQueuedScore = new Score("queuedscore");
+    for (int z = 0; z < cNumberOfPlanes; z++)
+    {
+      updateStagingScore(pStagingScore, z);
+      lQueuedScore.addScoreCopy(pStagingScore);
+    }
+    return lQueuedScore;
+  }
+
+  private static long getAllocatedBytes()
+  {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread()
+                                                                                                                  .getId());
+  }
+
+  private static void report(String pName,
+                             long pStartTimeInNs,
+                             long pStartAllocatedBytes)
+  {
+    final double lElapsedTimeInSeconds = (System.nanoTime()
+                                          - pStartTimeInNs)
+                                         * 1e-9;
+    final double lAllocatedBytes = getAllocatedBytes()
+                                   - pStartAllocatedBytes;
+    System.out.format("%s: %.1f planes/ms, %.1f KB/plane \n",
+                      pName,
+                      cNumberOfPlanes * cRepeats
+                             / lElapsedTimeInSeconds
+                             * 1e-3,
+                      lAllocatedBytes / (cNumberOfPlanes * cRepeats)
+                                     / 1024);
+  }
+
+}
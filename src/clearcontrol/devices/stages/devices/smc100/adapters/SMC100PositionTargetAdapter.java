@@ -91,4 +91,11 @@ public class SMC100PositionTargetAdapter extends
     return false;
   }
 
+  // absolute move, a queued move to an older target can be skipped:
+  @Override
+  public boolean isSetValueCoalescable()
+  {
+    return true;
+  }
+
 }
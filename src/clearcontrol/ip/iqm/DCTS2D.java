@@ -1,215 +1,448 @@
 package clearcontrol.ip.iqm;
 
-import static java.lang.Math.sqrt;
 import static java.lang.Math.toIntExact;
 
-import clearcontrol.stack.OffHeapPlanarStack;
-
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import clearcontrol.stack.OffHeapPlanarStack;
 import coremem.ContiguousMemoryInterface;
-import coremem.buffers.ContiguousBuffer;
 import coremem.util.Size;
 
 import org.jtransforms.dct.DoubleDCT_2D;
-import pl.edu.icm.jlargearrays.DoubleLargeArray;
-
+import org.jtransforms.dct.FloatDCT_2D;
+import org.jtransforms.utils.ConcurrencyUtils;
+
+/**
+ * Normalized DCT Shannon entropy (DCTS) image quality metric, computed for
+ * each plane of a stack. Planes are scored in parallel on a fork join pool,
+ * each thread has its own working buffers and DCT plans (cached per plane
+ * width and height, and shared by all instances), so that no memory is
+ * allocated once the buffers have been sized, and so that a single instance
+ * can be used concurrently.
+ *
+ * The metric can be computed in double or float precision, and on a region of
+ * interest and/or a subsampled (binned) version of each plane for faster but
+ * approximate focus measurements.
+ *
+ * @author royer
+ */
 public class DCTS2D implements ImageQualityMetricInterface
 {
-  private ContiguousBuffer mWorkingBuffer;
+  /**
+   * Floating point precision used for the DCT
+   */
+  public enum Precision
+  {
+   /**
+    * Double precision
+    */
+   Double,
+
+   /**
+    * Single precision, faster and half the memory, slightly less accurate
+    */
+   Float
+  }
 
-  private final Table<Long, Long, DoubleDCT_2D> mDoubleDCT2DCache =
-                                                                  HashBasedTable.create();
+  private static class WorkingState
+  {
+    private short[] mPlaneBuffer;
+    private double[] mDoubleBuffer;
+    private float[] mFloatBuffer;
+    private final HashMap<Long, DoubleDCT_2D> mDoubleDCT2DCache =
+                                                              new HashMap<>();
+    private final HashMap<Long, FloatDCT_2D> mFloatDCT2DCache =
+                                                            new HashMap<>();
+  }
 
-  private double mPSFSupportRadius = 3;
+  private final ForkJoinPool mForkJoinPool;
+  // shared by all instances, callers often create a new metric per stack:
+  private static final ThreadLocal<WorkingState> sWorkingState =
+                                                               ThreadLocal.withInitial(WorkingState::new);
 
-  public DCTS2D()
+  static
   {
-    super();
+    // planes are already scored in parallel, DCTs must not fan out to
+    // JTransforms' own threads. The DCT constructors do not control this, it
+    // is a JTransforms-wide setting, and this class is its only user:
+    ConcurrencyUtils.setNumberOfThreads(1);
   }
 
-  private DoubleDCT_2D getDCTForWidthAndHeight(long pWidth,
-                                               long pHeight)
-  {
-    DoubleDCT_2D lDoubleDCT_2D =
-                               mDoubleDCT2DCache.get(pWidth, pHeight);
+  private volatile double mPSFSupportRadius = 3;
+  private volatile Precision mPrecision = Precision.Double;
+  private volatile int mSubsampling = 1;
+  private volatile int[] mRegionOfInterest;
 
-    if (lDoubleDCT_2D == null)
-    {
-      try
-      {
-        lDoubleDCT_2D = new DoubleDCT_2D(pHeight, pWidth, true);
-        mDoubleDCT2DCache.put(pWidth, pHeight, lDoubleDCT_2D);
-      }
-      catch (final Throwable e)
-      {
-        e.printStackTrace();
-      }
-    }
+  /**
+   * Instanciates a DCTS2D metric that uses the common fork join pool.
+   */
+  public DCTS2D()
+  {
+    this(ForkJoinPool.commonPool());
+  }
 
-    return lDoubleDCT_2D;
+  /**
+   * Instanciates a DCTS2D metric that uses a given fork join pool to process
+   * planes in parallel.
+   *
+   * @param pForkJoinPool
+   *          fork join pool
+   */
+  public DCTS2D(ForkJoinPool pForkJoinPool)
+  {
+    super();
+    mForkJoinPool = pForkJoinPool;
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public final double[] computeImageQualityMetric(OffHeapPlanarStack pStack)
   {
-    long lWidth = pStack.getWidth();
-    long lHeight = pStack.getHeight();
-    long lDepth = pStack.getDepth();
+    final int lWidth = toIntExact(pStack.getWidth());
+    final int lHeight = toIntExact(pStack.getHeight());
+    final int lDepth = toIntExact(pStack.getDepth());
+
+    // parameters are read once so that all planes are treated the same:
+    final int[] lRegionOfInterest = getClampedRegionOfInterest(lWidth,
+                                                               lHeight);
+    final int lSubsampling =
+                           Math.max(1,
+                                    Math.min(mSubsampling,
+                                             Math.min(lRegionOfInterest[2],
+                                                      lRegionOfInterest[3])));
+    final Precision lPrecision = mPrecision;
+    final double lPSFSupportRadius = mPSFSupportRadius;
+
+    final double[] lDCTSArray = new double[lDepth];
+
+    if (lDepth == 1 || mForkJoinPool.getParallelism() <= 1)
+    {
+      for (int z = 0; z < lDepth; z++)
+        lDCTSArray[z] = computeDCTSForSinglePlane(pStack.getContiguousMemory(z),
+                                                  lWidth,
+                                                  lRegionOfInterest,
+                                                  lSubsampling,
+                                                  lPrecision,
+                                                  lPSFSupportRadius);
+      return lDCTSArray;
+    }
 
-    final double[] lDCTSArray = new double[toIntExact(lDepth)];
+    final List<Callable<Double>> lTasks = new ArrayList<>(lDepth);
     for (int z = 0; z < lDepth; z++)
     {
-      long lNumberOfPixelsPerPlane = lWidth * lHeight;
       final ContiguousMemoryInterface lPlaneContiguousMemory =
                                                              pStack.getContiguousMemory(z);
+      lTasks.add(() -> computeDCTSForSinglePlane(lPlaneContiguousMemory,
+                                                 lWidth,
+                                                 lRegionOfInterest,
+                                                 lSubsampling,
+                                                 lPrecision,
+                                                 lPSFSupportRadius));
+    }
 
-      if (mWorkingBuffer == null
-          || mWorkingBuffer.getSizeInBytes() != lNumberOfPixelsPerPlane
-                                                * Size.DOUBLE)
-      {
-        mWorkingBuffer =
-                       ContiguousBuffer.allocate(lNumberOfPixelsPerPlane
-                                                 * Size.DOUBLE);
-      }
-
-      mWorkingBuffer.rewind();
-      for (int i = 0; i < lNumberOfPixelsPerPlane; i++)
-      {
-        double lValue = lPlaneContiguousMemory.getCharAligned(i);
-        mWorkingBuffer.writeDouble(lValue);
-      }
-
-      final long lAddress = mWorkingBuffer.getContiguousMemory()
-                                          .getAddress();
-      final DoubleLargeArray lDoubleLargeArray =
-                                               new DoubleLargeArray(pStack,
-                                                                    lAddress,
-                                                                    lNumberOfPixelsPerPlane);
-
-      final double lDCTS =
-                         computeDCTSForSinglePlane(lDoubleLargeArray,
-                                                   lWidth,
-                                                   lHeight,
-                                                   getPSFSupportRadius());
-
-      lDCTSArray[z] = lDCTS;
+    try
+    {
+      final List<Future<Double>> lFutures =
+                                          mForkJoinPool.invokeAll(lTasks);
+      for (int z = 0; z < lDepth; z++)
+        lDCTSArray[z] = lFutures.get(z).get();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    catch (ExecutionException e)
+    {
+      throw new RuntimeException(e.getCause());
     }
 
     return lDCTSArray;
   }
 
-  private final double computeDCTSForSinglePlane(DoubleLargeArray pDoubleLargeArray,
-                                                 long pWidth,
-                                                 long pHeight,
-                                                 double pPSFSupportRadius)
+  private int[] getClampedRegionOfInterest(int pWidth, int pHeight)
   {
-    final DoubleDCT_2D lDCTForWidthAndHeight =
-                                             getDCTForWidthAndHeight(pWidth,
-                                                                     pHeight);
-
-    lDCTForWidthAndHeight.forward(pDoubleLargeArray, false);
-
-    normalizeL2(pDoubleLargeArray);
-
-    final long lOTFSupportRadiusX = Math.round(pWidth
-                                               / pPSFSupportRadius);
-    final long lOTFSupportRadiusY = Math.round(pHeight
-                                               / pPSFSupportRadius);
-
-    final double lEntropy =
-                          entropyPerPixelSubTriangle(pDoubleLargeArray,
-                                                     pWidth,
-                                                     pHeight,
-                                                     0,
-                                                     0,
-                                                     lOTFSupportRadiusX,
-                                                     lOTFSupportRadiusY);
-
-    return lEntropy;
+    final int[] lRegionOfInterest = mRegionOfInterest;
+    if (lRegionOfInterest == null)
+      return new int[]
+      { 0, 0, pWidth, pHeight };
+
+    final int lX = Math.max(0, Math.min(pWidth - 1,
+                                        lRegionOfInterest[0]));
+    final int lY = Math.max(0, Math.min(pHeight - 1,
+                                        lRegionOfInterest[1]));
+    final int lWidth = Math.max(1, Math.min(pWidth - lX,
+                                            lRegionOfInterest[2]));
+    final int lHeight = Math.max(1, Math.min(pHeight - lY,
+                                             lRegionOfInterest[3]));
+    return new int[]
+    { lX, lY, lWidth, lHeight };
   }
 
-  private void normalizeL2(DoubleLargeArray pDoubleLargeArray)
+  private double computeDCTSForSinglePlane(ContiguousMemoryInterface pPlaneContiguousMemory,
+                                           int pPlaneWidth,
+                                           int[] pRegionOfInterest,
+                                           int pSubsampling,
+                                           Precision pPrecision,
+                                           double pPSFSupportRadius)
   {
-    final double lL2 = computeL2(pDoubleLargeArray);
-    final double lIL2 = 1.0 / lL2;
-    final long lLength = pDoubleLargeArray.length();
+    final WorkingState lWorkingState = sWorkingState.get();
+
+    final int lRoiX = pRegionOfInterest[0];
+    final int lRoiY = pRegionOfInterest[1];
+    final int lRoiWidth = pRegionOfInterest[2];
+    final int lRoiHeight = pRegionOfInterest[3];
+    final int lWidth = lRoiWidth / pSubsampling;
+    final int lHeight = lRoiHeight / pSubsampling;
+
+    // only the rows of the region of interest are read:
+    final int lNumberOfRowElements = lRoiHeight * pPlaneWidth;
+    if (lWorkingState.mPlaneBuffer == null
+        || lWorkingState.mPlaneBuffer.length != lNumberOfRowElements)
+      lWorkingState.mPlaneBuffer = new short[lNumberOfRowElements];
+    final short[] lPlaneBuffer = lWorkingState.mPlaneBuffer;
+    pPlaneContiguousMemory.subRegion(((long) lRoiY) * pPlaneWidth
+                                     * Size.SHORT,
+                                     ((long) lNumberOfRowElements)
+                                                   * Size.SHORT)
+                          .copyTo(lPlaneBuffer);
+
+    // The OTF support radius is a frequency index, it does not change with
+    // subsampling, but cannot exceed the size of the subsampled plane:
+    final int lOTFSupportRadiusX =
+                                 (int) Math.max(1,
+                                                Math.min(lWidth,
+                                                         Math.round(lRoiWidth
+                                                                    / pPSFSupportRadius)));
+    final int lOTFSupportRadiusY =
+                                 (int) Math.max(1,
+                                                Math.min(lHeight,
+                                                         Math.round(lRoiHeight
+                                                                    / pPSFSupportRadius)));
+
+    final int lLength = lWidth * lHeight;
+    if (pPrecision == Precision.Float)
+    {
+      if (lWorkingState.mFloatBuffer == null
+          || lWorkingState.mFloatBuffer.length != lLength)
+        lWorkingState.mFloatBuffer = new float[lLength];
+      final float[] lBuffer = lWorkingState.mFloatBuffer;
+
+      for (int y = 0; y < lHeight; y++)
+        for (int x = 0; x < lWidth; x++)
+          lBuffer[y * lWidth + x] = binnedValue(lPlaneBuffer,
+                                                pPlaneWidth,
+                                                lRoiX + x * pSubsampling,
+                                                y * pSubsampling,
+                                                pSubsampling);
+
+      getFloatDCT(lWorkingState, lWidth, lHeight).forward(lBuffer,
+                                                          false);
+
+      double l2 = 0;
+      for (int i = 0; i < lLength; i++)
+      {
+        final double lValue = lBuffer[i];
+        l2 += lValue * lValue;
+      }
+      final double lIL2 = 1.0 / Math.sqrt(l2);
 
-    for (long i = 0; i < lLength; i++)
+      double lEntropy = 0;
+      for (int y = 0; y < lOTFSupportRadiusY; y++)
+      {
+        final int yi = y * lWidth;
+        final int xend = lOTFSupportRadiusX
+                         - y * lOTFSupportRadiusX / lOTFSupportRadiusY;
+        for (int x = 0; x < xend; x++)
+          lEntropy += plogp(Math.abs(lBuffer[yi + x]) * lIL2);
+      }
+      return -lEntropy / (2.0 * lOTFSupportRadiusX * lOTFSupportRadiusY);
+    }
+    else
     {
-      final double lValue = pDoubleLargeArray.getDouble(i);
-      pDoubleLargeArray.setDouble(i, lValue * lIL2);
+      if (lWorkingState.mDoubleBuffer == null
+          || lWorkingState.mDoubleBuffer.length != lLength)
+        lWorkingState.mDoubleBuffer = new double[lLength];
+      final double[] lBuffer = lWorkingState.mDoubleBuffer;
+
+      for (int y = 0; y < lHeight; y++)
+        for (int x = 0; x < lWidth; x++)
+          lBuffer[y * lWidth + x] = binnedValue(lPlaneBuffer,
+                                                pPlaneWidth,
+                                                lRoiX + x * pSubsampling,
+                                                y * pSubsampling,
+                                                pSubsampling);
+
+      getDoubleDCT(lWorkingState, lWidth, lHeight).forward(lBuffer,
+                                                           false);
+
+      double l2 = 0;
+      for (int i = 0; i < lLength; i++)
+        l2 += lBuffer[i] * lBuffer[i];
+      final double lIL2 = 1.0 / Math.sqrt(l2);
+
+      double lEntropy = 0;
+      for (int y = 0; y < lOTFSupportRadiusY; y++)
+      {
+        final int yi = y * lWidth;
+        final int xend = lOTFSupportRadiusX
+                         - y * lOTFSupportRadiusX / lOTFSupportRadiusY;
+        for (int x = 0; x < xend; x++)
+          lEntropy += plogp(Math.abs(lBuffer[yi + x]) * lIL2);
+      }
+      return -lEntropy / (2.0 * lOTFSupportRadiusX * lOTFSupportRadiusY);
     }
   }
 
-  private double computeL2(DoubleLargeArray pDoubleLargeArray)
+  private static float binnedValue(short[] pPlaneBuffer,
+                                   int pPlaneWidth,
+                                   int pX,
+                                   int pY,
+                                   int pSubsampling)
   {
-    final long lLength = pDoubleLargeArray.length();
+    if (pSubsampling == 1)
+      return pPlaneBuffer[pY * pPlaneWidth + pX] & 0xFFFF;
 
-    double l2 = 0;
-    for (long i = 0; i < lLength; i++)
+    // the sum instead of the mean is used, the L2 normalization removes the
+    // difference:
+    int lSum = 0;
+    for (int j = 0; j < pSubsampling; j++)
     {
-      final double lValue = pDoubleLargeArray.getDouble(i);
-      l2 += lValue * lValue;
+      final int lRowOffset = (pY + j) * pPlaneWidth + pX;
+      for (int i = 0; i < pSubsampling; i++)
+        lSum += pPlaneBuffer[lRowOffset + i] & 0xFFFF;
     }
+    return lSum;
+  }
 
-    return sqrt(l2);
+  private static double plogp(double pValue)
+  {
+    return pValue > 0 ? pValue * Math.log(pValue) : 0;
   }
 
-  private final double entropyPerPixelSubTriangle(DoubleLargeArray pDoubleLargeArray,
-                                                  final long pWidth,
-                                                  final long pHeight,
-                                                  final long xl,
-                                                  final long yl,
-                                                  final long xh,
-                                                  final long yh)
+  private static DoubleDCT_2D getDoubleDCT(WorkingState pWorkingState,
+                                           int pWidth,
+                                           int pHeight)
   {
-    double entropy = 0;
-    for (long y = yl; y < yh; y++)
+    final Long lKey = (((long) pWidth) << 32) | pHeight;
+    DoubleDCT_2D lDoubleDCT_2D = pWorkingState.mDoubleDCT2DCache.get(lKey);
+    if (lDoubleDCT_2D == null)
     {
-      final long yi = y * pWidth;
-
-      final long xend = xh - y * xh / yh;
-      entropy = entropySub(pDoubleLargeArray, xl, entropy, yi, xend);
+      lDoubleDCT_2D = new DoubleDCT_2D(pHeight, pWidth);
+      pWorkingState.mDoubleDCT2DCache.put(lKey, lDoubleDCT_2D);
     }
-    entropy = -entropy / (2 * xh * yh);
-
-    return entropy;
+    return lDoubleDCT_2D;
   }
 
-  private double entropySub(DoubleLargeArray pDoubleLargeArray,
-                            final long xl,
-                            final double entropy,
-                            final long yi,
-                            final long xend)
+  private static FloatDCT_2D getFloatDCT(WorkingState pWorkingState,
+                                         int pWidth,
+                                         int pHeight)
   {
-    double lEntropy = entropy;
-    for (long x = xl; x < xend; x++)
+    final Long lKey = (((long) pWidth) << 32) | pHeight;
+    FloatDCT_2D lFloatDCT_2D = pWorkingState.mFloatDCT2DCache.get(lKey);
+    if (lFloatDCT_2D == null)
     {
-      final long i = yi + x;
-      final double value = pDoubleLargeArray.getDouble(i);
-      if (value > 0)
-      {
-        lEntropy += value * Math.log(value);
-      }
-      else if (value < 0)
-      {
-        lEntropy += -value * Math.log(-value);
-      }
+      lFloatDCT_2D = new FloatDCT_2D(pHeight, pWidth);
+      pWorkingState.mFloatDCT2DCache.put(lKey, lFloatDCT_2D);
     }
-    return lEntropy;
+    return lFloatDCT_2D;
   }
 
+  /**
+   * Returns the PSF support radius in pixels
+   *
+   * @return PSF support radius
+   */
   public double getPSFSupportRadius()
   {
     return mPSFSupportRadius;
   }
 
+  /**
+   * Sets the PSF support radius in pixels
+   *
+   * @param pPSFSupportRadius
+   *          PSF support radius
+   */
   public void setPSFSupportRadius(double pPSFSupportRadius)
   {
     mPSFSupportRadius = pPSFSupportRadius;
   }
 
+  /**
+   * Returns the floating point precision used for the DCT
+   *
+   * @return precision
+   */
+  public Precision getPrecision()
+  {
+    return mPrecision;
+  }
+
+  /**
+   * Sets the floating point precision used for the DCT
+   *
+   * @param pPrecision
+   *          precision
+   */
+  public void setPrecision(Precision pPrecision)
+  {
+    mPrecision = pPrecision;
+  }
+
+  /**
+   * Returns the subsampling factor
+   *
+   * @return subsampling factor
+   */
+  public int getSubsampling()
+  {
+    return mSubsampling;
+  }
+
+  /**
+   * Sets the subsampling factor: planes are binned by this factor along x and
+   * y before the DCT is computed. A factor of 2 makes the metric about four
+   * times faster, at the cost of ignoring the highest frequencies.
+   *
+   * @param pSubsampling
+   *          subsampling factor (1 = no subsampling)
+   */
+  public void setSubsampling(int pSubsampling)
+  {
+    mSubsampling = Math.max(1, pSubsampling);
+  }
+
+  /**
+   * Sets the region of interest, the metric is computed only within this
+   * region of each plane. The region is clipped to the plane bounds.
+   *
+   * @param pX
+   *          x of the top-left corner
+   * @param pY
+   *          y of the top-left corner
+   * @param pWidth
+   *          width
+   * @param pHeight
+   *          height
+   */
+  public void setRegionOfInterest(int pX, int pY, int pWidth, int pHeight)
+  {
+    mRegionOfInterest = new int[]
+    { pX, pY, pWidth, pHeight };
+  }
+
+  /**
+   * Clears the region of interest, the metric is computed on whole planes.
+   */
+  public void clearRegionOfInterest()
+  {
+    mRegionOfInterest = null;
+  }
+
 }
@@ -0,0 +1,101 @@
+package clearcontrol.ip.iqm.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import clearcontrol.ip.iqm.DCTS2D;
+import clearcontrol.ip.iqm.DCTS2D.Precision;
+import clearcontrol.stack.OffHeapPlanarStack;
+
+import org.junit.Test;
+
+/**
+ * DCTS2D benchmark on 2048x2048 planes, compares serial and plane-parallel
+ * execution, float precision, subsampling and region of interest modes.
+ *
+ * @author royer
+ */
+public class DCTS2DBenchmarkTests
+{
+  private static final int cWidth = 2048;
+  private static final int cHeight = 2048;
+  private static final int cDepth = 8;
+  private static final int cRepeats = 3;
+
+  /**
+   * Benchmark
+   */
+  @Test
+  public void benchmark()
+  {
+    final OffHeapPlanarStack lStack =
+                                    OffHeapPlanarStack.createStack(cWidth,
+                                                                   cHeight,
+                                                                   cDepth);
+    final Random lRandom = new Random(42);
+    final short[] lPlane = new short[cWidth * cHeight];
+    for (int z = 0; z < cDepth; z++)
+    {
+      final double lFrequency = 0.01 * (z + 1);
+      for (int y = 0; y < cHeight; y++)
+        for (int x = 0; x < cWidth; x++)
+          lPlane[y * cWidth + x] =
+                                 (short) (1000
+                                          + 500 * Math.sin(x * lFrequency)
+                                            * Math.cos(y * lFrequency)
+                                          + lRandom.nextInt(100));
+      lStack.getContiguousMemory(z).copyFrom(lPlane);
+    }
+
+    final ForkJoinPool lSerialPool = new ForkJoinPool(1);
+    final DCTS2D lSerialDCTS2D = new DCTS2D(lSerialPool);
+    final DCTS2D lParallelDCTS2D = new DCTS2D();
+
+    final double[] lSerial = run("serial, double", lSerialDCTS2D, lStack);
+    final double[] lParallel = run("parallel, double",
+                                   lParallelDCTS2D,
+                                   lStack);
+    for (int z = 0; z < cDepth; z++)
+      assertEquals(lSerial[z], lParallel[z], 0);
+
+    lParallelDCTS2D.setPrecision(Precision.Float);
+    final double[] lFloat = run("parallel, float", lParallelDCTS2D, lStack);
+    for (int z = 0; z < cDepth; z++)
+      assertEquals(lSerial[z], lFloat[z], 1e-3 * lSerial[z]);
+
+    lParallelDCTS2D.setPrecision(Precision.Double);
+    lParallelDCTS2D.setSubsampling(2);
+    run("parallel, double, subsampling 2", lParallelDCTS2D, lStack);
+
+    lParallelDCTS2D.setSubsampling(1);
+    lParallelDCTS2D.setRegionOfInterest(768, 768, 512, 512);
+    run("parallel, double, ROI 512x512", lParallelDCTS2D, lStack);
+
+    lSerialPool.shutdown();
+    lStack.free();
+  }
+
+  private double[] run(String pName, DCTS2D pDCTS2D, OffHeapPlanarStack pStack)
+  {
+    // warmup, also sizes the working buffers and DCT plans:
+    double[] lDCTS = pDCTS2D.computeImageQualityMetric(pStack);
+
+    final long lStartTimeInNs = System.nanoTime();
+    for (int r = 0; r < cRepeats; r++)
+      lDCTS = pDCTS2D.computeImageQualityMetric(pStack);
+    final long lStopTimeInNs = System.nanoTime();
+
+    final double lTimePerPlaneInMs = (lStopTimeInNs - lStartTimeInNs)
+                                     * 1e-6
+                                     / (cRepeats * cDepth);
+    System.out.format("%s: %.1f ms per %dx%d plane \n",
+                      pName,
+                      lTimePerPlaneInMs,
+                      cWidth,
+                      cHeight);
+    return lDCTS;
+  }
+
+}
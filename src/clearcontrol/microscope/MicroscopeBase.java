@@ -34,6 +34,7 @@ import clearcontrol.stack.StackRequest;
 import clearcontrol.stack.processor.AsynchronousPoolStackProcessorPipeline;
 import clearcontrol.stack.processor.AsynchronousStackProcessorPipeline;
 import clearcontrol.stack.processor.StackProcessingPipelineInterface;
+import clearcontrol.stack.processor.StagedStackProcessorPipeline;
 import clearcontrol.stack.processor.StackProcessorInterface;
 import coremem.recycling.RecyclerInterface;
 
@@ -116,7 +117,18 @@ public abstract class MicroscopeBase<M extends MicroscopeBase<M, Q>, Q extends M
       mCameraPixelSizeInNanometerVariableList.add(lPixelSizeInNanometersVariable);
     }
 
-    if (pThreadPoolSize <= 1)
+    final boolean lStagedPipeline =
+                                  MachineConfiguration.getCurrentMachineConfiguration()
+                                                      .getBooleanProperty("microscope.stackpipeline.staged",
+                                                                          false);
+
+    if (lStagedPipeline)
+      mStackProcessingPipeline =
+                               new StagedStackProcessorPipeline("Stack Pipeline",
+                                                                mStackRecyclerManager,
+                                                                pMaxStackProcessingQueueLength,
+                                                                pThreadPoolSize);
+    else if (pThreadPoolSize <= 1)
       mStackProcessingPipeline =
                                new AsynchronousStackProcessorPipeline("Stack Pipeline",
                                                                       mStackRecyclerManager,
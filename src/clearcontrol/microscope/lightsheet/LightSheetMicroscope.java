@@ -37,7 +37,7 @@ public class LightSheetMicroscope extends
    * @param pDeviceName
    *          device name
    * @param pStackFusionContext
-   *          ClearCL context for stack fusion
+   *          ClearCL context for stack fusion, null to fuse on the CPU
    * @param pMaxStackProcessingQueueLength
    *          max stack processing queue length
    * @param pThreadPoolSize
@@ -19,6 +19,7 @@ import clearcontrol.microscope.lightsheet.LightSheetMicroscopeQueue;
 import clearcontrol.microscope.lightsheet.acquisition.InterpolatedAcquisitionState;
 import clearcontrol.stack.OffHeapPlanarStack;
 import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackLease;
 import gnu.trove.list.array.TDoubleArrayList;
 
 /**
@@ -186,7 +187,8 @@ public class AdaptationA extends
       final StackInterface lStackInterface =
                                            pMicroscope.getCameraStackVariable(lBestDetectioArm)
                                                       .get();
-      StackInterface lDuplicateStack = lStackInterface.duplicate();
+      final StackLease lStackLease =
+                                   StackLease.acquire(lStackInterface);
 
       Runnable lRunnable = () -> {
 
@@ -198,9 +200,9 @@ public class AdaptationA extends
                                                             pLightSheetIndex,
                                                             lBestDetectioArm,
                                                             lDOFValueList,
-                                                            lDuplicateStack);
+                                                            lStackLease.getStack());
 
-          lDuplicateStack.free();
+          lStackLease.close();
 
           int lLength = lMetricArray.length / 2;
 
@@ -260,6 +262,10 @@ public class AdaptationA extends
         {
           e.printStackTrace();
         }
+        finally
+        {
+          lStackLease.close();
+        }
       };
 
       Future<?> lFuture =
@@ -291,14 +297,13 @@ public class AdaptationA extends
                                            int pLightSheetIndex,
                                            int pDetectionArmIndex,
                                            final TDoubleArrayList lDOFValueList,
-                                           StackInterface lDuplicatedStack)
+                                           StackInterface pStack)
   {
     DCTS2D lDCTS2D = new DCTS2D();
 
-    System.out.format("computing DCTS on %s ...\n", lDuplicatedStack);
+    System.out.format("computing DCTS on %s ...\n", pStack);
     final double[] lMetricArray =
-                                lDCTS2D.computeImageQualityMetric((OffHeapPlanarStack) lDuplicatedStack);
-    lDuplicatedStack.free();
+                                lDCTS2D.computeImageQualityMetric((OffHeapPlanarStack) pStack);
 
     PlotTab lPlot =
                   mMultiPlotZFocusCurves.getPlot(String.format("LS=%d, D=%d CPI=%d",
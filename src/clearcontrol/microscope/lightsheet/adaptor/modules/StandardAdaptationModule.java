@@ -7,7 +7,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import clearcontrol.core.math.argmax.ArgMaxFinder1DInterface;
-import clearcontrol.core.math.argmax.FitProbabilityInterface;
 import clearcontrol.core.math.argmax.methods.ModeArgMaxFinder;
 import clearcontrol.gui.plots.MultiPlot;
 import clearcontrol.gui.plots.PlotTab;
@@ -18,9 +17,9 @@ import clearcontrol.microscope.lightsheet.acquisition.LightSheetAcquisitionState
 import clearcontrol.microscope.lightsheet.adaptor.utils.NDIterator;
 import clearcontrol.microscope.lightsheet.component.detection.DetectionArmInterface;
 import clearcontrol.microscope.lightsheet.component.lightsheet.LightSheetInterface;
-import clearcontrol.stack.EmptyStack;
 import clearcontrol.stack.OffHeapPlanarStack;
 import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackLease;
 import gnu.trove.list.array.TDoubleArrayList;
 
 /**
@@ -156,18 +155,19 @@ public abstract class StandardAdaptationModule<S extends LightSheetAcquisitionSt
                                              lLightSheetMicroscope.getDeviceLists()
                                                                   .getNumberOfDevices(DetectionArmInterface.class);
 
+      // camera stacks are read in place, leases keep them from being recycled
+      // until the metrics are computed. The leases of all arms are acquired
+      // together so that concurrent adaptations cannot each hold part of the
+      // budget:
       ArrayList<StackInterface> lStacks = new ArrayList<>();
       for (int d = 0; d < lNumberOfDetectionArmDevices; d++)
         if (isRelevantDetectionArm(pControlPlaneIndex, d))
-        {
-          final StackInterface lStackInterface =
-                                               lLightSheetMicroscope.getCameraStackVariable(d)
-                                                                    .get();
-          lStacks.add(lStackInterface.duplicate());
-
-        }
+          lStacks.add(lLightSheetMicroscope.getCameraStackVariable(d)
+                                           .get());
         else
-          lStacks.add(new EmptyStack());
+          lStacks.add(null);
+      final ArrayList<StackLease> lStackLeases =
+                                               StackLease.acquireAll(lStacks);
 
       Runnable lRunnable = () -> {
 
@@ -176,63 +176,72 @@ public abstract class StandardAdaptationModule<S extends LightSheetAcquisitionSt
           ArgMaxFinder1DInterface lSmartArgMaxFinder =
                                                      new ModeArgMaxFinder();
 
-          ArrayList<Double> lArgMaxList = new ArrayList<Double>();
-
+          // metrics of all relevant detection arms go through a single batch
+          // argmax:
+          final double[] lDOFValues = lDOFValueList.toArray();
+          final int lLength = lDOFValues.length;
+          final double[] lMetrics =
+                                  new double[lNumberOfDetectionArmDevices
+                                             * lLength];
+          final int[] lDetectionArmIndices =
+                                           new int[lNumberOfDetectionArmDevices];
+          int lNumberOfCurves = 0;
           for (int d = 0; d < lNumberOfDetectionArmDevices; d++)
-
-          {
-            if (!isRelevantDetectionArm(pControlPlaneIndex, d))
+            if (isRelevantDetectionArm(pControlPlaneIndex, d))
             {
-              lArgMaxList.add(Double.NaN);
-              continue;
+              final double[] lMetricArray =
+                                          computeMetric(pControlPlaneIndex,
+                                                        pLightSheetIndex,
+                                                        d,
+                                                        lDOFValueList,
+                                                        lStackLeases.get(d)
+                                                                    .getStack());
+              lStackLeases.get(d).close();
+              System.arraycopy(lMetricArray,
+                               0,
+                               lMetrics,
+                               lNumberOfCurves * lLength,
+                               lLength);
+              lDetectionArmIndices[lNumberOfCurves++] = d;
             }
 
-            final double[] lMetricArray =
-                                        computeMetric(pControlPlaneIndex,
-                                                      pLightSheetIndex,
-                                                      d,
-                                                      lDOFValueList,
-                                                      lStacks.get(d));
+          final double[] lArgMaxArray = new double[lNumberOfCurves];
+          final double[] lFitProbabilityArray =
+                                              new double[lNumberOfCurves];
+          lSmartArgMaxFinder.argmax(lDOFValues,
+                                    lMetrics,
+                                    lNumberOfCurves,
+                                    lArgMaxArray,
+                                    lFitProbabilityArray);
 
-            Double lArgmax =
-                           lSmartArgMaxFinder.argmax(lDOFValueList.toArray(),
-                                                     lMetricArray);
+          ArrayList<Double> lArgMaxList = new ArrayList<Double>();
+          for (int d = 0; d < lNumberOfDetectionArmDevices; d++)
+            lArgMaxList.add(Double.NaN);
 
+          for (int i = 0; i < lNumberOfCurves; i++)
+          {
+            final double lArgmax = lArgMaxArray[i];
             System.out.println("lArgmax = " + lArgmax);
 
-            if (lArgmax != null && !Double.isNaN(lArgmax))
-            {
-              if (lSmartArgMaxFinder instanceof FitProbabilityInterface)
-              {
-                double lFitProbability =
-                                       ((FitProbabilityInterface) lSmartArgMaxFinder).getLastFitProbability();
-
-                if (lFitProbability > getProbabilityThreshold())
-                  lArgMaxList.add(lArgmax);
-                else
-                  lArgMaxList.add(Double.NaN);
-              }
-              else
-              {
-                lArgMaxList.add(lArgmax);
-              }
-
-            }
-            else
-              lArgMaxList.add(Double.NaN);
-
+            // finders without fit probability report NaN, which is accepted:
+            if (!Double.isNaN(lArgmax)
+                && !(lFitProbabilityArray[i] <= getProbabilityThreshold()))
+              lArgMaxList.set(lDetectionArmIndices[i], lArgmax);
           }
 
           System.out.println("lArgMaxList=" + lArgMaxList.toString());
 
-          for (StackInterface lStack : lStacks)
-            lStack.free();
-
         }
         catch (Throwable e)
         {
           e.printStackTrace();
         }
+        finally
+        {
+          for (StackLease lStackLease : lStackLeases)
+            if (lStackLease != null)
+              lStackLease.close();
+        }
 
       };
 
@@ -286,15 +295,14 @@ public abstract class StandardAdaptationModule<S extends LightSheetAcquisitionSt
                                    int pLightSheetIndex,
                                    int pDetectionArmIndex,
                                    final TDoubleArrayList lDOFValueList,
-                                   StackInterface lDuplicatedStack)
+                                   StackInterface pStack)
   {
 
     DCTS2D lDCTS2D = new DCTS2D();
 
-    System.out.format("computing DCTS on %s ...\n", lDuplicatedStack);
+    System.out.format("computing DCTS on %s ...\n", pStack);
     final double[] lMetricArray =
-                                lDCTS2D.computeImageQualityMetric((OffHeapPlanarStack) lDuplicatedStack);
-    lDuplicatedStack.free();
+                                lDCTS2D.computeImageQualityMetric((OffHeapPlanarStack) pStack);
 
     if (isRelevantDetectionArm(pControlPlaneIndex,
                                pDetectionArmIndex))
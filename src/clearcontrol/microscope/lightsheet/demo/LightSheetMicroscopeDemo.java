@@ -40,7 +40,11 @@ import clearcontrol.microscope.lightsheet.signalgen.LightSheetSignalGeneratorDev
 import clearcontrol.microscope.lightsheet.simulation.LightSheetMicroscopeSimulationDevice;
 import clearcontrol.microscope.state.AcquisitionStateManager;
 import clearcontrol.microscope.timelapse.TimelapseInterface;
+import clearcontrol.stack.sourcesink.sink.CompressedRawFileStackSink;
+import clearcontrol.stack.sourcesink.sink.ContainerFileStackSink;
+import clearcontrol.stack.sourcesink.sink.GroupCommitRawFileStackSink;
 import clearcontrol.stack.sourcesink.sink.RawFileStackSink;
+import clearcontrol.stack.sourcesink.sink.StripedRawFileStackSink;
 import simbryo.synthoscopy.microscope.lightsheet.drosophila.LightSheetMicroscopeSimulatorDrosophila;
 import simbryo.synthoscopy.microscope.parameters.PhantomParameter;
 import simbryo.synthoscopy.microscope.parameters.UnitConversion;
@@ -328,6 +332,10 @@ public class LightSheetMicroscopeDemo implements
                                   lLightSheetMicroscope.addTimelapse();
 
     lTimelapse.addFileStackSinkType(RawFileStackSink.class);
+    lTimelapse.addFileStackSinkType(GroupCommitRawFileStackSink.class);
+    lTimelapse.addFileStackSinkType(ContainerFileStackSink.class);
+    lTimelapse.addFileStackSinkType(CompressedRawFileStackSink.class);
+    lTimelapse.addFileStackSinkType(StripedRawFileStackSink.class);
 
     // Now that the microscope has been setup, we can connect the simulator to
     // it:
@@ -1,10 +1,14 @@
 package clearcontrol.microscope.lightsheet.processor;
 
 import clearcl.ClearCLContext;
+import clearcontrol.microscope.lightsheet.processor.fusion.FastFusionBackendInterface;
 import clearcontrol.microscope.lightsheet.processor.fusion.FastFusionEngine;
 import clearcontrol.microscope.lightsheet.processor.fusion.FastFusionEngineInterface;
+import clearcontrol.microscope.lightsheet.processor.fusion.backends.ClearCLFastFusionBackend;
 import clearcontrol.microscope.lightsheet.processor.fusion.tasks.AverageTask;
+import clearcontrol.microscope.lightsheet.processor.fusion.tasks.FusionTaskInterface;
 import clearcontrol.microscope.lightsheet.processor.fusion.tasks.IdentityTask;
+import clearcontrol.microscope.lightsheet.processor.fusion.tasks.WeightedAverageTask;
 import clearcontrol.microscope.stacks.metadata.MetaDataView;
 import clearcontrol.stack.StackInterface;
 import clearcontrol.stack.metadata.StackMetaData;
@@ -19,7 +23,7 @@ public class LightSheetFastFusionEngine extends FastFusionEngine
                                         FastFusionEngineInterface
 {
 
-  private StackMetaData mFusedStackMetaData = new StackMetaData();
+  private final boolean mWeightedFusion;
 
   /**
    * Instantiates a lightsheet fast fusion engine
@@ -35,7 +39,32 @@ public class LightSheetFastFusionEngine extends FastFusionEngine
                                     int pNumberOfLightSheets,
                                     int pNumberOfDetectionArms)
   {
-    super(pContext);
+    this(new ClearCLFastFusionBackend(pContext),
+         pNumberOfLightSheets,
+         pNumberOfDetectionArms,
+         false);
+  }
+
+  /**
+   * Instantiates a lightsheet fast fusion engine running on a given backend
+   * 
+   * @param pBackend
+   *          fast fusion backend
+   * @param pNumberOfLightSheets
+   *          number of lightsheets
+   * @param pNumberOfDetectionArms
+   *          number of detection arms
+   * @param pWeightedFusion
+   *          true -> views are blended by local sharpness, false -> views are
+   *          averaged
+   */
+  public LightSheetFastFusionEngine(FastFusionBackendInterface pBackend,
+                                    int pNumberOfLightSheets,
+                                    int pNumberOfDetectionArms,
+                                    boolean pWeightedFusion)
+  {
+    super(pBackend);
+    mWeightedFusion = pWeightedFusion;
 
     if (pNumberOfLightSheets == 1)
     {
@@ -45,27 +74,27 @@ public class LightSheetFastFusionEngine extends FastFusionEngine
       }
       else if (pNumberOfDetectionArms == 2)
       {
-        addTask(new AverageTask("C0L0", "C1L0", "fused"));
+        addTask(newFusionTask("C0L0", "C1L0", "fused"));
       }
     }
     else if (pNumberOfLightSheets == 2)
     {
       if (pNumberOfDetectionArms == 1)
       {
-        addTask(new AverageTask("C0L0", "C0L1", "fused"));
+        addTask(newFusionTask("C0L0", "C0L1", "fused"));
       }
       else if (pNumberOfDetectionArms == 2)
       {
-        addTask(new AverageTask("C0L0", "C0L1", "C0"));
-        addTask(new AverageTask("C1L0", "C1L1", "C1"));
-        addTask(new AverageTask("C0", "C1", "fused"));
+        addTask(newFusionTask("C0L0", "C0L1", "C0"));
+        addTask(newFusionTask("C1L0", "C1L1", "C1"));
+        addTask(newFusionTask("C0", "C1", "fused"));
       }
     }
     else if (pNumberOfLightSheets == 4)
     {
       if (pNumberOfDetectionArms == 1)
       {
-        addTask(new AverageTask("C0L0",
+        addTask(newFusionTask("C0L0",
                                 "C0L1",
                                 "C0L2",
                                 "C0L3",
@@ -73,22 +102,43 @@ public class LightSheetFastFusionEngine extends FastFusionEngine
       }
       else if (pNumberOfDetectionArms == 2)
       {
-        addTask(new AverageTask("C0L0",
+        addTask(newFusionTask("C0L0",
                                 "C0L1",
                                 "C0L2",
                                 "C0L3",
                                 "C0"));
-        addTask(new AverageTask("C1L0",
+        addTask(newFusionTask("C1L0",
                                 "C1L1",
                                 "C1L2",
                                 "C1L3",
                                 "C1"));
-        addTask(new AverageTask("C0", "C1", "fused"));
+        addTask(newFusionTask("C0", "C1", "fused"));
       }
     }
 
   }
 
+  private FusionTaskInterface newFusionTask(String... pSlotKeys)
+  {
+    if (pSlotKeys.length == 3)
+      return mWeightedFusion ? new WeightedAverageTask(pSlotKeys[0],
+                                                       pSlotKeys[1],
+                                                       pSlotKeys[2])
+                             : new AverageTask(pSlotKeys[0],
+                                               pSlotKeys[1],
+                                               pSlotKeys[2]);
+    return mWeightedFusion ? new WeightedAverageTask(pSlotKeys[0],
+                                                     pSlotKeys[1],
+                                                     pSlotKeys[2],
+                                                     pSlotKeys[3],
+                                                     pSlotKeys[4])
+                           : new AverageTask(pSlotKeys[0],
+                                             pSlotKeys[1],
+                                             pSlotKeys[2],
+                                             pSlotKeys[3],
+                                             pSlotKeys[4]);
+  }
+
   /**
    * Returns the fused metadata object
    * 
@@ -96,14 +146,7 @@ public class LightSheetFastFusionEngine extends FastFusionEngine
    */
   public StackMetaData getFusedMetaData()
   {
-    return mFusedStackMetaData.clone();
-  }
-
-  @Override
-  public void reset(boolean pCloseImages)
-  {
-    super.reset(pCloseImages);
-    mFusedStackMetaData.clear();
+    return getMetaData();
   }
 
   /**
@@ -146,10 +189,10 @@ public class LightSheetFastFusionEngine extends FastFusionEngine
 
       Runnable lRunnable = () -> {
         passImage(lKey,
+                  pStack.getMetaData(),
                   pStack.getContiguousMemory(),
                   pStack.getDimensions());
-
-        fuseMetaData(pStack);
+        System.out.println("passed:" + pStack.getMetaData());
 
         pStack.release();
       };
@@ -166,14 +209,6 @@ public class LightSheetFastFusionEngine extends FastFusionEngine
 
   }
 
-  private void fuseMetaData(StackInterface pStack)
-  {
-    StackMetaData lMetaData = pStack.getMetaData();
-
-    mFusedStackMetaData.addAll(lMetaData);
-    System.out.println("passed:" + lMetaData);
-  }
-
   protected String getKey(final int pCameraIndex,
                           final int pLightSheetIndex)
   {
@@ -3,10 +3,14 @@ package clearcontrol.microscope.lightsheet.processor;
 import java.util.concurrent.TimeUnit;
 
 import clearcl.ClearCLContext;
-import clearcl.ClearCLImage;
+import clearcontrol.core.configuration.MachineConfiguration;
 import clearcontrol.core.log.LoggingInterface;
 import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
 import clearcontrol.microscope.lightsheet.acquisition.AcquisitionType;
+import clearcontrol.microscope.lightsheet.processor.fusion.FastFusionBackendInterface;
+import clearcontrol.microscope.lightsheet.processor.fusion.FusionImageInterface;
+import clearcontrol.microscope.lightsheet.processor.fusion.backends.ClearCLFastFusionBackend;
+import clearcontrol.microscope.lightsheet.processor.fusion.backends.OffHeapFastFusionBackend;
 import clearcontrol.microscope.stacks.metadata.MetaDataAcquisitionType;
 import clearcontrol.stack.StackInterface;
 import clearcontrol.stack.StackRequest;
@@ -38,7 +42,7 @@ public class LightSheetFastFusionProcessor extends
    * @param pLightSheetMicroscope
    *          lightsheet microscope
    * @param pContext
-   *          ClearCL context to use
+   *          ClearCL context to use, null to fuse on the CPU
    */
   public LightSheetFastFusionProcessor(String pProcessorName,
                                        LightSheetMicroscope pLightSheetMicroscope,
@@ -55,10 +59,21 @@ public class LightSheetFastFusionProcessor extends
   {
 
     if (mEngine == null)
+    {
+      // without ClearCL context, fusion runs on the CPU:
+      FastFusionBackendInterface lBackend =
+                                          getContext() != null ? new ClearCLFastFusionBackend(getContext())
+                                                               : new OffHeapFastFusionBackend();
+      final boolean lWeightedFusion =
+                                    MachineConfiguration.getCurrentMachineConfiguration()
+                                                        .getBooleanProperty("fastfusion.weighted",
+                                                                            false);
       mEngine =
-              new LightSheetFastFusionEngine(getContext(),
+              new LightSheetFastFusionEngine(lBackend,
                                              mLightSheetMicroscope.getNumberOfLightSheets(),
-                                             mLightSheetMicroscope.getNumberOfDetectionArms());
+                                             mLightSheetMicroscope.getNumberOfDetectionArms(),
+                                             lWeightedFusion);
+    }
 
     // info("received stack for processing: %s", pStack);
 
@@ -79,7 +94,7 @@ public class LightSheetFastFusionProcessor extends
 
     if (mEngine.isDone())
     {
-      ClearCLImage lFusedImage = mEngine.getImage("fused");
+      FusionImageInterface lFusedImage = mEngine.getImage("fused");
 
       mFusedStack =
                   pStackRecycler.getOrWait(1000,
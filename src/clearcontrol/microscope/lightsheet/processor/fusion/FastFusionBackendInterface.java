@@ -0,0 +1,35 @@
+package clearcontrol.microscope.lightsheet.processor.fusion;
+
+/**
+ * Backend of a fast fusion engine: allocates the slot images on which the
+ * fusion tasks operate. The backend of an engine is chosen when the engine is
+ * constructed.
+ *
+ * @author royer
+ */
+public interface FastFusionBackendInterface
+{
+
+  /**
+   * Allocates a 16 bit unsigned integer image of given dimensions
+   * 
+   * @param pDimensions
+   *          image dimensions
+   * @return image
+   */
+  FusionImageInterface allocateImage(long... pDimensions);
+
+  /**
+   * Returns true if different fusion tasks can run concurrently on this
+   * backend, false if they must be serialized
+   * 
+   * @return true if tasks can run concurrently
+   */
+  boolean supportsConcurrentTasks();
+
+  /**
+   * Waits for all computations enqueued on this backend to finish
+   */
+  void waitToFinish();
+
+}
@@ -1,88 +1,167 @@
 package clearcontrol.microscope.lightsheet.processor.fusion;
 
-import static java.lang.Math.min;
-
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import clearcl.ClearCLContext;
-import clearcl.ClearCLImage;
-import clearcl.enums.HostAccessType;
-import clearcl.enums.ImageChannelDataType;
-import clearcl.enums.KernelAccessType;
+import clearcontrol.core.concurrent.executors.ClearControlExecutors;
+import clearcontrol.core.concurrent.executors.SharedExecutorPool;
+import clearcontrol.core.log.LoggingInterface;
+import clearcontrol.microscope.lightsheet.processor.fusion.backends.ClearCLFastFusionBackend;
 import clearcontrol.microscope.lightsheet.processor.fusion.tasks.FusionTaskInterface;
+import clearcontrol.stack.metadata.StackMetaData;
 import coremem.ContiguousMemoryInterface;
 
 import org.apache.commons.lang3.tuple.MutablePair;
 
 /**
- * fast fusion engine.
+ * fast fusion engine. Images are held in slots allocated by a backend chosen at
+ * construction: ClearCL (OpenCL) or off-heap CPU.
+ *
+ * Task dependencies are derived once from the slot keys that tasks require and
+ * produce; a task becomes ready as soon as its last required image lands, and
+ * is then either queued for the execute methods or, in asynchronous mode,
+ * fired immediately on the shared compute pool. Slots are double-buffered per
+ * timepoint: images passed for slots that are already filled go to the next
+ * timepoint's buffer, so that the next timepoint can be uploaded while the
+ * current one is fused. Passing an image for a slot that is filled in both
+ * timepoints waits for the current timepoint to be reset, but only for a
+ * bounded time: the image of the current timepoint is then overwritten. Each
+ * timepoint also merges the metadata passed with its images. All slot
+ * accessors refer to the current timepoint, {@link #reset(boolean)} moves on to
+ * the next one.
  *
  * @author royer
  */
-public class FastFusionEngine implements FastFusionEngineInterface
+public class FastFusionEngine implements
+                              FastFusionEngineInterface,
+                              LoggingInterface
 {
-  private final ClearCLContext mContext;
+  private static final long cUploadSlotTimeOutInMilliseconds = 1000;
 
-  private final ConcurrentHashMap<String, MutablePair<Boolean, ClearCLImage>> mImageSlotsMap =
-                                                                                             new ConcurrentHashMap<>();
+  private final FastFusionBackendInterface mBackend;
 
   private final ArrayList<FusionTaskInterface> mFusionTasks =
                                                             new ArrayList<>();
 
-  private final HashSet<FusionTaskInterface> mExecutedFusionTasks =
-                                                                  new HashSet<>();
+  // tasks requiring each slot key:
+  private volatile Map<String, List<FusionTaskInterface>> mDependentTasksMap =
+                                                                           new HashMap<>();
+
+  private final SlotBuffer[] mSlotBuffers = new SlotBuffer[]
+  { new SlotBuffer(), new SlotBuffer() };
+  private volatile int mCurrentSlotBufferIndex;
+
+  private final Object mResetLock = new Object();
+
+  private volatile boolean mAsynchronousTaskExecution;
+  private final Object mTaskSerializationLock = new Object();
+  private final ConcurrentHashMap<FusionTaskInterface, FusionTaskStatistics> mTaskStatisticsMap =
+                                                                                           new ConcurrentHashMap<>();
 
   /**
    * Instantiates a StackFusion object given a CLearCL context
-   * 
+   *
    * @param pContext
    *          ClearCL context
    */
   public FastFusionEngine(ClearCLContext pContext)
+  {
+    this(new ClearCLFastFusionBackend(pContext));
+  }
+
+  /**
+   * Instantiates a StackFusion object given a backend
+   *
+   * @param pBackend
+   *          backend
+   */
+  public FastFusionEngine(FastFusionBackendInterface pBackend)
   {
     super();
-    mContext = pContext;
+    mBackend = pBackend;
   }
 
   /**
    * Instantiates a fast fusion engine given an existing engine - all tasks are
    * copied over
-   * 
+   *
    * @param pFastFusionEngine
    *          fast fusion engine
    */
   public FastFusionEngine(FastFusionEngine pFastFusionEngine)
   {
-    this(pFastFusionEngine.getContext());
+    this(pFastFusionEngine.getBackend());
 
-    mFusionTasks.addAll(pFastFusionEngine.getTasks());
+    for (FusionTaskInterface lFusionTask : pFastFusionEngine.getTasks())
+      addTask(lFusionTask);
   }
 
+  /**
+   * Resets the image slots of the current timepoint, once its tasks are
+   * complete, and moves on to the next timepoint. If images are closed, the
+   * slots of both timepoints are reset. Tasks are waited for without holding
+   * the engine's monitor, so that images of the next timepoint can still be
+   * passed meanwhile.
+   */
   @Override
   public void reset(boolean pCloseImages)
   {
-    mContext.getDefaultQueue().waitToFinish();
-
-    for (Entry<String, MutablePair<Boolean, ClearCLImage>> lEntry : mImageSlotsMap.entrySet())
+    synchronized (mResetLock)
     {
+      final SlotBuffer lSlotBuffer = getCurrentSlotBuffer();
+      lSlotBuffer.waitTasksToComplete();
+      mBackend.waitToFinish();
+      synchronized (this)
+      {
+        lSlotBuffer.clear(pCloseImages);
+        mCurrentSlotBufferIndex = (mCurrentSlotBufferIndex + 1)
+                                  % mSlotBuffers.length;
+        notifyAll();
+      }
 
-      lEntry.getValue().left = false;
       if (pCloseImages)
-        lEntry.getValue().getRight().close();
+      {
+        final SlotBuffer lNextSlotBuffer = getCurrentSlotBuffer();
+        lNextSlotBuffer.waitTasksToComplete();
+        mBackend.waitToFinish();
+        synchronized (this)
+        {
+          lNextSlotBuffer.clear(true);
+          notifyAll();
+        }
+      }
     }
-    mExecutedFusionTasks.clear();
   }
 
   @Override
-  public void addTask(FusionTaskInterface pTask)
+  public synchronized void addTask(FusionTaskInterface pTask)
   {
     mFusionTasks.add(pTask);
+
+    HashMap<String, List<FusionTaskInterface>> lDependentTasksMap =
+                                                                  new HashMap<>();
+    for (FusionTaskInterface lFusionTask : mFusionTasks)
+      for (String lSlotKey : lFusionTask.getRequiredImagesSlotKeys())
+        lDependentTasksMap.computeIfAbsent(lSlotKey,
+                                           k -> new ArrayList<>())
+                          .add(lFusionTask);
+    mDependentTasksMap = lDependentTasksMap;
+
+    for (SlotBuffer lSlotBuffer : mSlotBuffers)
+      lSlotBuffer.resetDependencies();
   }
 
   @Override
@@ -96,99 +175,75 @@ public class FastFusionEngine implements FastFusionEngineInterface
                         ContiguousMemoryInterface pImageData,
                         long... pDimensions)
   {
-    MutablePair<Boolean, ClearCLImage> lPair =
-                                             ensureImageAllocated(pSlotKey,
-                                                                  pDimensions);
-
-    lPair.getRight().readFrom(pImageData, true);
-    lPair.setLeft(true);
+    passImage(pSlotKey, null, pImageData, pDimensions);
   }
 
-  @Override
-  public MutablePair<Boolean, ClearCLImage> ensureImageAllocated(final String pSlotKey,
-                                                                 final long... pDimensions)
+  /**
+   * Passes an image to the timepoint it belongs to, and merges the given
+   * metadata into the metadata of that timepoint.
+   *
+   * @param pSlotKey
+   *          slot key
+   * @param pMetaData
+   *          metadata to merge, can be null
+   * @param pImageData
+   *          image data
+   * @param pDimensions
+   *          image dimensions
+   */
+  public void passImage(String pSlotKey,
+                        StackMetaData pMetaData,
+                        ContiguousMemoryInterface pImageData,
+                        long... pDimensions)
   {
+    final SlotBuffer lSlotBuffer = getUploadSlotBuffer(pSlotKey);
+    if (pMetaData != null)
+      lSlotBuffer.addMetaData(pMetaData);
+    lSlotBuffer.passImage(pSlotKey, pImageData, pDimensions);
+  }
 
-    MutablePair<Boolean, ClearCLImage> lPair =
-                                             getImageSlotsMap().get(pSlotKey);
-
-    if (lPair == null)
-    {
-      lPair = MutablePair.of(true, (ClearCLImage) null);
-
-      getImageSlotsMap().put(pSlotKey, lPair);
-    }
-
-    ClearCLImage lImage = lPair.getRight();
-
-    if (lImage == null
-        || !Arrays.equals(lImage.getDimensions(), pDimensions))
-    {
-      if (lImage != null)
-        lImage.close();
-
-      lImage =
-             mContext.createSingleChannelImage(HostAccessType.ReadWrite,
-                                               KernelAccessType.ReadWrite,
-                                               ImageChannelDataType.UnsignedInt16,
-                                               pDimensions);
-
-      lPair.setLeft(false);
-      lPair.setRight(lImage);
-    }
+  /**
+   * Returns a copy of the metadata merged for the current timepoint
+   *
+   * @return metadata of the current timepoint
+   */
+  public StackMetaData getMetaData()
+  {
+    return getCurrentSlotBuffer().getMetaData();
+  }
 
-    return lPair;
+  @Override
+  public MutablePair<Boolean, FusionImageInterface> ensureImageAllocated(final String pSlotKey,
+                                                                         final long... pDimensions)
+  {
+    return getCurrentSlotBuffer().ensureImageAllocated(pSlotKey,
+                                                       pDimensions);
   }
 
   @Override
   public void assignImageToAnotherSlotKey(final String pSrcSlotKey,
                                           final String pDstSlotKey)
   {
-    MutablePair<Boolean, ClearCLImage> lDstPair =
-                                                getImageSlotsMap().get(pDstSlotKey);
-
-    if (lDstPair == null)
-    {
-      lDstPair = MutablePair.of(true, (ClearCLImage) null);
-      getImageSlotsMap().put(pDstSlotKey, lDstPair);
-    }
-
-    MutablePair<Boolean, ClearCLImage> lSrcPair =
-                                                getImageSlotsMap().get(pSrcSlotKey);
-
-    lDstPair.setRight(lSrcPair.getRight());
-    lDstPair.setLeft(true);
-
+    getCurrentSlotBuffer().assignImageToAnotherSlotKey(pSrcSlotKey,
+                                                       pDstSlotKey);
   }
 
   @Override
-  public ClearCLImage getImage(String pSlotKey)
+  public FusionImageInterface getImage(String pSlotKey)
   {
-    return getImageSlotsMap().get(pSlotKey).getRight();
+    return getCurrentSlotBuffer().getImage(pSlotKey);
   }
 
   @Override
   public boolean isImageAvailable(String pSlotKey)
   {
-    MutablePair<Boolean, ClearCLImage> lMutablePair =
-                                                    getImageSlotsMap().get(pSlotKey);
-    if (lMutablePair == null)
-      return false;
-    return lMutablePair.getLeft();
+    return getCurrentSlotBuffer().isImageAvailable(pSlotKey);
   }
 
   @Override
   public Set<String> getAvailableImagesSlotKeys()
   {
-    HashSet<String> lAvailableImagesKeys = new HashSet<String>();
-    for (Entry<String, MutablePair<Boolean, ClearCLImage>> lEntry : mImageSlotsMap.entrySet())
-    {
-      if (lEntry.getValue().getKey())
-      {
-        lAvailableImagesKeys.add(lEntry.getKey());
-      }
-    }
-    return lAvailableImagesKeys;
+    return getCurrentSlotBuffer().getAvailableImagesSlotKeys();
   }
 
   @Override
@@ -200,59 +255,469 @@ public class FastFusionEngine implements FastFusionEngineInterface
   @Override
   public int executeSeveralTasks(int pMaxNumberOfTasks)
   {
-    ArrayList<FusionTaskInterface> lReadyTasks = new ArrayList<>();
+    int lNumberOfExecutedTasks = 0;
 
-    Set<String> lAvailableImageKeys = getAvailableImagesSlotKeys();
-
-    for (FusionTaskInterface lFusionTask : mFusionTasks)
-      if (!mExecutedFusionTasks.contains(lFusionTask))
-      {
-        boolean lImagesAvailable =
-                                 lFusionTask.checkIfRequiredImagesAvailable(lAvailableImageKeys);
-
-        if (lImagesAvailable)
-          lReadyTasks.add(lFusionTask);
+    // tasks of the current timepoint go first:
+    final int lCurrentSlotBufferIndex = mCurrentSlotBufferIndex;
+    for (int i = 0; i < mSlotBuffers.length; i++)
+    {
+      final SlotBuffer lSlotBuffer =
+                                   mSlotBuffers[(lCurrentSlotBufferIndex
+                                                 + i)
+                                                % mSlotBuffers.length];
+      FusionTaskInterface lFusionTask;
+      while (lNumberOfExecutedTasks < pMaxNumberOfTasks
+             && (lFusionTask = lSlotBuffer.pollReadyTask()) != null)
+        if (executeTask(lSlotBuffer, lFusionTask))
+          lNumberOfExecutedTasks++;
+    }
 
-      }
+    return lNumberOfExecutedTasks;
+  }
 
-    int lNumberOfTasksReady = lReadyTasks.size();
+  /**
+   * Waits for the currently running fusion tasks to complete
+   */
+  public void waitFusionTasksToComplete()
+  {
+    for (SlotBuffer lSlotBuffer : mSlotBuffers)
+      lSlotBuffer.waitTasksToComplete();
+    mBackend.waitToFinish();
+  }
 
-    if (lNumberOfTasksReady == 0)
-      return 0;
+  /**
+   * Waits for the running fusion tasks of the current timepoint to complete,
+   * tasks of the next timepoint may still be running.
+   */
+  public void waitCurrentTimepointTasksToComplete()
+  {
+    getCurrentSlotBuffer().waitTasksToComplete();
+    mBackend.waitToFinish();
+  }
 
-    lNumberOfTasksReady = min(lNumberOfTasksReady, pMaxNumberOfTasks);
+  /**
+   * Sets whether tasks are fired asynchronously on the shared compute pool as
+   * soon as they are ready, instead of being executed by the execute methods.
+   * Should be set before images are passed.
+   *
+   * @param pAsynchronousTaskExecution
+   *          true for asynchronous execution
+   */
+  public void setAsynchronousTaskExecution(boolean pAsynchronousTaskExecution)
+  {
+    mAsynchronousTaskExecution = pAsynchronousTaskExecution;
+  }
 
-    for (int i = 0; i < lNumberOfTasksReady; i++)
-    {
-      FusionTaskInterface lTask = lReadyTasks.get(i);
-      lTask.enqueue(this, true);
-      mExecutedFusionTasks.add(lTask);
-    }
+  /**
+   * Returns true if tasks are fired asynchronously as soon as they are ready
+   *
+   * @return true for asynchronous execution
+   */
+  public boolean isAsynchronousTaskExecution()
+  {
+    return mAsynchronousTaskExecution;
+  }
 
-    return lNumberOfTasksReady;
+  /**
+   * Returns the execution time statistics of a given task
+   *
+   * @param pTask
+   *          task
+   * @return task statistics
+   */
+  public FusionTaskStatistics getTaskStatistics(FusionTaskInterface pTask)
+  {
+    return mTaskStatisticsMap.computeIfAbsent(pTask,
+                                              t -> new FusionTaskStatistics());
   }
 
   /**
-   * Waits for the currently
+   * Returns the backend of this engine
+   *
+   * @return backend
    */
-  public void waitFusionTasksToComplete()
+  public FastFusionBackendInterface getBackend()
   {
-    getContext().getDefaultQueue().waitToFinish();
+    return mBackend;
   }
 
   /**
    * Returns ClearCL context
-   * 
-   * @return context
+   *
+   * @return context, null if this engine does not use a ClearCL backend
    */
   public ClearCLContext getContext()
   {
-    return mContext;
+    if (mBackend instanceof ClearCLFastFusionBackend)
+      return ((ClearCLFastFusionBackend) mBackend).getContext();
+    return null;
+  }
+
+  private SlotBuffer getCurrentSlotBuffer()
+  {
+    return mSlotBuffers[mCurrentSlotBufferIndex];
+  }
+
+  private synchronized SlotBuffer getUploadSlotBuffer(String pSlotKey)
+  {
+    // if the slot is filled in both timepoints, its image in the next
+    // timepoint may still be fused, we wait for the current one to be reset.
+    // The current timepoint might never complete (e.g. a view is missing), so
+    // after a while its image is overwritten instead:
+    final long lDeadlineInMs = System.currentTimeMillis()
+                               + cUploadSlotTimeOutInMilliseconds;
+    while (true)
+    {
+      final SlotBuffer lCurrentSlotBuffer = getCurrentSlotBuffer();
+      if (!lCurrentSlotBuffer.isImageAvailable(pSlotKey))
+        return lCurrentSlotBuffer;
+      final SlotBuffer lNextSlotBuffer =
+                                       mSlotBuffers[(mCurrentSlotBufferIndex
+                                                     + 1)
+                                                    % mSlotBuffers.length];
+      if (!lNextSlotBuffer.isImageAvailable(pSlotKey))
+        return lNextSlotBuffer;
+
+      final long lRemainingTimeInMs = lDeadlineInMs
+                                      - System.currentTimeMillis();
+      if (lRemainingTimeInMs <= 0)
+      {
+        warning("Slot %s is filled in both timepoints, overwriting the image of the current timepoint",
+                pSlotKey);
+        return lCurrentSlotBuffer;
+      }
+
+      try
+      {
+        wait(lRemainingTimeInMs);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for slot "
+                                        + pSlotKey
+                                        + " to be free");
+      }
+    }
+  }
+
+  private boolean executeTask(SlotBuffer pSlotBuffer,
+                              FusionTaskInterface pFusionTask)
+  {
+    if (!pSlotBuffer.markStarted(pFusionTask))
+      return false;
+
+    final long lStartTimeInNs = System.nanoTime();
+    if (mBackend.supportsConcurrentTasks())
+      pFusionTask.enqueue(pSlotBuffer, true);
+    else
+      synchronized (mTaskSerializationLock)
+      {
+        pFusionTask.enqueue(pSlotBuffer, true);
+      }
+    getTaskStatistics(pFusionTask).record(System.nanoTime()
+                                          - lStartTimeInNs);
+
+    for (String lSlotKey : pFusionTask.getProducedImagesSlotKeys())
+      if (pSlotBuffer.isImageAvailable(lSlotKey))
+        pSlotBuffer.notifyImageAvailable(lSlotKey);
+
+    return true;
   }
 
-  private Map<String, MutablePair<Boolean, ClearCLImage>> getImageSlotsMap()
+  /**
+   * Image slots and task states of one timepoint. Tasks see the slot buffer of
+   * their timepoint as engine.
+   */
+  private class SlotBuffer implements FastFusionEngineInterface
   {
-    return mImageSlotsMap;
+    private final ConcurrentHashMap<String, MutablePair<Boolean, FusionImageInterface>> mImageSlotsMap =
+                                                                                                       new ConcurrentHashMap<>();
+
+    private final Set<String> mNotifiedSlotKeys =
+                                                ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<FusionTaskInterface, AtomicInteger> mNumberOfMissingImagesMap =
+                                                                                                  new ConcurrentHashMap<>();
+    private final Set<FusionTaskInterface> mStartedTasks =
+                                                         ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedQueue<FusionTaskInterface> mReadyTasks =
+                                                                        new ConcurrentLinkedQueue<>();
+    private int mNumberOfTasksInFlight;
+    private final StackMetaData mMetaData = new StackMetaData();
+
+    void resetDependencies()
+    {
+      mNumberOfMissingImagesMap.clear();
+      for (FusionTaskInterface lFusionTask : mFusionTasks)
+      {
+        final Set<String> lRequiredSlotKeys =
+                                            lFusionTask.getRequiredImagesSlotKeys();
+        int lNumberOfMissingImages = 0;
+        for (String lSlotKey : lRequiredSlotKeys)
+          if (!mNotifiedSlotKeys.contains(lSlotKey))
+            lNumberOfMissingImages++;
+        mNumberOfMissingImagesMap.put(lFusionTask,
+                                      new AtomicInteger(lNumberOfMissingImages));
+
+        // tasks without inputs decide for themselves:
+        if (lNumberOfMissingImages == 0
+            && (!lRequiredSlotKeys.isEmpty()
+                || lFusionTask.checkIfRequiredImagesAvailable(getAvailableImagesSlotKeys())))
+          taskReady(lFusionTask);
+      }
+    }
+
+    void clear(boolean pCloseImages)
+    {
+      // images can be shared between slots (identity tasks):
+      final Set<FusionImageInterface> lClosedImages =
+                                                    Collections.newSetFromMap(new IdentityHashMap<>());
+      final Iterator<Entry<String, MutablePair<Boolean, FusionImageInterface>>> lIterator =
+                                                                                           mImageSlotsMap.entrySet()
+                                                                                                         .iterator();
+      while (lIterator.hasNext())
+      {
+        final MutablePair<Boolean, FusionImageInterface> lPair =
+                                                               lIterator.next()
+                                                                        .getValue();
+        lPair.setLeft(false);
+        if (pCloseImages)
+        {
+          if (lPair.getRight() != null
+              && lClosedImages.add(lPair.getRight()))
+            lPair.getRight().close();
+          lIterator.remove();
+        }
+      }
+
+      mNotifiedSlotKeys.clear();
+      mStartedTasks.clear();
+      mReadyTasks.clear();
+      resetDependencies();
+      synchronized (mMetaData)
+      {
+        mMetaData.clear();
+      }
+    }
+
+    void addMetaData(StackMetaData pMetaData)
+    {
+      synchronized (mMetaData)
+      {
+        mMetaData.addAll(pMetaData);
+      }
+    }
+
+    StackMetaData getMetaData()
+    {
+      synchronized (mMetaData)
+      {
+        return mMetaData.clone();
+      }
+    }
+
+    void notifyImageAvailable(String pSlotKey)
+    {
+      if (!mNotifiedSlotKeys.add(pSlotKey))
+        return;
+
+      final List<FusionTaskInterface> lDependentTasks =
+                                                      mDependentTasksMap.get(pSlotKey);
+      if (lDependentTasks == null)
+        return;
+
+      for (FusionTaskInterface lFusionTask : lDependentTasks)
+      {
+        final AtomicInteger lNumberOfMissingImages =
+                                                   mNumberOfMissingImagesMap.get(lFusionTask);
+        if (lNumberOfMissingImages != null
+            && lNumberOfMissingImages.decrementAndGet() == 0)
+          taskReady(lFusionTask);
+      }
+    }
+
+    boolean markStarted(FusionTaskInterface pFusionTask)
+    {
+      return mStartedTasks.add(pFusionTask);
+    }
+
+    FusionTaskInterface pollReadyTask()
+    {
+      return mReadyTasks.poll();
+    }
+
+    private void taskReady(FusionTaskInterface pFusionTask)
+    {
+      if (!mAsynchronousTaskExecution)
+      {
+        mReadyTasks.add(pFusionTask);
+        return;
+      }
+
+      synchronized (this)
+      {
+        mNumberOfTasksInFlight++;
+      }
+      ClearControlExecutors.getSharedExecutor(SharedExecutorPool.Compute)
+                           .execute(() -> {
+                             try
+                             {
+                               executeTask(this, pFusionTask);
+                             }
+                             catch (Throwable e)
+                             {
+                               e.printStackTrace();
+                             }
+                             finally
+                             {
+                               synchronized (this)
+                               {
+                                 mNumberOfTasksInFlight--;
+                                 notifyAll();
+                               }
+                             }
+                           });
+    }
+
+    synchronized void waitTasksToComplete()
+    {
+      try
+      {
+        while (mNumberOfTasksInFlight > 0)
+          wait();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    @Override
+    public void passImage(String pSlotKey,
+                          ContiguousMemoryInterface pImageData,
+                          long... pDimensions)
+    {
+      MutablePair<Boolean, FusionImageInterface> lPair =
+                                                       ensureImageAllocated(pSlotKey,
+                                                                            pDimensions);
+
+      lPair.getRight().readFrom(pImageData, true);
+      lPair.setLeft(true);
+      notifyImageAvailable(pSlotKey);
+    }
+
+    @Override
+    public MutablePair<Boolean, FusionImageInterface> ensureImageAllocated(final String pSlotKey,
+                                                                           final long... pDimensions)
+    {
+      MutablePair<Boolean, FusionImageInterface> lPair =
+                                                       mImageSlotsMap.get(pSlotKey);
+
+      if (lPair == null)
+      {
+        lPair = MutablePair.of(true, (FusionImageInterface) null);
+
+        mImageSlotsMap.put(pSlotKey, lPair);
+      }
+
+      FusionImageInterface lImage = lPair.getRight();
+
+      if (lImage == null
+          || !Arrays.equals(lImage.getDimensions(), pDimensions))
+      {
+        if (lImage != null)
+          lImage.close();
+
+        lImage = mBackend.allocateImage(pDimensions);
+
+        lPair.setLeft(false);
+        lPair.setRight(lImage);
+      }
+
+      return lPair;
+    }
+
+    @Override
+    public void assignImageToAnotherSlotKey(final String pSrcSlotKey,
+                                            final String pDstSlotKey)
+    {
+      MutablePair<Boolean, FusionImageInterface> lDstPair =
+                                                          mImageSlotsMap.get(pDstSlotKey);
+
+      if (lDstPair == null)
+      {
+        lDstPair = MutablePair.of(true, (FusionImageInterface) null);
+        mImageSlotsMap.put(pDstSlotKey, lDstPair);
+      }
+
+      MutablePair<Boolean, FusionImageInterface> lSrcPair =
+                                                          mImageSlotsMap.get(pSrcSlotKey);
+
+      lDstPair.setRight(lSrcPair.getRight());
+      lDstPair.setLeft(true);
+      notifyImageAvailable(pDstSlotKey);
+    }
+
+    @Override
+    public FusionImageInterface getImage(String pSlotKey)
+    {
+      return mImageSlotsMap.get(pSlotKey).getRight();
+    }
+
+    @Override
+    public boolean isImageAvailable(String pSlotKey)
+    {
+      MutablePair<Boolean, FusionImageInterface> lMutablePair =
+                                                              mImageSlotsMap.get(pSlotKey);
+      if (lMutablePair == null)
+        return false;
+      return lMutablePair.getLeft();
+    }
+
+    @Override
+    public Set<String> getAvailableImagesSlotKeys()
+    {
+      HashSet<String> lAvailableImagesKeys = new HashSet<String>();
+      for (Entry<String, MutablePair<Boolean, FusionImageInterface>> lEntry : mImageSlotsMap.entrySet())
+      {
+        if (lEntry.getValue().getKey())
+        {
+          lAvailableImagesKeys.add(lEntry.getKey());
+        }
+      }
+      return lAvailableImagesKeys;
+    }
+
+    @Override
+    public void reset(boolean pCloseImages)
+    {
+      FastFusionEngine.this.reset(pCloseImages);
+    }
+
+    @Override
+    public void addTask(FusionTaskInterface pTask)
+    {
+      FastFusionEngine.this.addTask(pTask);
+    }
+
+    @Override
+    public ArrayList<FusionTaskInterface> getTasks()
+    {
+      return FastFusionEngine.this.getTasks();
+    }
+
+    @Override
+    public int executeOneTask()
+    {
+      return FastFusionEngine.this.executeOneTask();
+    }
+
+    @Override
+    public int executeSeveralTasks(int pMaxNumberOfTasks)
+    {
+      return FastFusionEngine.this.executeSeveralTasks(pMaxNumberOfTasks);
+    }
+
   }
 
 }
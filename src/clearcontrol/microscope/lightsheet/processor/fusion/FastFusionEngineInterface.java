@@ -4,7 +4,6 @@ import java.util.ArrayList;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
-import clearcl.ClearCLImage;
 import clearcontrol.core.concurrent.executors.AsynchronousExecutorServiceAccess;
 import clearcontrol.microscope.lightsheet.processor.fusion.tasks.FusionTaskInterface;
 import coremem.ContiguousMemoryInterface;
@@ -50,7 +49,7 @@ public interface FastFusionEngineInterface extends
    *          slot key
    * @return image
    */
-  ClearCLImage getImage(String pSlotKey);
+  FusionImageInterface getImage(String pSlotKey);
 
   /**
    * An image is available for computation once its data has been successfully
@@ -79,8 +78,8 @@ public interface FastFusionEngineInterface extends
    *          image dimensions
    * @return (available flag, image (already or newly) allocated)
    */
-  MutablePair<Boolean, ClearCLImage> ensureImageAllocated(String pSlotKey,
-                                                          long... pDimensions);
+  MutablePair<Boolean, FusionImageInterface> ensureImageAllocated(String pSlotKey,
+                                                                  long... pDimensions);
 
   /**
    * This method is used for identity tasks that do not change the image and
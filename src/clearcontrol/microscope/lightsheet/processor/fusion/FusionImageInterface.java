@@ -0,0 +1,46 @@
+package clearcontrol.microscope.lightsheet.processor.fusion;
+
+import coremem.ContiguousMemoryInterface;
+
+/**
+ * Image held in a fast fusion engine slot. The actual storage depends on the
+ * backend of the engine, see {@link FastFusionBackendInterface}.
+ *
+ * @author royer
+ */
+public interface FusionImageInterface
+{
+
+  /**
+   * Returns the image dimensions
+   * 
+   * @return dimensions
+   */
+  long[] getDimensions();
+
+  /**
+   * Reads the image data from a contiguous memory region
+   * 
+   * @param pMemory
+   *          contiguous memory
+   * @param pBlocking
+   *          true -> waits for the transfer to finish
+   */
+  void readFrom(ContiguousMemoryInterface pMemory, boolean pBlocking);
+
+  /**
+   * Writes the image data to a contiguous memory region
+   * 
+   * @param pMemory
+   *          contiguous memory
+   * @param pBlocking
+   *          true -> waits for the transfer to finish
+   */
+  void writeTo(ContiguousMemoryInterface pMemory, boolean pBlocking);
+
+  /**
+   * Releases the resources held by this image
+   */
+  void close();
+
+}
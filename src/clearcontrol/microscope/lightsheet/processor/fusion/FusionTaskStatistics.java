@@ -0,0 +1,81 @@
+package clearcontrol.microscope.lightsheet.processor.fusion;
+
+/**
+ * Execution time statistics of a fusion task
+ *
+ * @author royer
+ */
+public class FusionTaskStatistics
+{
+  private long mNumberOfExecutions;
+  private long mTotalDurationInNs;
+  private long mLastDurationInNs;
+  private long mMaxDurationInNs;
+
+  /**
+   * Records the duration of one execution
+   *
+   * @param pDurationInNs
+   *          duration in nanoseconds
+   */
+  public synchronized void record(long pDurationInNs)
+  {
+    mNumberOfExecutions++;
+    mTotalDurationInNs += pDurationInNs;
+    mLastDurationInNs = pDurationInNs;
+    mMaxDurationInNs = Math.max(mMaxDurationInNs, pDurationInNs);
+  }
+
+  /**
+   * Returns the number of executions
+   *
+   * @return number of executions
+   */
+  public synchronized long getNumberOfExecutions()
+  {
+    return mNumberOfExecutions;
+  }
+
+  /**
+   * Returns the duration of the last execution
+   *
+   * @return last duration in milliseconds
+   */
+  public synchronized double getLastDurationInMs()
+  {
+    return mLastDurationInNs * 1e-6;
+  }
+
+  /**
+   * Returns the average duration of all executions
+   *
+   * @return average duration in milliseconds, NaN if never executed
+   */
+  public synchronized double getAverageDurationInMs()
+  {
+    if (mNumberOfExecutions == 0)
+      return Double.NaN;
+    return mTotalDurationInNs * 1e-6 / mNumberOfExecutions;
+  }
+
+  /**
+   * Returns the longest duration of all executions
+   *
+   * @return max duration in milliseconds
+   */
+  public synchronized double getMaxDurationInMs()
+  {
+    return mMaxDurationInNs * 1e-6;
+  }
+
+  @Override
+  public synchronized String toString()
+  {
+    return String.format("FusionTaskStatistics [executions=%d, last=%.3f ms, average=%.3f ms, max=%.3f ms]",
+                         mNumberOfExecutions,
+                         getLastDurationInMs(),
+                         getAverageDurationInMs(),
+                         getMaxDurationInMs());
+  }
+
+}
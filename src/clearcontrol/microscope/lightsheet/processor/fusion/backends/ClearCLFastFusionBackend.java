@@ -0,0 +1,63 @@
+package clearcontrol.microscope.lightsheet.processor.fusion.backends;
+
+import clearcl.ClearCLContext;
+import clearcl.enums.HostAccessType;
+import clearcl.enums.ImageChannelDataType;
+import clearcl.enums.KernelAccessType;
+import clearcontrol.microscope.lightsheet.processor.fusion.FastFusionBackendInterface;
+import clearcontrol.microscope.lightsheet.processor.fusion.FusionImageInterface;
+
+/**
+ * Fast fusion backend running on a ClearCL (OpenCL) context
+ *
+ * @author royer
+ */
+public class ClearCLFastFusionBackend implements
+                                      FastFusionBackendInterface
+{
+  private final ClearCLContext mContext;
+
+  /**
+   * Instantiates a ClearCL backend given a ClearCL context
+   * 
+   * @param pContext
+   *          ClearCL context
+   */
+  public ClearCLFastFusionBackend(ClearCLContext pContext)
+  {
+    mContext = pContext;
+  }
+
+  /**
+   * Returns ClearCL context
+   * 
+   * @return context
+   */
+  public ClearCLContext getContext()
+  {
+    return mContext;
+  }
+
+  @Override
+  public FusionImageInterface allocateImage(long... pDimensions)
+  {
+    return new ClearCLFusionImage(mContext.createSingleChannelImage(HostAccessType.ReadWrite,
+                                                                    KernelAccessType.ReadWrite,
+                                                                    ImageChannelDataType.UnsignedInt16,
+                                                                    pDimensions));
+  }
+
+  @Override
+  public boolean supportsConcurrentTasks()
+  {
+    // kernels are enqueued on the context's single default queue:
+    return false;
+  }
+
+  @Override
+  public void waitToFinish()
+  {
+    mContext.getDefaultQueue().waitToFinish();
+  }
+
+}
@@ -0,0 +1,69 @@
+package clearcontrol.microscope.lightsheet.processor.fusion.backends;
+
+import clearcl.ClearCLImage;
+import clearcontrol.microscope.lightsheet.processor.fusion.FusionImageInterface;
+import coremem.ContiguousMemoryInterface;
+
+/**
+ * Fusion image stored in a ClearCL image
+ *
+ * @author royer
+ */
+public class ClearCLFusionImage implements FusionImageInterface
+{
+  private final ClearCLImage mImage;
+
+  /**
+   * Instantiates a fusion image wrapping a given ClearCL image
+   * 
+   * @param pImage
+   *          ClearCL image
+   */
+  public ClearCLFusionImage(ClearCLImage pImage)
+  {
+    mImage = pImage;
+  }
+
+  /**
+   * Returns the underlying ClearCL image
+   * 
+   * @return ClearCL image
+   */
+  public ClearCLImage getImage()
+  {
+    return mImage;
+  }
+
+  @Override
+  public long[] getDimensions()
+  {
+    return mImage.getDimensions();
+  }
+
+  @Override
+  public void readFrom(ContiguousMemoryInterface pMemory,
+                       boolean pBlocking)
+  {
+    mImage.readFrom(pMemory, pBlocking);
+  }
+
+  @Override
+  public void writeTo(ContiguousMemoryInterface pMemory,
+                      boolean pBlocking)
+  {
+    mImage.writeTo(pMemory, pBlocking);
+  }
+
+  @Override
+  public void close()
+  {
+    mImage.close();
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("ClearCLFusionImage [mImage=%s]", mImage);
+  }
+
+}
@@ -0,0 +1,44 @@
+package clearcontrol.microscope.lightsheet.processor.fusion.backends;
+
+import clearcontrol.microscope.lightsheet.processor.fusion.FastFusionBackendInterface;
+import clearcontrol.microscope.lightsheet.processor.fusion.FusionImageInterface;
+
+/**
+ * Pure Java fast fusion backend: images are off-heap planar stacks and fusion
+ * tasks run multi-threaded, plane-parallel CPU kernels (see
+ * {@link clearcontrol.stack.kernels.StackKernels}). Used when no ClearCL
+ * (OpenCL) device is available. Computations are synchronous.
+ *
+ * @author royer
+ */
+public class OffHeapFastFusionBackend implements
+                                      FastFusionBackendInterface
+{
+
+  /**
+   * Instantiates an off-heap CPU backend
+   */
+  public OffHeapFastFusionBackend()
+  {
+    super();
+  }
+
+  @Override
+  public FusionImageInterface allocateImage(long... pDimensions)
+  {
+    return new OffHeapFusionImage(pDimensions);
+  }
+
+  @Override
+  public boolean supportsConcurrentTasks()
+  {
+    return true;
+  }
+
+  @Override
+  public void waitToFinish()
+  {
+    // all computations are synchronous
+  }
+
+}
@@ -0,0 +1,108 @@
+package clearcontrol.microscope.lightsheet.processor.fusion.backends;
+
+import static java.lang.Math.toIntExact;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import clearcontrol.microscope.lightsheet.processor.fusion.FastFusionException;
+import clearcontrol.microscope.lightsheet.processor.fusion.FusionImageInterface;
+import clearcontrol.stack.OffHeapPlanarStack;
+import coremem.ContiguousMemoryInterface;
+
+/**
+ * Fusion image stored in an off-heap planar stack, transfers are done in
+ * parallel, plane by plane.
+ *
+ * @author royer
+ */
+public class OffHeapFusionImage implements FusionImageInterface
+{
+  private final long[] mDimensions;
+  private final OffHeapPlanarStack mStack;
+
+  /**
+   * Instantiates an off-heap fusion image of given dimensions
+   * 
+   * @param pDimensions
+   *          dimensions (width, height[, depth])
+   */
+  public OffHeapFusionImage(long... pDimensions)
+  {
+    if (pDimensions.length < 2 || pDimensions.length > 3)
+      throw new FastFusionException("Unsupported image dimensions: %s",
+                                    Arrays.toString(pDimensions));
+    mDimensions = pDimensions.clone();
+    mStack =
+           OffHeapPlanarStack.createStack(pDimensions[0],
+                                          pDimensions[1],
+                                          pDimensions.length == 3 ? pDimensions[2]
+                                                                  : 1);
+  }
+
+  /**
+   * Returns the underlying stack
+   * 
+   * @return stack
+   */
+  public OffHeapPlanarStack getStack()
+  {
+    return mStack;
+  }
+
+  @Override
+  public long[] getDimensions()
+  {
+    return mDimensions.clone();
+  }
+
+  @Override
+  public void readFrom(ContiguousMemoryInterface pMemory,
+                       boolean pBlocking)
+  {
+    final long lPlaneSizeInBytes = checkSize(pMemory);
+    planes().forEach(z -> mStack.getContiguousMemory(z)
+                                .copyFrom(pMemory.subRegion(z
+                                                            * lPlaneSizeInBytes,
+                                                            lPlaneSizeInBytes)));
+  }
+
+  @Override
+  public void writeTo(ContiguousMemoryInterface pMemory,
+                      boolean pBlocking)
+  {
+    final long lPlaneSizeInBytes = checkSize(pMemory);
+    planes().forEach(z -> pMemory.subRegion(z * lPlaneSizeInBytes,
+                                            lPlaneSizeInBytes)
+                                 .copyFrom(mStack.getContiguousMemory(z)));
+  }
+
+  @Override
+  public void close()
+  {
+    mStack.free();
+  }
+
+  private IntStream planes()
+  {
+    return IntStream.range(0, toIntExact(mStack.getDepth()))
+                    .parallel();
+  }
+
+  private long checkSize(ContiguousMemoryInterface pMemory)
+  {
+    if (pMemory.getSizeInBytes() != mStack.getSizeInBytes())
+      throw new FastFusionException("Memory of size %d bytes does not match image of dimensions %s",
+                                    pMemory.getSizeInBytes(),
+                                    Arrays.toString(mDimensions));
+    return mStack.getSizeInBytes() / mStack.getDepth();
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("OffHeapFusionImage [mDimensions=%s]",
+                         Arrays.toString(mDimensions));
+  }
+
+}
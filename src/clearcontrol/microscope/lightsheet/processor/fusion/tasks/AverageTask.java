@@ -2,17 +2,25 @@ package clearcontrol.microscope.lightsheet.processor.fusion.tasks;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
 
 import clearcl.ClearCLImage;
 import clearcl.ClearCLKernel;
 import clearcl.viewer.ClearCLImageViewer;
 import clearcontrol.microscope.lightsheet.processor.fusion.FastFusionEngineInterface;
 import clearcontrol.microscope.lightsheet.processor.fusion.FastFusionException;
+import clearcontrol.microscope.lightsheet.processor.fusion.FusionImageInterface;
+import clearcontrol.microscope.lightsheet.processor.fusion.backends.ClearCLFusionImage;
+import clearcontrol.microscope.lightsheet.processor.fusion.backends.OffHeapFusionImage;
+import clearcontrol.stack.OffHeapPlanarStack;
+import clearcontrol.stack.kernels.StackKernels;
 
 import org.apache.commons.lang3.tuple.MutablePair;
 
 /**
- * Fuses two stacks using the average method.
+ * Fuses two (or four) stacks using the average method, on the ClearCL or the
+ * off-heap CPU backend.
  *
  * @author royer
  */
@@ -84,76 +92,112 @@ public class AverageTask extends FusionTaskBase
     mDestImageSlotKey = pDestImageSlotKey;
   }
 
+  @Override
+  public Set<String> getProducedImagesSlotKeys()
+  {
+    return Collections.singleton(mDestImageSlotKey);
+  }
+
   @Override
   public boolean enqueue(FastFusionEngineInterface pStackFusionEngine,
                          boolean pWaitToFinish)
   {
-    try
-    {
-      ClearCLImage lImageA, lImageB, lImageC = null, lImageD = null;
+    FusionImageInterface lImageA, lImageB, lImageC = null,
+        lImageD = null;
+
+    lImageA = pStackFusionEngine.getImage(mInputImagesSlotKeys[0]);
+    lImageB = pStackFusionEngine.getImage(mInputImagesSlotKeys[1]);
+
+    if (lImageA == null || lImageB == null)
+      throw new FastFusionException("Fusion task %s received a null image",
+                                    this);
 
-      lImageA = pStackFusionEngine.getImage(mInputImagesSlotKeys[0]);
-      lImageB = pStackFusionEngine.getImage(mInputImagesSlotKeys[1]);
+    if (!Arrays.equals(lImageA.getDimensions(),
+                       lImageB.getDimensions()))
+      throw new FastFusionException("Fusion task %s received two images of incompatible dimensions: %s and %s",
+                                    this,
+                                    Arrays.toString(lImageA.getDimensions()),
+                                    Arrays.toString(lImageB.getDimensions()));
 
-      if (lImageA == null || lImageB == null)
+    if (mInputImagesSlotKeys.length == 4)
+    {
+      lImageC = pStackFusionEngine.getImage(mInputImagesSlotKeys[2]);
+      lImageD = pStackFusionEngine.getImage(mInputImagesSlotKeys[3]);
+
+      if (lImageC == null || lImageD == null)
         throw new FastFusionException("Fusion task %s received a null image",
                                       this);
 
+      if (!Arrays.equals(lImageC.getDimensions(),
+                         lImageD.getDimensions()))
+        throw new FastFusionException("Fusion task %s received two images of incompatible dimensions: %s and %s",
+                                      this,
+                                      Arrays.toString(lImageC.getDimensions()),
+                                      Arrays.toString(lImageD.getDimensions()));
+
       if (!Arrays.equals(lImageA.getDimensions(),
-                         lImageB.getDimensions()))
+                         lImageC.getDimensions()))
         throw new FastFusionException("Fusion task %s received two images of incompatible dimensions: %s and %s",
                                       this,
                                       Arrays.toString(lImageA.getDimensions()),
-                                      Arrays.toString(lImageB.getDimensions()));
+                                      Arrays.toString(lImageC.getDimensions()));
+    }
 
-      if (mInputImagesSlotKeys.length == 4)
-      {
-        lImageC =
-                pStackFusionEngine.getImage(mInputImagesSlotKeys[2]);
-        lImageD =
-                pStackFusionEngine.getImage(mInputImagesSlotKeys[3]);
-
-        if (lImageC == null || lImageD == null)
-          throw new FastFusionException("Fusion task %s received a null image",
-                                        this);
-
-        if (!Arrays.equals(lImageC.getDimensions(),
-                           lImageD.getDimensions()))
-          throw new FastFusionException("Fusion task %s received two images of incompatible dimensions: %s and %s",
-                                        this,
-                                        Arrays.toString(lImageC.getDimensions()),
-                                        Arrays.toString(lImageD.getDimensions()));
-
-        if (!Arrays.equals(lImageA.getDimensions(),
-                           lImageC.getDimensions()))
-          throw new FastFusionException("Fusion task %s received two images of incompatible dimensions: %s and %s",
-                                        this,
-                                        Arrays.toString(lImageA.getDimensions()),
-                                        Arrays.toString(lImageC.getDimensions()));
-      }
+    MutablePair<Boolean, FusionImageInterface> lPair =
+                                                     pStackFusionEngine.ensureImageAllocated(mDestImageSlotKey,
+                                                                                             lImageA.getDimensions());
 
-      MutablePair<Boolean, ClearCLImage> lPair =
-                                               pStackFusionEngine.ensureImageAllocated(mDestImageSlotKey,
-                                                                                       lImageA.getDimensions());
+    FusionImageInterface lImageFused = lPair.getRight();
 
-      ClearCLImage lImageFused = lPair.getRight();
+    if (lImageFused instanceof OffHeapFusionImage)
+    {
+      if (mInputImagesSlotKeys.length == 4)
+        StackKernels.average(getStack(lImageFused),
+                             getStack(lImageA),
+                             getStack(lImageB),
+                             getStack(lImageC),
+                             getStack(lImageD));
+      else
+        StackKernels.average(getStack(lImageFused),
+                             getStack(lImageA),
+                             getStack(lImageB));
+    }
+    else
+      enqueueClearCL(getImage(lImageA),
+                     getImage(lImageB),
+                     lImageC == null ? null : getImage(lImageC),
+                     lImageD == null ? null : getImage(lImageD),
+                     getImage(lImageFused),
+                     pWaitToFinish);
 
-      ClearCLKernel lKernel = getKernel(lImageFused.getContext());
+    lPair.setLeft(true);
+    return true;
+  }
 
-      lKernel.setArgument("imagea", lImageA);
-      lKernel.setArgument("imageb", lImageB);
+  private void enqueueClearCL(ClearCLImage pImageA,
+                              ClearCLImage pImageB,
+                              ClearCLImage pImageC,
+                              ClearCLImage pImageD,
+                              ClearCLImage pImageFused,
+                              boolean pWaitToFinish)
+  {
+    try
+    {
+      ClearCLKernel lKernel = getKernel(pImageFused.getContext());
+
+      lKernel.setArgument("imagea", pImageA);
+      lKernel.setArgument("imageb", pImageB);
       if (mInputImagesSlotKeys.length == 4)
       {
-        lKernel.setArgument("imagec", lImageC);
-        lKernel.setArgument("imaged", lImageD);
+        lKernel.setArgument("imagec", pImageC);
+        lKernel.setArgument("imaged", pImageD);
       }
-      lKernel.setArgument("imagedest", lImageFused);
+      lKernel.setArgument("imagedest", pImageFused);
 
-      lKernel.setGlobalSizes(lImageFused);
+      lKernel.setGlobalSizes(pImageFused);
 
       // System.out.println("running kernel");
       lKernel.run(pWaitToFinish);
-      lPair.setLeft(true);
 
       if (mDebugDisplay)
       {
@@ -162,46 +206,59 @@ public class AverageTask extends FusionTaskBase
         if (mViewA == null)
         {
 
-          mViewA = ClearCLImageViewer.view(lImageA,
+          mViewA = ClearCLImageViewer.view(pImageA,
                                            lWindowTitlePrefix
                                                     + mInputImagesSlotKeys[0],
                                            512,
                                            512);
         }
         if (mViewB == null)
-          mViewB = ClearCLImageViewer.view(lImageB,
+          mViewB = ClearCLImageViewer.view(pImageB,
                                            lWindowTitlePrefix
                                                     + mInputImagesSlotKeys[1],
                                            512,
                                            512);
         if (mViewFused == null)
           mViewFused =
-                     ClearCLImageViewer.view(lImageFused,
+                     ClearCLImageViewer.view(pImageFused,
                                              lWindowTitlePrefix + ":"
                                                           + mDestImageSlotKey,
                                              512,
                                              512);
 
-        mViewA.setImage(lImageA);
-        mViewB.setImage(lImageB);
-        mViewFused.setImage(lImageFused);
+        mViewA.setImage(pImageA);
+        mViewB.setImage(pImageB);
+        mViewFused.setImage(pImageFused);
 
-        lImageA.notifyListenersOfChange(lImageA.getContext()
+        pImageA.notifyListenersOfChange(pImageA.getContext()
                                                .getDefaultQueue());
-        lImageB.notifyListenersOfChange(lImageB.getContext()
+        pImageB.notifyListenersOfChange(pImageB.getContext()
                                                .getDefaultQueue());
-        lImageFused.notifyListenersOfChange(lImageFused.getContext()
+        pImageFused.notifyListenersOfChange(pImageFused.getContext()
                                                        .getDefaultQueue());
       }
-
-      return true;
     }
     catch (IOException e)
     {
       throw new FastFusionException(e,
                                     "Error while reading kernel source code");
     }
+  }
 
+  private OffHeapPlanarStack getStack(FusionImageInterface pImage)
+  {
+    if (!(pImage instanceof OffHeapFusionImage))
+      throw new FastFusionException("Fusion task %s received images from different backends",
+                                    this);
+    return ((OffHeapFusionImage) pImage).getStack();
+  }
+
+  private ClearCLImage getImage(FusionImageInterface pImage)
+  {
+    if (!(pImage instanceof ClearCLFusionImage))
+      throw new FastFusionException("Fusion task %s received images from different backends",
+                                    this);
+    return ((ClearCLFusionImage) pImage).getImage();
   }
 
 }
@@ -1,6 +1,8 @@
 package clearcontrol.microscope.lightsheet.processor.fusion.tasks;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -20,11 +22,12 @@ public abstract class FusionTaskBase implements FusionTaskInterface
   private final HashSet<String> mRequiredImagesSlotKeysSet =
                                                            new HashSet<>();
 
-  private Class<AverageTask> mClass;
+  private Class<?> mClass;
   private String mSourceFile;
   private ClearCLProgram mProgram;
   private String mKernelName;
-  private ClearCLKernel mKernel;
+  private final HashMap<String, ClearCLKernel> mKernels =
+                                                       new HashMap<>();
 
   /**
    * Instantiates a fusion task given the keys of required images
@@ -39,7 +42,7 @@ public abstract class FusionTaskBase implements FusionTaskInterface
       mRequiredImagesSlotKeysSet.add(lSlotKey);
   }
 
-  protected void setupProgramAndKernel(Class<AverageTask> pClass,
+  protected void setupProgramAndKernel(Class<?> pClass,
                                        String pSourceFile,
                                        String pKernelName)
   {
@@ -50,13 +53,30 @@ public abstract class FusionTaskBase implements FusionTaskInterface
 
   protected ClearCLKernel getKernel(ClearCLContext pContext) throws IOException
   {
-    if (mKernel != null)
-      return mKernel;
-    mProgram = pContext.createProgram(mClass, mSourceFile);
-    mProgram.addBuildOptionAllMathOpt();
-    mProgram.buildAndLog();
-    mKernel = mProgram.createKernel(mKernelName);
-    return mKernel;
+    return getKernel(pContext, mKernelName);
+  }
+
+  protected ClearCLKernel getKernel(ClearCLContext pContext,
+                                    String pKernelName) throws IOException
+  {
+    ClearCLKernel lKernel = mKernels.get(pKernelName);
+    if (lKernel != null)
+      return lKernel;
+    if (mProgram == null)
+    {
+      mProgram = pContext.createProgram(mClass, mSourceFile);
+      mProgram.addBuildOptionAllMathOpt();
+      mProgram.buildAndLog();
+    }
+    lKernel = mProgram.createKernel(pKernelName);
+    mKernels.put(pKernelName, lKernel);
+    return lKernel;
+  }
+
+  @Override
+  public Set<String> getRequiredImagesSlotKeys()
+  {
+    return Collections.unmodifiableSet(mRequiredImagesSlotKeysSet);
   }
 
   @Override
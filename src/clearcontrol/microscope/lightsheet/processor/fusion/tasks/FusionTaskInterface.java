@@ -12,6 +12,20 @@ import clearcontrol.microscope.lightsheet.processor.fusion.FastFusionEngineInter
 public interface FusionTaskInterface
 {
 
+  /**
+   * Returns the slot keys of the images required by this task
+   * 
+   * @return required slot keys
+   */
+  public Set<String> getRequiredImagesSlotKeys();
+
+  /**
+   * Returns the slot keys of the images produced by this task
+   * 
+   * @return produced slot keys
+   */
+  public Set<String> getProducedImagesSlotKeys();
+
   /**
    * Checks if required images are available
    * 
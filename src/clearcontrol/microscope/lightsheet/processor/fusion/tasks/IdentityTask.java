@@ -1,5 +1,8 @@
 package clearcontrol.microscope.lightsheet.processor.fusion.tasks;
 
+import java.util.Collections;
+import java.util.Set;
+
 import clearcontrol.microscope.lightsheet.processor.fusion.FastFusionEngineInterface;
 
 /**
@@ -25,10 +28,17 @@ public class IdentityTask extends FusionTaskBase
   public IdentityTask(String pSrcImageSlotKey,
                       String pDstImageSlotKey)
   {
+    super(pSrcImageSlotKey);
     mSrcImageSlotKey = pSrcImageSlotKey;
     mDstImageSlotKey = pDstImageSlotKey;
   }
 
+  @Override
+  public Set<String> getProducedImagesSlotKeys()
+  {
+    return Collections.singleton(mDstImageSlotKey);
+  }
+
   @Override
   public boolean enqueue(FastFusionEngineInterface pFastFusionEngine,
                          boolean pWaitToFinish)
@@ -1,5 +1,6 @@
 package clearcontrol.microscope.lightsheet.processor.fusion.tasks;
 
+import java.util.Collections;
 import java.util.Set;
 
 import clearcontrol.microscope.lightsheet.processor.fusion.FastFusionEngineInterface;
@@ -14,6 +15,18 @@ public class RegisterFuseTask implements FusionTaskInterface
     // TODO Auto-generated constructor stub
   }
 
+  @Override
+  public Set<String> getRequiredImagesSlotKeys()
+  {
+    return Collections.emptySet();
+  }
+
+  @Override
+  public Set<String> getProducedImagesSlotKeys()
+  {
+    return Collections.emptySet();
+  }
+
   @Override
   public boolean checkIfRequiredImagesAvailable(Set<String> pAvailableImagesKeys)
   {
@@ -0,0 +1,264 @@
+package clearcontrol.microscope.lightsheet.processor.fusion.tasks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import clearcl.ClearCLContext;
+import clearcl.ClearCLImage;
+import clearcl.ClearCLKernel;
+import clearcl.enums.ImageChannelDataType;
+import clearcontrol.microscope.lightsheet.processor.fusion.FastFusionEngineInterface;
+import clearcontrol.microscope.lightsheet.processor.fusion.FastFusionException;
+import clearcontrol.microscope.lightsheet.processor.fusion.FusionImageInterface;
+import clearcontrol.microscope.lightsheet.processor.fusion.backends.ClearCLFusionImage;
+import clearcontrol.microscope.lightsheet.processor.fusion.backends.OffHeapFusionImage;
+import clearcontrol.stack.OffHeapPlanarStack;
+import clearcontrol.stack.kernels.StackKernels;
+
+import org.apache.commons.lang3.tuple.MutablePair;
+
+/**
+ * Fuses two (or four) stacks using a content-aware weighted average: each view
+ * is weighted by its local sharpness (tile-wise gradient energy, interpolated
+ * between tile centers), so that sharp regions of a view are not blurred by
+ * the out-of-focus regions of the other views. Runs on the ClearCL or the
+ * off-heap CPU backend.
+ *
+ * @author royer
+ */
+public class WeightedAverageTask extends FusionTaskBase
+                                 implements FusionTaskInterface
+{
+  private static final int cDefaultTileSize = 32;
+
+  private final String[] mInputImagesSlotKeys;
+  private final String mDestImageSlotKey;
+  private volatile int mTileSize = cDefaultTileSize;
+
+  // per view tile weights, on the ClearCL backend:
+  private final ClearCLImage[] mWeightImages;
+
+  /**
+   * Instantiates a weighted average fusion task given the keys for two input
+   * images and destination image
+   *
+   * @param pImageASlotKey
+   *          image A slot key
+   * @param pImageBSlotKey
+   *          image B slot key
+   * @param pDestImageKey
+   *          destination image key
+   */
+  public WeightedAverageTask(String pImageASlotKey,
+                             String pImageBSlotKey,
+                             String pDestImageKey)
+  {
+    super(pImageASlotKey, pImageBSlotKey);
+    setupProgramAndKernel(WeightedAverageTask.class,
+                          "./kernels/fuseweighted.cl",
+                          "fuseweighted2");
+    mInputImagesSlotKeys = new String[]
+    { pImageASlotKey, pImageBSlotKey };
+    mDestImageSlotKey = pDestImageKey;
+    mWeightImages = new ClearCLImage[2];
+  }
+
+  /**
+   * Instantiates a weighted average fusion task given the keys for the four
+   * input images and destination image.
+   *
+   * @param pImageASlotKey
+   *          image A key
+   * @param pImageBSlotKey
+   *          image B key
+   * @param pImageCSlotKey
+   *          image C key
+   * @param pImageDSlotKey
+   *          image D key
+   * @param pDestImageSlotKey
+   *          destination image key
+   */
+  public WeightedAverageTask(String pImageASlotKey,
+                             String pImageBSlotKey,
+                             String pImageCSlotKey,
+                             String pImageDSlotKey,
+                             String pDestImageSlotKey)
+  {
+    super(pImageASlotKey,
+          pImageBSlotKey,
+          pImageCSlotKey,
+          pImageDSlotKey);
+    setupProgramAndKernel(WeightedAverageTask.class,
+                          "./kernels/fuseweighted.cl",
+                          "fuseweighted4");
+    mInputImagesSlotKeys = new String[]
+    { pImageASlotKey,
+      pImageBSlotKey,
+      pImageCSlotKey,
+      pImageDSlotKey };
+    mDestImageSlotKey = pDestImageSlotKey;
+    mWeightImages = new ClearCLImage[4];
+  }
+
+  /**
+   * Sets the size of the tiles over which sharpness is measured
+   *
+   * @param pTileSize
+   *          tile size in voxels
+   */
+  public void setTileSize(int pTileSize)
+  {
+    if (pTileSize < 1)
+      throw new IllegalArgumentException("Tile size must be strictly positive");
+    mTileSize = pTileSize;
+  }
+
+  /**
+   * Returns the size of the tiles over which sharpness is measured
+   *
+   * @return tile size in voxels
+   */
+  public int getTileSize()
+  {
+    return mTileSize;
+  }
+
+  @Override
+  public Set<String> getProducedImagesSlotKeys()
+  {
+    return Collections.singleton(mDestImageSlotKey);
+  }
+
+  @Override
+  public boolean enqueue(FastFusionEngineInterface pStackFusionEngine,
+                         boolean pWaitToFinish)
+  {
+    final int lNumberOfImages = mInputImagesSlotKeys.length;
+    final FusionImageInterface[] lImages =
+                                         new FusionImageInterface[lNumberOfImages];
+    for (int i = 0; i < lNumberOfImages; i++)
+    {
+      lImages[i] = pStackFusionEngine.getImage(mInputImagesSlotKeys[i]);
+
+      if (lImages[i] == null)
+        throw new FastFusionException("Fusion task %s received a null image",
+                                      this);
+
+      if (!Arrays.equals(lImages[0].getDimensions(),
+                         lImages[i].getDimensions()))
+        throw new FastFusionException("Fusion task %s received two images of incompatible dimensions: %s and %s",
+                                      this,
+                                      Arrays.toString(lImages[0].getDimensions()),
+                                      Arrays.toString(lImages[i].getDimensions()));
+    }
+
+    MutablePair<Boolean, FusionImageInterface> lPair =
+                                                     pStackFusionEngine.ensureImageAllocated(mDestImageSlotKey,
+                                                                                             lImages[0].getDimensions());
+
+    FusionImageInterface lImageFused = lPair.getRight();
+    final int lTileSize = mTileSize;
+
+    if (lImageFused instanceof OffHeapFusionImage)
+    {
+      final OffHeapPlanarStack[] lStacks =
+                                         new OffHeapPlanarStack[lNumberOfImages];
+      for (int i = 0; i < lNumberOfImages; i++)
+        lStacks[i] = getStack(lImages[i]);
+      StackKernels.weightedAverage(getStack(lImageFused),
+                                   lTileSize,
+                                   lStacks);
+    }
+    else
+    {
+      final ClearCLImage[] lClearCLImages =
+                                          new ClearCLImage[lNumberOfImages];
+      for (int i = 0; i < lNumberOfImages; i++)
+        lClearCLImages[i] = getImage(lImages[i]);
+      enqueueClearCL(lClearCLImages,
+                     getImage(lImageFused),
+                     lTileSize,
+                     pWaitToFinish);
+    }
+
+    lPair.setLeft(true);
+    return true;
+  }
+
+  private void enqueueClearCL(ClearCLImage[] pImages,
+                              ClearCLImage pImageFused,
+                              int pTileSize,
+                              boolean pWaitToFinish)
+  {
+    try
+    {
+      final ClearCLContext lContext = pImageFused.getContext();
+      final long[] lDimensions = pImageFused.getDimensions();
+      final long[] lWeightDimensions = new long[]
+      { (lDimensions[0] + pTileSize - 1) / pTileSize,
+        (lDimensions[1] + pTileSize - 1) / pTileSize,
+        lDimensions[2] };
+
+      ClearCLKernel lWeightsKernel = getKernel(lContext, "tileweights");
+      for (int i = 0; i < pImages.length; i++)
+      {
+        if (mWeightImages[i] == null
+            || !Arrays.equals(mWeightImages[i].getDimensions(),
+                              lWeightDimensions))
+        {
+          if (mWeightImages[i] != null)
+            mWeightImages[i].close();
+          mWeightImages[i] =
+                           lContext.createSingleChannelImage(ImageChannelDataType.Float,
+                                                             lWeightDimensions);
+        }
+
+        lWeightsKernel.setArgument("image", pImages[i]);
+        lWeightsKernel.setArgument("weights", mWeightImages[i]);
+        lWeightsKernel.setArgument("tilesize", pTileSize);
+        lWeightsKernel.setGlobalSizes(mWeightImages[i]);
+        lWeightsKernel.run(false);
+      }
+
+      ClearCLKernel lKernel = getKernel(lContext);
+      final String[] lSuffixes = new String[]
+      { "a", "b", "c", "d" };
+      for (int i = 0; i < pImages.length; i++)
+      {
+        lKernel.setArgument("image" + lSuffixes[i], pImages[i]);
+        lKernel.setArgument("weights" + lSuffixes[i],
+                            mWeightImages[i]);
+      }
+      lKernel.setArgument("imagedest", pImageFused);
+      lKernel.setArgument("tilesize", pTileSize);
+
+      lKernel.setGlobalSizes(pImageFused);
+
+      lKernel.run(pWaitToFinish);
+    }
+    catch (IOException e)
+    {
+      throw new FastFusionException(e,
+                                    "Error while reading kernel source code");
+    }
+  }
+
+  private OffHeapPlanarStack getStack(FusionImageInterface pImage)
+  {
+    if (!(pImage instanceof OffHeapFusionImage))
+      throw new FastFusionException("Fusion task %s received images from different backends",
+                                    this);
+    return ((OffHeapFusionImage) pImage).getStack();
+  }
+
+  private ClearCLImage getImage(FusionImageInterface pImage)
+  {
+    if (!(pImage instanceof ClearCLFusionImage))
+      throw new FastFusionException("Fusion task %s received images from different backends",
+                                    this);
+    return ((ClearCLFusionImage) pImage).getImage();
+  }
+
+}
@@ -0,0 +1,103 @@
+
+__kernel void tileweights( __read_only    image3d_t  image,
+                           __write_only   image3d_t  weights,
+                           const          int        tilesize
+                     )
+{
+  const sampler_t intsampler  = CLK_NORMALIZED_COORDS_FALSE | CLK_ADDRESS_CLAMP_TO_EDGE | CLK_FILTER_NEAREST;
+
+  const int tx = get_global_id(0); 
+  const int ty = get_global_id(1);
+  const int z  = get_global_id(2);
+
+  const int width  = get_image_width(image);
+  const int height = get_image_height(image);
+
+  const int x0 = tx*tilesize;
+  const int y0 = ty*tilesize;
+  const int x1 = min(x0+tilesize, width);
+  const int y1 = min(y0+tilesize, height);
+
+  float energy = 0;
+  for(int y=y0; y<y1; y++)
+  {
+    for(int x=x0; x<x1; x++)
+    {
+      const float value = read_imageui(image, intsampler, (int4){x,y,z,0}).x;
+      const float dx = read_imageui(image, intsampler, (int4){x+1,y,z,0}).x - value;
+      const float dy = read_imageui(image, intsampler, (int4){x,y+1,z,0}).x - value;
+      energy += dx*dx + dy*dy;
+    }
+  }
+
+  const float volume = (x1-x0)*(y1-y0);
+
+  write_imagef (weights, (int4){tx,ty,z,0}, (float4){energy/volume+1.0f,0,0,0});
+}
+
+__kernel void fuseweighted2(__read_only    image3d_t  imagea,
+                            __read_only    image3d_t  imageb,
+                            __read_only    image3d_t  weightsa,
+                            __read_only    image3d_t  weightsb,
+                            __write_only   image3d_t  imagedest,
+                            const          int        tilesize
+                     )
+{
+  const sampler_t intsampler     = CLK_NORMALIZED_COORDS_FALSE | CLK_ADDRESS_NONE | CLK_FILTER_NEAREST;
+  const sampler_t weightsampler  = CLK_NORMALIZED_COORDS_FALSE | CLK_ADDRESS_CLAMP_TO_EDGE | CLK_FILTER_LINEAR;
+
+  const int x = get_global_id(0); 
+  const int y = get_global_id(1);
+  const int z = get_global_id(2);
+
+  const int4 pos = (int4){x,y,z,0};
+  const float4 weightpos = (float4){(x+0.5f)/tilesize,(y+0.5f)/tilesize,z+0.5f,0};
+
+  const float valuea = read_imageui(imagea, intsampler, pos).x;
+  const float valueb = read_imageui(imageb, intsampler, pos).x;
+
+  const float weighta = read_imagef(weightsa, weightsampler, weightpos).x;
+  const float weightb = read_imagef(weightsb, weightsampler, weightpos).x;
+
+  const float value = (weighta*valuea+weightb*valueb)/(weighta+weightb);
+
+  write_imageui (imagedest, pos, (uint4){(uint)(value+0.5f),0,0,0});
+}
+
+__kernel void fuseweighted4(__read_only    image3d_t  imagea,
+                            __read_only    image3d_t  imageb,
+                            __read_only    image3d_t  imagec,
+                            __read_only    image3d_t  imaged,
+                            __read_only    image3d_t  weightsa,
+                            __read_only    image3d_t  weightsb,
+                            __read_only    image3d_t  weightsc,
+                            __read_only    image3d_t  weightsd,
+                            __write_only   image3d_t  imagedest,
+                            const          int        tilesize
+                     )
+{
+  const sampler_t intsampler     = CLK_NORMALIZED_COORDS_FALSE | CLK_ADDRESS_NONE | CLK_FILTER_NEAREST;
+  const sampler_t weightsampler  = CLK_NORMALIZED_COORDS_FALSE | CLK_ADDRESS_CLAMP_TO_EDGE | CLK_FILTER_LINEAR;
+
+  const int x = get_global_id(0); 
+  const int y = get_global_id(1);
+  const int z = get_global_id(2);
+
+  const int4 pos = (int4){x,y,z,0};
+  const float4 weightpos = (float4){(x+0.5f)/tilesize,(y+0.5f)/tilesize,z+0.5f,0};
+
+  const float valuea = read_imageui(imagea, intsampler, pos).x;
+  const float valueb = read_imageui(imageb, intsampler, pos).x;
+  const float valuec = read_imageui(imagec, intsampler, pos).x;
+  const float valued = read_imageui(imaged, intsampler, pos).x;
+
+  const float weighta = read_imagef(weightsa, weightsampler, weightpos).x;
+  const float weightb = read_imagef(weightsb, weightsampler, weightpos).x;
+  const float weightc = read_imagef(weightsc, weightsampler, weightpos).x;
+  const float weightd = read_imagef(weightsd, weightsampler, weightpos).x;
+
+  const float value = (weighta*valuea+weightb*valueb+weightc*valuec+weightd*valued)
+                     /(weighta+weightb+weightc+weightd);
+
+  write_imageui (imagedest, pos, (uint4){(uint)(value+0.5f),0,0,0});
+}
@@ -0,0 +1,165 @@
+package clearcontrol.microscope.lightsheet.processor.fusion.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import clearcontrol.microscope.lightsheet.processor.LightSheetFastFusionEngine;
+import clearcontrol.microscope.lightsheet.processor.fusion.backends.OffHeapFastFusionBackend;
+import clearcontrol.microscope.lightsheet.processor.fusion.tasks.FusionTaskInterface;
+import coremem.offheap.OffHeapMemory;
+
+import org.junit.Test;
+
+/**
+ * Fast fusion benchmark: 2 cameras x 2 lightsheets fusion of synthetic stacks
+ * on the off-heap CPU backend, sequential and pipelined.
+ *
+ * @author royer
+ */
+public class FastFusionBenchmarkTests
+{
+  private static final int cWidth = 1024;
+  private static final int cHeight = 1024;
+  private static final int cDepth = 64;
+  private static final int cRepeats = 5;
+
+  /**
+   * Benchmark
+   */
+  @Test
+  public void benchmarkOffHeapBackend()
+  {
+    LightSheetFastFusionEngine lEngine =
+                                       new LightSheetFastFusionEngine(new OffHeapFastFusionBackend(),
+                                                                      2,
+                                                                      2,
+                                                                      false);
+
+    OffHeapMemory[] lStacks = new OffHeapMemory[4];
+    for (int s = 0; s < lStacks.length; s++)
+    {
+      lStacks[s] = OffHeapMemory.allocateShorts(cWidth * cHeight
+                                                * cDepth);
+      for (long i = 0; i < lStacks[s].getSizeInBytes() / 2; i++)
+        lStacks[s].setShortAligned(i, (short) (100 * (s + 1)));
+    }
+
+    OffHeapMemory lFused = OffHeapMemory.allocateShorts(cWidth * cHeight
+                                                        * cDepth);
+
+    // warmup:
+    fuse(lEngine, lStacks, lFused);
+
+    long lStart = System.nanoTime();
+    for (int r = 0; r < cRepeats; r++)
+      fuse(lEngine, lStacks, lFused);
+    double lElapsedTimeInSeconds = (System.nanoTime() - lStart) * 1e-9;
+
+    double lVoxels = ((double) cWidth) * cHeight
+                     * cDepth
+                     * lStacks.length
+                     * cRepeats;
+    System.out.format("off-heap fusion 2Cx2L: %.1f Mvoxels/s (input voxels) \n",
+                      lVoxels / lElapsedTimeInSeconds * 1e-6);
+
+    assertEquals(250, lFused.getShortAligned(cWidth * cHeight));
+
+    // pipelined: tasks fire asynchronously, the next timepoint is uploaded
+    // while the current one is fused:
+    lEngine.setAsynchronousTaskExecution(true);
+    lStart = System.nanoTime();
+    passStacks(lEngine, lStacks);
+    for (int r = 0; r < cRepeats; r++)
+    {
+      if (r < cRepeats - 1)
+        passStacks(lEngine, lStacks);
+      lEngine.waitCurrentTimepointTasksToComplete();
+      assertTrue(lEngine.isDone());
+      lEngine.getImage("fused").writeTo(lFused, true);
+      lEngine.reset(false);
+    }
+    lElapsedTimeInSeconds = (System.nanoTime() - lStart) * 1e-9;
+    System.out.format("off-heap pipelined fusion 2Cx2L: %.1f Mvoxels/s (input voxels) \n",
+                      lVoxels / lElapsedTimeInSeconds * 1e-6);
+
+    assertEquals(250, lFused.getShortAligned(cWidth * cHeight));
+
+    for (FusionTaskInterface lTask : lEngine.getTasks())
+      System.out.format("%s: %s \n",
+                        lTask,
+                        lEngine.getTaskStatistics(lTask));
+
+    for (OffHeapMemory lStack : lStacks)
+      lStack.free();
+    lFused.free();
+  }
+
+  /**
+   * Benchmark of sharpness-weighted fusion, to be compared with the average
+   * fusion above
+   */
+  @Test
+  public void benchmarkOffHeapBackendWeightedFusion()
+  {
+    LightSheetFastFusionEngine lEngine =
+                                       new LightSheetFastFusionEngine(new OffHeapFastFusionBackend(),
+                                                                      2,
+                                                                      2,
+                                                                      true);
+
+    OffHeapMemory[] lStacks = new OffHeapMemory[4];
+    for (int s = 0; s < lStacks.length; s++)
+    {
+      lStacks[s] = OffHeapMemory.allocateShorts(cWidth * cHeight
+                                                * cDepth);
+      for (long i = 0; i < lStacks[s].getSizeInBytes() / 2; i++)
+        lStacks[s].setShortAligned(i, (short) (100 * (s + 1)));
+    }
+
+    OffHeapMemory lFused = OffHeapMemory.allocateShorts(cWidth * cHeight
+                                                        * cDepth);
+
+    // warmup:
+    fuse(lEngine, lStacks, lFused);
+
+    long lStart = System.nanoTime();
+    for (int r = 0; r < cRepeats; r++)
+      fuse(lEngine, lStacks, lFused);
+    double lElapsedTimeInSeconds = (System.nanoTime() - lStart) * 1e-9;
+
+    double lVoxels = ((double) cWidth) * cHeight
+                     * cDepth
+                     * lStacks.length
+                     * cRepeats;
+    System.out.format("off-heap weighted fusion 2Cx2L: %.1f Mvoxels/s (input voxels) \n",
+                      lVoxels / lElapsedTimeInSeconds * 1e-6);
+
+    // flat views are equally sharp, hence plainly averaged:
+    assertEquals(250, lFused.getShortAligned(cWidth * cHeight));
+
+    for (OffHeapMemory lStack : lStacks)
+      lStack.free();
+    lFused.free();
+  }
+
+  private void fuse(LightSheetFastFusionEngine pEngine,
+                    OffHeapMemory[] pStacks,
+                    OffHeapMemory pFused)
+  {
+    passStacks(pEngine, pStacks);
+    pEngine.executeAllTasks();
+    assertTrue(pEngine.isDone());
+    pEngine.getImage("fused").writeTo(pFused, true);
+    pEngine.reset(false);
+  }
+
+  private void passStacks(LightSheetFastFusionEngine pEngine,
+                          OffHeapMemory[] pStacks)
+  {
+    pEngine.passImage("C0L0", pStacks[0], cWidth, cHeight, cDepth);
+    pEngine.passImage("C0L1", pStacks[1], cWidth, cHeight, cDepth);
+    pEngine.passImage("C1L0", pStacks[2], cWidth, cHeight, cDepth);
+    pEngine.passImage("C1L1", pStacks[3], cWidth, cHeight, cDepth);
+  }
+
+}
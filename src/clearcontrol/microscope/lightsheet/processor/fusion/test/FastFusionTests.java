@@ -1,5 +1,6 @@
 package clearcontrol.microscope.lightsheet.processor.fusion.test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -13,7 +14,11 @@ import clearcl.backend.ClearCLBackends;
 import clearcl.viewer.ClearCLImageViewer;
 import clearcontrol.core.concurrent.thread.ThreadUtils;
 import clearcontrol.microscope.lightsheet.processor.fusion.FastFusionEngine;
+import clearcontrol.microscope.lightsheet.processor.fusion.backends.ClearCLFusionImage;
+import clearcontrol.microscope.lightsheet.processor.fusion.backends.OffHeapFastFusionBackend;
 import clearcontrol.microscope.lightsheet.processor.fusion.tasks.AverageTask;
+import clearcontrol.microscope.lightsheet.processor.fusion.tasks.IdentityTask;
+import clearcontrol.microscope.lightsheet.processor.fusion.tasks.WeightedAverageTask;
 import coremem.offheap.OffHeapMemory;
 
 import org.junit.Test;
@@ -91,7 +96,7 @@ public class FastFusionTests
                                 ClearCLImageViewer.view(lStackFusion.getImage("b"));/**/
 
       ClearCLImageViewer lView =
-                               ClearCLImageViewer.view(lStackFusion.getImage("c"));
+                               ClearCLImageViewer.view(((ClearCLFusionImage) lStackFusion.getImage("c")).getImage());
 
       assertTrue(lStackFusion.executeAllTasks() == 0);
 
@@ -105,4 +110,296 @@ public class FastFusionTests
 
   }
 
+  @Test
+  public void testOffHeapBackend() throws Exception
+  {
+    int width = 100;
+    int height = 101;
+    int depth = 102;
+
+    FastFusionEngine lStackFusion =
+                                  new FastFusionEngine(new OffHeapFastFusionBackend());
+
+    lStackFusion.addTask(new AverageTask("a", "b", "c"));
+
+    OffHeapMemory lStackDataA = OffHeapMemory.allocateShorts(width
+                                                             * height
+                                                             * depth);
+    OffHeapMemory lStackDataB = OffHeapMemory.allocateShorts(width
+                                                             * height
+                                                             * depth);
+
+    for (int z = 0; z < depth; z++)
+      for (int y = 0; y < height; y++)
+        for (int x = 0; x < width; x++)
+        {
+          int i = x + width * y + width * height * z;
+
+          lStackDataA.setShortAligned(i, (short) (x ^ y));
+
+          lStackDataB.setShortAligned(i, (short) (y ^ z));
+        }
+
+    lStackFusion.passImage("a", lStackDataA, width, height, depth);
+
+    assertTrue(lStackFusion.executeAllTasks() == 0);
+
+    lStackFusion.passImage("b", lStackDataB, width, height, depth);
+
+    assertTrue(lStackFusion.executeOneTask() > 0);
+
+    assertTrue(lStackFusion.isImageAvailable("c"));
+
+    OffHeapMemory lFused = OffHeapMemory.allocateShorts(width * height
+                                                        * depth);
+    lStackFusion.getImage("c").writeTo(lFused, true);
+
+    for (int z = 0; z < depth; z++)
+      for (int y = 0; y < height; y++)
+        for (int x = 0; x < width; x++)
+        {
+          int i = x + width * y + width * height * z;
+          assertEquals(((x ^ y) + (y ^ z)) / 2,
+                       lFused.getShortAligned(i));
+        }
+
+    lStackFusion.reset(true);
+    assertFalse(lStackFusion.isImageAvailable("c"));
+
+    lStackDataA.free();
+    lStackDataB.free();
+    lFused.free();
+  }
+
+  @Test
+  public void testWeightedAverageOffHeapBackend() throws Exception
+  {
+    int width = 100;
+    int height = 101;
+    int depth = 12;
+
+    FastFusionEngine lStackFusion =
+                                  new FastFusionEngine(new OffHeapFastFusionBackend());
+
+    WeightedAverageTask lWeightedAverageTask =
+                                             new WeightedAverageTask("a",
+                                                                     "b",
+                                                                     "c");
+    lWeightedAverageTask.setTileSize(16);
+    lStackFusion.addTask(lWeightedAverageTask);
+
+    OffHeapMemory lStackDataA = OffHeapMemory.allocateShorts(width
+                                                             * height
+                                                             * depth);
+    OffHeapMemory lStackDataB = OffHeapMemory.allocateShorts(width
+                                                             * height
+                                                             * depth);
+
+    // a is sharp, b is flat:
+    for (int z = 0; z < depth; z++)
+      for (int y = 0; y < height; y++)
+        for (int x = 0; x < width; x++)
+        {
+          int i = x + width * y + width * height * z;
+
+          lStackDataA.setShortAligned(i, (short) (100 * ((x ^ y) & 0xF)));
+
+          lStackDataB.setShortAligned(i, (short) 1000);
+        }
+
+    lStackFusion.passImage("a", lStackDataA, width, height, depth);
+    lStackFusion.passImage("b", lStackDataB, width, height, depth);
+
+    assertEquals(1, lStackFusion.executeAllTasks());
+    assertTrue(lStackFusion.isImageAvailable("c"));
+
+    OffHeapMemory lFused = OffHeapMemory.allocateShorts(width * height
+                                                        * depth);
+    lStackFusion.getImage("c").writeTo(lFused, true);
+
+    for (int z = 0; z < depth; z++)
+      for (int y = 0; y < height; y++)
+        for (int x = 0; x < width; x++)
+        {
+          int i = x + width * y + width * height * z;
+          assertEquals(100 * ((x ^ y) & 0xF),
+                       lFused.getShortAligned(i),
+                       1);
+        }
+
+    lStackFusion.reset(true);
+
+    lStackDataA.free();
+    lStackDataB.free();
+    lFused.free();
+  }
+
+  @Test
+  public void testWeightedAverageClearCLMatchesOffHeap() throws Exception
+  {
+    // the width is a multiple of the tile size plus one:
+    int width = 65;
+    int height = 49;
+    int depth = 4;
+    int tilesize = 16;
+
+    OffHeapMemory lStackDataA = OffHeapMemory.allocateShorts(width
+                                                             * height
+                                                             * depth);
+    OffHeapMemory lStackDataB = OffHeapMemory.allocateShorts(width
+                                                             * height
+                                                             * depth);
+
+    // a is sharp on the left, b on the right:
+    for (int z = 0; z < depth; z++)
+      for (int y = 0; y < height; y++)
+        for (int x = 0; x < width; x++)
+        {
+          int i = x + width * y + width * height * z;
+          short lSharp = (short) (200 + 100 * ((x ^ y ^ z) & 0xF));
+          lStackDataA.setShortAligned(i,
+                                      x < width / 2 ? lSharp
+                                                    : (short) 1000);
+          lStackDataB.setShortAligned(i,
+                                      x < width / 2 ? (short) 1000
+                                                    : lSharp);
+        }
+
+    OffHeapMemory lFusedOffHeap = OffHeapMemory.allocateShorts(width
+                                                               * height
+                                                               * depth);
+    OffHeapMemory lFusedClearCL = OffHeapMemory.allocateShorts(width
+                                                               * height
+                                                               * depth);
+
+    FastFusionEngine lOffHeapStackFusion =
+                                         new FastFusionEngine(new OffHeapFastFusionBackend());
+    WeightedAverageTask lOffHeapTask = new WeightedAverageTask("a",
+                                                               "b",
+                                                               "c");
+    lOffHeapTask.setTileSize(tilesize);
+    lOffHeapStackFusion.addTask(lOffHeapTask);
+    lOffHeapStackFusion.passImage("a", lStackDataA, width, height, depth);
+    lOffHeapStackFusion.passImage("b", lStackDataB, width, height, depth);
+    assertEquals(1, lOffHeapStackFusion.executeAllTasks());
+    lOffHeapStackFusion.getImage("c").writeTo(lFusedOffHeap, true);
+    lOffHeapStackFusion.reset(true);
+
+    try (ClearCL lClearCL = new ClearCL(ClearCLBackends.getBestBackend());
+        ClearCLDevice lFastestGPUDevice =
+                                        lClearCL.getFastestGPUDeviceForImages();
+        ClearCLContext lContext = lFastestGPUDevice.createContext())
+    {
+      FastFusionEngine lClearCLStackFusion =
+                                           new FastFusionEngine(lContext);
+      WeightedAverageTask lClearCLTask = new WeightedAverageTask("a",
+                                                                 "b",
+                                                                 "c");
+      lClearCLTask.setTileSize(tilesize);
+      lClearCLStackFusion.addTask(lClearCLTask);
+      lClearCLStackFusion.passImage("a",
+                                    lStackDataA,
+                                    width,
+                                    height,
+                                    depth);
+      lClearCLStackFusion.passImage("b",
+                                    lStackDataB,
+                                    width,
+                                    height,
+                                    depth);
+      assertEquals(1, lClearCLStackFusion.executeAllTasks());
+      lClearCLStackFusion.getImage("c").writeTo(lFusedClearCL, true);
+      lClearCLStackFusion.reset(true);
+    }
+
+    // GPU linear samplers interpolate weights with reduced precision:
+    for (int i = 0; i < width * height * depth; i++)
+      assertEquals(lFusedOffHeap.getShortAligned(i),
+                   lFusedClearCL.getShortAligned(i),
+                   8);
+
+    lStackDataA.free();
+    lStackDataB.free();
+    lFusedOffHeap.free();
+    lFusedClearCL.free();
+  }
+
+  @Test
+  public void testAsynchronousDoubleBuffering() throws Exception
+  {
+    int width = 64;
+    int height = 65;
+    int depth = 66;
+    int length = width * height * depth;
+
+    FastFusionEngine lStackFusion =
+                                  new FastFusionEngine(new OffHeapFastFusionBackend());
+    lStackFusion.setAsynchronousTaskExecution(true);
+
+    AverageTask lAverageTask = new AverageTask("a", "b", "c");
+    lStackFusion.addTask(lAverageTask);
+    lStackFusion.addTask(new IdentityTask("c", "fused"));
+
+    OffHeapMemory[] lStackData = new OffHeapMemory[4];
+    for (int s = 0; s < lStackData.length; s++)
+    {
+      lStackData[s] = OffHeapMemory.allocateShorts(length);
+      for (int i = 0; i < length; i++)
+        lStackData[s].setShortAligned(i, (short) (10 * (s + 1)));
+    }
+
+    // two timepoints, the second one goes to the second slot buffer:
+    lStackFusion.passImage("a", lStackData[0], width, height, depth);
+    lStackFusion.passImage("b", lStackData[1], width, height, depth);
+    lStackFusion.passImage("a", lStackData[2], width, height, depth);
+    lStackFusion.passImage("b", lStackData[3], width, height, depth);
+
+    lStackFusion.waitFusionTasksToComplete();
+    assertEquals(0, lStackFusion.executeAllTasks());
+
+    OffHeapMemory lFused = OffHeapMemory.allocateShorts(length);
+    assertTrue(lStackFusion.isImageAvailable("fused"));
+    lStackFusion.getImage("fused").writeTo(lFused, true);
+    assertEquals(15, lFused.getShortAligned(length - 1));
+
+    lStackFusion.reset(false);
+    assertTrue(lStackFusion.isImageAvailable("fused"));
+    lStackFusion.getImage("fused").writeTo(lFused, true);
+    assertEquals(35, lFused.getShortAligned(length - 1));
+
+    lStackFusion.reset(false);
+    assertFalse(lStackFusion.isImageAvailable("a"));
+    assertFalse(lStackFusion.isImageAvailable("fused"));
+
+    assertEquals(2,
+                 lStackFusion.getTaskStatistics(lAverageTask)
+                             .getNumberOfExecutions());
+
+    // a third image for the same slot waits for the current timepoint reset:
+    lStackFusion.passImage("a", lStackData[0], width, height, depth);
+    lStackFusion.passImage("a", lStackData[2], width, height, depth);
+    Thread lThread = new Thread(() -> lStackFusion.passImage("a",
+                                                             lStackData[0],
+                                                             width,
+                                                             height,
+                                                             depth));
+    lThread.start();
+    lThread.join(100);
+    assertTrue(lThread.isAlive());
+    lStackFusion.reset(false);
+    lThread.join(10000);
+    assertFalse(lThread.isAlive());
+
+    // without a reset, the image of the current timepoint is overwritten after
+    // a bounded wait:
+    lStackFusion.passImage("a", lStackData[1], width, height, depth);
+    lStackFusion.getImage("a").writeTo(lFused, true);
+    assertEquals(20, lFused.getShortAligned(length - 1));
+
+    lStackFusion.reset(true);
+    for (OffHeapMemory lMemory : lStackData)
+      lMemory.free();
+    lFused.free();
+  }
+
 }
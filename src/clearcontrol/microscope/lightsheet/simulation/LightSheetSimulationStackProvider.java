@@ -199,12 +199,11 @@ public class LightSheetSimulationStackProvider extends
   private void passDetectionParameters(int zi)
   {
 
-    float z = mDetectionStateQueue.getQueuedValue(
-                                                  mDetectionArmDevice.getZFunction()
-                                                                     .get(),
-                                                  mDetectionArmDevice.getZVariable(),
-                                                  zi)
-                                  .floatValue();
+    float z =
+            (float) mDetectionStateQueue.getQueuedDoubleValue(mDetectionArmDevice.getZFunction()
+                                                                                 .get(),
+                                                              mDetectionArmDevice.getZVariable(),
+                                                              zi);
     mLightSheetMicroscopeSimulator.setNumberParameter(DetectionParameter.Z,
                                                       mCameraIndex,
                                                       z);
@@ -218,85 +217,77 @@ public class LightSheetSimulationStackProvider extends
                                     mLightSheetList.get(pLightSheetIndex);
 
     float x =
-            mLightSheetStateQueuesMap.get(pLightSheetIndex)
-                                     .getQueuedValue(lLightSheet.getXFunction()
-                                                                .get(),
-                                                     lLightSheet.getXVariable(),
-                                                     zi)
-                                     .floatValue();
+            (float) mLightSheetStateQueuesMap.get(pLightSheetIndex)
+                                             .getQueuedDoubleValue(lLightSheet.getXFunction()
+                                                                              .get(),
+                                                                   lLightSheet.getXVariable(),
+                                                                   zi);
 
     mLightSheetMicroscopeSimulator.setNumberParameter(IlluminationParameter.X,
                                                       pLightSheetIndex,
                                                       x);
 
     float y =
-            mLightSheetStateQueuesMap.get(pLightSheetIndex)
-                                     .getQueuedValue(lLightSheet.getYFunction()
-                                                                .get(),
-                                                     lLightSheet.getYVariable(),
-                                                     zi)
-                                     .floatValue();
+            (float) mLightSheetStateQueuesMap.get(pLightSheetIndex)
+                                             .getQueuedDoubleValue(lLightSheet.getYFunction()
+                                                                              .get(),
+                                                                   lLightSheet.getYVariable(),
+                                                                   zi);
 
     mLightSheetMicroscopeSimulator.setNumberParameter(IlluminationParameter.Y,
                                                       pLightSheetIndex,
                                                       y);
 
     float z =
-            mLightSheetStateQueuesMap.get(pLightSheetIndex)
-                                     .getQueuedValue(lLightSheet.getZFunction()
-                                                                .get(),
-                                                     lLightSheet.getZVariable(),
-                                                     zi)
-                                     .floatValue();
+            (float) mLightSheetStateQueuesMap.get(pLightSheetIndex)
+                                             .getQueuedDoubleValue(lLightSheet.getZFunction()
+                                                                              .get(),
+                                                                   lLightSheet.getZVariable(),
+                                                                   zi);
 
     mLightSheetMicroscopeSimulator.setNumberParameter(IlluminationParameter.Z,
                                                       pLightSheetIndex,
                                                       z);
 
-    float alpha = mLightSheetStateQueuesMap.get(pLightSheetIndex)
-
-                                           .getQueuedValue(lLightSheet.getAlphaFunction()
-                                                                      .get(),
-                                                           lLightSheet.getAlphaInDegreesVariable(),
-                                                           zi)
-                                           .floatValue();
+    float alpha =
+            (float) mLightSheetStateQueuesMap.get(pLightSheetIndex)
+                                             .getQueuedDoubleValue(lLightSheet.getAlphaFunction()
+                                                                              .get(),
+                                                                   lLightSheet.getAlphaInDegreesVariable(),
+                                                                   zi);
 
     mLightSheetMicroscopeSimulator.setNumberParameter(IlluminationParameter.Alpha,
                                                       pLightSheetIndex,
                                                       alpha);
 
-    float beta = mLightSheetStateQueuesMap.get(pLightSheetIndex)
-
-                                          .getQueuedValue(lLightSheet.getBetaFunction()
-                                                                     .get(),
-                                                          lLightSheet.getBetaInDegreesVariable(),
-                                                          zi)
-                                          .floatValue();
+    float beta =
+            (float) mLightSheetStateQueuesMap.get(pLightSheetIndex)
+                                             .getQueuedDoubleValue(lLightSheet.getBetaFunction()
+                                                                              .get(),
+                                                                   lLightSheet.getBetaInDegreesVariable(),
+                                                                   zi);
 
     mLightSheetMicroscopeSimulator.setNumberParameter(IlluminationParameter.Beta,
                                                       pLightSheetIndex,
                                                       beta);
 
-    float height = mLightSheetStateQueuesMap.get(pLightSheetIndex)
-
-                                            .getQueuedValue(lLightSheet.getHeightFunction()
-                                                                       .get(),
-                                                            lLightSheet.getHeightVariable(),
-                                                            zi)
-                                            .floatValue();
+    float height =
+            (float) mLightSheetStateQueuesMap.get(pLightSheetIndex)
+                                             .getQueuedDoubleValue(lLightSheet.getHeightFunction()
+                                                                              .get(),
+                                                                   lLightSheet.getHeightVariable(),
+                                                                   zi);
 
     mLightSheetMicroscopeSimulator.setNumberParameter(IlluminationParameter.Height,
                                                       pLightSheetIndex,
                                                       height);
 
     float lLightSheetPower =
-
-                           mLightSheetStateQueuesMap.get(pLightSheetIndex)
-                                                    .getQueuedValue(lLightSheet.getPowerFunction()
-                                                                               .get(),
-                                                                    lLightSheet.getPowerVariable(),
-                                                                    zi)
-                                                    .floatValue();
+            (float) mLightSheetStateQueuesMap.get(pLightSheetIndex)
+                                             .getQueuedDoubleValue(lLightSheet.getPowerFunction()
+                                                                              .get(),
+                                                                   lLightSheet.getPowerVariable(),
+                                                                   zi);
 
     boolean lLightSheetSwitchedOn =
                                   mOpticalSwitchStateQueue.getQueuedBooleanValue(mOpticalSwitch.getSwitchVariable(pLightSheetIndex),
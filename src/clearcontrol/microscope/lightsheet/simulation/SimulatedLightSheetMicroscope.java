@@ -26,7 +26,11 @@ import clearcontrol.microscope.lightsheet.component.opticalswitch.LightSheetOpti
 import clearcontrol.microscope.lightsheet.signalgen.LightSheetSignalGeneratorDevice;
 import clearcontrol.microscope.state.AcquisitionStateManager;
 import clearcontrol.microscope.timelapse.TimelapseInterface;
+import clearcontrol.stack.sourcesink.sink.CompressedRawFileStackSink;
+import clearcontrol.stack.sourcesink.sink.ContainerFileStackSink;
+import clearcontrol.stack.sourcesink.sink.GroupCommitRawFileStackSink;
 import clearcontrol.stack.sourcesink.sink.RawFileStackSink;
+import clearcontrol.stack.sourcesink.sink.StripedRawFileStackSink;
 
 /**
  * Simulated lightsheet microscope
@@ -287,6 +291,10 @@ public class SimulatedLightSheetMicroscope extends
       TimelapseInterface lTimelapse = addTimelapse();
 
       lTimelapse.addFileStackSinkType(RawFileStackSink.class);
+      lTimelapse.addFileStackSinkType(GroupCommitRawFileStackSink.class);
+      lTimelapse.addFileStackSinkType(ContainerFileStackSink.class);
+      lTimelapse.addFileStackSinkType(CompressedRawFileStackSink.class);
+      lTimelapse.addFileStackSinkType(StripedRawFileStackSink.class);
     }
   }
 
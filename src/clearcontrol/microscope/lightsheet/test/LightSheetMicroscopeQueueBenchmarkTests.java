@@ -0,0 +1,184 @@
+package clearcontrol.microscope.lightsheet.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+
+import clearcontrol.devices.signalgen.devices.sim.SignalGeneratorSimulatorDevice;
+import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
+import clearcontrol.microscope.lightsheet.LightSheetMicroscopeQueue;
+import clearcontrol.microscope.lightsheet.component.detection.DetectionArm;
+import clearcontrol.microscope.lightsheet.component.lightsheet.LightSheet;
+import clearcontrol.microscope.lightsheet.component.lightsheet.LightSheetQueue;
+import clearcontrol.microscope.lightsheet.component.opticalswitch.LightSheetOpticalSwitch;
+import clearcontrol.microscope.lightsheet.signalgen.LightSheetSignalGeneratorDevice;
+
+import org.junit.Test;
+
+/**
+ * Lightsheet microscope queue benchmark: builds a full queue (two detection
+ * arms, four lightsheets) and reads the lightsheet parameter queues back
+ * through the per-state list accessors and through the bulk column accessors.
+ *
+ * @author royer
+ */
+public class LightSheetMicroscopeQueueBenchmarkTests
+{
+  private static final int cNumberOfDetectionArms = 2;
+  private static final int cNumberOfLightSheets = 4;
+  private static final int cNumberOfPlanes = 2000;
+  private static final int cRepeats = 5;
+
+  /**
+   * Benchmark
+   */
+  @Test
+  public void benchmark()
+  {
+    LightSheetMicroscope lMicroscope =
+                                     new LightSheetMicroscope("QueueBenchmark",
+                                                              null,
+                                                              1,
+                                                              1);
+    for (int d = 0; d < cNumberOfDetectionArms; d++)
+      lMicroscope.addDevice(d, new DetectionArm("D" + d));
+    for (int l = 0; l < cNumberOfLightSheets; l++)
+      lMicroscope.addDevice(l, new LightSheet("I" + l, 9.4, 512, 2));
+    lMicroscope.addDevice(0,
+                          new LightSheetOpticalSwitch("OpticalSwitch",
+                                                      cNumberOfLightSheets));
+    lMicroscope.addDevice(0,
+                          LightSheetSignalGeneratorDevice.wrap(new SignalGeneratorSimulatorDevice()));
+
+    LightSheetMicroscopeQueue lQueue = lMicroscope.requestQueue();
+
+    // warmup:
+    buildQueue(lQueue);
+    readLists(lQueue);
+    readColumns(lQueue);
+
+    long lStart = System.nanoTime();
+    for (int r = 0; r < cRepeats; r++)
+      buildQueue(lQueue);
+    report("building queue", lStart);
+
+    lStart = System.nanoTime();
+    double lListChecksum = 0;
+    for (int r = 0; r < cRepeats; r++)
+      lListChecksum = readLists(lQueue);
+    report("reading transformed queues as lists", lStart);
+
+    lStart = System.nanoTime();
+    double lColumnChecksum = 0;
+    for (int r = 0; r < cRepeats; r++)
+      lColumnChecksum = readColumns(lQueue);
+    report("reading transformed queues as columns", lStart);
+
+    assertEquals(lListChecksum, lColumnChecksum, 0);
+  }
+
+  private void buildQueue(LightSheetMicroscopeQueue pQueue)
+  {
+    pQueue.clearQueue();
+    for (int z = 0; z < cNumberOfPlanes; z++)
+    {
+      for (int d = 0; d < cNumberOfDetectionArms; d++)
+        pQueue.setDZ(d, 0.1 * z);
+      for (int l = 0; l < cNumberOfLightSheets; l++)
+      {
+        pQueue.setIX(l, 0.01 * z);
+        pQueue.setIY(l, 0.02 * z);
+        pQueue.setIZ(l, 0.1 * z);
+        pQueue.setIA(l, 0.001 * z);
+        pQueue.setIB(l, 0.002 * z);
+        pQueue.setIH(l, 100);
+        pQueue.setIP(l, 0.5);
+      }
+      pQueue.setI(z % cNumberOfLightSheets);
+      pQueue.addCurrentStateToQueue();
+    }
+    pQueue.finalizeQueue();
+  }
+
+  private double readLists(LightSheetMicroscopeQueue pQueue)
+  {
+    double lChecksum = 0;
+    for (int l = 0; l < cNumberOfLightSheets; l++)
+    {
+      LightSheetQueue lLightSheetQueue = getLightSheetQueue(pQueue, l);
+      LightSheet lLightSheet = getLightSheet(pQueue, l);
+      ArrayList<Number> lX =
+                           lLightSheetQueue.getVariableQueue(lLightSheet.getXFunction()
+                                                                        .get(),
+                                                             lLightSheetQueue.getXVariable());
+      ArrayList<Number> lZ =
+                           lLightSheetQueue.getVariableQueue(lLightSheet.getZFunction()
+                                                                        .get(),
+                                                             lLightSheetQueue.getZVariable());
+      ArrayList<Number> lAlpha =
+                               lLightSheetQueue.getVariableQueue(lLightSheet.getAlphaFunction()
+                                                                            .get(),
+                                                                 lLightSheetQueue.getAlphaInDegreesVariable());
+      for (int i = 0; i < lX.size(); i++)
+        lChecksum += lX.get(i).doubleValue()
+                     + lZ.get(i).doubleValue()
+                     + lAlpha.get(i).doubleValue();
+    }
+    return lChecksum;
+  }
+
+  private double readColumns(LightSheetMicroscopeQueue pQueue)
+  {
+    double lChecksum = 0;
+    double[] lX = null, lZ = null, lAlpha = null;
+    for (int l = 0; l < cNumberOfLightSheets; l++)
+    {
+      LightSheetQueue lLightSheetQueue = getLightSheetQueue(pQueue, l);
+      LightSheet lLightSheet = getLightSheet(pQueue, l);
+      lX = lLightSheetQueue.transformColumn(lLightSheet.getXFunction()
+                                                       .get(),
+                                            lLightSheetQueue.getXVariable(),
+                                            lX);
+      lZ = lLightSheetQueue.transformColumn(lLightSheet.getZFunction()
+                                                       .get(),
+                                            lLightSheetQueue.getZVariable(),
+                                            lZ);
+      lAlpha =
+             lLightSheetQueue.transformColumn(lLightSheet.getAlphaFunction()
+                                                         .get(),
+                                              lLightSheetQueue.getAlphaInDegreesVariable(),
+                                              lAlpha);
+      int lLength = lLightSheetQueue.getQueueLength();
+      for (int i = 0; i < lLength; i++)
+        lChecksum += lX[i] + lZ[i] + lAlpha[i];
+    }
+    return lChecksum;
+  }
+
+  private LightSheetQueue getLightSheetQueue(LightSheetMicroscopeQueue pQueue,
+                                             int pLightSheetIndex)
+  {
+    return (LightSheetQueue) pQueue.getDeviceQueue(LightSheet.class,
+                                                   pLightSheetIndex);
+  }
+
+  private LightSheet getLightSheet(LightSheetMicroscopeQueue pQueue,
+                                   int pLightSheetIndex)
+  {
+    return pQueue.getMicroscope().getDevice(LightSheet.class,
+                                            pLightSheetIndex);
+  }
+
+  private static void report(String pName, long pStartTimeInNs)
+  {
+    final double lElapsedTimeInMs = (System.nanoTime() - pStartTimeInNs)
+                                    * 1e-6
+                                    / cRepeats;
+    System.out.format("%s (%d planes, %d lightsheets): %.2f ms \n",
+                      pName,
+                      cNumberOfPlanes,
+                      cNumberOfLightSheets,
+                      lElapsedTimeInMs);
+  }
+
+}
@@ -236,9 +236,19 @@ public abstract class TimelapseBase extends LoopTaskDevice
                                mMicroscope.getPipelineStackVariable();
         lPipelineStackVariable.addSetListener(mStackListener);
       }
-      super.run();
-      if (mMicroscope != null)
-        lPipelineStackVariable.removeSetListener(mStackListener);
+      try
+      {
+        super.run();
+      }
+      finally
+      {
+        if (lPipelineStackVariable != null)
+          lPipelineStackVariable.removeSetListener(mStackListener);
+
+        // Sinks may buffer data (e.g. group commit), so we close them to make
+        // sure that everything is on disk:
+        closeStackSink(lStackSink);
+      }
     }
     catch (InstantiationException e)
     {
@@ -257,6 +267,22 @@ public abstract class TimelapseBase extends LoopTaskDevice
 
   }
 
+  private void closeStackSink(FileStackSinkInterface pStackSink)
+  {
+    if (!(pStackSink instanceof AutoCloseable))
+      return;
+    try
+    {
+      ((AutoCloseable) pStackSink).close();
+    }
+    catch (Exception e)
+    {
+      severe("Cannot close stack sink %s (%s)",
+             pStackSink,
+             e.getMessage());
+    }
+  }
+
   @Override
   public boolean startTask()
   {
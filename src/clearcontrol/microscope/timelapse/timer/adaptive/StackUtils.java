@@ -1,12 +1,12 @@
 package clearcontrol.microscope.timelapse.timer.adaptive;
 
 import static java.lang.Math.abs;
-import static java.lang.Math.max;
 import static java.lang.Math.pow;
 
 import clearcontrol.microscope.lightsheet.LightSheetMicroscopeInterface;
 import clearcontrol.microscope.lightsheet.component.detection.DetectionArmInterface;
 import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.kernels.StackKernels;
 import coremem.buffers.ContiguousBuffer;
 
 /**
@@ -38,37 +38,21 @@ public class StackUtils
     {
       for (int d = 1; d < lNumberOfStacksToFuse; d++)
       {
-        StackInterface lStack = pLSM.getCameraStackVariable(0).get();
+        StackInterface lStack = pLSM.getCameraStackVariable(d).get();
 
-        maxStack(lFusedStack, lStack);
+        // stacks of other dimensions cannot be fused:
+        if (isSameShortStackShape(lFusedStack, lStack))
+          StackKernels.accumulateMax(lFusedStack, lStack);
       }
     }
 
     return lFusedStack;
   }
 
-  private static void maxStack(StackInterface pMaxStack,
-                               StackInterface pOtherStack)
-  {
-    ContiguousBuffer lMaxBuffer =
-                                ContiguousBuffer.wrap(pMaxStack.getContiguousMemory());
-    ContiguousBuffer lOtherBuffer =
-                                  ContiguousBuffer.wrap(pMaxStack.getContiguousMemory());
-
-    while (lMaxBuffer.hasRemainingByte()
-           && lOtherBuffer.hasRemainingByte())
-    {
-      char u = lMaxBuffer.readChar();
-      char v = lOtherBuffer.readChar();
-      char m = (char) max(u, v);
-
-      lMaxBuffer.skipChars(-1);
-      lMaxBuffer.writeChar(m);
-    }
-  }
-
   /**
-   * Compute average difference between stacks
+   * Compute average difference between stacks. Stacks that do not have the
+   * same dimensions are compared over the voxels they have in common in
+   * memory order.
    * 
    * @param pStack1
    *          stack1
@@ -82,6 +66,9 @@ public class StackUtils
                                                 StackInterface pStack2,
                                                 int pPower)
   {
+    if (isSameShortStackShape(pStack1, pStack2))
+      return StackKernels.averageDifference(pStack1, pStack2, pPower);
+
     ContiguousBuffer lMaxBuffer =
                                 ContiguousBuffer.wrap(pStack1.getContiguousMemory());
     ContiguousBuffer lOtherBuffer =
@@ -102,4 +89,14 @@ public class StackUtils
     return lAverageDifference;
   }
 
+  private static boolean isSameShortStackShape(StackInterface pStack1,
+                                               StackInterface pStack2)
+  {
+    return pStack1.getWidth() == pStack2.getWidth()
+           && pStack1.getHeight() == pStack2.getHeight()
+           && pStack1.getDepth() == pStack2.getDepth()
+           && pStack1.getBytesPerVoxel() == 2
+           && pStack2.getBytesPerVoxel() == 2;
+  }
+
 }
@@ -15,6 +15,8 @@ public abstract class StackBase extends FreeableBase
 
   protected RecyclerInterface<StackInterface, StackRequest> mStackRecycler;
   protected volatile boolean mIsReleased;
+  private int mNumberOfBorrowers;
+  private boolean mIsReleaseDeferred;
 
   protected StackMetaData mMetaData = new StackMetaData();
 
@@ -58,10 +60,45 @@ public abstract class StackBase extends FreeableBase
   @Override
   public void release()
   {
+    synchronized (this)
+    {
+      if (mNumberOfBorrowers > 0)
+      {
+        mIsReleaseDeferred = true;
+        return;
+      }
+    }
     if (mStackRecycler != null)
       mStackRecycler.release(this);
   }
 
+  @Override
+  public boolean borrow()
+  {
+    synchronized (this)
+    {
+      if (mIsReleased || mIsReleaseDeferred)
+        return false;
+      mNumberOfBorrowers++;
+      return true;
+    }
+  }
+
+  @Override
+  public void giveBack()
+  {
+    synchronized (this)
+    {
+      if (mNumberOfBorrowers <= 0)
+        throw new IllegalStateException("Stack given back but not borrowed");
+      mNumberOfBorrowers--;
+      if (mNumberOfBorrowers > 0 || !mIsReleaseDeferred)
+        return;
+      mIsReleaseDeferred = false;
+    }
+    release();
+  }
+
   @Override
   public void setRecycler(final RecyclerInterface<StackInterface, StackRequest> pRecycler)
   {
@@ -128,6 +128,22 @@ public interface StackInterface extends
    */
   Object getImage();
 
+  /**
+   * Borrows this stack: until it is given back, releasing the stack to its
+   * recycler is deferred, so that the stack can be read in place instead of
+   * being duplicated. Each successful borrow must be matched by a call to
+   * {@link #giveBack()}.
+   * 
+   * @return true if borrowed, false if the stack is already released
+   */
+  boolean borrow();
+
+  /**
+   * Gives back a borrowed stack, if the stack was released while borrowed and
+   * this was the last borrower, the stack is now released to its recycler.
+   */
+  void giveBack();
+
   /**
    * Returns a duplicate of this stack
    * 
@@ -0,0 +1,198 @@
+package clearcontrol.stack;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import clearcontrol.core.configuration.MachineConfiguration;
+
+/**
+ * Stack lease: gives read access to a stack that is owned by someone else
+ * (e.g. a camera stack variable and its recycler) for the time of an
+ * asynchronous computation. The stack is borrowed and read in place, only if
+ * it has already been released is it duplicated. Leases are charged against a
+ * global budget of off-heap memory in flight, acquiring a lease blocks while
+ * the budget is exhausted. Leases that are held together must be acquired
+ * together, otherwise two holders of partial budgets can wait for each other
+ * forever.
+ *
+ * @author royer
+ */
+public class StackLease implements AutoCloseable
+{
+  private static final long cMegaByte = 1024L * 1024L;
+
+  private static final int cBudgetInMegaBytes =
+                                              MachineConfiguration.getCurrentMachineConfiguration()
+                                                                  .getIntegerProperty("stack.lease.budget.mb",
+                                                                                      2048);
+  private static final Semaphore cBudgetSemaphore =
+                                                  new Semaphore(cBudgetInMegaBytes,
+                                                                true);
+
+  private final StackInterface mStack;
+  private final boolean mIsBorrowed;
+  private final int mCostInMegaBytes;
+  private boolean mIsClosed;
+
+  /**
+   * Acquires a lease for a given stack, blocks until the stack fits in the
+   * in-flight budget.
+   *
+   * @param pStack
+   *          stack to lease
+   * @return lease
+   * @throws InterruptedException
+   *           if interrupted while waiting for budget
+   */
+  public static StackLease acquire(StackInterface pStack) throws InterruptedException
+  {
+    // a stack larger than the whole budget takes all of it instead of
+    // blocking forever:
+    final int lCostInMegaBytes = (int) Math.min(cBudgetInMegaBytes,
+                                                getCostInMegaBytes(pStack));
+    cBudgetSemaphore.acquire(lCostInMegaBytes);
+    try
+    {
+      return lease(pStack, lCostInMegaBytes);
+    }
+    catch (Throwable e)
+    {
+      cBudgetSemaphore.release(lCostInMegaBytes);
+      throw e;
+    }
+  }
+
+  /**
+   * Acquires leases for several stacks at once: blocks until all stacks fit
+   * together in the in-flight budget, and never holds part of the budget while
+   * waiting for the rest.
+   *
+   * @param pStacks
+   *          stacks to lease, null entries are allowed
+   * @return leases, in the same order, null for null stacks
+   * @throws InterruptedException
+   *           if interrupted while waiting for budget
+   */
+  public static ArrayList<StackLease> acquireAll(List<? extends StackInterface> pStacks) throws InterruptedException
+  {
+    long lTotalCostInMegaBytes = 0;
+    for (StackInterface lStack : pStacks)
+      if (lStack != null)
+        lTotalCostInMegaBytes += getCostInMegaBytes(lStack);
+
+    // stacks larger together than the whole budget take all of it:
+    int lRemainingInMegaBytes = (int) Math.min(cBudgetInMegaBytes,
+                                               lTotalCostInMegaBytes);
+    cBudgetSemaphore.acquire(lRemainingInMegaBytes);
+
+    final ArrayList<StackLease> lStackLeases = new ArrayList<>();
+    try
+    {
+      for (StackInterface lStack : pStacks)
+        if (lStack != null)
+        {
+          final int lCostInMegaBytes =
+                                     (int) Math.min(lRemainingInMegaBytes,
+                                                    getCostInMegaBytes(lStack));
+          lStackLeases.add(lease(lStack, lCostInMegaBytes));
+          lRemainingInMegaBytes -= lCostInMegaBytes;
+        }
+        else
+          lStackLeases.add(null);
+    }
+    catch (Throwable e)
+    {
+      for (StackLease lStackLease : lStackLeases)
+        if (lStackLease != null)
+          lStackLease.close();
+      throw e;
+    }
+    finally
+    {
+      cBudgetSemaphore.release(lRemainingInMegaBytes);
+    }
+    return lStackLeases;
+  }
+
+  private static long getCostInMegaBytes(StackInterface pStack)
+  {
+    return (pStack.getSizeInBytes() + cMegaByte - 1) / cMegaByte;
+  }
+
+  private static StackLease lease(StackInterface pStack,
+                                  int pCostInMegaBytes)
+  {
+    if (pStack.borrow())
+      return new StackLease(pStack, true, pCostInMegaBytes);
+
+    // already released, the stack might be recycled at any time:
+    return new StackLease(pStack.duplicate(), false, pCostInMegaBytes);
+  }
+
+  private StackLease(StackInterface pStack,
+                     boolean pIsBorrowed,
+                     int pCostInMegaBytes)
+  {
+    mStack = pStack;
+    mIsBorrowed = pIsBorrowed;
+    mCostInMegaBytes = pCostInMegaBytes;
+  }
+
+  /**
+   * Returns the leased stack, it must not be modified, released or freed.
+   *
+   * @return leased stack
+   */
+  public StackInterface getStack()
+  {
+    return mStack;
+  }
+
+  /**
+   * Returns true if the stack is read in place, false if it is a copy.
+   *
+   * @return true if borrowed
+   */
+  public boolean isBorrowed()
+  {
+    return mIsBorrowed;
+  }
+
+  /**
+   * Returns the memory budget currently available for leases
+   *
+   * @return available budget in megabytes
+   */
+  public static int getAvailableBudgetInMegaBytes()
+  {
+    return cBudgetSemaphore.availablePermits();
+  }
+
+  /**
+   * Ends this lease: gives back the borrowed stack (or frees the copy) and
+   * returns the budget. Calling this more than once has no effect.
+   */
+  @Override
+  public void close()
+  {
+    synchronized (this)
+    {
+      if (mIsClosed)
+        return;
+      mIsClosed = true;
+    }
+    try
+    {
+      if (mIsBorrowed)
+        mStack.giveBack();
+      else
+        mStack.free();
+    }
+    finally
+    {
+      cBudgetSemaphore.release(mCostInMegaBytes);
+    }
+  }
+
+}
@@ -0,0 +1,630 @@
+package clearcontrol.stack.kernels;
+
+import static java.lang.Math.toIntExact;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import clearcontrol.stack.StackInterface;
+
+/**
+ * Kernels for stacks of unsigned 16 bit voxels: reductions (sum, min, max,
+ * mean, histogram, average Lp difference) and in-place element-wise operations
+ * (max accumulation, averaging, sharpness-weighted averaging, clamping, affine
+ * scaling).
+ *
+ * Planes are processed in parallel (common fork-join pool), each plane is
+ * copied in bulk to a per-thread buffer, processed, and if modified copied back
+ * in bulk. Stacks must have one contiguous memory region per plane (e.g.
+ * OffHeapPlanarStack).
+ *
+ * @author royer
+ */
+public final class StackKernels
+{
+
+  // two plane buffers per thread, for kernels that read two stacks:
+  private static final ThreadLocal<short[][]> cPlaneBuffers =
+                                                           ThreadLocal.withInitial(() -> new short[][]
+                                                           { new short[0], new short[0] });
+
+  // per thread accumulation buffer:
+  private static final ThreadLocal<int[]> cSumBuffers =
+                                                      ThreadLocal.withInitial(() -> new int[0]);
+
+  // per thread float buffers and index buffer for weighted averaging:
+  private static final ThreadLocal<float[][]> cFloatBuffers =
+                                                            ThreadLocal.withInitial(() -> new float[][]
+                                                            { new float[0],
+                                                              new float[0],
+                                                              new float[0],
+                                                              new float[0],
+                                                              new float[0] });
+  private static final ThreadLocal<int[][]> cIndexBuffers =
+                                                          ThreadLocal.withInitial(() -> new int[][]
+                                                          { new int[0], new int[0] });
+
+  private StackKernels()
+  {
+  }
+
+  /**
+   * Returns the sum of all voxel values
+   *
+   * @param pStack
+   *          stack
+   * @return sum
+   */
+  public static long sum(StackInterface pStack)
+  {
+    checkUnsignedShort(pStack);
+    return planes(pStack).mapToLong(z -> {
+      final short[] lPlane = readPlane(pStack, z, 0);
+      long lSum = 0;
+      for (int i = 0; i < lPlane.length; i++)
+        lSum += lPlane[i] & 0xFFFF;
+      return lSum;
+    }).sum();
+  }
+
+  /**
+   * Returns the mean voxel value
+   *
+   * @param pStack
+   *          stack
+   * @return mean
+   */
+  public static double mean(StackInterface pStack)
+  {
+    return ((double) sum(pStack)) / pStack.getVolume();
+  }
+
+  /**
+   * Returns the minimal voxel value
+   *
+   * @param pStack
+   *          stack
+   * @return min value
+   */
+  public static int min(StackInterface pStack)
+  {
+    checkUnsignedShort(pStack);
+    return planes(pStack).map(z -> {
+      final short[] lPlane = readPlane(pStack, z, 0);
+      int lMin = 0xFFFF;
+      for (int i = 0; i < lPlane.length; i++)
+        lMin = Math.min(lMin, lPlane[i] & 0xFFFF);
+      return lMin;
+    }).min().orElse(0);
+  }
+
+  /**
+   * Returns the maximal voxel value
+   *
+   * @param pStack
+   *          stack
+   * @return max value
+   */
+  public static int max(StackInterface pStack)
+  {
+    checkUnsignedShort(pStack);
+    return planes(pStack).map(z -> {
+      final short[] lPlane = readPlane(pStack, z, 0);
+      int lMax = 0;
+      for (int i = 0; i < lPlane.length; i++)
+        lMax = Math.max(lMax, lPlane[i] & 0xFFFF);
+      return lMax;
+    }).max().orElse(0);
+  }
+
+  /**
+   * Returns the average over all voxels of |v1-v2|^p, where v1 and v2 are the
+   * values of corresponding voxels of two stacks of same dimensions. Powers 1
+   * and 2 are computed exactly with integer arithmetic.
+   *
+   * @param pStack1
+   *          first stack
+   * @param pStack2
+   *          second stack
+   * @param pPower
+   *          power p
+   * @return average difference
+   */
+  public static double averageDifference(StackInterface pStack1,
+                                         StackInterface pStack2,
+                                         double pPower)
+  {
+    checkUnsignedShort(pStack1);
+    checkSameDimensions(pStack1, pStack2);
+
+    final double lSum;
+    if (pPower == 1 || pPower == 2)
+    {
+      final boolean lSquare = pPower == 2;
+      // per plane sums fit in a long, the total might not:
+      lSum = planes(pStack1).mapToDouble(z -> {
+        final short[] lPlane1 = readPlane(pStack1, z, 0);
+        final short[] lPlane2 = readPlane(pStack2, z, 1);
+        long lPlaneSum = 0;
+        if (lSquare)
+          for (int i = 0; i < lPlane1.length; i++)
+          {
+            final long lDifference = (lPlane1[i] & 0xFFFF)
+                                     - (lPlane2[i] & 0xFFFF);
+            lPlaneSum += lDifference * lDifference;
+          }
+        else
+          for (int i = 0; i < lPlane1.length; i++)
+            lPlaneSum += Math.abs((lPlane1[i] & 0xFFFF)
+                                  - (lPlane2[i] & 0xFFFF));
+        return lPlaneSum;
+      }).sum();
+    }
+    else
+    {
+      // |v1-v2| only takes 2^16 values, powers are tabulated once:
+      final double[] lPowerTable = new double[0x10000];
+      for (int d = 0; d < lPowerTable.length; d++)
+        lPowerTable[d] = Math.pow(d, pPower);
+
+      lSum = planes(pStack1).mapToDouble(z -> {
+        final short[] lPlane1 = readPlane(pStack1, z, 0);
+        final short[] lPlane2 = readPlane(pStack2, z, 1);
+        double lPlaneSum = 0;
+        for (int i = 0; i < lPlane1.length; i++)
+          lPlaneSum += lPowerTable[Math.abs((lPlane1[i] & 0xFFFF)
+                                            - (lPlane2[i] & 0xFFFF))];
+        return lPlaneSum;
+      }).sum();
+    }
+
+    return lSum / pStack1.getVolume();
+  }
+
+  /**
+   * Computes the histogram of voxel values over a given range. Values below
+   * (above) the range are counted in the first (last) bin.
+   *
+   * @param pStack
+   *          stack
+   * @param pMinValue
+   *          lowest value of the range (inclusive)
+   * @param pMaxValue
+   *          highest value of the range (inclusive)
+   * @param pNumberOfBins
+   *          number of bins
+   * @return histogram
+   */
+  public static long[] histogram(StackInterface pStack,
+                                 int pMinValue,
+                                 int pMaxValue,
+                                 int pNumberOfBins)
+  {
+    checkUnsignedShort(pStack);
+    if (pMaxValue < pMinValue || pNumberOfBins < 1)
+      throw new IllegalArgumentException("Invalid histogram range or number of bins");
+
+    // value to bin lookup table, avoids a division per voxel:
+    final int[] lBinTable = new int[0x10000];
+    final long lRange = ((long) pMaxValue) - pMinValue + 1;
+    for (int v = 0; v < lBinTable.length; v++)
+    {
+      final long lBin = (v - pMinValue) * ((long) pNumberOfBins) / lRange;
+      lBinTable[v] = (int) Math.max(0, Math.min(pNumberOfBins - 1, lBin));
+    }
+
+    return planes(pStack).mapToObj(z -> {
+      final short[] lPlane = readPlane(pStack, z, 0);
+      final long[] lHistogram = new long[pNumberOfBins];
+      for (int i = 0; i < lPlane.length; i++)
+        lHistogram[lBinTable[lPlane[i] & 0xFFFF]]++;
+      return lHistogram;
+    }).reduce(new long[pNumberOfBins], (a, b) -> {
+      final long[] lHistogram = new long[pNumberOfBins];
+      for (int i = 0; i < pNumberOfBins; i++)
+        lHistogram[i] = a[i] + b[i];
+      return lHistogram;
+    });
+  }
+
+  /**
+   * Accumulates the element-wise maximum: each voxel of the destination stack
+   * is set to the max of itself and the corresponding voxel of the source
+   * stack.
+   *
+   * @param pDestination
+   *          destination stack, modified
+   * @param pSource
+   *          source stack
+   */
+  public static void accumulateMax(StackInterface pDestination,
+                                   StackInterface pSource)
+  {
+    checkUnsignedShort(pDestination);
+    checkSameDimensions(pDestination, pSource);
+    planes(pDestination).forEach(z -> {
+      final short[] lDestination = readPlane(pDestination, z, 0);
+      final short[] lSource = readPlane(pSource, z, 1);
+      for (int i = 0; i < lDestination.length; i++)
+        if ((lSource[i] & 0xFFFF) > (lDestination[i] & 0xFFFF))
+          lDestination[i] = lSource[i];
+      writePlane(pDestination, z, lDestination);
+    });
+  }
+
+  /**
+   * Computes the element-wise average of several stacks, rounded down.
+   *
+   * @param pDestination
+   *          destination stack, can be one of the sources
+   * @param pSources
+   *          source stacks
+   */
+  public static void average(StackInterface pDestination,
+                             StackInterface... pSources)
+  {
+    if (pSources.length == 0)
+      throw new IllegalArgumentException("At least one source stack is required");
+    checkUnsignedShort(pDestination);
+    for (StackInterface lSource : pSources)
+      checkSameDimensions(pDestination, lSource);
+
+    final int lNumberOfSources = pSources.length;
+    planes(pDestination).forEach(z -> {
+      final short[] lSource = readPlane(pSources[0], z, 0);
+      final int[] lSum = getSumBuffer(lSource.length);
+      for (int i = 0; i < lSource.length; i++)
+        lSum[i] = lSource[i] & 0xFFFF;
+      for (int s = 1; s < lNumberOfSources; s++)
+      {
+        final short[] lOtherSource = readPlane(pSources[s], z, 0);
+        for (int i = 0; i < lOtherSource.length; i++)
+          lSum[i] += lOtherSource[i] & 0xFFFF;
+      }
+      final short[] lDestination = getPlaneBuffer(1, lSum.length);
+      for (int i = 0; i < lDestination.length; i++)
+        lDestination[i] = (short) (lSum[i] / lNumberOfSources);
+      writePlane(pDestination, z, lDestination);
+    });
+  }
+
+  /**
+   * Fuses several stacks by blending them with local sharpness weights. Each
+   * plane of each source is divided into square tiles, the weight of a tile is
+   * the mean gradient energy (sum of squared forward differences along x and
+   * y) of its voxels, voxel weights are bilinearly interpolated between tile
+   * centers and normalized across sources, in the same order as the ClearCL
+   * fusion kernel. Each plane of
+   * each source is streamed twice (weights, then blending) through the same
+   * per-thread plane buffer, so memory stays bounded whatever the number of
+   * sources and the stack size. Flat tiles get a small non-zero weight, sources
+   * of equal sharpness are plainly averaged. Results are rounded to the nearest
+   * integer.
+   *
+   * @param pDestination
+   *          destination stack, can be one of the sources
+   * @param pTileSize
+   *          tile size in voxels
+   * @param pSources
+   *          source stacks
+   */
+  public static void weightedAverage(StackInterface pDestination,
+                                     int pTileSize,
+                                     StackInterface... pSources)
+  {
+    if (pSources.length == 0)
+      throw new IllegalArgumentException("At least one source stack is required");
+    if (pTileSize < 1)
+      throw new IllegalArgumentException("Tile size must be strictly positive");
+    checkUnsignedShort(pDestination);
+    for (StackInterface lSource : pSources)
+      checkSameDimensions(pDestination, lSource);
+
+    final int lWidth = toIntExact(pDestination.getWidth());
+    final int lHeight = toIntExact(pDestination.getHeight());
+    final int lTilesX = (lWidth + pTileSize - 1) / pTileSize;
+    final int lTilesY = (lHeight + pTileSize - 1) / pTileSize;
+    final int lLength = lWidth * lHeight;
+
+    final int lNumberOfSources = pSources.length;
+    final int lNumberOfTiles = lTilesX * lTilesY;
+
+    planes(pDestination).forEach(z -> {
+      final float[] lWeightedSum = getFloatBuffer(0, lLength);
+      final float[] lWeightSum = getFloatBuffer(4, lLength);
+      final float[] lTileWeights =
+                                 getFloatBuffer(1,
+                                                lNumberOfSources
+                                                   * lNumberOfTiles);
+      final float[] lTileRowsWeights = getFloatBuffer(2,
+                                                      lTilesY * lWidth);
+      final float[] lFractionsX = getFloatBuffer(3, lWidth);
+      final int[] lTileIndicesX0 = getIndexBuffer(0, lWidth);
+      final int[] lTileIndicesX1 = getIndexBuffer(1, lWidth);
+
+      // first pass: tile weights of all sources:
+      for (int s = 0; s < lNumberOfSources; s++)
+        tileGradientEnergy(readPlane(pSources[s], z, 0),
+                           lWidth,
+                           lHeight,
+                           pTileSize,
+                           lTilesX,
+                           lTileWeights,
+                           s * lNumberOfTiles);
+
+      for (int x = 0; x < lWidth; x++)
+      {
+        final float lTileX = tileCoordinate(x, pTileSize, lTilesX);
+        lTileIndicesX0[x] = (int) lTileX;
+        lTileIndicesX1[x] = Math.min(lTileIndicesX0[x] + 1, lTilesX - 1);
+        lFractionsX[x] = lTileX - lTileIndicesX0[x];
+      }
+
+      // second pass: sources are streamed again and blended, weights are
+      // first interpolated along each row of tiles, then between rows of
+      // tiles, and normalized per voxel at the end:
+      for (int s = 0; s < lNumberOfSources; s++)
+      {
+        final int lTileOffset = s * lNumberOfTiles;
+        for (int ty = 0; ty < lTilesY; ty++)
+          for (int x = 0; x < lWidth; x++)
+          {
+            final int lTileRowOffset = lTileOffset + ty * lTilesX;
+            final float lWeight0 =
+                                 lTileWeights[lTileRowOffset
+                                              + lTileIndicesX0[x]];
+            final float lWeight1 =
+                                 lTileWeights[lTileRowOffset
+                                              + lTileIndicesX1[x]];
+            lTileRowsWeights[ty * lWidth + x] =
+                                              lWeight0 + lFractionsX[x]
+                                                         * (lWeight1
+                                                            - lWeight0);
+          }
+
+        final short[] lPlane = readPlane(pSources[s], z, 0);
+        for (int y = 0; y < lHeight; y++)
+        {
+          final float lTileY = tileCoordinate(y, pTileSize, lTilesY);
+          final int lTileY0 = (int) lTileY;
+          final int lRowOffset0 = lTileY0 * lWidth;
+          final int lRowOffset1 = Math.min(lTileY0 + 1, lTilesY - 1)
+                                  * lWidth;
+          final float lFractionY = lTileY - lTileY0;
+          final int lRowOffset = y * lWidth;
+          for (int x = 0; x < lWidth; x++)
+          {
+            final float lWeight0 = lTileRowsWeights[lRowOffset0 + x];
+            final float lWeight =
+                                lWeight0 + lFractionY
+                                           * (lTileRowsWeights[lRowOffset1
+                                                               + x]
+                                              - lWeight0);
+            final float lValue = lWeight * (lPlane[lRowOffset + x]
+                                            & 0xFFFF);
+            if (s == 0)
+            {
+              lWeightedSum[lRowOffset + x] = lValue;
+              lWeightSum[lRowOffset + x] = lWeight;
+            }
+            else
+            {
+              lWeightedSum[lRowOffset + x] += lValue;
+              lWeightSum[lRowOffset + x] += lWeight;
+            }
+          }
+        }
+      }
+
+      final short[] lDestination = getPlaneBuffer(1, lLength);
+      for (int i = 0; i < lLength; i++)
+        lDestination[i] =
+                        (short) Math.min(0xFFFF,
+                                         (int) (lWeightedSum[i]
+                                                / lWeightSum[i]
+                                                + 0.5f));
+      writePlane(pDestination, z, lDestination);
+    });
+  }
+
+  /**
+   * Clamps all voxel values to a given range
+   *
+   * @param pStack
+   *          stack, modified
+   * @param pMinValue
+   *          min value
+   * @param pMaxValue
+   *          max value
+   */
+  public static void clamp(StackInterface pStack,
+                           int pMinValue,
+                           int pMaxValue)
+  {
+    checkUnsignedShort(pStack);
+    planes(pStack).forEach(z -> {
+      final short[] lPlane = readPlane(pStack, z, 0);
+      for (int i = 0; i < lPlane.length; i++)
+        lPlane[i] =
+                  (short) Math.max(pMinValue,
+                                   Math.min(pMaxValue, lPlane[i] & 0xFFFF));
+      writePlane(pStack, z, lPlane);
+    });
+  }
+
+  /**
+   * Applies an affine transform v := v*scale + offset to all voxel values, the
+   * results are rounded and saturated to the 16 bit range.
+   *
+   * @param pStack
+   *          stack, modified
+   * @param pScale
+   *          scale
+   * @param pOffset
+   *          offset
+   */
+  public static void scale(StackInterface pStack,
+                           double pScale,
+                           double pOffset)
+  {
+    checkUnsignedShort(pStack);
+    planes(pStack).forEach(z -> {
+      final short[] lPlane = readPlane(pStack, z, 0);
+      for (int i = 0; i < lPlane.length; i++)
+      {
+        final long lValue = Math.round((lPlane[i] & 0xFFFF) * pScale
+                                       + pOffset);
+        lPlane[i] = (short) Math.max(0, Math.min(0xFFFF, lValue));
+      }
+      writePlane(pStack, z, lPlane);
+    });
+  }
+
+  private static IntStream planes(StackInterface pStack)
+  {
+    return IntStream.range(0, toIntExact(pStack.getDepth())).parallel();
+  }
+
+  private static short[] readPlane(StackInterface pStack,
+                                   int pPlaneIndex,
+                                   int pBufferIndex)
+  {
+    final short[] lPlane =
+                         getPlaneBuffer(pBufferIndex,
+                                        toIntExact(pStack.getWidth()
+                                                   * pStack.getHeight()));
+    pStack.getContiguousMemory(pPlaneIndex).copyTo(lPlane);
+    return lPlane;
+  }
+
+  private static short[] getPlaneBuffer(int pBufferIndex, int pLength)
+  {
+    final short[][] lPlaneBuffers = cPlaneBuffers.get();
+    if (lPlaneBuffers[pBufferIndex].length != pLength)
+      lPlaneBuffers[pBufferIndex] = new short[pLength];
+    return lPlaneBuffers[pBufferIndex];
+  }
+
+  private static int[] getSumBuffer(int pLength)
+  {
+    int[] lSumBuffer = cSumBuffers.get();
+    if (lSumBuffer.length != pLength)
+    {
+      lSumBuffer = new int[pLength];
+      cSumBuffers.set(lSumBuffer);
+    }
+    return lSumBuffer;
+  }
+
+  private static float[] getFloatBuffer(int pBufferIndex, int pLength)
+  {
+    final float[][] lFloatBuffers = cFloatBuffers.get();
+    if (lFloatBuffers[pBufferIndex].length != pLength)
+      lFloatBuffers[pBufferIndex] = new float[pLength];
+    return lFloatBuffers[pBufferIndex];
+  }
+
+  private static int[] getIndexBuffer(int pBufferIndex, int pLength)
+  {
+    final int[][] lIndexBuffers = cIndexBuffers.get();
+    if (lIndexBuffers[pBufferIndex].length != pLength)
+      lIndexBuffers[pBufferIndex] = new int[pLength];
+    return lIndexBuffers[pBufferIndex];
+  }
+
+  // position of a voxel in tile units relative to the first tile center,
+  // clamped to the centers of the first and last tiles:
+  private static float tileCoordinate(int pVoxel,
+                                      int pTileSize,
+                                      int pNumberOfTiles)
+  {
+    final float lCoordinate = (pVoxel + 0.5f) / pTileSize - 0.5f;
+    return Math.max(0, Math.min(pNumberOfTiles - 1, lCoordinate));
+  }
+
+  private static void tileGradientEnergy(short[] pPlane,
+                                         int pWidth,
+                                         int pHeight,
+                                         int pTileSize,
+                                         int pTilesX,
+                                         float[] pTileWeights,
+                                         int pTileWeightsOffset)
+  {
+    final int lTilesY = (pHeight + pTileSize - 1) / pTileSize;
+    Arrays.fill(pTileWeights,
+                pTileWeightsOffset,
+                pTileWeightsOffset + pTilesX * lTilesY,
+                0);
+    for (int y = 0; y < pHeight; y++)
+    {
+      final int lRowOffset = y * pWidth;
+      final int lNextRowOffset = y + 1 < pHeight ? lRowOffset + pWidth
+                                                 : lRowOffset;
+      final int lTileRowOffset = pTileWeightsOffset
+                                 + (y / pTileSize) * pTilesX;
+      for (int tx = 0; tx < pTilesX; tx++)
+      {
+        // the last voxel of a row has no right neighbour:
+        final boolean lLastTile = (tx + 1) * pTileSize >= pWidth;
+        final int lEndX = lLastTile ? pWidth - 1 : (tx + 1) * pTileSize;
+        long lEnergy = 0;
+        for (int x = tx * pTileSize; x < lEndX; x++)
+        {
+          final int lValue = pPlane[lRowOffset + x] & 0xFFFF;
+          final long lDx = (pPlane[lRowOffset + x + 1] & 0xFFFF)
+                           - lValue;
+          final long lDy = (pPlane[lNextRowOffset + x] & 0xFFFF)
+                           - lValue;
+          lEnergy += lDx * lDx + lDy * lDy;
+        }
+        if (lLastTile)
+        {
+          final long lDy = (pPlane[lNextRowOffset + lEndX] & 0xFFFF)
+                           - (pPlane[lRowOffset + lEndX] & 0xFFFF);
+          lEnergy += lDy * lDy;
+        }
+        pTileWeights[lTileRowOffset + tx] += lEnergy;
+      }
+    }
+
+    for (int ty = 0; ty < lTilesY; ty++)
+      for (int tx = 0; tx < pTilesX; tx++)
+      {
+        final long lTileVolume =
+                               ((long) Math.min(pTileSize,
+                                                pWidth - tx * pTileSize))
+                                 * Math.min(pTileSize,
+                                            pHeight - ty * pTileSize);
+        // flat tiles keep a small weight:
+        final int lTileIndex = pTileWeightsOffset + ty * pTilesX + tx;
+        pTileWeights[lTileIndex] = pTileWeights[lTileIndex] / lTileVolume
+                                   + 1;
+      }
+  }
+
+  private static void writePlane(StackInterface pStack,
+                                 int pPlaneIndex,
+                                 short[] pPlane)
+  {
+    pStack.getContiguousMemory(pPlaneIndex).copyFrom(pPlane);
+  }
+
+  private static void checkUnsignedShort(StackInterface pStack)
+  {
+    if (pStack.getBytesPerVoxel() != 2)
+      throw new IllegalArgumentException("Stack kernels require 16 bit voxels, got "
+                                         + pStack.getBytesPerVoxel()
+                                         + " bytes per voxel");
+  }
+
+  private static void checkSameDimensions(StackInterface pStack1,
+                                          StackInterface pStack2)
+  {
+    if (pStack1.getWidth() != pStack2.getWidth()
+        || pStack1.getHeight() != pStack2.getHeight()
+        || pStack1.getDepth() != pStack2.getDepth()
+        || pStack2.getBytesPerVoxel() != pStack1.getBytesPerVoxel())
+      throw new IllegalArgumentException("Stacks must have the same dimensions and voxel type");
+  }
+
+}
@@ -0,0 +1,156 @@
+package clearcontrol.stack.kernels.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import clearcontrol.stack.OffHeapPlanarStack;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.kernels.StackKernels;
+import coremem.buffers.ContiguousBuffer;
+
+import org.junit.Test;
+
+/**
+ * Stack kernels benchmark: compares the kernels with per-voxel loops through a
+ * contiguous buffer (as previously used for stack fusion and stack
+ * differences).
+ *
+ * @author royer
+ */
+public class StackKernelsBenchmarkTests
+{
+  private static final int cWidth = 1024;
+  private static final int cHeight = 1024;
+  private static final int cDepth = 64;
+  private static final int cRepeats = 3;
+
+  /**
+   * Benchmark
+   */
+  @Test
+  public void benchmark()
+  {
+    final OffHeapPlanarStack lStack1 = createRandomStack(1);
+    final OffHeapPlanarStack lStack2 = createRandomStack(2);
+    final StackInterface lMaxStack1 = lStack1.duplicate();
+    final StackInterface lMaxStack2 = lStack1.duplicate();
+
+    // warmup:
+    perVoxelAverageDifference(lStack1, lStack2, 2);
+    StackKernels.averageDifference(lStack1, lStack2, 2);
+
+    long lStart = System.nanoTime();
+    double lPerVoxel = 0;
+    for (int r = 0; r < cRepeats; r++)
+      lPerVoxel = perVoxelAverageDifference(lStack1, lStack2, 2);
+    report("average difference, per voxel", lStart);
+
+    lStart = System.nanoTime();
+    double lKernel = 0;
+    for (int r = 0; r < cRepeats; r++)
+      lKernel = StackKernels.averageDifference(lStack1, lStack2, 2);
+    report("average difference, kernel", lStart);
+    assertEquals(lPerVoxel, lKernel, 1e-6 * lPerVoxel);
+
+    lStart = System.nanoTime();
+    for (int r = 0; r < cRepeats; r++)
+      perVoxelMax(lMaxStack1, lStack2);
+    report("max, per voxel", lStart);
+
+    lStart = System.nanoTime();
+    for (int r = 0; r < cRepeats; r++)
+      StackKernels.accumulateMax(lMaxStack2, lStack2);
+    report("max, kernel", lStart);
+    assertEquals(StackKernels.sum(lMaxStack1),
+                 StackKernels.sum(lMaxStack2));
+
+    lStart = System.nanoTime();
+    for (int r = 0; r < cRepeats; r++)
+      StackKernels.histogram(lStack1, 0, 0xFFFF, 256);
+    report("histogram, kernel", lStart);
+
+    final StackInterface lFusedStack = lStack1.duplicate();
+    lStart = System.nanoTime();
+    for (int r = 0; r < cRepeats; r++)
+      StackKernels.average(lFusedStack, lStack1, lStack2);
+    report("average of two stacks, kernel", lStart);
+
+    lStart = System.nanoTime();
+    for (int r = 0; r < cRepeats; r++)
+      StackKernels.weightedAverage(lFusedStack, 32, lStack1, lStack2);
+    report("weighted average of two stacks, kernel", lStart);
+    lFusedStack.free();
+
+    lStack1.free();
+    lStack2.free();
+    lMaxStack1.free();
+    lMaxStack2.free();
+  }
+
+  private static double perVoxelAverageDifference(StackInterface pStack1,
+                                                  StackInterface pStack2,
+                                                  int pPower)
+  {
+    final ContiguousBuffer lBuffer1 =
+                                    ContiguousBuffer.wrap(pStack1.getContiguousMemory());
+    final ContiguousBuffer lBuffer2 =
+                                    ContiguousBuffer.wrap(pStack2.getContiguousMemory());
+
+    double lDifference = 0;
+    while (lBuffer1.hasRemainingByte() && lBuffer2.hasRemainingByte())
+    {
+      final char u = lBuffer1.readChar();
+      final char v = lBuffer2.readChar();
+      lDifference += Math.pow(1.0 * Math.abs(u - v), pPower);
+    }
+    return lDifference / (lBuffer1.getSizeInBytes() / 2);
+  }
+
+  private static void perVoxelMax(StackInterface pMaxStack,
+                                  StackInterface pOtherStack)
+  {
+    final ContiguousBuffer lMaxBuffer =
+                                      ContiguousBuffer.wrap(pMaxStack.getContiguousMemory());
+    final ContiguousBuffer lOtherBuffer =
+                                        ContiguousBuffer.wrap(pOtherStack.getContiguousMemory());
+
+    while (lMaxBuffer.hasRemainingByte()
+           && lOtherBuffer.hasRemainingByte())
+    {
+      final char u = lMaxBuffer.readChar();
+      final char v = lOtherBuffer.readChar();
+      lMaxBuffer.skipChars(-1);
+      lMaxBuffer.writeChar((char) Math.max(u, v));
+    }
+  }
+
+  private static OffHeapPlanarStack createRandomStack(long pSeed)
+  {
+    final OffHeapPlanarStack lStack =
+                                    OffHeapPlanarStack.createStack(cWidth,
+                                                                   cHeight,
+                                                                   cDepth);
+    final Random lRandom = new Random(pSeed);
+    final short[] lPlane = new short[cWidth * cHeight];
+    for (int z = 0; z < cDepth; z++)
+    {
+      for (int i = 0; i < lPlane.length; i++)
+        lPlane[i] = (short) lRandom.nextInt(4096);
+      lStack.getContiguousMemory(z).copyFrom(lPlane);
+    }
+    return lStack;
+  }
+
+  private static void report(String pName, long pStartTimeInNs)
+  {
+    final double lElapsedTimeInSeconds = (System.nanoTime()
+                                          - pStartTimeInNs)
+                                         * 1e-9;
+    final double lVoxels = ((double) cWidth) * cHeight * cDepth * cRepeats;
+    System.out.format("%s: %.1f Mvoxels/s \n",
+                      pName,
+                      lVoxels / lElapsedTimeInSeconds * 1e-6);
+  }
+
+}
@@ -0,0 +1,206 @@
+package clearcontrol.stack.kernels.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import clearcontrol.stack.OffHeapPlanarStack;
+import clearcontrol.stack.kernels.StackKernels;
+
+import org.junit.Test;
+
+/**
+ * Stack kernels tests, results are compared to straightforward per-voxel
+ * computations.
+ *
+ * @author royer
+ */
+public class StackKernelsTests
+{
+  private static final int cWidth = 67;
+  private static final int cHeight = 31;
+  private static final int cDepth = 7;
+
+  /**
+   * Tests reductions
+   */
+  @Test
+  public void testReductions()
+  {
+    final short[][] lPlanes1 = randomPlanes(1);
+    final short[][] lPlanes2 = randomPlanes(2);
+    final OffHeapPlanarStack lStack1 = createStack(lPlanes1);
+    final OffHeapPlanarStack lStack2 = createStack(lPlanes2);
+
+    long lSum = 0;
+    int lMin = Integer.MAX_VALUE, lMax = 0;
+    double lL1 = 0, lL2 = 0, lL3 = 0;
+    final long[] lHistogram = new long[16];
+    for (int z = 0; z < cDepth; z++)
+      for (int i = 0; i < cWidth * cHeight; i++)
+      {
+        final int u = lPlanes1[z][i] & 0xFFFF;
+        final int v = lPlanes2[z][i] & 0xFFFF;
+        lSum += u;
+        lMin = Math.min(lMin, u);
+        lMax = Math.max(lMax, u);
+        lL1 += Math.abs(u - v);
+        lL2 += Math.pow(u - v, 2);
+        lL3 += Math.pow(Math.abs(u - v), 3);
+        lHistogram[Math.min(15, Math.max(0, (u - 1000) / 1000))]++;
+      }
+    final long lVolume = ((long) cWidth) * cHeight * cDepth;
+
+    assertEquals(lSum, StackKernels.sum(lStack1));
+    assertEquals(((double) lSum) / lVolume,
+                 StackKernels.mean(lStack1),
+                 1e-9);
+    assertEquals(lMin, StackKernels.min(lStack1));
+    assertEquals(lMax, StackKernels.max(lStack1));
+    assertEquals(lL1 / lVolume,
+                 StackKernels.averageDifference(lStack1, lStack2, 1),
+                 1e-9);
+    assertEquals(lL2 / lVolume,
+                 StackKernels.averageDifference(lStack1, lStack2, 2),
+                 1e-6);
+    assertEquals(lL3 / lVolume,
+                 StackKernels.averageDifference(lStack1, lStack2, 3),
+                 1e-6 * lL3 / lVolume);
+    assertArrayEquals(lHistogram,
+                      StackKernels.histogram(lStack1, 1000, 16999, 16));
+
+    lStack1.free();
+    lStack2.free();
+  }
+
+  /**
+   * Tests element-wise operations
+   */
+  @Test
+  public void testElementWise()
+  {
+    final short[][] lPlanes1 = randomPlanes(3);
+    final short[][] lPlanes2 = randomPlanes(4);
+
+    final OffHeapPlanarStack lStack = createStack(lPlanes1);
+    final OffHeapPlanarStack lStack2 = createStack(lPlanes2);
+    StackKernels.accumulateMax(lStack, lStack2);
+    final short[] lPlane = new short[cWidth * cHeight];
+    for (int z = 0; z < cDepth; z++)
+    {
+      lStack.getContiguousMemory(z).copyTo(lPlane);
+      for (int i = 0; i < lPlane.length; i++)
+        assertEquals(Math.max(lPlanes1[z][i] & 0xFFFF,
+                              lPlanes2[z][i] & 0xFFFF),
+                     lPlane[i] & 0xFFFF);
+    }
+
+    final short[][] lPlanes3 = randomPlanes(5);
+    final OffHeapPlanarStack lAverageStack = createStack(lPlanes1);
+    final OffHeapPlanarStack lStack3 = createStack(lPlanes3);
+    StackKernels.average(lAverageStack,
+                         lAverageStack,
+                         lStack2,
+                         lStack3);
+    for (int z = 0; z < cDepth; z++)
+    {
+      lAverageStack.getContiguousMemory(z).copyTo(lPlane);
+      for (int i = 0; i < lPlane.length; i++)
+        assertEquals(((lPlanes1[z][i] & 0xFFFF)
+                      + (lPlanes2[z][i] & 0xFFFF)
+                      + (lPlanes3[z][i] & 0xFFFF)) / 3,
+                     lPlane[i] & 0xFFFF);
+    }
+    lAverageStack.free();
+    lStack2.free();
+    lStack3.free();
+
+    StackKernels.clamp(lStack, 2000, 40000);
+    assertEquals(2000, StackKernels.min(lStack));
+    assertEquals(40000, StackKernels.max(lStack));
+
+    StackKernels.scale(lStack, 2, -1000);
+    assertEquals(3000, StackKernels.min(lStack));
+    assertEquals(0xFFFF, StackKernels.max(lStack));
+
+    lStack.free();
+  }
+
+  /**
+   * Tests sharpness-weighted averaging
+   */
+  @Test
+  public void testWeightedAverage()
+  {
+    final short[][] lPlanes = randomPlanes(6);
+    final short[][] lFlatPlanes = new short[cDepth][cWidth * cHeight];
+    for (int z = 0; z < cDepth; z++)
+      Arrays.fill(lFlatPlanes[z], (short) 1000);
+
+    // identical sources are left unchanged:
+    final OffHeapPlanarStack lStack = createStack(lPlanes);
+    final OffHeapPlanarStack lStackCopy = createStack(lPlanes);
+    final OffHeapPlanarStack lFlatStack = createStack(lFlatPlanes);
+    final OffHeapPlanarStack lFusedStack = createStack(lFlatPlanes);
+    StackKernels.weightedAverage(lFusedStack, 16, lStack, lStackCopy);
+    final short[] lPlane = new short[cWidth * cHeight];
+    for (int z = 0; z < cDepth; z++)
+    {
+      lFusedStack.getContiguousMemory(z).copyTo(lPlane);
+      assertArrayEquals(lPlanes[z], lPlane);
+    }
+
+    // sharp content wins over flat content:
+    StackKernels.weightedAverage(lFusedStack, 16, lFlatStack, lStack);
+    for (int z = 0; z < cDepth; z++)
+    {
+      lFusedStack.getContiguousMemory(z).copyTo(lPlane);
+      for (int i = 0; i < lPlane.length; i++)
+        assertEquals(lPlanes[z][i] & 0xFFFF, lPlane[i] & 0xFFFF, 1);
+    }
+
+    // flat sources are plainly averaged:
+    final short[][] lOtherFlatPlanes = new short[cDepth][cWidth
+                                                         * cHeight];
+    for (int z = 0; z < cDepth; z++)
+      Arrays.fill(lOtherFlatPlanes[z], (short) 3000);
+    final OffHeapPlanarStack lOtherFlatStack =
+                                             createStack(lOtherFlatPlanes);
+    StackKernels.weightedAverage(lFusedStack,
+                                 16,
+                                 lFlatStack,
+                                 lOtherFlatStack);
+    assertEquals(2000, StackKernels.min(lFusedStack));
+    assertEquals(2000, StackKernels.max(lFusedStack));
+
+    lStack.free();
+    lStackCopy.free();
+    lFlatStack.free();
+    lOtherFlatStack.free();
+    lFusedStack.free();
+  }
+
+  private static short[][] randomPlanes(long pSeed)
+  {
+    final Random lRandom = new Random(pSeed);
+    final short[][] lPlanes = new short[cDepth][cWidth * cHeight];
+    for (int z = 0; z < cDepth; z++)
+      for (int i = 0; i < cWidth * cHeight; i++)
+        lPlanes[z][i] = (short) lRandom.nextInt(0x10000);
+    return lPlanes;
+  }
+
+  private static OffHeapPlanarStack createStack(short[][] pPlanes)
+  {
+    final OffHeapPlanarStack lStack =
+                                    OffHeapPlanarStack.createStack(cWidth,
+                                                                   cHeight,
+                                                                   cDepth);
+    for (int z = 0; z < cDepth; z++)
+      lStack.getContiguousMemory(z).copyFrom(pPlanes[z]);
+    return lStack;
+  }
+
+}
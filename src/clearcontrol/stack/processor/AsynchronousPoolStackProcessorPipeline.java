@@ -2,6 +2,7 @@ package clearcontrol.stack.processor;
 
 import clearcontrol.core.concurrent.asyncprocs.AsynchronousProcessorBase;
 import clearcontrol.core.concurrent.asyncprocs.AsynchronousProcessorPool;
+import clearcontrol.core.concurrent.asyncprocs.AsynchronousProcessorPool.Ordering;
 import clearcontrol.core.concurrent.asyncprocs.ProcessorInterface;
 import clearcontrol.core.device.openclose.OpenCloseDeviceInterface;
 import clearcontrol.microscope.stacks.StackRecyclerManager;
@@ -9,7 +10,8 @@ import clearcontrol.stack.StackInterface;
 
 /**
  * Asynchronous thread pool stack processor pipeline. A stack processing
- * pipeline that uses a pool of threads to distribute the work load.
+ * pipeline that uses a pool of threads to distribute the work load. Processed
+ * stacks are emitted strictly in the order in which stacks were received.
  *
  * @author royer
  */
@@ -58,10 +60,7 @@ public class AsynchronousPoolStackProcessorPipeline extends
       {
         try
         {
-          StackInterface lProcessedStack = doProcess(pInput);
-          if (lProcessedStack != null)
-            getOutputVariable().set(lProcessedStack);
-          return lProcessedStack;
+          return doProcess(pInput);
         }
         catch (Throwable e)
         {
@@ -77,10 +76,19 @@ public class AsynchronousPoolStackProcessorPipeline extends
                                                                                       pMaxQueueSize);
 
     mAsynchStackProcessorPool =
-                              new AsynchronousProcessorPool<>(pName,
-                                                              pMaxQueueSize,
-                                                              pThreadPoolSize,
-                                                              lProcessor);
+                              new AsynchronousProcessorPool<StackInterface, StackInterface>(pName,
+                                                                                            pMaxQueueSize,
+                                                                                            pThreadPoolSize,
+                                                                                            Ordering.Ordered,
+                                                                                            lProcessor)
+                              {
+                                @Override
+                                protected void send(StackInterface pProcessedStack)
+                                {
+                                  // called in input order by the pool:
+                                  getOutputVariable().set(pProcessedStack);
+                                }
+                              };
 
   }
 
@@ -0,0 +1,441 @@
+package clearcontrol.stack.processor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import clearcontrol.core.concurrent.asyncprocs.AsynchronousProcessorBase;
+import clearcontrol.core.concurrent.asyncprocs.AsynchronousProcessorInterface;
+import clearcontrol.core.concurrent.asyncprocs.AsynchronousProcessorPool;
+import clearcontrol.core.concurrent.asyncprocs.AsynchronousProcessorPool.Ordering;
+import clearcontrol.core.concurrent.asyncprocs.ProcessorInterface;
+import clearcontrol.core.device.openclose.OpenCloseDeviceInterface;
+import clearcontrol.core.log.LoggingInterface;
+import clearcontrol.core.variable.Variable;
+import clearcontrol.microscope.stacks.StackRecyclerManager;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+import coremem.recycling.RecyclerInterface;
+
+/**
+ * Staged stack processor pipeline. Each stack processor runs in its own stage,
+ * with its own bounded input queue and worker thread(s), so that stage k can
+ * work on stack n while stage k+1 works on stack n-1. Each stage uses the
+ * recycler that was given when its processor was added. Stacks leave the
+ * pipeline in the order in which they entered it, also for stages that have
+ * several workers.
+ *
+ * Each stage exposes variables holding its queue depth, average processing
+ * latency, throughput and number of processed stacks.
+ *
+ * @author royer
+ */
+public class StagedStackProcessorPipeline extends
+                                          StackProcessorPipelineBase
+                                          implements
+                                          StackProcessingPipelineInterface,
+                                          OpenCloseDeviceInterface,
+                                          LoggingInterface
+{
+  // smoothing factor for the latency and throughput moving averages:
+  private static final double cSmoothing = 0.1;
+
+  private final String mName;
+  private final int mMaxQueueSize;
+  private final int mNumberOfWorkersPerStage;
+
+  private final Object mLock = new Object();
+  private final CopyOnWriteArrayList<Stage> mStageList =
+                                                       new CopyOnWriteArrayList<>();
+  private volatile boolean mOpen;
+
+  /**
+   * Pipeline stage, runs one stack processor with its recycler.
+   */
+  public class Stage implements ProcessorInterface<StackInterface, StackInterface>
+  {
+    private final StackProcessorInterface mStackProcessor;
+    private final RecyclerInterface<StackInterface, StackRequest> mRecycler;
+    private final AsynchronousProcessorInterface<StackInterface, StackInterface> mRunner;
+    private volatile Stage mNextStage;
+
+    private final Variable<Integer> mQueueDepthVariable;
+    private final Variable<Double> mLatencyVariable;
+    private final Variable<Double> mThroughputVariable;
+    private final Variable<Long> mProcessedCountVariable;
+
+    private double mAverageLatencyInNs = Double.NaN;
+    private double mAverageIntervalInNs = Double.NaN;
+    private long mLastCompletionTimeInNs = Long.MIN_VALUE;
+    private long mProcessedCount;
+
+    private Stage(String pName,
+                  StackProcessorInterface pStackProcessor,
+                  RecyclerInterface<StackInterface, StackRequest> pRecycler)
+    {
+      mStackProcessor = pStackProcessor;
+      mRecycler = pRecycler;
+
+      mQueueDepthVariable = new Variable<Integer>(pName + "QueueDepth",
+                                                  0);
+      mLatencyVariable = new Variable<Double>(pName + "LatencyInMs",
+                                              0.0);
+      mThroughputVariable =
+                          new Variable<Double>(pName + "ThroughputInStacksPerSecond",
+                                               0.0);
+      mProcessedCountVariable =
+                              new Variable<Long>(pName + "ProcessedCount",
+                                                 0L);
+
+      if (mNumberOfWorkersPerStage <= 1)
+        mRunner =
+                new AsynchronousProcessorBase<StackInterface, StackInterface>(pName,
+                                                                              mMaxQueueSize)
+                {
+                  @Override
+                  public StackInterface process(StackInterface pInput)
+                  {
+                    return Stage.this.process(pInput);
+                  }
+
+                  @Override
+                  protected void send(StackInterface pOutput)
+                  {
+                    forward(pOutput);
+                  }
+                };
+      else
+        mRunner =
+                new AsynchronousProcessorPool<StackInterface, StackInterface>(pName,
+                                                                              mMaxQueueSize,
+                                                                              mNumberOfWorkersPerStage,
+                                                                              Ordering.Ordered,
+                                                                              this)
+                {
+                  @Override
+                  protected void send(StackInterface pOutput)
+                  {
+                    forward(pOutput);
+                  }
+                };
+    }
+
+    @Override
+    public StackInterface process(StackInterface pInput)
+    {
+      mQueueDepthVariable.set(mRunner.getInputQueueLength());
+
+      if (!mStackProcessor.isActive())
+        return pInput;
+
+      final long lStartTime = System.nanoTime();
+      StackInterface lProcessedStack;
+      try
+      {
+        lProcessedStack = mStackProcessor.process(pInput, mRecycler);
+      }
+      catch (Throwable e)
+      {
+        severe("Stack processor %s failed: %s", mStackProcessor, e);
+        e.printStackTrace();
+        lProcessedStack = null;
+      }
+      final long lStopTime = System.nanoTime();
+
+      updateStatistics(lStartTime, lStopTime);
+      return lProcessedStack;
+    }
+
+    private void updateStatistics(long pStartTime, long pStopTime)
+    {
+      final double lLatency;
+      final double lThroughput;
+      final long lProcessedCount;
+      synchronized (this)
+      {
+        lProcessedCount = ++mProcessedCount;
+        mAverageLatencyInNs = average(mAverageLatencyInNs,
+                                      pStopTime - pStartTime);
+        if (mLastCompletionTimeInNs != Long.MIN_VALUE)
+          mAverageIntervalInNs =
+                               average(mAverageIntervalInNs,
+                                       pStopTime - mLastCompletionTimeInNs);
+        mLastCompletionTimeInNs = pStopTime;
+        lLatency = mAverageLatencyInNs;
+        lThroughput = Double.isNaN(mAverageIntervalInNs) ? 0
+                                                         : 1e9 / Math.max(1,
+                                                                          mAverageIntervalInNs);
+      }
+      mLatencyVariable.set(lLatency * 1e-6);
+      mThroughputVariable.set(lThroughput);
+      mProcessedCountVariable.set(lProcessedCount);
+    }
+
+    private double average(double pAverage, double pValue)
+    {
+      if (Double.isNaN(pAverage))
+        return pValue;
+      return (1 - cSmoothing) * pAverage + cSmoothing * pValue;
+    }
+
+    private void forward(StackInterface pStack)
+    {
+      final Stage lNextStage = mNextStage;
+      if (lNextStage != null)
+        lNextStage.pass(pStack);
+      else
+        getOutputVariable().set(pStack);
+    }
+
+    private void pass(StackInterface pStack)
+    {
+      mRunner.passOrWait(pStack);
+      mQueueDepthVariable.set(mRunner.getInputQueueLength());
+    }
+
+    /**
+     * Returns this stage's stack processor
+     *
+     * @return stack processor
+     */
+    public StackProcessorInterface getStackProcessor()
+    {
+      return mStackProcessor;
+    }
+
+    /**
+     * Returns the variable holding the number of stacks waiting in this
+     * stage's input queue
+     *
+     * @return queue depth variable
+     */
+    public Variable<Integer> getQueueDepthVariable()
+    {
+      return mQueueDepthVariable;
+    }
+
+    /**
+     * Returns the variable holding the average processing time of one stack
+     * in milliseconds
+     *
+     * @return latency variable
+     */
+    public Variable<Double> getLatencyVariable()
+    {
+      return mLatencyVariable;
+    }
+
+    /**
+     * Returns the variable holding the average number of stacks processed per
+     * second
+     *
+     * @return throughput variable
+     */
+    public Variable<Double> getThroughputVariable()
+    {
+      return mThroughputVariable;
+    }
+
+    /**
+     * Returns the variable holding the number of stacks processed by this
+     * stage (inactive processors do not count)
+     *
+     * @return processed count variable
+     */
+    public Variable<Long> getProcessedCountVariable()
+    {
+      return mProcessedCountVariable;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+    }
+  }
+
+  /**
+   * Instanciates a staged stack processor pipeline.
+   *
+   * @param pName
+   *          pipeline name
+   * @param pStackRecyclerManager
+   *          stack recycler manager
+   * @param pMaxQueueSize
+   *          max queue size of each stage
+   * @param pNumberOfWorkersPerStage
+   *          number of worker threads per stage
+   */
+  public StagedStackProcessorPipeline(String pName,
+                                      StackRecyclerManager pStackRecyclerManager,
+                                      int pMaxQueueSize,
+                                      int pNumberOfWorkersPerStage)
+  {
+    super(pStackRecyclerManager);
+    mName = pName;
+    mMaxQueueSize = pMaxQueueSize;
+    mNumberOfWorkersPerStage = Math.max(1, pNumberOfWorkersPerStage);
+
+    getInputVariable().addSetListener((o, n) -> {
+      if (n == null)
+        return;
+      final Stage lFirstStage =
+                              mStageList.isEmpty() ? null
+                                                   : mStageList.get(0);
+      if (lFirstStage != null && mOpen)
+        lFirstStage.pass(n);
+      else
+        getOutputVariable().set(n);
+    });
+  }
+
+  @Override
+  public void addStackProcessor(StackProcessorInterface pStackProcessor,
+                                String pRecyclerName,
+                                int pMaximumNumberOfLiveObjects,
+                                int pMaximumNumberOfAvailableObjects)
+  {
+    synchronized (mLock)
+    {
+      super.addStackProcessor(pStackProcessor,
+                              pRecyclerName,
+                              pMaximumNumberOfLiveObjects,
+                              pMaximumNumberOfAvailableObjects);
+      rebuildStages();
+    }
+  }
+
+  @Override
+  public void removeStackProcessor(StackProcessorInterface pStackProcessor)
+  {
+    synchronized (mLock)
+    {
+      super.removeStackProcessor(pStackProcessor);
+      rebuildStages();
+    }
+  }
+
+  /**
+   * Returns the number of stages
+   *
+   * @return number of stages
+   */
+  public int getNumberOfStages()
+  {
+    return mStageList.size();
+  }
+
+  /**
+   * Returns the stage at a given index (processing order)
+   *
+   * @param pStageIndex
+   *          stage index
+   * @return stage
+   */
+  public Stage getStage(int pStageIndex)
+  {
+    return mStageList.get(pStageIndex);
+  }
+
+  /**
+   * Waits for all stages to finish processing the stacks that they have
+   * received.
+   *
+   * @param pTimeOut
+   *          time out
+   * @param pTimeUnit
+   *          time unit
+   * @return true -> success (= no timeout)
+   */
+  public boolean waitToFinish(long pTimeOut, TimeUnit pTimeUnit)
+  {
+    boolean lNoTimeOut = true;
+    // stages are drained in order, so that no stage receives stacks after it
+    // has been waited for:
+    for (Stage lStage : mStageList)
+      lNoTimeOut &= lStage.mRunner.waitToFinish(pTimeOut, pTimeUnit);
+    return lNoTimeOut;
+  }
+
+  private void rebuildStages()
+  {
+    final ArrayList<Stage> lOldStageList = new ArrayList<>(mStageList);
+    final ArrayList<Stage> lNewStageList = new ArrayList<>();
+    for (int i = 0; i < mProcessorList.size(); i++)
+      lNewStageList.add(new Stage(mName + "Stage" + i,
+                                  mProcessorList.get(i),
+                                  mRecyclerList.get(i)));
+    for (int i = 0; i < lNewStageList.size() - 1; i++)
+      lNewStageList.get(i).mNextStage = lNewStageList.get(i + 1);
+
+    if (mOpen)
+    {
+      for (Stage lStage : lNewStageList)
+        lStage.mRunner.start();
+      // stacks entering from now on go through the new stages, those already
+      // in the old stages finish there:
+      mStageList.clear();
+      mStageList.addAll(lNewStageList);
+      stopStages(lOldStageList, true);
+    }
+    else
+    {
+      mStageList.clear();
+      mStageList.addAll(lNewStageList);
+      for (Stage lStage : lOldStageList)
+        shutdownPool(lStage);
+    }
+  }
+
+  // Stages that are discarded also shut down their thread pool, stages that
+  // are only closed keep it so that they can be opened again:
+  private boolean stopStages(ArrayList<Stage> pStageList,
+                             boolean pDiscard)
+  {
+    boolean lSuccess = true;
+    for (Stage lStage : pStageList)
+    {
+      if (!lStage.mRunner.waitToFinish(1, TimeUnit.MINUTES))
+        warning("Stage %s did not finish in time",
+                lStage.getStackProcessor());
+      lSuccess &= lStage.mRunner.stop();
+      if (pDiscard)
+        shutdownPool(lStage);
+    }
+    return lSuccess;
+  }
+
+  private static void shutdownPool(Stage pStage)
+  {
+    if (pStage.mRunner instanceof AsynchronousProcessorPool)
+      ((AsynchronousProcessorPool<?, ?>) pStage.mRunner).shutdown();
+  }
+
+  @Override
+  public boolean open()
+  {
+    synchronized (mLock)
+    {
+      if (mOpen)
+        return true;
+      boolean lSuccess = true;
+      for (Stage lStage : mStageList)
+        lSuccess &= lStage.mRunner.start();
+      mOpen = true;
+      return lSuccess;
+    }
+  }
+
+  @Override
+  public boolean close()
+  {
+    synchronized (mLock)
+    {
+      if (!mOpen)
+        return true;
+      mOpen = false;
+      return stopStages(new ArrayList<>(mStageList), false);
+    }
+  }
+
+}
@@ -0,0 +1,161 @@
+package clearcontrol.stack.processor.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import clearcontrol.microscope.stacks.StackRecyclerManager;
+import clearcontrol.stack.ContiguousOffHeapPlanarStackFactory;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+import clearcontrol.stack.processor.StackProcessorInterface;
+import clearcontrol.stack.processor.StagedStackProcessorPipeline;
+import coremem.recycling.BasicRecycler;
+import coremem.recycling.RecyclerInterface;
+
+import org.junit.Test;
+
+/**
+ * Staged pipeline tests
+ *
+ * @author royer
+ */
+public class StagedStackProcessorPipelineTests
+{
+
+  private static class IncrementingProcessor implements
+                                             StackProcessorInterface
+  {
+    private final long mSleepInMs;
+
+    IncrementingProcessor(long pSleepInMs)
+    {
+      mSleepInMs = pSleepInMs;
+    }
+
+    @Override
+    public void setActive(boolean pIsActive)
+    {
+    }
+
+    @Override
+    public boolean isActive()
+    {
+      return true;
+    }
+
+    @Override
+    public StackInterface process(StackInterface pStack,
+                                  RecyclerInterface<StackInterface, StackRequest> pStackRecycler)
+    {
+      final StackInterface lNewStack =
+                                     pStackRecycler.getOrWait(1,
+                                                              TimeUnit.SECONDS,
+                                                              StackRequest.buildFrom(pStack));
+      try
+      {
+        // processing time varies from stack to stack:
+        Thread.sleep(mSleepInMs
+                     * (pStack.getContiguousMemory().getByteAligned(1)
+                        % 3));
+      }
+      catch (InterruptedException e)
+      {
+      }
+
+      lNewStack.getContiguousMemory()
+               .setByteAligned(0,
+                               (byte) (pStack.getContiguousMemory()
+                                             .getByteAligned(0)
+                                       + 1));
+      lNewStack.getContiguousMemory()
+               .setByteAligned(1,
+                               pStack.getContiguousMemory()
+                                     .getByteAligned(1));
+      pStack.release();
+      return lNewStack;
+    }
+  }
+
+  /**
+   * Tests that stacks go through all stages and leave the pipeline in order,
+   * with one and several workers per stage.
+   */
+  @Test
+  public void test()
+  {
+    for (int lNumberOfWorkersPerStage : new int[]
+    { 1, 3 })
+    {
+      final StackRecyclerManager lStackRecyclerManager =
+                                                       new StackRecyclerManager();
+
+      final StagedStackProcessorPipeline lPipeline =
+                                                   new StagedStackProcessorPipeline("Test",
+                                                                                    lStackRecyclerManager,
+                                                                                    4,
+                                                                                    lNumberOfWorkersPerStage);
+
+      lPipeline.addStackProcessor(new IncrementingProcessor(1),
+                                  "recycler1",
+                                  20,
+                                  20);
+      lPipeline.addStackProcessor(new IncrementingProcessor(2),
+                                  "recycler2",
+                                  20,
+                                  20);
+      assertEquals(2, lPipeline.getNumberOfStages());
+
+      final ConcurrentLinkedQueue<Integer> lOutputs =
+                                                    new ConcurrentLinkedQueue<>();
+      lPipeline.getOutputVariable().addSetListener((o, n) -> {
+        assertEquals(2, n.getContiguousMemory().getByteAligned(0));
+        lOutputs.add((int) n.getContiguousMemory().getByteAligned(1));
+        n.release();
+      });
+
+      assertTrue(lPipeline.open());
+
+      final ContiguousOffHeapPlanarStackFactory lOffHeapPlanarStackFactory =
+                                                                           new ContiguousOffHeapPlanarStackFactory();
+      final RecyclerInterface<StackInterface, StackRequest> lRecycler0 =
+                                                                       new BasicRecycler<StackInterface, StackRequest>(lOffHeapPlanarStackFactory,
+                                                                                                                       10);
+
+      for (int i = 0; i < 100; i++)
+      {
+        final StackInterface lStack =
+                                    lRecycler0.getOrWait(1,
+                                                         TimeUnit.SECONDS,
+                                                         StackRequest.build(12,
+                                                                            13,
+                                                                            14));
+        lStack.getContiguousMemory().setByteAligned(0, (byte) 0);
+        lStack.getContiguousMemory().setByteAligned(1, (byte) i);
+        lPipeline.getInputVariable().set(lStack);
+      }
+
+      assertTrue(lPipeline.waitToFinish(10, TimeUnit.SECONDS));
+
+      assertEquals(100, lOutputs.size());
+      for (int i = 0; i < 100; i++)
+        assertEquals(i, (int) lOutputs.poll());
+
+      for (int i = 0; i < lPipeline.getNumberOfStages(); i++)
+      {
+        assertEquals(100L,
+                     (long) lPipeline.getStage(i)
+                                     .getProcessedCountVariable()
+                                     .get());
+        assertTrue(lPipeline.getStage(i).getLatencyVariable().get() > 0);
+        assertTrue(lPipeline.getStage(i)
+                            .getThroughputVariable()
+                            .get() > 0);
+      }
+
+      assertTrue(lPipeline.close());
+    }
+  }
+}
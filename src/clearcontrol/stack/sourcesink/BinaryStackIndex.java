@@ -0,0 +1,255 @@
+package clearcontrol.stack.sourcesink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary stack index. The binary index file starts with a small header followed
+ * by fixed-size little-endian records, one per stack: stack index, time stamp in
+ * seconds, width, height, depth, byte offset of the stack data within its data
+ * file, and byte offset of the stack's entry in the metadata file. Because
+ * records have a fixed size, any record can be accessed in constant time and
+ * newly appended records can be read without re-reading the whole file.
+ *
+ * @author royer
+ */
+public class BinaryStackIndex
+{
+  /**
+   * Binary index file name
+   */
+  public static final String cFileName = "index.bin";
+
+  private static final int cMagic = 0x43435349; // 'CCSI'
+  private static final int cVersion = 1;
+
+  /**
+   * Header size in bytes
+   */
+  public static final int cHeaderSizeInBytes = 16;
+
+  /**
+   * Record size in bytes
+   */
+  public static final int cRecordSizeInBytes = 7 * 8;
+
+  /**
+   * Binary index record
+   */
+  public static class Record
+  {
+    public long mStackIndex;
+    public double mTimeStampInSeconds;
+    public long mWidth, mHeight, mDepth;
+    public long mDataOffsetInBytes;
+    public long mMetaDataOffsetInBytes;
+
+    /**
+     * Returns the dimensions of the stack
+     *
+     * @return dimensions (width, height, depth)
+     */
+    public long[] getDimensions()
+    {
+      return new long[]
+      { mWidth, mHeight, mDepth };
+    }
+  }
+
+  /**
+   * Writes the header to the given channel if it is empty.
+   *
+   * @param pFileChannel
+   *          file channel
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public static void writeHeaderIfNeeded(FileChannel pFileChannel) throws IOException
+  {
+    if (pFileChannel.size() > 0)
+      return;
+
+    final ByteBuffer lHeader = allocate(cHeaderSizeInBytes);
+    lHeader.putInt(cMagic);
+    lHeader.putInt(cVersion);
+    lHeader.putInt(cRecordSizeInBytes);
+    lHeader.putInt(0);
+    lHeader.flip();
+    writeFully(pFileChannel, lHeader);
+  }
+
+  /**
+   * Encodes a record into a new byte array
+   *
+   * @param pStackIndex
+   *          stack index
+   * @param pTimeStampInSeconds
+   *          time stamp in seconds
+   * @param pDimensions
+   *          stack dimensions (width, height, depth)
+   * @param pDataOffsetInBytes
+   *          data offset in bytes
+   * @param pMetaDataOffsetInBytes
+   *          metadata offset in bytes
+   * @return encoded record
+   */
+  public static byte[] encode(long pStackIndex,
+                              double pTimeStampInSeconds,
+                              long[] pDimensions,
+                              long pDataOffsetInBytes,
+                              long pMetaDataOffsetInBytes)
+  {
+    final ByteBuffer lByteBuffer = allocate(cRecordSizeInBytes);
+    lByteBuffer.putLong(pStackIndex);
+    lByteBuffer.putDouble(pTimeStampInSeconds);
+    lByteBuffer.putLong(pDimensions[0]);
+    lByteBuffer.putLong(pDimensions[1]);
+    lByteBuffer.putLong(pDimensions[2]);
+    lByteBuffer.putLong(pDataOffsetInBytes);
+    lByteBuffer.putLong(pMetaDataOffsetInBytes);
+    return lByteBuffer.array();
+  }
+
+  /**
+   * Shifts the metadata offset of an encoded record, for example when metadata
+   * entries preceding it are not written after all.
+   *
+   * @param pRecord
+   *          encoded record, modified in place
+   * @param pDeltaInBytes
+   *          offset change in bytes
+   */
+  public static void shiftMetaDataOffset(byte[] pRecord,
+                                         long pDeltaInBytes)
+  {
+    final ByteBuffer lByteBuffer = ByteBuffer.wrap(pRecord)
+                                             .order(ByteOrder.LITTLE_ENDIAN);
+    final int lIndex = cRecordSizeInBytes - 8;
+    lByteBuffer.putLong(lIndex,
+                        lByteBuffer.getLong(lIndex) + pDeltaInBytes);
+  }
+
+  /**
+   * Returns the number of complete records available in the given channel.
+   * Partially written records at the end of the file are ignored.
+   *
+   * @param pFileChannel
+   *          file channel
+   * @return number of records
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public static long getNumberOfRecords(FileChannel pFileChannel) throws IOException
+  {
+    final long lSize = pFileChannel.size();
+    if (lSize < cHeaderSizeInBytes)
+      return 0;
+    return (lSize - cHeaderSizeInBytes) / cRecordSizeInBytes;
+  }
+
+  /**
+   * Checks that the header of the given channel is valid
+   *
+   * @param pFileChannel
+   *          file channel
+   * @return true if header is valid
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public static boolean checkHeader(FileChannel pFileChannel) throws IOException
+  {
+    final ByteBuffer lHeader = allocate(cHeaderSizeInBytes);
+    readFully(pFileChannel, lHeader, 0);
+    lHeader.flip();
+    return lHeader.getInt() == cMagic && lHeader.getInt() == cVersion
+           && lHeader.getInt() == cRecordSizeInBytes;
+  }
+
+  /**
+   * Reads a range of records from the given channel
+   *
+   * @param pFileChannel
+   *          file channel
+   * @param pFirstRecord
+   *          index of first record to read
+   * @param pNumberOfRecords
+   *          number of records to read
+   * @return records
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public static Record[] readRecords(FileChannel pFileChannel,
+                                     long pFirstRecord,
+                                     int pNumberOfRecords) throws IOException
+  {
+    final ByteBuffer lByteBuffer =
+                                 allocate(pNumberOfRecords
+                                          * cRecordSizeInBytes);
+    readFully(pFileChannel,
+              lByteBuffer,
+              cHeaderSizeInBytes + pFirstRecord * cRecordSizeInBytes);
+    lByteBuffer.flip();
+
+    final Record[] lRecords = new Record[pNumberOfRecords];
+    for (int i = 0; i < pNumberOfRecords; i++)
+    {
+      final Record lRecord = new Record();
+      lRecord.mStackIndex = lByteBuffer.getLong();
+      lRecord.mTimeStampInSeconds = lByteBuffer.getDouble();
+      lRecord.mWidth = lByteBuffer.getLong();
+      lRecord.mHeight = lByteBuffer.getLong();
+      lRecord.mDepth = lByteBuffer.getLong();
+      lRecord.mDataOffsetInBytes = lByteBuffer.getLong();
+      lRecord.mMetaDataOffsetInBytes = lByteBuffer.getLong();
+      lRecords[i] = lRecord;
+    }
+    return lRecords;
+  }
+
+  /**
+   * Reads a single record in constant time
+   *
+   * @param pFileChannel
+   *          file channel
+   * @param pRecordIndex
+   *          record index
+   * @return record
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public static Record readRecord(FileChannel pFileChannel,
+                                  long pRecordIndex) throws IOException
+  {
+    return readRecords(pFileChannel, pRecordIndex, 1)[0];
+  }
+
+  private static ByteBuffer allocate(int pSizeInBytes)
+  {
+    return ByteBuffer.allocate(pSizeInBytes)
+                     .order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static void writeFully(FileChannel pFileChannel,
+                                 ByteBuffer pByteBuffer) throws IOException
+  {
+    while (pByteBuffer.hasRemaining())
+      pFileChannel.write(pByteBuffer);
+  }
+
+  private static void readFully(FileChannel pFileChannel,
+                                ByteBuffer pByteBuffer,
+                                long pPosition) throws IOException
+  {
+    long lPosition = pPosition;
+    while (pByteBuffer.hasRemaining())
+    {
+      final int lRead = pFileChannel.read(pByteBuffer, lPosition);
+      if (lRead < 0)
+        throw new IOException("Unexpected end of binary index file");
+      lPosition += lRead;
+    }
+  }
+
+}
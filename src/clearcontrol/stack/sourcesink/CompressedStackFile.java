@@ -0,0 +1,304 @@
+package clearcontrol.stack.sourcesink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import clearcontrol.core.compression.DeltaBitPackingCodec;
+import clearcontrol.stack.StackInterface;
+import coremem.ContiguousMemoryInterface;
+
+/**
+ * Compressed stack file format. Each plane of a stack is compressed
+ * independently (and in parallel) with the {@link DeltaBitPackingCodec}. The
+ * file starts with a header (magic, version, number of planes) followed by a
+ * table of plane offsets, and then the compressed planes. Thanks to the offset
+ * table a single plane can be decompressed without reading the whole stack.
+ *
+ * @author royer
+ */
+public class CompressedStackFile
+{
+  private static final int cMagic = 0x43435351; // 'CCSQ'
+  private static final int cVersion = 1;
+  private static final int cHeaderSizeInBytes = 16;
+
+  private static final ThreadLocal<short[]> cPlaneBuffer =
+                                                         new ThreadLocal<>();
+  private static final ThreadLocal<byte[]> cCompressedPlaneBuffer =
+                                                                  new ThreadLocal<>();
+
+  /**
+   * Compresses a stack plane-parallel and writes it to a file channel
+   *
+   * @param pStack
+   *          stack to write
+   * @param pForkJoinPool
+   *          fork join pool used to compress planes in parallel
+   * @param pFileChannel
+   *          file channel to write to
+   * @return number of bytes written
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public static long write(StackInterface pStack,
+                           ForkJoinPool pForkJoinPool,
+                           FileChannel pFileChannel) throws IOException
+  {
+    final int lDepth = Math.toIntExact(pStack.getDepth());
+    final int lPlaneLength = Math.toIntExact(pStack.getWidth()
+                                             * pStack.getHeight());
+
+    final List<Callable<byte[]>> lTasks = new ArrayList<>(lDepth);
+    for (int z = 0; z < lDepth; z++)
+    {
+      final int lPlaneIndex = z;
+      lTasks.add(() -> compressPlane(pStack.getContiguousMemory(lPlaneIndex),
+                                     lPlaneLength));
+    }
+    final List<byte[]> lCompressedPlanes = invokeAll(pForkJoinPool,
+                                                     lTasks);
+
+    final ByteBuffer lHeader =
+                             ByteBuffer.allocate(cHeaderSizeInBytes
+                                                 + 8 * (lDepth + 1))
+                                       .order(ByteOrder.LITTLE_ENDIAN);
+    lHeader.putInt(cMagic);
+    lHeader.putInt(cVersion);
+    lHeader.putInt(lDepth);
+    lHeader.putInt(lPlaneLength);
+    long lOffset = lHeader.capacity();
+    for (byte[] lCompressedPlane : lCompressedPlanes)
+    {
+      lHeader.putLong(lOffset);
+      lOffset += lCompressedPlane.length;
+    }
+    lHeader.putLong(lOffset);
+    lHeader.flip();
+
+    final ByteBuffer[] lByteBuffers = new ByteBuffer[lDepth + 1];
+    lByteBuffers[0] = lHeader;
+    for (int z = 0; z < lDepth; z++)
+      lByteBuffers[z + 1] = ByteBuffer.wrap(lCompressedPlanes.get(z));
+
+    long lWritten = 0;
+    while (lWritten < lOffset)
+      lWritten += pFileChannel.write(lByteBuffers);
+
+    return lWritten;
+  }
+
+  /**
+   * Reads and decompresses all planes of a stack in parallel
+   *
+   * @param pFileChannel
+   *          file channel to read from
+   * @param pStack
+   *          stack to read into (must have the right dimensions)
+   * @param pForkJoinPool
+   *          fork join pool used to decompress planes in parallel
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public static void read(FileChannel pFileChannel,
+                          StackInterface pStack,
+                          ForkJoinPool pForkJoinPool) throws IOException
+  {
+    final int lDepth = Math.toIntExact(pStack.getDepth());
+    final long[] lOffsets = readOffsets(pFileChannel, lDepth);
+    final int lPlaneLength = Math.toIntExact(pStack.getWidth()
+                                             * pStack.getHeight());
+
+    final List<Callable<byte[]>> lTasks = new ArrayList<>(lDepth);
+    for (int z = 0; z < lDepth; z++)
+    {
+      final int lPlaneIndex = z;
+      lTasks.add(() -> {
+        decompressPlane(pFileChannel,
+                        lOffsets[lPlaneIndex],
+                        lOffsets[lPlaneIndex + 1],
+                        pStack.getContiguousMemory(lPlaneIndex),
+                        lPlaneLength);
+        return null;
+      });
+    }
+    invokeAll(pForkJoinPool, lTasks);
+  }
+
+  /**
+   * Reads and decompresses a single plane
+   *
+   * @param pFileChannel
+   *          file channel to read from
+   * @param pPlaneIndex
+   *          plane index
+   * @param pPlaneMemory
+   *          memory to decompress plane into
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public static void readPlane(FileChannel pFileChannel,
+                               int pPlaneIndex,
+                               ContiguousMemoryInterface pPlaneMemory) throws IOException
+  {
+    final ByteBuffer lHeader = ByteBuffer.allocate(cHeaderSizeInBytes)
+                                         .order(ByteOrder.LITTLE_ENDIAN);
+    readFully(pFileChannel, lHeader, 0);
+    lHeader.flip();
+    checkMagicAndVersion(lHeader);
+    final int lDepth = lHeader.getInt();
+    final int lPlaneLength = lHeader.getInt();
+
+    if (pPlaneIndex < 0 || pPlaneIndex >= lDepth)
+      throw new IndexOutOfBoundsException("Invalid plane index: "
+                                          + pPlaneIndex);
+
+    final ByteBuffer lOffsets = ByteBuffer.allocate(16)
+                                          .order(ByteOrder.LITTLE_ENDIAN);
+    readFully(pFileChannel,
+              lOffsets,
+              cHeaderSizeInBytes + 8L * pPlaneIndex);
+    lOffsets.flip();
+
+    decompressPlane(pFileChannel,
+                    lOffsets.getLong(),
+                    lOffsets.getLong(),
+                    pPlaneMemory,
+                    lPlaneLength);
+  }
+
+  private static long[] readOffsets(FileChannel pFileChannel,
+                                    int pDepth) throws IOException
+  {
+    final ByteBuffer lHeader =
+                             ByteBuffer.allocate(cHeaderSizeInBytes
+                                                 + 8 * (pDepth + 1))
+                                       .order(ByteOrder.LITTLE_ENDIAN);
+    readFully(pFileChannel, lHeader, 0);
+    lHeader.flip();
+    checkMagicAndVersion(lHeader);
+    if (lHeader.getInt() != pDepth)
+      throw new IOException("Compressed stack has wrong number of planes");
+    lHeader.getInt();
+
+    final long[] lOffsets = new long[pDepth + 1];
+    for (int i = 0; i <= pDepth; i++)
+      lOffsets[i] = lHeader.getLong();
+    return lOffsets;
+  }
+
+  private static void checkMagicAndVersion(ByteBuffer pHeader) throws IOException
+  {
+    if (pHeader.getInt() != cMagic || pHeader.getInt() != cVersion)
+      throw new IOException("Not a compressed stack file (or unsupported version)");
+  }
+
+  private static byte[] compressPlane(ContiguousMemoryInterface pPlaneMemory,
+                                      int pPlaneLength)
+  {
+    final short[] lPlaneBuffer = getPlaneBuffer(pPlaneLength);
+    pPlaneMemory.copyTo(lPlaneBuffer);
+
+    byte[] lCompressedPlaneBuffer = cCompressedPlaneBuffer.get();
+    final int lMaxSize =
+                       DeltaBitPackingCodec.getMaxCompressedSizeInBytes(pPlaneLength);
+    if (lCompressedPlaneBuffer == null
+        || lCompressedPlaneBuffer.length < lMaxSize)
+    {
+      lCompressedPlaneBuffer = new byte[lMaxSize];
+      cCompressedPlaneBuffer.set(lCompressedPlaneBuffer);
+    }
+
+    final int lCompressedSize =
+                              DeltaBitPackingCodec.compress(lPlaneBuffer,
+                                                            pPlaneLength,
+                                                            lCompressedPlaneBuffer);
+
+    final byte[] lCompressedPlane = new byte[lCompressedSize];
+    System.arraycopy(lCompressedPlaneBuffer,
+                     0,
+                     lCompressedPlane,
+                     0,
+                     lCompressedSize);
+    return lCompressedPlane;
+  }
+
+  private static void decompressPlane(FileChannel pFileChannel,
+                                      long pStartOffset,
+                                      long pEndOffset,
+                                      ContiguousMemoryInterface pPlaneMemory,
+                                      int pPlaneLength) throws IOException
+  {
+    final int lCompressedSize = Math.toIntExact(pEndOffset
+                                                - pStartOffset);
+    byte[] lCompressedPlaneBuffer = cCompressedPlaneBuffer.get();
+    if (lCompressedPlaneBuffer == null
+        || lCompressedPlaneBuffer.length < lCompressedSize)
+    {
+      lCompressedPlaneBuffer = new byte[lCompressedSize];
+      cCompressedPlaneBuffer.set(lCompressedPlaneBuffer);
+    }
+
+    final ByteBuffer lByteBuffer =
+                                 ByteBuffer.wrap(lCompressedPlaneBuffer,
+                                                 0,
+                                                 lCompressedSize);
+    readFully(pFileChannel, lByteBuffer, pStartOffset);
+
+    final short[] lPlaneBuffer = getPlaneBuffer(pPlaneLength);
+    DeltaBitPackingCodec.decompress(lCompressedPlaneBuffer,
+                                    0,
+                                    lPlaneBuffer,
+                                    pPlaneLength);
+    pPlaneMemory.copyFrom(lPlaneBuffer);
+  }
+
+  private static short[] getPlaneBuffer(int pPlaneLength)
+  {
+    short[] lPlaneBuffer = cPlaneBuffer.get();
+    if (lPlaneBuffer == null || lPlaneBuffer.length != pPlaneLength)
+    {
+      lPlaneBuffer = new short[pPlaneLength];
+      cPlaneBuffer.set(lPlaneBuffer);
+    }
+    return lPlaneBuffer;
+  }
+
+  private static <T> List<T> invokeAll(ForkJoinPool pForkJoinPool,
+                                       List<Callable<T>> pTasks) throws IOException
+  {
+    final List<T> lResults = new ArrayList<>(pTasks.size());
+    try
+    {
+      for (Future<T> lFuture : pForkJoinPool.invokeAll(pTasks))
+        lResults.add(lFuture.get());
+    }
+    catch (InterruptedException | ExecutionException e)
+    {
+      throw new IOException(e);
+    }
+    return lResults;
+  }
+
+  private static void readFully(FileChannel pFileChannel,
+                                ByteBuffer pByteBuffer,
+                                long pPosition) throws IOException
+  {
+    long lPosition = pPosition;
+    while (pByteBuffer.hasRemaining())
+    {
+      final int lRead = pFileChannel.read(pByteBuffer, lPosition);
+      if (lRead < 0)
+        throw new IOException("Unexpected end of compressed stack file");
+      lPosition += lRead;
+    }
+  }
+
+}
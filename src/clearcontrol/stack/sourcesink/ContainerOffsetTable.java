@@ -0,0 +1,129 @@
+package clearcontrol.stack.sourcesink;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Offset table for container datasets. Container datasets store all stacks in a
+ * few large segment files, the offset table tells - for each stack - in which
+ * segment and at which offset the stack data is found. The table consists of
+ * fixed-size little-endian records (segment index, offset in bytes, length in
+ * bytes), one per stack, so that the entry for any stack can be read in
+ * constant time.
+ *
+ * @author royer
+ */
+public class ContainerOffsetTable
+{
+  /**
+   * Offset table file name
+   */
+  public static final String cFileName = "offsets.bin";
+
+  /**
+   * Record size in bytes
+   */
+  public static final int cRecordSizeInBytes = 3 * 8;
+
+  /**
+   * Offset table entry
+   */
+  public static class Entry
+  {
+    public long mSegmentIndex;
+    public long mOffsetInBytes;
+    public long mLengthInBytes;
+  }
+
+  /**
+   * Returns the segment file for a given segment index
+   *
+   * @param pStacksFolder
+   *          stacks folder
+   * @param pSegmentIndex
+   *          segment index
+   * @return segment file
+   */
+  public static File getSegmentFile(File pStacksFolder,
+                                    long pSegmentIndex)
+  {
+    return new File(pStacksFolder,
+                    String.format("segment%d.raw", pSegmentIndex));
+  }
+
+  /**
+   * Encodes an entry into a new byte array
+   *
+   * @param pSegmentIndex
+   *          segment index
+   * @param pOffsetInBytes
+   *          offset in bytes within segment
+   * @param pLengthInBytes
+   *          length in bytes
+   * @return encoded entry
+   */
+  public static byte[] encode(long pSegmentIndex,
+                              long pOffsetInBytes,
+                              long pLengthInBytes)
+  {
+    final ByteBuffer lByteBuffer =
+                                 ByteBuffer.allocate(cRecordSizeInBytes)
+                                           .order(ByteOrder.LITTLE_ENDIAN);
+    lByteBuffer.putLong(pSegmentIndex);
+    lByteBuffer.putLong(pOffsetInBytes);
+    lByteBuffer.putLong(pLengthInBytes);
+    return lByteBuffer.array();
+  }
+
+  /**
+   * Returns the number of complete entries in the offset table
+   *
+   * @param pFileChannel
+   *          file channel
+   * @return number of entries
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public static long getNumberOfEntries(FileChannel pFileChannel) throws IOException
+  {
+    return pFileChannel.size() / cRecordSizeInBytes;
+  }
+
+  /**
+   * Reads the entry for a given stack index
+   *
+   * @param pFileChannel
+   *          file channel
+   * @param pStackIndex
+   *          stack index
+   * @return entry
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public static Entry readEntry(FileChannel pFileChannel,
+                                long pStackIndex) throws IOException
+  {
+    final ByteBuffer lByteBuffer =
+                                 ByteBuffer.allocate(cRecordSizeInBytes)
+                                           .order(ByteOrder.LITTLE_ENDIAN);
+    long lPosition = pStackIndex * cRecordSizeInBytes;
+    while (lByteBuffer.hasRemaining())
+    {
+      final int lRead = pFileChannel.read(lByteBuffer, lPosition);
+      if (lRead < 0)
+        throw new IOException("Unexpected end of offset table file");
+      lPosition += lRead;
+    }
+    lByteBuffer.flip();
+
+    final Entry lEntry = new Entry();
+    lEntry.mSegmentIndex = lByteBuffer.getLong();
+    lEntry.mOffsetInBytes = lByteBuffer.getLong();
+    lEntry.mLengthInBytes = lByteBuffer.getLong();
+    return lEntry;
+  }
+
+}
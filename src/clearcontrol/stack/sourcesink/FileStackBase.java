@@ -2,7 +2,9 @@ package clearcontrol.stack.sourcesink;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.StandardOpenOption;
 
 import clearcontrol.stack.sourcesink.server.StackServerBase;
@@ -23,7 +25,9 @@ public abstract class FileStackBase extends StackServerBase implements
   protected File mStacksFolder;
 
   protected File mIndexFile;
+  protected File mBinaryIndexFile;
   protected File mMetaDataFile;
+  protected File mVolumesFile;
 
   /**
    * Instantiates a local file stack source or sink. The method setLocation must
@@ -56,6 +60,10 @@ public abstract class FileStackBase extends StackServerBase implements
       mIndexFile.getParentFile().mkdirs();
     }
 
+    mBinaryIndexFile = new File(mFolder, BinaryStackIndex.cFileName);
+
+    mVolumesFile = new File(mFolder, "/volumes.txt");
+
     mMetaDataFile = new File(mFolder, "/metadata.txt");
     if (!mReadOnly)
     {
@@ -85,6 +93,55 @@ public abstract class FileStackBase extends StackServerBase implements
     return lFileChannel;
   }
 
+  /**
+   * Memory maps a region of a file read-only, the file only needs to be
+   * readable. The mapped memory must not be written to. Returns null if the
+   * file does not exist or if the region is too large to be mapped at once.
+   * 
+   * @param pFile
+   *          file
+   * @param pPositionInBytes
+   *          position of region in file
+   * @param pLengthInBytes
+   *          length of region, or -1 for the whole file
+   * @return mapped buffer or null
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  protected MappedByteBuffer mapReadOnly(File pFile,
+                                         long pPositionInBytes,
+                                         long pLengthInBytes) throws IOException
+  {
+    if (!pFile.exists())
+      return null;
+
+    try (FileChannel lFileChannel = getFileChannel(pFile, true))
+    {
+      final long lLengthInBytes = pLengthInBytes < 0
+                                                     ? lFileChannel.size()
+                                                       - pPositionInBytes
+                                                     : pLengthInBytes;
+      if (lLengthInBytes > Integer.MAX_VALUE)
+        return null;
+      return lFileChannel.map(MapMode.READ_ONLY,
+                              pPositionInBytes,
+                              lLengthInBytes);
+    }
+  }
+
+  /**
+   * Returns the raw data file for a given stack index
+   * 
+   * @param pStackIndex
+   *          stack index
+   * @return stack data file
+   */
+  protected File getStackFile(final long pStackIndex)
+  {
+    return new File(mStacksFolder,
+                    String.format("tp%d.raw", pStackIndex));
+  }
+
   /**
    * Returns data folder
    * 
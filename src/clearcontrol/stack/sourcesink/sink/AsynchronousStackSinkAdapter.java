@@ -1,27 +1,105 @@
 package clearcontrol.stack.sourcesink.sink;
 
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
-import clearcontrol.core.concurrent.asyncprocs.AsynchronousProcessorBase;
-import clearcontrol.core.concurrent.asyncprocs.AsynchronousProcessorInterface;
+import clearcontrol.core.concurrent.executors.AsynchronousExecutorServiceAccess;
+import clearcontrol.core.concurrent.timing.WaitingInterface;
 import clearcontrol.core.variable.Variable;
 import clearcontrol.stack.StackInterface;
 
 /**
  * Asynchronous stack sink adapter. This sink adapter can wrap anotehr sink an
- * provides asynchronous decoupling via an elastic queue.
+ * provides asynchronous decoupling via a bounded queue. Stacks are passed to
+ * the wrapped sink by one or several worker threads - with more than one
+ * worker the wrapped sink must be thread safe and stacks may reach it out of
+ * order.
+ *
+ * When the queue is full, the overflow policy decides whether appendStack
+ * blocks, drops stacks, or spills copies of stacks to RAM within a given
+ * budget. Dropped stacks are handed to the dropped stack variable (if set) so
+ * that their owner can recycle them.
  *
  * @author royer
  */
 public class AsynchronousStackSinkAdapter implements
-                                          StackSinkInterface
+                                          StackSinkInterface,
+                                          AsynchronousExecutorServiceAccess,
+                                          WaitingInterface
 {
 
+  /**
+   * Overflow policy, decides what happens when a stack is appended while the
+   * queue is full.
+   */
+  public enum OverflowPolicy
+  {
+   /**
+    * appendStack waits until there is room in the queue
+    */
+   Block,
+
+   /**
+    * The oldest queued stack is dropped to make room for the new one
+    */
+   DropOldest,
+
+   /**
+    * The new stack is dropped
+    */
+   DropNewest,
+
+   /**
+    * A copy of the new stack is kept in RAM (within a budget), the original
+    * stack is immediately reported as finished. When the budget is exhausted
+    * appendStack waits.
+    */
+   SpillToRAM
+  }
+
+  private static class Entry
+  {
+    final StackInterface mStack;
+    final boolean mSpilled;
+
+    Entry(StackInterface pStack, boolean pSpilled)
+    {
+      mStack = pStack;
+      mSpilled = pSpilled;
+    }
+  }
+
   private StackSinkInterface mStackSink;
 
-  private AsynchronousProcessorInterface<StackInterface, StackInterface> mAsynchronousConversionProcessor;
+  private final int mMaxQueueSize;
+  private final int mNumberOfWorkers;
+  private final OverflowPolicy mOverflowPolicy;
+  private final long mSpillBudgetInBytes;
+
+  private final ReentrantLock mLock = new ReentrantLock();
+  private final Condition mNotEmpty = mLock.newCondition();
+  private final Condition mNotFull = mLock.newCondition();
+  private final ArrayDeque<Entry> mQueue = new ArrayDeque<>();
+  private int mNumberOfQueuedStacks;
+  private int mNumberOfStacksInProcessing;
+  private long mSpilledBytes;
+  private volatile boolean mRunning;
+
+  private final Variable<Integer> mQueueDepthVariable =
+                                                      new Variable<Integer>("QueueDepth",
+                                                                            0);
+  private final Variable<Integer> mHighWaterMarkVariable =
+                                                         new Variable<Integer>("HighWaterMark",
+                                                                               0);
+  private final Variable<Long> mDroppedCountVariable =
+                                                     new Variable<Long>("DroppedCount",
+                                                                        0L);
 
   private Variable<StackInterface> mFinishedProcessingStackVariable;
+  private Variable<StackInterface> mDroppedStackVariable;
 
   /**
    * Wraps an existing stack sink to provide asynchronous capability
@@ -41,7 +119,8 @@ public class AsynchronousStackSinkAdapter implements
 
   /**
    * Instanciates an asynchronous stack sink adapter for a given existing sink
-   * and max queue size.
+   * and max queue size. A single worker is used and appendStack blocks when
+   * the queue is full.
    * 
    * @param pStackSink
    *          sink to wrap
@@ -50,51 +129,234 @@ public class AsynchronousStackSinkAdapter implements
    */
   public AsynchronousStackSinkAdapter(final StackSinkInterface pStackSink,
                                       final int pMaxQueueSize)
+  {
+    this(pStackSink, pMaxQueueSize, 1, OverflowPolicy.Block, 0);
+  }
+
+  /**
+   * Instanciates an asynchronous stack sink adapter for a given existing sink,
+   * max queue size, number of workers, overflow policy and spill budget.
+   * 
+   * @param pStackSink
+   *          sink to wrap
+   * @param pMaxQueueSize
+   *          max queue size
+   * @param pNumberOfWorkers
+   *          number of worker threads passing stacks to the sink
+   * @param pOverflowPolicy
+   *          overflow policy
+   * @param pSpillBudgetInBytes
+   *          maximal number of bytes used for spilled stack copies (only used
+   *          with the SpillToRAM policy)
+   */
+  public AsynchronousStackSinkAdapter(final StackSinkInterface pStackSink,
+                                      final int pMaxQueueSize,
+                                      final int pNumberOfWorkers,
+                                      final OverflowPolicy pOverflowPolicy,
+                                      final long pSpillBudgetInBytes)
   {
     super();
     mStackSink = pStackSink;
-
-    mAsynchronousConversionProcessor =
-                                     new AsynchronousProcessorBase<StackInterface, StackInterface>("AsynchronousStackSinkAdapter",
-                                                                                                   pMaxQueueSize)
-                                     {
-                                       @Override
-                                       public StackInterface process(final StackInterface pStack)
-                                       {
-                                         mStackSink.appendStack(pStack);
-                                         if (mFinishedProcessingStackVariable != null)
-                                         {
-                                           mFinishedProcessingStackVariable.set(pStack);
-                                         }
-                                         return null;
-                                       }
-                                     };
+    mMaxQueueSize = Math.max(1, pMaxQueueSize);
+    mNumberOfWorkers = Math.max(1, pNumberOfWorkers);
+    mOverflowPolicy = pOverflowPolicy;
+    mSpillBudgetInBytes = pSpillBudgetInBytes;
   }
 
   /**
-   * Starts the thread that passes the stacks to the sink
+   * Starts the threads that pass the stacks to the sink
    * 
    * @return true -> success
    */
   public boolean start()
   {
-    return mAsynchronousConversionProcessor.start();
+    if (mRunning)
+      return true;
+    mRunning = true;
+    initializeExecutor(mNumberOfWorkers, mNumberOfWorkers);
+    for (int i = 0; i < mNumberOfWorkers; i++)
+      executeAsynchronously(() -> work());
+    return true;
   }
 
   /**
-   * Stops the thread that passes the stacks to the sink
+   * Stops the threads that pass the stacks to the sink. Stacks still in the
+   * queue stay there until the adapter is started again.
    * 
    * @return true -> success
    */
   public boolean stop()
   {
-    return mAsynchronousConversionProcessor.stop();
+    mLock.lock();
+    try
+    {
+      mRunning = false;
+      mNotEmpty.signalAll();
+    }
+    finally
+    {
+      mLock.unlock();
+    }
+
+    try
+    {
+      return waitForCompletion();
+    }
+    catch (ExecutionException e)
+    {
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  private void work()
+  {
+    while (true)
+    {
+      final Entry lEntry;
+      mLock.lock();
+      try
+      {
+        while (mRunning && mQueue.isEmpty())
+          mNotEmpty.awaitUninterruptibly();
+        if (!mRunning)
+          return;
+
+        lEntry = mQueue.poll();
+        if (!lEntry.mSpilled)
+          mNumberOfQueuedStacks--;
+        mNumberOfStacksInProcessing++;
+        mQueueDepthVariable.set(mQueue.size());
+        // Room is made in the queue as soon as a stack is taken:
+        mNotFull.signalAll();
+      }
+      finally
+      {
+        mLock.unlock();
+      }
+
+      try
+      {
+        mStackSink.appendStack(lEntry.mStack);
+      }
+      catch (Throwable e)
+      {
+        e.printStackTrace();
+      }
+
+      if (lEntry.mSpilled)
+        lEntry.mStack.free();
+      else if (mFinishedProcessingStackVariable != null)
+        mFinishedProcessingStackVariable.set(lEntry.mStack);
+
+      mLock.lock();
+      try
+      {
+        if (lEntry.mSpilled)
+          mSpilledBytes -= lEntry.mStack.getSizeInBytes();
+        mNumberOfStacksInProcessing--;
+        mNotFull.signalAll();
+      }
+      finally
+      {
+        mLock.unlock();
+      }
+    }
   }
 
   @Override
   public boolean appendStack(final StackInterface pStack)
   {
-    return mAsynchronousConversionProcessor.passOrWait(pStack);
+    if (pStack == null)
+      return false;
+
+    StackInterface lDroppedStack = null;
+    boolean lSpill = false;
+    mLock.lock();
+    try
+    {
+      while (mNumberOfQueuedStacks >= mMaxQueueSize)
+      {
+        if (mOverflowPolicy == OverflowPolicy.DropNewest)
+        {
+          lDroppedStack = pStack;
+          break;
+        }
+        else if (mOverflowPolicy == OverflowPolicy.DropOldest)
+        {
+          lDroppedStack = removeOldestQueuedStack();
+          continue;
+        }
+        else if (mOverflowPolicy == OverflowPolicy.SpillToRAM
+                 && mSpilledBytes
+                    + pStack.getSizeInBytes() <= mSpillBudgetInBytes)
+        {
+          // the budget is reserved now, the copy is made outside of the lock:
+          mSpilledBytes += pStack.getSizeInBytes();
+          lSpill = true;
+          break;
+        }
+        mNotFull.awaitUninterruptibly();
+      }
+
+      if (lDroppedStack != null)
+        mDroppedCountVariable.set(mDroppedCountVariable.get() + 1);
+
+      if (lDroppedStack != pStack && !lSpill)
+      {
+        mNumberOfQueuedStacks++;
+        enqueue(new Entry(pStack, false));
+      }
+    }
+    finally
+    {
+      mLock.unlock();
+    }
+
+    if (lSpill)
+    {
+      final StackInterface lCopy = pStack.duplicate();
+      lCopy.copyMetaDataFrom(pStack);
+      mLock.lock();
+      try
+      {
+        enqueue(new Entry(lCopy, true));
+      }
+      finally
+      {
+        mLock.unlock();
+      }
+      if (mFinishedProcessingStackVariable != null)
+        mFinishedProcessingStackVariable.set(pStack);
+    }
+
+    if (lDroppedStack != null && mDroppedStackVariable != null)
+      mDroppedStackVariable.set(lDroppedStack);
+
+    return lDroppedStack != pStack;
+  }
+
+  private void enqueue(Entry pEntry)
+  {
+    mQueue.add(pEntry);
+    final int lQueueDepth = mQueue.size();
+    mQueueDepthVariable.set(lQueueDepth);
+    if (lQueueDepth > mHighWaterMarkVariable.get())
+      mHighWaterMarkVariable.set(lQueueDepth);
+    mNotEmpty.signal();
+  }
+
+  private StackInterface removeOldestQueuedStack()
+  {
+    for (Entry lEntry : mQueue)
+      if (!lEntry.mSpilled)
+      {
+        mQueue.remove(lEntry);
+        mNumberOfQueuedStacks--;
+        mQueueDepthVariable.set(mQueue.size());
+        return lEntry.mStack;
+      }
+    return null;
   }
 
   /**
@@ -109,8 +371,17 @@ public class AsynchronousStackSinkAdapter implements
    */
   public boolean waitToFinish(final long pTimeOut, TimeUnit pTimeUnit)
   {
-    return mAsynchronousConversionProcessor.waitToFinish(pTimeOut,
-                                                         pTimeUnit);
+    return waitFor(pTimeOut, pTimeUnit, () -> {
+      mLock.lock();
+      try
+      {
+        return mQueue.isEmpty() && mNumberOfStacksInProcessing == 0;
+      }
+      finally
+      {
+        mLock.unlock();
+      }
+    });
   }
 
   /**
@@ -120,7 +391,38 @@ public class AsynchronousStackSinkAdapter implements
    */
   public int getQueueLength()
   {
-    return mAsynchronousConversionProcessor.getInputQueueLength();
+    return mQueueDepthVariable.get();
+  }
+
+  /**
+   * Returns the variable holding the current queue depth (including spilled
+   * stacks)
+   * 
+   * @return queue depth variable
+   */
+  public Variable<Integer> getQueueDepthVariable()
+  {
+    return mQueueDepthVariable;
+  }
+
+  /**
+   * Returns the variable holding the highest queue depth observed so far
+   * 
+   * @return high water mark variable
+   */
+  public Variable<Integer> getHighWaterMarkVariable()
+  {
+    return mHighWaterMarkVariable;
+  }
+
+  /**
+   * Returns the variable holding the number of dropped stacks
+   * 
+   * @return dropped count variable
+   */
+  public Variable<Long> getDroppedCountVariable()
+  {
+    return mDroppedCountVariable;
   }
 
   /**
@@ -135,4 +437,16 @@ public class AsynchronousStackSinkAdapter implements
     mFinishedProcessingStackVariable = pVariable;
   }
 
+  /**
+   * Sets the variable that receives stacks that have been dropped because of
+   * the overflow policy.
+   * 
+   * @param pVariable
+   *          variable that received dropped stacks
+   */
+  public void setDroppedStackVariable(final Variable<StackInterface> pVariable)
+  {
+    mDroppedStackVariable = pVariable;
+  }
+
 }
@@ -0,0 +1,93 @@
+package clearcontrol.stack.sourcesink.sink;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.sourcesink.CompressedStackFile;
+
+/**
+ * Compressed raw file stack sink. Stacks are losslessly compressed before they
+ * are written (see {@link CompressedStackFile}), planes are compressed in
+ * parallel so that compression keeps up with the camera. Index and metadata
+ * files are identical to those of the raw file sink and are written with group
+ * commit. Stack files have the extension '.cmp' instead of '.raw'.
+ *
+ * @author royer
+ */
+public class CompressedRawFileStackSink extends
+                                        GroupCommitRawFileStackSink
+{
+
+  private final ForkJoinPool mForkJoinPool;
+
+  /**
+   * Instantiates a compressed raw file stack sink with default commit
+   * parameters, using as many compression threads as there are cores.
+   *
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public CompressedRawFileStackSink() throws IOException
+  {
+    super();
+    mForkJoinPool =
+                  new ForkJoinPool(Runtime.getRuntime()
+                                          .availableProcessors());
+  }
+
+  /**
+   * Instantiates a compressed raw file stack sink with given number of
+   * compression threads and commit parameters.
+   *
+   * @param pNumberOfThreads
+   *          number of compression threads
+   * @param pCommitNumberOfStacks
+   *          number of stacks after which a commit is done
+   * @param pCommitPeriod
+   *          maximal period between commits
+   * @param pTimeUnit
+   *          commit period time unit
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public CompressedRawFileStackSink(int pNumberOfThreads,
+                                    int pCommitNumberOfStacks,
+                                    long pCommitPeriod,
+                                    TimeUnit pTimeUnit) throws IOException
+  {
+    super(pCommitNumberOfStacks, pCommitPeriod, pTimeUnit);
+    mForkJoinPool = new ForkJoinPool(Math.max(1, pNumberOfThreads));
+  }
+
+  @Override
+  protected File getStackFile(final long pStackIndex)
+  {
+    return new File(mStacksFolder,
+                    String.format("tp%d.cmp", pStackIndex));
+  }
+
+  @Override
+  protected void writeStackDataToFileChannel(final StackInterface pStack,
+                                             final FileChannel pFileChannel) throws IOException
+  {
+    CompressedStackFile.write(pStack, mForkJoinPool, pFileChannel);
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    try
+    {
+      super.close();
+    }
+    finally
+    {
+      mForkJoinPool.shutdown();
+    }
+  }
+
+}
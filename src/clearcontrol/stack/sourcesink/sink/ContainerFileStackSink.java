@@ -0,0 +1,189 @@
+package clearcontrol.stack.sourcesink.sink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.sourcesink.ContainerOffsetTable;
+
+/**
+ * Container file stack sink. Instead of writing one file per stack, all stacks
+ * are appended to a few large segment files of bounded size. Each stack starts
+ * at an aligned offset so that writes are large aligned transfers and so that
+ * individual stacks can be memory mapped. An offset table (see
+ * {@link ContainerOffsetTable}) records the segment, offset and length of each
+ * stack. Index and metadata files are identical to those of the raw file sink
+ * and are written with group commit.
+ *
+ * @author royer
+ */
+public class ContainerFileStackSink extends GroupCommitRawFileStackSink
+{
+
+  private static final long cDefaultSegmentSizeInBytes = 4L << 30;
+  private static final long cAlignmentInBytes = 4096;
+
+  private final long mSegmentSizeInBytes;
+
+  private File mOffsetTableFile;
+  private FileChannel mOffsetTableFileChannel;
+  private final ByteArrayOutputStream mPendingOffsetTableEntries =
+                                                               new ByteArrayOutputStream();
+
+  private FileChannel mSegmentFileChannel;
+  private long mSegmentIndex = -1;
+  private long mSegmentLengthInBytes;
+  private long mSegmentPositionInBytes;
+  private long mLastStackDataOffsetInBytes;
+
+  /**
+   * Instantiates a container file stack sink with default segment size and
+   * commit parameters.
+   *
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public ContainerFileStackSink() throws IOException
+  {
+    super();
+    mSegmentSizeInBytes = cDefaultSegmentSizeInBytes;
+  }
+
+  /**
+   * Instantiates a container file stack sink with given segment size and commit
+   * parameters.
+   *
+   * @param pSegmentSizeInBytes
+   *          segment size in bytes, segments are larger if a single stack does
+   *          not fit
+   * @param pCommitNumberOfStacks
+   *          number of stacks after which a commit is done
+   * @param pCommitPeriod
+   *          maximal period between commits
+   * @param pTimeUnit
+   *          commit period time unit
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public ContainerFileStackSink(long pSegmentSizeInBytes,
+                                int pCommitNumberOfStacks,
+                                long pCommitPeriod,
+                                TimeUnit pTimeUnit) throws IOException
+  {
+    super(pCommitNumberOfStacks, pCommitPeriod, pTimeUnit);
+    mSegmentSizeInBytes = align(pSegmentSizeInBytes);
+  }
+
+  @Override
+  public void setLocation(final File pRootFolder, final String pName)
+  {
+    super.setLocation(pRootFolder, pName);
+    mOffsetTableFile = new File(mFolder, ContainerOffsetTable.cFileName);
+  }
+
+  @Override
+  protected void writeStackData(final StackInterface pStack) throws IOException
+  {
+    final long lSizeInBytes = pStack.getSizeInBytes();
+
+    if (mSegmentFileChannel == null
+        || mSegmentPositionInBytes
+           + lSizeInBytes > mSegmentLengthInBytes)
+      openNextSegment(lSizeInBytes);
+
+    pStack.getFragmentedMemory()
+          .writeBytesToFileChannel(mSegmentFileChannel,
+                                   mSegmentPositionInBytes);
+
+    mLastStackDataOffsetInBytes = mSegmentPositionInBytes;
+    mPendingOffsetTableEntries.write(ContainerOffsetTable.encode(mSegmentIndex,
+                                                                 mSegmentPositionInBytes,
+                                                                 lSizeInBytes));
+    mSegmentPositionInBytes = align(mSegmentPositionInBytes
+                                    + lSizeInBytes);
+  }
+
+  @Override
+  protected long getStackDataOffsetInBytes()
+  {
+    return mLastStackDataOffsetInBytes;
+  }
+
+  private void openNextSegment(long pMinimalSizeInBytes) throws IOException
+  {
+    closeSegment();
+
+    mSegmentIndex++;
+    mSegmentLengthInBytes = Math.max(mSegmentSizeInBytes,
+                                     align(pMinimalSizeInBytes));
+    mSegmentPositionInBytes = 0;
+
+    final File lSegmentFile =
+                            ContainerOffsetTable.getSegmentFile(mStacksFolder,
+                                                                mSegmentIndex);
+    mSegmentFileChannel = FileChannel.open(lSegmentFile.toPath(),
+                                           StandardOpenOption.READ,
+                                           StandardOpenOption.WRITE,
+                                           StandardOpenOption.CREATE);
+  }
+
+  private void closeSegment() throws IOException
+  {
+    if (mSegmentFileChannel == null)
+      return;
+
+    mSegmentFileChannel.force(true);
+    mSegmentFileChannel.close();
+    mSegmentFileChannel = null;
+  }
+
+  @Override
+  public void commit() throws IOException
+  {
+    synchronized (mLock)
+    {
+      if (mSegmentFileChannel != null)
+        mSegmentFileChannel.force(false);
+
+      if (mPendingOffsetTableEntries.size() > 0)
+      {
+        if (mOffsetTableFileChannel == null)
+          mOffsetTableFileChannel = getFileChannel(mOffsetTableFile,
+                                                   false);
+        final ByteBuffer lByteBuffer =
+                                     ByteBuffer.wrap(mPendingOffsetTableEntries.toByteArray());
+        while (lByteBuffer.hasRemaining())
+          mOffsetTableFileChannel.write(lByteBuffer);
+        mPendingOffsetTableEntries.reset();
+        mOffsetTableFileChannel.force(true);
+      }
+
+      super.commit();
+    }
+  }
+
+  private static long align(long pOffsetInBytes)
+  {
+    return ((pOffsetInBytes + cAlignmentInBytes - 1) / cAlignmentInBytes)
+           * cAlignmentInBytes;
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    synchronized (mLock)
+    {
+      super.close();
+      closeSegment();
+      if (mOffsetTableFileChannel != null)
+        mOffsetTableFileChannel.close();
+      mOffsetTableFileChannel = null;
+    }
+  }
+
+}
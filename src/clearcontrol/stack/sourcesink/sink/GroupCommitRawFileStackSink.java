@@ -0,0 +1,254 @@
+package clearcontrol.stack.sourcesink.sink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import clearcontrol.core.concurrent.executors.AsynchronousSchedulerServiceAccess;
+import clearcontrol.core.concurrent.executors.ClearControlExecutors;
+import clearcontrol.core.concurrent.executors.WaitingScheduledFuture;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.sourcesink.BinaryStackIndex;
+
+/**
+ * Raw file stack sink with group commit. The file format is identical to
+ * {@link RawFileStackSink}, but the index and metadata file channels are kept
+ * open for the lifetime of the dataset, and index and metadata entries are
+ * batched and only written and forced to disk every N stacks or every T
+ * milliseconds (whichever comes first). A timer commits pending entries once T
+ * milliseconds have elapsed even if no further stack is appended. Stack data
+ * is forced and its file closed as soon as it is written, so that the index
+ * never points to missing data and no file handle is held per pending stack.
+ *
+ * @author royer
+ */
+public class GroupCommitRawFileStackSink extends RawFileStackSink
+                                         implements
+                                         AsynchronousSchedulerServiceAccess
+{
+
+  private static final int cDefaultCommitNumberOfStacks = 32;
+  private static final long cDefaultCommitPeriodInMilliseconds = 1000;
+
+  private final int mCommitNumberOfStacks;
+  private final long mCommitPeriodInNanoseconds;
+
+  protected final Object mLock = new Object();
+
+  private FileChannel mIndexFileChannel;
+  private FileChannel mBinaryIndexFileChannel;
+  private FileChannel mMetaDataFileChannel;
+
+  private final StringBuilder mPendingIndexEntries =
+                                                   new StringBuilder();
+  private final ByteArrayOutputStream mPendingBinaryIndexEntries =
+                                                               new ByteArrayOutputStream();
+  private final StringBuilder mPendingMetaDataEntries =
+                                                      new StringBuilder();
+
+  private int mNumberOfUncommittedStacks;
+  private volatile long mLastCommitTimeInNanoseconds = System.nanoTime();
+  private WaitingScheduledFuture<?> mCommitTimerFuture;
+
+  /**
+   * Instantiates a group commit raw file stack sink with default commit
+   * parameters.
+   *
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public GroupCommitRawFileStackSink() throws IOException
+  {
+    this(cDefaultCommitNumberOfStacks,
+         cDefaultCommitPeriodInMilliseconds,
+         TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Instantiates a group commit raw file stack sink that commits every given
+   * number of stacks or after a given period of time has elapsed since the last
+   * commit.
+   *
+   * @param pCommitNumberOfStacks
+   *          number of stacks after which a commit is done
+   * @param pCommitPeriod
+   *          maximal period between commits
+   * @param pTimeUnit
+   *          commit period time unit
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public GroupCommitRawFileStackSink(int pCommitNumberOfStacks,
+                                     long pCommitPeriod,
+                                     TimeUnit pTimeUnit) throws IOException
+  {
+    super();
+    mCommitNumberOfStacks = Math.max(1, pCommitNumberOfStacks);
+    mCommitPeriodInNanoseconds = pTimeUnit.toNanos(pCommitPeriod);
+  }
+
+  @Override
+  public boolean appendStack(final StackInterface pStack)
+  {
+    synchronized (mLock)
+    {
+      if (!super.appendStack(pStack))
+        return false;
+      mNumberOfUncommittedStacks++;
+
+      if (mCommitTimerFuture == null && mCommitPeriodInNanoseconds > 0)
+        mCommitTimerFuture =
+                           scheduleAtFixedRate(this::commitIfDue,
+                                               mCommitPeriodInNanoseconds,
+                                               mCommitPeriodInNanoseconds,
+                                               TimeUnit.NANOSECONDS);
+
+      if (mNumberOfUncommittedStacks >= mCommitNumberOfStacks
+          || System.nanoTime()
+             - mLastCommitTimeInNanoseconds >= mCommitPeriodInNanoseconds)
+      {
+        try
+        {
+          commit();
+        }
+        catch (IOException e)
+        {
+          e.printStackTrace();
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  @Override
+  protected void writeIndexFileEntry(final StackInterface pStack) throws IOException
+  {
+    mPendingIndexEntries.append(getIndexFileEntry(pStack));
+    mPendingBinaryIndexEntries.write(getBinaryIndexFileEntry(pStack));
+  }
+
+  @Override
+  protected void writeMetaDataFileEntry(final StackInterface pStack) throws IOException
+  {
+    mPendingMetaDataEntries.append(getMetaDataFileEntry(pStack));
+  }
+
+  /**
+   * Writes and forces all pending index and metadata entries.
+   *
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public void commit() throws IOException
+  {
+    synchronized (mLock)
+    {
+      if (mIndexFileChannel == null)
+        mIndexFileChannel = getFileChannel(mIndexFile, false);
+      if (mBinaryIndexFileChannel == null)
+      {
+        mBinaryIndexFileChannel = getFileChannel(mBinaryIndexFile,
+                                                 false);
+        BinaryStackIndex.writeHeaderIfNeeded(mBinaryIndexFileChannel);
+      }
+      if (mMetaDataFileChannel == null)
+        mMetaDataFileChannel = getFileChannel(mMetaDataFile, false);
+
+      writeFully(mIndexFileChannel, mPendingIndexEntries);
+      writeFully(mMetaDataFileChannel, mPendingMetaDataEntries);
+      final ByteBuffer lBinaryIndexEntries =
+                                           ByteBuffer.wrap(mPendingBinaryIndexEntries.toByteArray());
+      while (lBinaryIndexEntries.hasRemaining())
+        mBinaryIndexFileChannel.write(lBinaryIndexEntries);
+      mPendingBinaryIndexEntries.reset();
+
+      mIndexFileChannel.force(true);
+      mBinaryIndexFileChannel.force(true);
+      mMetaDataFileChannel.force(true);
+
+      mNumberOfUncommittedStacks = 0;
+      mLastCommitTimeInNanoseconds = System.nanoTime();
+    }
+  }
+
+  private void commitIfDue()
+  {
+    synchronized (mLock)
+    {
+      final long lElapsedTimeInNanoseconds =
+                                           System.nanoTime()
+                                             - mLastCommitTimeInNanoseconds;
+      if (mNumberOfUncommittedStacks == 0
+          || lElapsedTimeInNanoseconds < mCommitPeriodInNanoseconds)
+        return;
+      try
+      {
+        commit();
+      }
+      catch (IOException e)
+      {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  private static void writeFully(FileChannel pFileChannel,
+                                 StringBuilder pPendingEntries) throws IOException
+  {
+    if (pPendingEntries.length() == 0)
+      return;
+    final ByteBuffer lByteBuffer =
+                                 ByteBuffer.wrap(pPendingEntries.toString()
+                                                                .getBytes());
+    while (lByteBuffer.hasRemaining())
+      pFileChannel.write(lByteBuffer);
+    pPendingEntries.setLength(0);
+  }
+
+  /**
+   * Returns the number of stacks appended but not yet committed to disk.
+   *
+   * @return number of uncommitted stacks
+   */
+  public int getNumberOfUncommittedStacks()
+  {
+    synchronized (mLock)
+    {
+      return mNumberOfUncommittedStacks;
+    }
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    synchronized (mLock)
+    {
+      if (mCommitTimerFuture != null)
+      {
+        mCommitTimerFuture.cancel(false);
+        mCommitTimerFuture = null;
+        final ScheduledThreadPoolExecutor lScheduledThreadPoolExecutor =
+                                                                       ClearControlExecutors.getScheduledThreadPoolExecutor(this);
+        if (lScheduledThreadPoolExecutor != null)
+          lScheduledThreadPoolExecutor.shutdown();
+        ClearControlExecutors.resetScheduledThreadPoolExecutor(this);
+      }
+      commit();
+      if (mIndexFileChannel != null)
+        mIndexFileChannel.close();
+      if (mBinaryIndexFileChannel != null)
+        mBinaryIndexFileChannel.close();
+      if (mMetaDataFileChannel != null)
+        mMetaDataFileChannel.close();
+      mIndexFileChannel = null;
+      mBinaryIndexFileChannel = null;
+      mMetaDataFileChannel = null;
+    }
+    super.close();
+  }
+
+}
@@ -8,9 +8,11 @@ import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicLong;
 
 import clearcontrol.core.units.Magnitude;
+import clearcontrol.core.variable.Variable;
 import clearcontrol.stack.StackInterface;
 import clearcontrol.stack.StackRequest;
 import clearcontrol.stack.metadata.StackMetaData;
+import clearcontrol.stack.sourcesink.BinaryStackIndex;
 import clearcontrol.stack.sourcesink.FileStackBase;
 import coremem.fragmented.FragmentedMemoryInterface;
 
@@ -27,6 +29,22 @@ public class RawFileStackSink extends FileStackBase implements
   private final AtomicLong mFirstTimePointAbsoluteNanoSeconds =
                                                               new AtomicLong();
   private final AtomicLong mNextFreeStackIndex = new AtomicLong();
+  private final AtomicLong mMetaDataFileLengthInBytes = new AtomicLong();
+
+  private final AtomicLong mFirstAppendTimeInNanoseconds =
+                                                         new AtomicLong(-1);
+  private final AtomicLong mTotalNumberOfBytesWritten =
+                                                      new AtomicLong();
+
+  private final Variable<Double> mSustainedWriteSpeedVariable =
+                                                              new Variable<Double>("SustainedWriteSpeedInMBPerSecond",
+                                                                                   0.0);
+  private final Variable<Double> mStackLatencyVariable =
+                                                       new Variable<Double>("StackLatencyInMilliseconds",
+                                                                            0.0);
+  private final Variable<Double> mMaxStackLatencyVariable =
+                                                          new Variable<Double>("MaxStackLatencyInMilliseconds",
+                                                                               0.0);
 
   /**
    * Instantiates a raw file stack sink given a root folder and dataset name.
@@ -39,12 +57,24 @@ public class RawFileStackSink extends FileStackBase implements
     super(false);
   }
 
+  @Override
+  public void setLocation(final File pRootFolder, final String pName)
+  {
+    super.setLocation(pRootFolder, pName);
+    // metadata entries are appended to an existing metadata file, so their
+    // offsets start at its current length:
+    mMetaDataFileLengthInBytes.set(mMetaDataFile.length());
+  }
+
   @Override
   public boolean appendStack(final StackInterface pStack)
   {
 
     try
     {
+      final long lStartTimeInNanoseconds = System.nanoTime();
+      mFirstAppendTimeInNanoseconds.compareAndSet(-1,
+                                                  lStartTimeInNanoseconds);
 
       writeStackData(pStack);
       writeIndexFileEntry(pStack);
@@ -53,6 +83,10 @@ public class RawFileStackSink extends FileStackBase implements
       mStackIndexToStackRequestMap.put(mNextFreeStackIndex.get(),
                                        StackRequest.buildFrom(pStack));
       mNextFreeStackIndex.incrementAndGet();
+
+      updateCounters(pStack.getSizeInBytes(),
+                     lStartTimeInNanoseconds,
+                     System.nanoTime());
       return true;
     }
     catch (final Throwable e)
@@ -62,30 +96,115 @@ public class RawFileStackSink extends FileStackBase implements
     }
   }
 
+  private void updateCounters(long pSizeInBytes,
+                              long pStartTimeInNanoseconds,
+                              long pStopTimeInNanoseconds)
+  {
+    final long lTotalNumberOfBytesWritten =
+                                          mTotalNumberOfBytesWritten.addAndGet(pSizeInBytes);
+
+    final double lStackLatencyInMilliseconds =
+                                             Magnitude.nano2milli(pStopTimeInNanoseconds
+                                                                  - pStartTimeInNanoseconds);
+    mStackLatencyVariable.set(lStackLatencyInMilliseconds);
+    if (lStackLatencyInMilliseconds > mMaxStackLatencyVariable.get())
+      mMaxStackLatencyVariable.set(lStackLatencyInMilliseconds);
+
+    final double lElapsedTimeInSeconds =
+                                       Magnitude.nano2unit(pStopTimeInNanoseconds
+                                                           - mFirstAppendTimeInNanoseconds.get());
+    if (lElapsedTimeInSeconds > 0)
+      mSustainedWriteSpeedVariable.set((lTotalNumberOfBytesWritten
+                                        * 1e-6)
+                                       / lElapsedTimeInSeconds);
+  }
+
   protected void writeStackData(final StackInterface pStack) throws IOException
   {
-    String lFileName = String.format("tp%d.raw",
-                                     mNextFreeStackIndex.get());
-    File lFile = new File(mStacksFolder, lFileName);
+    FileChannel lBinnaryFileChannel = openStackDataFileChannel(pStack);
+
+    lBinnaryFileChannel.force(false);
+    lBinnaryFileChannel.close();
+  }
+
+  /**
+   * Opens the file channel for the next stack's data file, and writes the
+   * stack's data into it. The channel is returned open and it is the
+   * responsibility of the caller to force and close it.
+   * 
+   * @param pStack
+   *          stack to write
+   * @return open file channel
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  protected FileChannel openStackDataFileChannel(final StackInterface pStack) throws IOException
+  {
+    File lFile = getStackFile(mNextFreeStackIndex.get());
     FileChannel lBinnaryFileChannel = getFileChannel(lFile, false);
+    writeStackDataToFileChannel(pStack, lBinnaryFileChannel);
+    return lBinnaryFileChannel;
+  }
+
+  /**
+   * Writes the stack's data to the given (freshly opened) data file channel.
+   * Subclasses can override this to change the on-disk encoding of stacks.
+   * 
+   * @param pStack
+   *          stack to write
+   * @param pFileChannel
+   *          data file channel
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  protected void writeStackDataToFileChannel(final StackInterface pStack,
+                                             final FileChannel pFileChannel) throws IOException
+  {
     FragmentedMemoryInterface lFragmentedMemory =
                                                 pStack.getFragmentedMemory();
 
-    lFragmentedMemory.writeBytesToFileChannel(lBinnaryFileChannel, 0);
-
-    lBinnaryFileChannel.force(false);
-    lBinnaryFileChannel.close();
+    lFragmentedMemory.writeBytesToFileChannel(pFileChannel, 0);
   }
 
   protected void writeIndexFileEntry(final StackInterface pStack) throws IOException
+  {
+    final FileChannel lIndexFileChannel = getFileChannel(mIndexFile,
+                                                         false);
+
+    final byte[] lIndexLineStringBytes =
+                                       getIndexFileEntry(pStack).getBytes();
+    final ByteBuffer lIndexLineStringByteBuffer =
+                                                ByteBuffer.wrap(lIndexLineStringBytes);
+    lIndexFileChannel.write(lIndexLineStringByteBuffer);
+    lIndexFileChannel.force(true);
+    lIndexFileChannel.close();
+
+    final FileChannel lBinaryIndexFileChannel =
+                                              getFileChannel(mBinaryIndexFile,
+                                                             false);
+    BinaryStackIndex.writeHeaderIfNeeded(lBinaryIndexFileChannel);
+    final ByteBuffer lBinaryIndexEntryByteBuffer =
+                                                 ByteBuffer.wrap(getBinaryIndexFileEntry(pStack));
+    while (lBinaryIndexEntryByteBuffer.hasRemaining())
+      lBinaryIndexFileChannel.write(lBinaryIndexEntryByteBuffer);
+    lBinaryIndexFileChannel.force(true);
+    lBinaryIndexFileChannel.close();
+  }
+
+  /**
+   * Returns the index file entry (one line) for the next stack, and registers
+   * the stack's time stamp.
+   * 
+   * @param pStack
+   *          stack
+   * @return index file line
+   */
+  protected String getIndexFileEntry(final StackInterface pStack)
   {
     long[] lDimensions = pStack.getDimensions();
 
     final String lDimensionsString = Arrays.toString(lDimensions);
 
-    final FileChannel lIndexFileChannel = getFileChannel(mIndexFile,
-                                                         false);
-
     if (mNextFreeStackIndex.get() == 0)
     {
       mFirstTimePointAbsoluteNanoSeconds.set(pStack.getMetaData()
@@ -105,13 +224,38 @@ public class RawFileStackSink extends FileStackBase implements
                                                 lTimeStampInSeconds,
                                                 lDimensionsString.substring(1,
                                                                             lDimensionsString.length()
-                                                                               - 2));
-    final byte[] lIndexLineStringBytes = lIndexLineString.getBytes();
-    final ByteBuffer lIndexLineStringByteBuffer =
-                                                ByteBuffer.wrap(lIndexLineStringBytes);
-    lIndexFileChannel.write(lIndexLineStringByteBuffer);
-    lIndexFileChannel.force(true);
-    lIndexFileChannel.close();
+                                                                               - 1));
+    return lIndexLineString;
+  }
+
+  /**
+   * Returns the binary index file record for the next stack. This must be
+   * called after getIndexFileEntry and before getMetaDataFileEntry for the
+   * same stack.
+   * 
+   * @param pStack
+   *          stack
+   * @return binary index record
+   */
+  protected byte[] getBinaryIndexFileEntry(final StackInterface pStack)
+  {
+    final long lStackIndex = mNextFreeStackIndex.get();
+    return BinaryStackIndex.encode(lStackIndex,
+                                   mStackIndexToTimeStampInSecondsMap.get(lStackIndex),
+                                   pStack.getDimensions(),
+                                   getStackDataOffsetInBytes(),
+                                   mMetaDataFileLengthInBytes.get());
+  }
+
+  /**
+   * Returns the byte offset of the last written stack's data within its data
+   * file. Stacks are written to their own files so this is always zero here.
+   * 
+   * @return data offset in bytes
+   */
+  protected long getStackDataOffsetInBytes()
+  {
+    return 0;
   }
 
   protected void writeMetaDataFileEntry(final StackInterface pStack) throws IOException
@@ -120,10 +264,8 @@ public class RawFileStackSink extends FileStackBase implements
                                            getFileChannel(mMetaDataFile,
                                                           false);
 
-    StackMetaData lMetaData = pStack.getMetaData();
-
-    final String lMetaDataString = lMetaData.toString() + "\n";
-    final byte[] lMetaDataStringBytes = lMetaDataString.getBytes();
+    final byte[] lMetaDataStringBytes =
+                                      getMetaDataFileEntry(pStack).getBytes();
     final ByteBuffer lMetaDataStringByteBuffer =
                                                ByteBuffer.wrap(lMetaDataStringBytes);
     lMetaDataFileChannel.write(lMetaDataStringByteBuffer);
@@ -131,6 +273,54 @@ public class RawFileStackSink extends FileStackBase implements
     lMetaDataFileChannel.close();
   }
 
+  /**
+   * Returns the metadata file entry (one line) for a given stack
+   * 
+   * @param pStack
+   *          stack
+   * @return metadata file line
+   */
+  protected String getMetaDataFileEntry(final StackInterface pStack)
+  {
+    StackMetaData lMetaData = pStack.getMetaData();
+    final String lMetaDataString = lMetaData.toString() + "\n";
+    mMetaDataFileLengthInBytes.addAndGet(lMetaDataString.getBytes().length);
+    return lMetaDataString;
+  }
+
+  /**
+   * Returns the variable holding the sustained write speed in MB/s, measured
+   * from the first appended stack.
+   * 
+   * @return sustained write speed variable
+   */
+  public Variable<Double> getSustainedWriteSpeedVariable()
+  {
+    return mSustainedWriteSpeedVariable;
+  }
+
+  /**
+   * Returns the variable holding the latency in milliseconds of the last
+   * appendStack call.
+   * 
+   * @return stack latency variable
+   */
+  public Variable<Double> getStackLatencyVariable()
+  {
+    return mStackLatencyVariable;
+  }
+
+  /**
+   * Returns the variable holding the maximal observed appendStack latency in
+   * milliseconds.
+   * 
+   * @return max stack latency variable
+   */
+  public Variable<Double> getMaxStackLatencyVariable()
+  {
+    return mMaxStackLatencyVariable;
+  }
+
   @Override
   public void close() throws IOException
   {
@@ -0,0 +1,547 @@
+package clearcontrol.stack.sourcesink.sink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import clearcontrol.core.concurrent.asyncprocs.AsynchronousProcessorBase;
+import clearcontrol.core.log.LoggingInterface;
+import clearcontrol.core.units.Magnitude;
+import clearcontrol.core.variable.Variable;
+import clearcontrol.stack.ContiguousOffHeapPlanarStackFactory;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+import clearcontrol.stack.sourcesink.BinaryStackIndex;
+import coremem.fragmented.FragmentedMemoryInterface;
+import coremem.recycling.BasicRecycler;
+
+/**
+ * Striped raw file stack sink. Stacks are fanned out across several volumes
+ * (root folders, typically on different disks), each volume has its own writer
+ * thread and queue. Appended stacks are copied into internal buffers so that
+ * the caller can immediately reuse them, the number of buffered stacks is
+ * bounded and appendStack blocks when all buffers are in flight.
+ *
+ * The index and metadata files are kept in the dataset folder of the first
+ * volume - the one given to setLocation - and have the same format as for
+ * {@link RawFileStackSink}. Entries are written in stack order, and only once
+ * the stack's data is on disk. Stacks that cannot be written get no entries,
+ * and the sink then refuses further stacks and fails on close. A
+ * 'volumes.txt' file lists the stack folders of all volumes so that
+ * {@link clearcontrol.stack.sourcesink.source.RawFileStackSource} can read
+ * back the dataset transparently.
+ *
+ * @author royer
+ */
+public class StripedRawFileStackSink extends RawFileStackSink
+                                     implements LoggingInterface
+{
+
+  /**
+   * Striping policy
+   */
+  public enum StripingPolicy
+  {
+   /**
+    * Volumes are used one after the other
+    */
+   RoundRobin,
+
+   /**
+    * Stacks are sent to the volume with the shortest queue
+    */
+   LeastLoaded
+  }
+
+  private static final int cDefaultQueueLengthPerVolume = 4;
+  private static final long cTimeOutInSeconds = 60;
+
+  private final ArrayList<File> mVolumeRootFolders = new ArrayList<>();
+  private final ArrayList<VolumeWriter> mVolumeWriters =
+                                                       new ArrayList<>();
+  private volatile StripingPolicy mStripingPolicy =
+                                                  StripingPolicy.LeastLoaded;
+  private final int mQueueLengthPerVolume;
+  private int mNextRoundRobinVolume;
+
+  private BasicRecycler<StackInterface, StackRequest> mBufferStackRecycler;
+
+  private final Object mAppendLock = new Object();
+  private PendingStack mCurrentPendingStack;
+
+  private final Object mIndexLock = new Object();
+  private final ArrayDeque<PendingStack> mPendingStacks =
+                                                        new ArrayDeque<>();
+  private FileChannel mIndexFileChannel;
+  private FileChannel mBinaryIndexFileChannel;
+  private FileChannel mMetaDataFileChannel;
+  private long mSkippedMetaDataBytes;
+
+  private volatile Throwable mWriteFailure;
+
+  /**
+   * Instantiates a striped raw file stack sink without additional volumes. The
+   * folder given to setLocation is the first volume, more volumes can be added
+   * with addVolume before calling setLocation.
+   *
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public StripedRawFileStackSink() throws IOException
+  {
+    this(cDefaultQueueLengthPerVolume);
+  }
+
+  /**
+   * Instantiates a striped raw file stack sink with the given additional volume
+   * root folders. The folder given to setLocation is the first volume.
+   *
+   * @param pQueueLengthPerVolume
+   *          maximal number of stacks queued per volume
+   * @param pAdditionalVolumeRootFolders
+   *          root folders of the additional volumes
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public StripedRawFileStackSink(int pQueueLengthPerVolume,
+                                 File... pAdditionalVolumeRootFolders) throws IOException
+  {
+    super();
+    mQueueLengthPerVolume = Math.max(1, pQueueLengthPerVolume);
+    mVolumeRootFolders.addAll(Arrays.asList(pAdditionalVolumeRootFolders));
+  }
+
+  /**
+   * Adds a volume, must be called before setLocation.
+   *
+   * @param pVolumeRootFolder
+   *          root folder on the volume
+   */
+  public void addVolume(File pVolumeRootFolder)
+  {
+    if (!mVolumeWriters.isEmpty())
+      throw new IllegalStateException("Volumes must be added before the location is set");
+    mVolumeRootFolders.add(pVolumeRootFolder);
+  }
+
+  /**
+   * Sets the striping policy
+   *
+   * @param pStripingPolicy
+   *          striping policy
+   */
+  public void setStripingPolicy(StripingPolicy pStripingPolicy)
+  {
+    mStripingPolicy = pStripingPolicy;
+  }
+
+  @Override
+  public void setLocation(final File pRootFolder, final String pName)
+  {
+    super.setLocation(pRootFolder, pName);
+
+    final ArrayList<File> lStacksFolders = new ArrayList<>();
+    lStacksFolders.add(mStacksFolder);
+    for (File lVolumeRootFolder : mVolumeRootFolders)
+    {
+      final File lStacksFolder =
+                               new File(new File(lVolumeRootFolder, pName),
+                                        "/stacks/");
+      lStacksFolder.mkdirs();
+      lStacksFolders.add(lStacksFolder);
+    }
+
+    final StringBuilder lVolumesFileContent = new StringBuilder();
+    for (int v = 0; v < lStacksFolders.size(); v++)
+    {
+      lVolumesFileContent.append(lStacksFolders.get(v)
+                                               .getAbsolutePath())
+                         .append('\n');
+      final VolumeWriter lVolumeWriter =
+                                       new VolumeWriter(v,
+                                                        lStacksFolders.get(v));
+      lVolumeWriter.start();
+      mVolumeWriters.add(lVolumeWriter);
+    }
+
+    try (FileChannel lVolumesFileChannel = getFileChannel(mVolumesFile,
+                                                          false))
+    {
+      lVolumesFileChannel.write(ByteBuffer.wrap(lVolumesFileContent.toString()
+                                                                   .getBytes()));
+      lVolumesFileChannel.force(true);
+    }
+    catch (IOException e)
+    {
+      severe("Cannot write volumes file: %s", mVolumesFile);
+      e.printStackTrace();
+    }
+
+    mBufferStackRecycler =
+                         new BasicRecycler<StackInterface, StackRequest>(new ContiguousOffHeapPlanarStackFactory(),
+                                                                         mQueueLengthPerVolume
+                                                                           * lStacksFolders.size());
+  }
+
+  /**
+   * Returns the number of volumes
+   *
+   * @return number of volumes
+   */
+  public int getNumberOfVolumes()
+  {
+    return mVolumeWriters.size();
+  }
+
+  /**
+   * Returns the variable holding the queue depth (number of stacks waiting or
+   * being written) of a given volume.
+   *
+   * @param pVolumeIndex
+   *          volume index
+   * @return queue depth variable
+   */
+  public Variable<Integer> getQueueDepthVariable(int pVolumeIndex)
+  {
+    return mVolumeWriters.get(pVolumeIndex).mQueueDepthVariable;
+  }
+
+  /**
+   * Returns the variable holding the write throughput in MB/s of a given
+   * volume. The throughput is measured over the time spent writing, so that a
+   * slow disk shows up even when it is not saturated.
+   *
+   * @param pVolumeIndex
+   *          volume index
+   * @return throughput variable
+   */
+  public Variable<Double> getThroughputVariable(int pVolumeIndex)
+  {
+    return mVolumeWriters.get(pVolumeIndex).mThroughputVariable;
+  }
+
+  @Override
+  public boolean appendStack(final StackInterface pStack)
+  {
+    synchronized (mAppendLock)
+    {
+      if (mVolumeWriters.isEmpty())
+      {
+        severe("Location not set");
+        return false;
+      }
+      if (mWriteFailure != null)
+      {
+        severe("A stack could not be written, not appending anymore to dataset: %s",
+               mFolder);
+        return false;
+      }
+      return super.appendStack(pStack);
+    }
+  }
+
+  @Override
+  protected void writeStackData(final StackInterface pStack) throws IOException
+  {
+    final StackInterface lBufferStack =
+                                      mBufferStackRecycler.getOrWait(cTimeOutInSeconds,
+                                                                     TimeUnit.SECONDS,
+                                                                     StackRequest.buildFrom(pStack));
+    if (lBufferStack == null)
+      throw new IOException("Timeout while waiting for a free stack buffer");
+
+    // plane by plane, the appended stack's planes need not be contiguous:
+    final FragmentedMemoryInterface lFragmentedMemory =
+                                                      pStack.getFragmentedMemory();
+    final FragmentedMemoryInterface lBufferFragmentedMemory =
+                                                            lBufferStack.getFragmentedMemory();
+    for (int p = 0; p < pStack.getDepth(); p++)
+      lBufferFragmentedMemory.get(p).copyFrom(lFragmentedMemory.get(p));
+
+    final VolumeWriter lVolumeWriter = chooseVolume();
+    mCurrentPendingStack = new PendingStack();
+    mCurrentPendingStack.mStack = lBufferStack;
+    mCurrentPendingStack.mVolumeWriter = lVolumeWriter;
+    mCurrentPendingStack.mFile =
+                               new File(lVolumeWriter.mStacksFolder,
+                                        getStackFile(getNumberOfStacks()).getName());
+  }
+
+  private VolumeWriter chooseVolume()
+  {
+    final int lNumberOfVolumes = mVolumeWriters.size();
+    final int lStart = mNextRoundRobinVolume;
+    mNextRoundRobinVolume = (mNextRoundRobinVolume + 1)
+                            % lNumberOfVolumes;
+
+    if (mStripingPolicy == StripingPolicy.RoundRobin)
+      return mVolumeWriters.get(lStart);
+
+    // Least loaded, ties are broken in round-robin order:
+    VolumeWriter lBestVolumeWriter = null;
+    for (int i = 0; i < lNumberOfVolumes; i++)
+    {
+      final VolumeWriter lVolumeWriter =
+                                       mVolumeWriters.get((lStart + i)
+                                                          % lNumberOfVolumes);
+      if (lBestVolumeWriter == null
+          || lVolumeWriter.mQueueDepth.get() < lBestVolumeWriter.mQueueDepth.get())
+        lBestVolumeWriter = lVolumeWriter;
+    }
+    return lBestVolumeWriter;
+  }
+
+  @Override
+  protected void writeIndexFileEntry(final StackInterface pStack) throws IOException
+  {
+    mCurrentPendingStack.mIndexEntry = getIndexFileEntry(pStack);
+    mCurrentPendingStack.mBinaryIndexEntry =
+                                           getBinaryIndexFileEntry(pStack);
+  }
+
+  @Override
+  protected void writeMetaDataFileEntry(final StackInterface pStack) throws IOException
+  {
+    final PendingStack lPendingStack = mCurrentPendingStack;
+    mCurrentPendingStack = null;
+    lPendingStack.mMetaDataEntry = getMetaDataFileEntry(pStack);
+
+    synchronized (mIndexLock)
+    {
+      mPendingStacks.add(lPendingStack);
+    }
+    lPendingStack.mVolumeWriter.enqueue(lPendingStack);
+  }
+
+  private void writeCompletedEntries() throws IOException
+  {
+    synchronized (mIndexLock)
+    {
+      final StringBuilder lIndexEntries = new StringBuilder();
+      final ByteArrayOutputStream lBinaryIndexEntries =
+                                                      new ByteArrayOutputStream();
+      final StringBuilder lMetaDataEntries = new StringBuilder();
+
+      while (!mPendingStacks.isEmpty()
+             && mPendingStacks.peek().mDone)
+      {
+        final PendingStack lPendingStack = mPendingStacks.poll();
+        if (lPendingStack.mFailed)
+        {
+          // no entries for stacks whose data is not on disk, the metadata
+          // offsets of the next stacks are shifted accordingly:
+          mSkippedMetaDataBytes +=
+                                lPendingStack.mMetaDataEntry.getBytes().length;
+          continue;
+        }
+        if (mSkippedMetaDataBytes > 0)
+          BinaryStackIndex.shiftMetaDataOffset(lPendingStack.mBinaryIndexEntry,
+                                               -mSkippedMetaDataBytes);
+        lIndexEntries.append(lPendingStack.mIndexEntry);
+        lBinaryIndexEntries.write(lPendingStack.mBinaryIndexEntry);
+        lMetaDataEntries.append(lPendingStack.mMetaDataEntry);
+      }
+
+      if (lIndexEntries.length() == 0)
+        return;
+
+      if (mIndexFileChannel == null)
+      {
+        mIndexFileChannel = getFileChannel(mIndexFile, false);
+        mBinaryIndexFileChannel = getFileChannel(mBinaryIndexFile,
+                                                 false);
+        BinaryStackIndex.writeHeaderIfNeeded(mBinaryIndexFileChannel);
+        mMetaDataFileChannel = getFileChannel(mMetaDataFile, false);
+      }
+
+      write(mIndexFileChannel, lIndexEntries.toString().getBytes());
+      write(mBinaryIndexFileChannel,
+            lBinaryIndexEntries.toByteArray());
+      write(mMetaDataFileChannel, lMetaDataEntries.toString().getBytes());
+    }
+  }
+
+  private static void write(FileChannel pFileChannel,
+                            byte[] pBytes) throws IOException
+  {
+    final ByteBuffer lByteBuffer = ByteBuffer.wrap(pBytes);
+    while (lByteBuffer.hasRemaining())
+      pFileChannel.write(lByteBuffer);
+    pFileChannel.force(true);
+  }
+
+  /**
+   * Returns the first error that prevented a stack from being written, once a
+   * stack could not be written no more stacks are appended.
+   *
+   * @return write error, or null if all stacks have been written so far
+   */
+  public Throwable getWriteFailure()
+  {
+    return mWriteFailure;
+  }
+
+  /**
+   * Waits until all appended stacks are written and indexed
+   *
+   * @param pTimeOut
+   *          time out
+   * @param pTimeUnit
+   *          time unit
+   * @return true -> success (= no timeout)
+   */
+  public boolean waitToFinish(long pTimeOut, TimeUnit pTimeUnit)
+  {
+    boolean lSuccess = true;
+    for (VolumeWriter lVolumeWriter : mVolumeWriters)
+      lSuccess &= lVolumeWriter.waitToFinish(pTimeOut, pTimeUnit);
+    return lSuccess;
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    synchronized (mAppendLock)
+    {
+      if (!waitToFinish(cTimeOutInSeconds, TimeUnit.SECONDS))
+        severe("Timeout while waiting for volume writers to finish");
+
+      for (VolumeWriter lVolumeWriter : mVolumeWriters)
+        lVolumeWriter.stop();
+
+      synchronized (mIndexLock)
+      {
+        writeCompletedEntries();
+        if (mIndexFileChannel != null)
+        {
+          mIndexFileChannel.close();
+          mBinaryIndexFileChannel.close();
+          mMetaDataFileChannel.close();
+        }
+        mIndexFileChannel = null;
+        mBinaryIndexFileChannel = null;
+        mMetaDataFileChannel = null;
+      }
+
+      if (mBufferStackRecycler != null)
+        mBufferStackRecycler.clearReleased();
+
+      super.close();
+
+      if (mWriteFailure != null)
+        throw new IOException("Some stacks could not be written to dataset: "
+                              + mFolder,
+                              mWriteFailure);
+    }
+  }
+
+  private static class PendingStack
+  {
+    StackInterface mStack;
+    VolumeWriter mVolumeWriter;
+    File mFile;
+    String mIndexEntry;
+    byte[] mBinaryIndexEntry;
+    String mMetaDataEntry;
+    volatile boolean mFailed;
+    volatile boolean mDone;
+  }
+
+  private class VolumeWriter extends
+                             AsynchronousProcessorBase<PendingStack, PendingStack>
+  {
+    private final File mStacksFolder;
+
+    private final AtomicInteger mQueueDepth = new AtomicInteger();
+    private final AtomicLong mNumberOfBytesWritten = new AtomicLong();
+    private final AtomicLong mWriteTimeInNanoseconds = new AtomicLong();
+
+    private final Variable<Integer> mQueueDepthVariable;
+    private final Variable<Double> mThroughputVariable;
+
+    public VolumeWriter(int pVolumeIndex, File pStacksFolder)
+    {
+      super("StripedRawFileStackSinkVolume" + pVolumeIndex,
+            mQueueLengthPerVolume);
+      mStacksFolder = pStacksFolder;
+      mQueueDepthVariable =
+                          new Variable<Integer>("Volume" + pVolumeIndex
+                                                + "QueueDepth", 0);
+      mThroughputVariable =
+                          new Variable<Double>("Volume" + pVolumeIndex
+                                               + "ThroughputInMBPerSecond",
+                                               0.0);
+    }
+
+    public void enqueue(PendingStack pPendingStack)
+    {
+      mQueueDepthVariable.set(mQueueDepth.incrementAndGet());
+      passOrWait(pPendingStack);
+    }
+
+    @Override
+    public PendingStack process(PendingStack pPendingStack)
+    {
+      final StackInterface lStack = pPendingStack.mStack;
+      final long lStartTimeInNanoseconds = System.nanoTime();
+      try (FileChannel lFileChannel =
+                                    getFileChannel(pPendingStack.mFile,
+                                                   false))
+      {
+        writeStackDataToFileChannel(lStack, lFileChannel);
+        lFileChannel.force(false);
+      }
+      catch (Throwable e)
+      {
+        severe("Cannot write stack file: %s", pPendingStack.mFile);
+        e.printStackTrace();
+        pPendingStack.mFailed = true;
+        if (mWriteFailure == null)
+          mWriteFailure = e;
+        pPendingStack.mFile.delete();
+      }
+      final long lStopTimeInNanoseconds = System.nanoTime();
+
+      final double lWriteTimeInSeconds =
+                                       Magnitude.nano2unit(mWriteTimeInNanoseconds.addAndGet(lStopTimeInNanoseconds
+                                                                                             - lStartTimeInNanoseconds));
+      final long lNumberOfBytesWritten =
+                                       mNumberOfBytesWritten.addAndGet(lStack.getSizeInBytes());
+      if (lWriteTimeInSeconds > 0)
+        mThroughputVariable.set((lNumberOfBytesWritten * 1e-6)
+                                / lWriteTimeInSeconds);
+
+      pPendingStack.mStack = null;
+      lStack.release();
+      pPendingStack.mDone = true;
+      mQueueDepthVariable.set(mQueueDepth.decrementAndGet());
+
+      try
+      {
+        writeCompletedEntries();
+      }
+      catch (Throwable e)
+      {
+        severe("Cannot write index entries for dataset: %s", mFolder);
+        e.printStackTrace();
+      }
+      return null;
+    }
+
+    @Override
+    public boolean waitToFinish(long pTimeOut, TimeUnit pTimeUnit)
+    {
+      waitFor(pTimeOut, pTimeUnit, () -> mQueueDepth.get() == 0);
+      return mQueueDepth.get() == 0;
+    }
+  }
+
+}
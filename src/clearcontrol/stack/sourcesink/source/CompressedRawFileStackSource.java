@@ -0,0 +1,131 @@
+package clearcontrol.stack.sourcesink.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+import clearcontrol.stack.sourcesink.CompressedStackFile;
+import coremem.ContiguousMemoryInterface;
+import coremem.recycling.BasicRecycler;
+
+/**
+ * Compressed raw file stack source. Reads datasets written by the
+ * {@link clearcontrol.stack.sourcesink.sink.CompressedRawFileStackSink}. Stacks
+ * are decompressed plane-parallel into recycled stacks, and single planes can
+ * be decompressed without reading the rest of the stack.
+ *
+ * @author royer
+ */
+public class CompressedRawFileStackSource extends RawFileStackSource
+{
+
+  private final ForkJoinPool mForkJoinPool =
+                                           new ForkJoinPool(Runtime.getRuntime()
+                                                                   .availableProcessors());
+
+  /**
+   * Instantiates a compressed raw file stack source
+   *
+   * @param pStackRecycler
+   *          stack recycler
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public CompressedRawFileStackSource(final BasicRecycler<StackInterface, StackRequest> pStackRecycler) throws IOException
+  {
+    super(pStackRecycler);
+  }
+
+  @Override
+  protected File getStackFile(final long pStackIndex)
+  {
+    return new File(mStacksFolder,
+                    String.format("tp%d.cmp", pStackIndex));
+  }
+
+  @Override
+  public StackInterface getStack(final long pStackIndex,
+                                 long pTime,
+                                 TimeUnit pTimeUnit)
+  {
+    if (getStackRecycler() == null)
+      return null;
+
+    try
+    {
+      final StackRequest lStackRequest =
+                                       mStackIndexToStackRequestMap.get(pStackIndex);
+
+      final File lFile = getStackFile(pStackIndex);
+
+      if (lStackRequest == null || !lFile.exists())
+        return null;
+
+      final StackInterface lStack =
+                                  getStackRecycler().getOrWait(pTime,
+                                                               pTimeUnit,
+                                                               lStackRequest);
+      if (lStack == null)
+        return null;
+
+      try (FileChannel lFileChannel = getFileChannel(lFile, true))
+      {
+        CompressedStackFile.read(lFileChannel, lStack, mForkJoinPool);
+      }
+
+      setStackMetaData(lStack, pStackIndex);
+
+      return lStack;
+    }
+    catch (final Throwable e)
+    {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Decompresses a single plane of a given stack into the given memory.
+   *
+   * @param pStackIndex
+   *          stack index
+   * @param pPlaneIndex
+   *          plane index
+   * @param pPlaneMemory
+   *          memory to decompress the plane into (width*height 16-bit values)
+   * @return true -> success
+   */
+  public boolean getPlane(final long pStackIndex,
+                          final int pPlaneIndex,
+                          final ContiguousMemoryInterface pPlaneMemory)
+  {
+    final File lFile = getStackFile(pStackIndex);
+    if (!lFile.exists())
+      return false;
+
+    try (FileChannel lFileChannel = getFileChannel(lFile, true))
+    {
+      CompressedStackFile.readPlane(lFileChannel,
+                                    pPlaneIndex,
+                                    pPlaneMemory);
+      return true;
+    }
+    catch (final Throwable e)
+    {
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    mForkJoinPool.shutdown();
+    super.close();
+  }
+
+}
@@ -0,0 +1,159 @@
+package clearcontrol.stack.sourcesink.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import clearcontrol.stack.OffHeapPlanarStack;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+import clearcontrol.stack.sourcesink.ContainerOffsetTable;
+import coremem.offheap.OffHeapMemory;
+import coremem.recycling.BasicRecycler;
+
+/**
+ * Container file stack source. Reads datasets written by the
+ * {@link clearcontrol.stack.sourcesink.sink.ContainerFileStackSink}. Stacks are
+ * located through the offset table and memory mapped directly from their
+ * segment file (read-only mapping, mapped stacks must not be modified). Mapped
+ * stacks do not belong to the recycler and must not be freed explicitly. Stacks
+ * that cannot be mapped are copied into recycled stacks.
+ *
+ * @author royer
+ */
+public class ContainerFileStackSource extends RawFileStackSource
+{
+
+  private File mOffsetTableFile;
+  private FileChannel mOffsetTableFileChannel;
+
+  /**
+   * Instantiates a container file stack source
+   *
+   * @param pStackRecycler
+   *          stack recycler used when stacks cannot be mapped
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public ContainerFileStackSource(final BasicRecycler<StackInterface, StackRequest> pStackRecycler) throws IOException
+  {
+    super(pStackRecycler);
+  }
+
+  @Override
+  public void setLocation(final File pRootFolder, final String pName)
+  {
+    super.setLocation(pRootFolder, pName);
+    mOffsetTableFile = new File(mFolder, ContainerOffsetTable.cFileName);
+  }
+
+  @Override
+  public StackInterface getStack(final long pStackIndex,
+                                 long pTime,
+                                 TimeUnit pTimeUnit)
+  {
+    final StackRequest lStackRequest =
+                                     mStackIndexToStackRequestMap.get(pStackIndex);
+    if (lStackRequest == null)
+      return null;
+
+    try
+    {
+      final ContainerOffsetTable.Entry lEntry = getEntry(pStackIndex);
+      if (lEntry == null)
+        return null;
+
+      final File lSegmentFile =
+                              ContainerOffsetTable.getSegmentFile(mStacksFolder,
+                                                                  lEntry.mSegmentIndex);
+
+      final MappedByteBuffer lMappedByteBuffer =
+                                               mapReadOnly(lSegmentFile,
+                                                           lEntry.mOffsetInBytes,
+                                                           lEntry.mLengthInBytes);
+
+      final StackInterface lStack;
+      if (lMappedByteBuffer != null)
+      {
+        lStack =
+               OffHeapPlanarStack.createStack(OffHeapMemory.wrapBuffer(lMappedByteBuffer),
+                                              lStackRequest.getWidth(),
+                                              lStackRequest.getHeight(),
+                                              lStackRequest.getDepth());
+      }
+      else
+      {
+        lStack = copyStack(lStackRequest,
+                           lSegmentFile,
+                           lEntry,
+                           pTime,
+                           pTimeUnit);
+        if (lStack == null)
+          return null;
+      }
+
+      setStackMetaData(lStack, pStackIndex);
+      return lStack;
+    }
+    catch (final Throwable e)
+    {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  private StackInterface copyStack(StackRequest pStackRequest,
+                                   File pSegmentFile,
+                                   ContainerOffsetTable.Entry pEntry,
+                                   long pTime,
+                                   TimeUnit pTimeUnit) throws IOException
+  {
+    if (getStackRecycler() == null)
+      return null;
+
+    final StackInterface lStack =
+                                getStackRecycler().getOrWait(pTime,
+                                                             pTimeUnit,
+                                                             pStackRequest);
+    if (lStack == null)
+      return null;
+
+    try (FileChannel lSegmentFileChannel = getFileChannel(pSegmentFile,
+                                                          true))
+    {
+      lStack.getFragmentedMemory()
+            .readBytesFromFileChannel(lSegmentFileChannel,
+                                      pEntry.mOffsetInBytes,
+                                      pEntry.mLengthInBytes);
+    }
+    return lStack;
+  }
+
+  private synchronized ContainerOffsetTable.Entry getEntry(long pStackIndex) throws IOException
+  {
+    if (mOffsetTableFileChannel == null)
+    {
+      if (mOffsetTableFile == null || !mOffsetTableFile.exists())
+        return null;
+      mOffsetTableFileChannel = getFileChannel(mOffsetTableFile, true);
+    }
+
+    if (pStackIndex >= ContainerOffsetTable.getNumberOfEntries(mOffsetTableFileChannel))
+      return null;
+
+    return ContainerOffsetTable.readEntry(mOffsetTableFileChannel,
+                                          pStackIndex);
+  }
+
+  @Override
+  public synchronized void close() throws IOException
+  {
+    if (mOffsetTableFileChannel != null)
+      mOffsetTableFileChannel.close();
+    mOffsetTableFileChannel = null;
+    super.close();
+  }
+
+}
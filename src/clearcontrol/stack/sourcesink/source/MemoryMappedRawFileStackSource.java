@@ -0,0 +1,189 @@
+package clearcontrol.stack.sourcesink.source;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import clearcontrol.core.concurrent.executors.AsynchronousExecutorServiceAccess;
+import clearcontrol.stack.OffHeapPlanarStack;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+import coremem.ContiguousMemoryInterface;
+import coremem.enums.NativeTypeEnum;
+import coremem.offheap.OffHeapMemory;
+import coremem.recycling.BasicRecycler;
+import coremem.util.Size;
+
+/**
+ * Memory mapped raw file stack source. Instead of copying the contents of each
+ * stack file into a recycled stack, the stack files are memory mapped and the
+ * mapping is directly wrapped as the stack's contiguous memory. The next few
+ * stacks are mapped and loaded into the page cache by a background thread so
+ * that sequential replay is limited by disk bandwidth only.
+ *
+ * Mappings are read-only, so datasets on read-only media or with read-only
+ * permissions are mapped too, and mapped stacks must not be modified. Mapped
+ * stacks do not belong to the recycler and must not be freed explicitly, they
+ * are unmapped once garbage collected. Stacks that cannot be mapped (too large,
+ * wrong size on disk) are read through the regular copy path.
+ *
+ * @author royer
+ */
+public class MemoryMappedRawFileStackSource extends RawFileStackSource
+                                            implements
+                                            AsynchronousExecutorServiceAccess
+{
+
+  private static final int cDefaultReadAheadNumberOfStacks = 4;
+
+  private final int mReadAheadNumberOfStacks;
+
+  private final ConcurrentHashMap<Long, Future<MappedByteBuffer>> mReadAheadMap =
+                                                                                new ConcurrentHashMap<>();
+
+  /**
+   * Instantiates a memory mapped raw file stack source with default read-ahead
+   *
+   * @param pStackRecycler
+   *          stack recycler used as fallback when stacks cannot be mapped
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public MemoryMappedRawFileStackSource(final BasicRecycler<StackInterface, StackRequest> pStackRecycler) throws IOException
+  {
+    this(pStackRecycler, cDefaultReadAheadNumberOfStacks);
+  }
+
+  /**
+   * Instantiates a memory mapped raw file stack source with a given number of
+   * stacks to read ahead.
+   *
+   * @param pStackRecycler
+   *          stack recycler used as fallback when stacks cannot be mapped
+   * @param pReadAheadNumberOfStacks
+   *          number of stacks to read ahead, 0 to disable read-ahead
+   * @throws IOException
+   *           thrown if there is an IO problem
+   */
+  public MemoryMappedRawFileStackSource(final BasicRecycler<StackInterface, StackRequest> pStackRecycler,
+                                        int pReadAheadNumberOfStacks) throws IOException
+  {
+    super(pStackRecycler);
+    mReadAheadNumberOfStacks = Math.max(0, pReadAheadNumberOfStacks);
+    initializeSerialExecutor();
+  }
+
+  @Override
+  public StackInterface getStack(final long pStackIndex,
+                                 long pTime,
+                                 TimeUnit pTimeUnit)
+  {
+    final StackRequest lStackRequest =
+                                     mStackIndexToStackRequestMap.get(pStackIndex);
+    if (lStackRequest == null)
+      return null;
+
+    final MappedByteBuffer lMappedByteBuffer = getMapping(pStackIndex);
+    readAhead(pStackIndex);
+
+    final long lExpectedSizeInBytes =
+                                    lStackRequest.getWidth()
+                                      * lStackRequest.getHeight()
+                                      * lStackRequest.getDepth()
+                                      * Size.of(NativeTypeEnum.UnsignedShort);
+
+    if (lMappedByteBuffer == null
+        || lMappedByteBuffer.capacity() != lExpectedSizeInBytes)
+      return super.getStack(pStackIndex, pTime, pTimeUnit);
+
+    final ContiguousMemoryInterface lContiguousMemory =
+                                                      OffHeapMemory.wrapBuffer(lMappedByteBuffer);
+
+    final OffHeapPlanarStack lStack =
+                                    OffHeapPlanarStack.createStack(lContiguousMemory,
+                                                                   lStackRequest.getWidth(),
+                                                                   lStackRequest.getHeight(),
+                                                                   lStackRequest.getDepth());
+    setStackMetaData(lStack, pStackIndex);
+
+    return lStack;
+  }
+
+  private MappedByteBuffer getMapping(final long pStackIndex)
+  {
+    final Future<MappedByteBuffer> lFuture =
+                                           mReadAheadMap.remove(pStackIndex);
+    try
+    {
+      if (lFuture != null)
+        return lFuture.get();
+      return map(pStackIndex);
+    }
+    catch (final Throwable e)
+    {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  private void readAhead(final long pStackIndex)
+  {
+    mReadAheadMap.keySet()
+                 .removeIf(k -> k < pStackIndex
+                                || k > pStackIndex
+                                       + mReadAheadNumberOfStacks);
+
+    for (int i = 1; i <= mReadAheadNumberOfStacks; i++)
+    {
+      final long lStackIndex = pStackIndex + i;
+      if (!mStackIndexToStackRequestMap.containsKey(lStackIndex)
+          || mReadAheadMap.containsKey(lStackIndex))
+        continue;
+
+      final Future<MappedByteBuffer> lFuture =
+                                             executeAsynchronously(() -> {
+                                               final MappedByteBuffer lMappedByteBuffer =
+                                                                                        map(lStackIndex);
+                                               if (lMappedByteBuffer != null)
+                                                 lMappedByteBuffer.load();
+                                               return lMappedByteBuffer;
+                                             });
+      mReadAheadMap.put(lStackIndex, lFuture);
+    }
+  }
+
+  private MappedByteBuffer map(final long pStackIndex) throws IOException
+  {
+    return mapReadOnly(getStackFile(pStackIndex), 0, -1);
+  }
+
+  /**
+   * Returns the number of stacks read ahead
+   *
+   * @return number of stacks read ahead
+   */
+  public int getReadAheadNumberOfStacks()
+  {
+    return mReadAheadNumberOfStacks;
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    for (Future<MappedByteBuffer> lFuture : mReadAheadMap.values())
+      lFuture.cancel(false);
+    mReadAheadMap.clear();
+    try
+    {
+      resetThreadPoolAndWaitForCompletion(1, TimeUnit.MINUTES);
+    }
+    catch (InterruptedException e)
+    {
+      e.printStackTrace();
+    }
+    super.close();
+  }
+
+}
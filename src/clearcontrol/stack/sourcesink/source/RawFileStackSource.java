@@ -4,12 +4,17 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 import java.util.concurrent.TimeUnit;
 
+import clearcontrol.core.log.LoggingInterface;
 import clearcontrol.core.units.Magnitude;
 import clearcontrol.stack.StackInterface;
 import clearcontrol.stack.StackRequest;
+import clearcontrol.stack.sourcesink.BinaryStackIndex;
 import clearcontrol.stack.sourcesink.FileStackBase;
 import coremem.recycling.BasicRecycler;
 import coremem.recycling.RecyclerInterface;
@@ -21,11 +26,20 @@ import coremem.recycling.RecyclerInterface;
  */
 public class RawFileStackSource extends FileStackBase implements
                                 StackSourceInterface,
+                                LoggingInterface,
                                 AutoCloseable
 {
 
+  private static final int cRecordBatchSize = 4096;
+
   private RecyclerInterface<StackInterface, StackRequest> mStackRecycler;
 
+  private volatile long mNumberOfIndexedRecords = 0;
+  private volatile boolean mInvalidBinaryIndex = false;
+  private volatile long mParsedTextIndexLengthInBytes = -1;
+
+  private volatile List<File> mVolumeStacksFolders;
+
   /**
    * Instantiates a raw file stack source
    * 
@@ -54,6 +68,16 @@ public class RawFileStackSource extends FileStackBase implements
 
   }
 
+  /**
+   * Returns the stack recycler
+   * 
+   * @return stack recycler
+   */
+  protected RecyclerInterface<StackInterface, StackRequest> getStackRecycler()
+  {
+    return mStackRecycler;
+  }
+
   @Override
   public StackInterface getStack(final long pStackIndex)
   {
@@ -75,35 +99,34 @@ public class RawFileStackSource extends FileStackBase implements
       final StackRequest lStackRequest =
                                        mStackIndexToStackRequestMap.get(pStackIndex);
 
+      File lFile = getStackFile(pStackIndex);
+
+      if (lStackRequest == null || !lFile.exists())
+        return null;
+
       final StackInterface lStack =
                                   mStackRecycler.getOrWait(pTime,
                                                            pTimeUnit,
                                                            lStackRequest);
-
-      String lFileName = String.format("tp%d.raw", pStackIndex);
-      File lFile = new File(mStacksFolder, lFileName);
-
-      if (!lFile.exists())
+      if (lStack == null)
         return null;
 
-      FileChannel lBinnaryFileChannel = getFileChannel(lFile, false);
-
-      if (lStack.getContiguousMemory() != null)
-        lStack.getContiguousMemory()
-              .readBytesFromFileChannel(lBinnaryFileChannel,
-                                        0,
-                                        lStack.getSizeInBytes());
-      else
-        lStack.getFragmentedMemory()
-              .readBytesFromFileChannel(lBinnaryFileChannel,
-                                        0,
-                                        lStack.getSizeInBytes());
-
-      final double lTimeStampInSeconds =
-                                       mStackIndexToTimeStampInSecondsMap.get(pStackIndex);
-      lStack.getMetaData()
-            .setTimeStampInNanoseconds((long) Magnitude.unit2nano(lTimeStampInSeconds));
-      lStack.getMetaData().setIndex(pStackIndex);
+      try (FileChannel lBinnaryFileChannel = getFileChannel(lFile,
+                                                            true))
+      {
+        if (lStack.getContiguousMemory() != null)
+          lStack.getContiguousMemory()
+                .readBytesFromFileChannel(lBinnaryFileChannel,
+                                          0,
+                                          lStack.getSizeInBytes());
+        else
+          lStack.getFragmentedMemory()
+                .readBytesFromFileChannel(lBinnaryFileChannel,
+                                          0,
+                                          lStack.getSizeInBytes());
+      }
+
+      setStackMetaData(lStack, pStackIndex);
 
       return lStack;
     }
@@ -115,12 +138,120 @@ public class RawFileStackSource extends FileStackBase implements
 
   }
 
+  /**
+   * Sets the time stamp and index metadata of a stack read from this source
+   * 
+   * @param pStack
+   *          stack
+   * @param pStackIndex
+   *          stack index
+   */
+  protected void setStackMetaData(final StackInterface pStack,
+                                  final long pStackIndex)
+  {
+    final double lTimeStampInSeconds =
+                                     mStackIndexToTimeStampInSecondsMap.get(pStackIndex);
+    pStack.getMetaData()
+          .setTimeStampInNanoseconds((long) Magnitude.unit2nano(lTimeStampInSeconds));
+    pStack.getMetaData().setIndex(pStackIndex);
+  }
+
+  @Override
+  public void setLocation(final File pRootFolder, final String pName)
+  {
+    super.setLocation(pRootFolder, pName);
+    mNumberOfIndexedRecords = 0;
+    mInvalidBinaryIndex = false;
+    mParsedTextIndexLengthInBytes = -1;
+    mVolumeStacksFolders = null;
+  }
+
   @Override
   public boolean update()
   {
-    try
+    if (mIndexFile == null)
+      return false;
+
+    if (mVolumeStacksFolders == null && mVolumesFile.exists())
+      mVolumeStacksFolders = readVolumesFile();
+
+    if (mBinaryIndexFile.exists() && !mInvalidBinaryIndex)
+      return updateFromBinaryIndex();
+    else
+      return updateFromTextIndex();
+  }
+
+  /**
+   * Reads only the binary index records appended since the last update.
+   * 
+   * @return true -> success
+   */
+  private boolean updateFromBinaryIndex()
+  {
+    try (FileChannel lBinaryIndexFileChannel =
+                                             getFileChannel(mBinaryIndexFile,
+                                                            true))
+    {
+      final long lNumberOfRecords =
+                                  BinaryStackIndex.getNumberOfRecords(lBinaryIndexFileChannel);
+      if (lNumberOfRecords == 0
+          || lNumberOfRecords == mNumberOfIndexedRecords)
+        return true;
+
+      if (!BinaryStackIndex.checkHeader(lBinaryIndexFileChannel))
+      {
+        severe("Invalid binary index file: %s, falling back to text index",
+               mBinaryIndexFile);
+        mInvalidBinaryIndex = true;
+        return updateFromTextIndex();
+      }
+
+      while (mNumberOfIndexedRecords < lNumberOfRecords)
+      {
+        final int lNumberOfRecordsToRead =
+                                         (int) Math.min(cRecordBatchSize,
+                                                        lNumberOfRecords
+                                                                          - mNumberOfIndexedRecords);
+
+        final BinaryStackIndex.Record[] lRecords =
+                                                 BinaryStackIndex.readRecords(lBinaryIndexFileChannel,
+                                                                              mNumberOfIndexedRecords,
+                                                                              lNumberOfRecordsToRead);
+
+        for (BinaryStackIndex.Record lRecord : lRecords)
+        {
+          mStackIndexToTimeStampInSecondsMap.put(lRecord.mStackIndex,
+                                                 lRecord.mTimeStampInSeconds);
+          mStackIndexToStackRequestMap.put(lRecord.mStackIndex,
+                                           StackRequest.build(lRecord.getDimensions()));
+        }
+
+        mNumberOfIndexedRecords += lNumberOfRecordsToRead;
+      }
+      return true;
+    }
+    catch (final IOException e)
     {
+      e.printStackTrace();
+      return false;
+    }
+  }
 
+  /**
+   * Parses the whole text index, this is used for datasets that have no valid
+   * binary index. The text index is parsed again only if its length changed
+   * since it was last parsed.
+   * 
+   * @return true -> success
+   */
+  private boolean updateFromTextIndex()
+  {
+    final long lTextIndexLengthInBytes = mIndexFile.length();
+    if (lTextIndexLengthInBytes == mParsedTextIndexLengthInBytes)
+      return true;
+
+    try
+    {
       final Scanner lIndexFileScanner = new Scanner(mIndexFile);
 
       while (lIndexFileScanner.hasNextLine())
@@ -149,6 +280,7 @@ public class RawFileStackSource extends FileStackBase implements
       }
 
       lIndexFileScanner.close();
+      mParsedTextIndexLengthInBytes = lTextIndexLengthInBytes;
       return true;
     }
     catch (final FileNotFoundException e)
@@ -158,6 +290,80 @@ public class RawFileStackSource extends FileStackBase implements
     }
   }
 
+  /**
+   * Reads the list of stack folders of a dataset striped across several
+   * volumes.
+   * 
+   * @return list of stack folders, or null if it can't be read
+   */
+  private List<File> readVolumesFile()
+  {
+    try
+    {
+      final List<File> lStacksFolders = new ArrayList<>();
+      for (String lLine : Files.readAllLines(mVolumesFile.toPath()))
+        if (!lLine.trim().isEmpty())
+          lStacksFolders.add(new File(lLine.trim()));
+      return lStacksFolders;
+    }
+    catch (final IOException e)
+    {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * For datasets striped across several volumes, stack files are looked up in
+   * the stack folders of all volumes.
+   */
+  @Override
+  protected File getStackFile(final long pStackIndex)
+  {
+    final File lFile = super.getStackFile(pStackIndex);
+    final List<File> lVolumeStacksFolders = mVolumeStacksFolders;
+    if (lVolumeStacksFolders == null || lFile.exists())
+      return lFile;
+
+    for (File lStacksFolder : lVolumeStacksFolders)
+    {
+      final File lVolumeFile = new File(lStacksFolder, lFile.getName());
+      if (lVolumeFile.exists())
+        return lVolumeFile;
+    }
+    return lFile;
+  }
+
+  /**
+   * Returns the binary index record for a given stack index. Records have a
+   * fixed size so this is done in constant time directly from the index file.
+   * 
+   * @param pStackIndex
+   *          stack index
+   * @return binary index record, or null if not available
+   */
+  public BinaryStackIndex.Record getIndexRecord(final long pStackIndex)
+  {
+    if (mBinaryIndexFile == null || !mBinaryIndexFile.exists())
+      return null;
+
+    try (FileChannel lBinaryIndexFileChannel =
+                                             getFileChannel(mBinaryIndexFile,
+                                                            true))
+    {
+      if (pStackIndex < 0
+          || pStackIndex >= BinaryStackIndex.getNumberOfRecords(lBinaryIndexFileChannel))
+        return null;
+      return BinaryStackIndex.readRecord(lBinaryIndexFileChannel,
+                                         pStackIndex);
+    }
+    catch (final IOException e)
+    {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
   @Override
   public void close() throws IOException
   {
@@ -0,0 +1,148 @@
+package clearcontrol.stack.sourcesink.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import clearcontrol.core.variable.Variable;
+import clearcontrol.stack.OffHeapPlanarStack;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.sourcesink.sink.AsynchronousStackSinkAdapter;
+import clearcontrol.stack.sourcesink.sink.AsynchronousStackSinkAdapter.OverflowPolicy;
+import clearcontrol.stack.sourcesink.sink.StackSinkInterface;
+
+import org.junit.Test;
+
+/**
+ * Asynchronous stack sink adapter tests
+ *
+ * @author royer
+ */
+public class AsynchronousStackSinkAdapterTests
+{
+
+  private static class GatedSink implements StackSinkInterface
+  {
+    final CountDownLatch mGate = new CountDownLatch(1);
+    final AtomicInteger mNumberOfStacks = new AtomicInteger();
+
+    @Override
+    public boolean appendStack(StackInterface pStack)
+    {
+      try
+      {
+        mGate.await();
+      }
+      catch (InterruptedException e)
+      {
+        return false;
+      }
+      mNumberOfStacks.incrementAndGet();
+      return true;
+    }
+  }
+
+  /**
+   * Tests that stacks are dropped when the queue is full and the sink is
+   * stalled, and that metrics are updated
+   */
+  @Test
+  public void testDropPolicies()
+  {
+    final OffHeapPlanarStack lStack = OffHeapPlanarStack.createStack(16,
+                                                                     16,
+                                                                     4);
+
+    for (OverflowPolicy lOverflowPolicy : new OverflowPolicy[]
+    { OverflowPolicy.DropNewest, OverflowPolicy.DropOldest })
+    {
+      final GatedSink lSink = new GatedSink();
+      final AsynchronousStackSinkAdapter lAdapter =
+                                                  new AsynchronousStackSinkAdapter(lSink,
+                                                                                   4,
+                                                                                   2,
+                                                                                   lOverflowPolicy,
+                                                                                   0);
+      final Variable<StackInterface> lDroppedStackVariable =
+                                                           new Variable<>("DroppedStack");
+      final AtomicInteger lNumberOfDroppedStacks = new AtomicInteger();
+      lDroppedStackVariable.addSetListener((o, n) -> lNumberOfDroppedStacks.incrementAndGet());
+      lAdapter.setDroppedStackVariable(lDroppedStackVariable);
+      lAdapter.start();
+
+      // two stacks are taken by the stalled workers:
+      for (int i = 0; i < 2; i++)
+        assertTrue(lAdapter.appendStack(lStack));
+      assertTrue(lAdapter.waitFor(10L,
+                                  TimeUnit.SECONDS,
+                                  () -> lAdapter.getQueueLength() == 0));
+
+      // four fill the queue:
+      for (int i = 0; i < 4; i++)
+        assertTrue(lAdapter.appendStack(lStack));
+      assertEquals(4, lAdapter.getQueueLength());
+
+      final boolean lAccepted = lAdapter.appendStack(lStack);
+      if (lOverflowPolicy == OverflowPolicy.DropNewest)
+        assertFalse(lAccepted);
+      else
+        assertTrue(lAccepted);
+
+      assertEquals(1L, (long) lAdapter.getDroppedCountVariable().get());
+      assertEquals(1, lNumberOfDroppedStacks.get());
+      assertEquals(4, (int) lAdapter.getHighWaterMarkVariable().get());
+
+      lSink.mGate.countDown();
+      assertTrue(lAdapter.waitToFinish(10, TimeUnit.SECONDS));
+      assertEquals(6, lSink.mNumberOfStacks.get());
+      assertTrue(lAdapter.stop());
+    }
+
+    lStack.free();
+  }
+
+  /**
+   * Tests that stacks are spilled to RAM when the queue is full
+   */
+  @Test
+  public void testSpillToRAM()
+  {
+    final OffHeapPlanarStack lStack = OffHeapPlanarStack.createStack(16,
+                                                                     16,
+                                                                     4);
+
+    final GatedSink lSink = new GatedSink();
+    final AsynchronousStackSinkAdapter lAdapter =
+                                                new AsynchronousStackSinkAdapter(lSink,
+                                                                                 1,
+                                                                                 1,
+                                                                                 OverflowPolicy.SpillToRAM,
+                                                                                 3 * lStack.getSizeInBytes());
+    lAdapter.start();
+
+    // one in the worker:
+    assertTrue(lAdapter.appendStack(lStack));
+    assertTrue(lAdapter.waitFor(10L,
+                                TimeUnit.SECONDS,
+                                () -> lAdapter.getQueueLength() == 0));
+
+    // one in the queue and three spilled:
+    for (int i = 0; i < 4; i++)
+      assertTrue(lAdapter.appendStack(lStack));
+    assertEquals(4, lAdapter.getQueueLength());
+
+    assertEquals(0L, (long) lAdapter.getDroppedCountVariable().get());
+
+    lSink.mGate.countDown();
+    assertTrue(lAdapter.waitToFinish(10, TimeUnit.SECONDS));
+    assertEquals(5, lSink.mNumberOfStacks.get());
+    assertTrue(lAdapter.stop());
+
+    lStack.free();
+  }
+
+}
@@ -0,0 +1,136 @@
+package clearcontrol.stack.sourcesink.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import clearcontrol.stack.ContiguousOffHeapPlanarStackFactory;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+import clearcontrol.stack.sourcesink.sink.CompressedRawFileStackSink;
+import clearcontrol.stack.sourcesink.source.CompressedRawFileStackSource;
+import clearcontrol.stack.sourcesink.synthetic.RandomStackSource;
+import coremem.offheap.OffHeapMemory;
+import coremem.recycling.BasicRecycler;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Compressed raw file stack sink and source tests
+ *
+ * @author royer
+ */
+public class CompressedRawFileStackTests
+{
+
+  private static final long cSizeX = 512;
+  private static final long cSizeY = 512;
+  private static final long cSizeZ = 64;
+
+  private static final int cNumberOfStacks = 8;
+
+  /**
+   * Writes stacks from a random stack source, reads them back and checks
+   * contents, also decodes single planes. Prints compression throughput and
+   * ratio.
+   *
+   * @throws IOException
+   *           NA
+   */
+  @Test
+  public void testSinkAndSource() throws IOException
+  {
+    final File lRootFolder =
+                           new File(File.createTempFile("test", "test")
+                                        .getParentFile(),
+                                    "CompressedRawFileStackTests"
+                                                          + Math.random());
+    lRootFolder.mkdirs();
+
+    final BasicRecycler<StackInterface, StackRequest> lStackRecycler =
+                                                                     new BasicRecycler<StackInterface, StackRequest>(new ContiguousOffHeapPlanarStackFactory(),
+                                                                                                                     4);
+
+    final RandomStackSource lRandomStackSource =
+                                               new RandomStackSource(cSizeX,
+                                                                     cSizeY,
+                                                                     cSizeZ,
+                                                                     lStackRecycler);
+
+    final CompressedRawFileStackSink lSink =
+                                           new CompressedRawFileStackSink(Runtime.getRuntime()
+                                                                                 .availableProcessors(),
+                                                                          4,
+                                                                          1,
+                                                                          TimeUnit.SECONDS);
+    lSink.setLocation(lRootFolder, "testSink");
+
+    final short[][] lExpected = new short[cNumberOfStacks][];
+    long lElapsedTimeInNanoseconds = 0;
+    long lUncompressedSizeInBytes = 0;
+    for (int i = 0; i < cNumberOfStacks; i++)
+    {
+      final StackInterface lStack = lRandomStackSource.getStack(i);
+      lExpected[i] = new short[(int) lStack.getVolume()];
+      lStack.getContiguousMemory().copyTo(lExpected[i]);
+
+      final long lStart = System.nanoTime();
+      assertTrue(lSink.appendStack(lStack));
+      lElapsedTimeInNanoseconds += System.nanoTime() - lStart;
+      lUncompressedSizeInBytes += lStack.getSizeInBytes();
+
+      lStack.release();
+    }
+    lSink.close();
+
+    final long lCompressedSizeInBytes =
+                                      FileUtils.sizeOfDirectory(lSink.getDataFolder());
+    System.out.format("speed: %g MB/s (in), ratio: %g \n",
+                      (lUncompressedSizeInBytes * 1e-6)
+                                                          / (lElapsedTimeInNanoseconds
+                                                             * 1e-9),
+                      ((double) lUncompressedSizeInBytes)
+                                                                      / lCompressedSizeInBytes);
+    assertTrue(lCompressedSizeInBytes < lUncompressedSizeInBytes);
+
+    final CompressedRawFileStackSource lSource =
+                                               new CompressedRawFileStackSource(lStackRecycler);
+    lSource.setLocation(lRootFolder, "testSink");
+    lSource.update();
+    assertEquals(cNumberOfStacks, lSource.getNumberOfStacks());
+
+    final short[] lActual = new short[(int) (cSizeX * cSizeY
+                                             * cSizeZ)];
+    for (int i = 0; i < cNumberOfStacks; i++)
+    {
+      final StackInterface lStack = lSource.getStack(i);
+      assertNotNull(lStack);
+      lStack.getContiguousMemory().copyTo(lActual);
+      assertArrayEquals(lExpected[i], lActual);
+      lStack.release();
+    }
+
+    final int lPlaneIndex = (int) (cSizeZ / 2);
+    final short[] lPlane = new short[(int) (cSizeX * cSizeY)];
+    final OffHeapMemory lPlaneMemory =
+                                     OffHeapMemory.allocateShorts(cSizeX
+                                                                  * cSizeY);
+    assertTrue(lSource.getPlane(1, lPlaneIndex, lPlaneMemory));
+    lPlaneMemory.copyTo(lPlane);
+    for (int i = 0; i < lPlane.length; i++)
+      assertEquals(lExpected[1][lPlaneIndex * lPlane.length + i],
+                   lPlane[i]);
+    lPlaneMemory.free();
+
+    lSource.close();
+
+    FileUtils.deleteDirectory(lRootFolder);
+  }
+
+}
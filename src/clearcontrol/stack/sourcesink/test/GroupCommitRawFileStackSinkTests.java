@@ -0,0 +1,195 @@
+package clearcontrol.stack.sourcesink.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import clearcontrol.stack.OffHeapPlanarStack;
+import clearcontrol.stack.sourcesink.sink.GroupCommitRawFileStackSink;
+import clearcontrol.stack.sourcesink.sink.RawFileStackSink;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Group commit raw file stack sink tests and benchmark against the plain raw
+ * file stack sink
+ *
+ * @author royer
+ */
+public class GroupCommitRawFileStackSinkTests
+{
+
+  private static final long cSizeX = 256;
+  private static final long cSizeY = 256;
+  private static final long cSizeZ = 16;
+
+  private static final int cNumberOfStacks = 200;
+
+  /**
+   * Tests that all stacks are indexed once the sink is closed
+   *
+   * @throws IOException
+   *           NA
+   */
+  @Test
+  public void testIndexCompleteAfterClose() throws IOException
+  {
+    final File lRootFolder = createRootFolder();
+
+    final GroupCommitRawFileStackSink lSink =
+                                            new GroupCommitRawFileStackSink(8,
+                                                                            1,
+                                                                            TimeUnit.HOURS);
+    lSink.setLocation(lRootFolder, "testSink");
+
+    final OffHeapPlanarStack lStack =
+                                    OffHeapPlanarStack.createStack(cSizeX,
+                                                                   cSizeY,
+                                                                   cSizeZ);
+    lStack.getMetaData().setTimeStampInNanoseconds(System.nanoTime());
+
+    for (int i = 0; i < 20; i++)
+      assertTrue(lSink.appendStack(lStack));
+
+    assertEquals(4, lSink.getNumberOfUncommittedStacks());
+    lSink.close();
+    assertEquals(0, lSink.getNumberOfUncommittedStacks());
+
+    final List<String> lIndexLines =
+                                   Files.readAllLines(new File(lSink.getFolder(),
+                                                               "index.txt").toPath());
+    assertEquals(20, lIndexLines.size());
+    assertTrue(lIndexLines.get(19)
+                          .endsWith(cSizeX + ", "
+                                    + cSizeY
+                                    + ", "
+                                    + cSizeZ));
+
+    lStack.free();
+    deleteRootFolder(lRootFolder);
+  }
+
+  /**
+   * Tests that pending stacks are committed after the commit period even if no
+   * further stack is appended
+   *
+   * @throws Exception
+   *           NA
+   */
+  @Test
+  public void testTimedCommit() throws Exception
+  {
+    final File lRootFolder = createRootFolder();
+
+    final OffHeapPlanarStack lStack =
+                                    OffHeapPlanarStack.createStack(cSizeX,
+                                                                   cSizeY,
+                                                                   cSizeZ);
+    lStack.getMetaData().setTimeStampInNanoseconds(System.nanoTime());
+
+    final GroupCommitRawFileStackSink lSink =
+                                            new GroupCommitRawFileStackSink(1000,
+                                                                            500,
+                                                                            TimeUnit.MILLISECONDS);
+    lSink.setLocation(lRootFolder, "testSink");
+
+    assertTrue(lSink.appendStack(lStack));
+    assertEquals(1, lSink.getNumberOfUncommittedStacks());
+
+    for (int i = 0; i < 500
+                    && lSink.getNumberOfUncommittedStacks() > 0; i++)
+      Thread.sleep(10);
+    assertEquals(0, lSink.getNumberOfUncommittedStacks());
+
+    lSink.close();
+    lStack.free();
+    deleteRootFolder(lRootFolder);
+  }
+
+  /**
+   * Benchmarks the plain raw file sink against the group commit sink
+   *
+   * @throws IOException
+   *           NA
+   */
+  @Test
+  public void benchmark() throws IOException
+  {
+    final File lRootFolder = createRootFolder();
+
+    final OffHeapPlanarStack lStack =
+                                    OffHeapPlanarStack.createStack(cSizeX,
+                                                                   cSizeY,
+                                                                   cSizeZ);
+    lStack.getMetaData().setTimeStampInNanoseconds(System.nanoTime());
+
+    final RawFileStackSink lRawFileStackSink = new RawFileStackSink();
+    lRawFileStackSink.setLocation(lRootFolder, "plain");
+    final double lPlainSpeed = writeStacks(lRawFileStackSink, lStack);
+
+    final GroupCommitRawFileStackSink lGroupCommitSink =
+                                                       new GroupCommitRawFileStackSink();
+    lGroupCommitSink.setLocation(lRootFolder, "groupcommit");
+    final double lGroupCommitSpeed = writeStacks(lGroupCommitSink,
+                                                 lStack);
+
+    System.out.format("plain:        %g MB/s (max latency %g ms) \n",
+                      lPlainSpeed,
+                      lRawFileStackSink.getMaxStackLatencyVariable()
+                                       .get());
+    System.out.format("group commit: %g MB/s (max latency %g ms) \n",
+                      lGroupCommitSpeed,
+                      lGroupCommitSink.getMaxStackLatencyVariable()
+                                      .get());
+
+    assertEquals(cNumberOfStacks,
+                 lGroupCommitSink.getNumberOfStacks());
+
+    lStack.free();
+    deleteRootFolder(lRootFolder);
+  }
+
+  private double writeStacks(RawFileStackSink pSink,
+                             OffHeapPlanarStack pStack) throws IOException
+  {
+    final long lStart = System.nanoTime();
+    for (int i = 0; i < cNumberOfStacks; i++)
+      assertTrue(pSink.appendStack(pStack));
+    pSink.close();
+    final long lStop = System.nanoTime();
+
+    final double lElapsedTimeInSeconds = (lStop - lStart) * 1e-9;
+    return (cNumberOfStacks * pStack.getSizeInBytes() * 1e-6)
+           / lElapsedTimeInSeconds;
+  }
+
+  private File createRootFolder() throws IOException
+  {
+    final File lRootFolder =
+                           new File(File.createTempFile("test", "test")
+                                        .getParentFile(),
+                                    "GroupCommitRawFileStackSinkTests"
+                                                      + Math.random());
+    lRootFolder.mkdirs();
+    return lRootFolder;
+  }
+
+  private void deleteRootFolder(File pRootFolder)
+  {
+    try
+    {
+      FileUtils.deleteDirectory(pRootFolder);
+    }
+    catch (Exception e)
+    {
+      System.out.println(e);
+    }
+  }
+
+}
@@ -0,0 +1,138 @@
+package clearcontrol.stack.sourcesink.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import clearcontrol.stack.ContiguousOffHeapPlanarStackFactory;
+import clearcontrol.stack.OffHeapPlanarStack;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+import clearcontrol.stack.sourcesink.sink.RawFileStackSink;
+import clearcontrol.stack.sourcesink.source.MemoryMappedRawFileStackSource;
+import clearcontrol.stack.sourcesink.source.RawFileStackSource;
+import coremem.ContiguousMemoryInterface;
+import coremem.recycling.BasicRecycler;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Memory mapped raw file stack source tests and benchmark against the copying
+ * raw file stack source
+ *
+ * @author royer
+ */
+public class MemoryMappedRawFileStackSourceTests
+{
+
+  private static final long cSizeX = 512;
+  private static final long cSizeY = 512;
+  private static final long cSizeZ = 32;
+
+  private static final int cNumberOfStacks = 32;
+
+  /**
+   * Benchmarks sequential replay with the copy and memory mapped sources
+   *
+   * @throws IOException
+   *           NA
+   */
+  @Test
+  public void benchmark() throws IOException
+  {
+    final File lRootFolder =
+                           new File(File.createTempFile("test", "test")
+                                        .getParentFile(),
+                                    "MemoryMappedRawFileStackSourceTests"
+                                                      + Math.random());
+    lRootFolder.mkdirs();
+
+    {
+      final RawFileStackSink lSink = new RawFileStackSink();
+      lSink.setLocation(lRootFolder, "dataset");
+
+      final OffHeapPlanarStack lStack =
+                                      OffHeapPlanarStack.createStack(cSizeX,
+                                                                     cSizeY,
+                                                                     cSizeZ);
+      for (int i = 0; i < cNumberOfStacks; i++)
+      {
+        lStack.getContiguousMemory().setCharAligned(0, (char) i);
+        lStack.getMetaData()
+              .setTimeStampInNanoseconds(System.nanoTime());
+        assertTrue(lSink.appendStack(lStack));
+      }
+      lSink.close();
+      lStack.free();
+    }
+
+    final BasicRecycler<StackInterface, StackRequest> lStackRecycler =
+                                                                     new BasicRecycler<StackInterface, StackRequest>(new ContiguousOffHeapPlanarStackFactory(),
+                                                                                                                     4);
+
+    final RawFileStackSource lCopySource =
+                                         new RawFileStackSource(lStackRecycler);
+    lCopySource.setLocation(lRootFolder, "dataset");
+    assertTrue(lCopySource.update());
+    final double lCopySpeed = replay(lCopySource, true);
+    lCopySource.close();
+
+    final MemoryMappedRawFileStackSource lMappedSource =
+                                                       new MemoryMappedRawFileStackSource(lStackRecycler);
+    lMappedSource.setLocation(lRootFolder, "dataset");
+    assertTrue(lMappedSource.update());
+    final double lMappedSpeed = replay(lMappedSource, false);
+    lMappedSource.close();
+
+    System.out.format("copy:   %g MB/s \n", lCopySpeed);
+    System.out.format("mapped: %g MB/s \n", lMappedSpeed);
+
+    try
+    {
+      FileUtils.deleteDirectory(lRootFolder);
+    }
+    catch (Exception e)
+    {
+      System.out.println(e);
+    }
+  }
+
+  private double replay(RawFileStackSource pSource,
+                        boolean pRelease)
+  {
+    assertEquals(cNumberOfStacks, pSource.getNumberOfStacks());
+
+    long lSum = 0;
+    final long lStart = System.nanoTime();
+    for (int i = 0; i < cNumberOfStacks; i++)
+    {
+      final StackInterface lStack = pSource.getStack(i);
+      assertNotNull(lStack);
+      assertEquals(i, lStack.getMetaData().getIndex().longValue());
+
+      final ContiguousMemoryInterface lMemory =
+                                              lStack.getContiguousMemory();
+      assertEquals(i, lMemory.getCharAligned(0));
+
+      // touch one voxel per page so that all data is actually read:
+      final long lLength = lStack.getVolume();
+      for (long j = 0; j < lLength; j += 2048)
+        lSum += lMemory.getCharAligned(j);
+
+      if (pRelease)
+        lStack.release();
+    }
+    final long lStop = System.nanoTime();
+
+    System.out.println("checksum: " + lSum);
+
+    final double lElapsedTimeInSeconds = (lStop - lStart) * 1e-9;
+    return (cNumberOfStacks * cSizeX * cSizeY * cSizeZ * 2 * 1e-6)
+           / lElapsedTimeInSeconds;
+  }
+
+}
@@ -5,6 +5,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 import net.imglib2.img.planar.PlanarCursor;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
@@ -12,7 +13,12 @@ import clearcontrol.stack.ContiguousOffHeapPlanarStackFactory;
 import clearcontrol.stack.OffHeapPlanarStack;
 import clearcontrol.stack.StackInterface;
 import clearcontrol.stack.StackRequest;
+import clearcontrol.stack.sourcesink.BinaryStackIndex;
+import clearcontrol.stack.sourcesink.sink.ContainerFileStackSink;
 import clearcontrol.stack.sourcesink.sink.RawFileStackSink;
+import clearcontrol.stack.sourcesink.sink.StripedRawFileStackSink;
+import clearcontrol.stack.sourcesink.sink.StripedRawFileStackSink.StripingPolicy;
+import clearcontrol.stack.sourcesink.source.ContainerFileStackSource;
 import clearcontrol.stack.sourcesink.source.RawFileStackSource;
 import coremem.ContiguousMemoryInterface;
 import coremem.buffers.ContiguousBuffer;
@@ -248,4 +254,240 @@ public class RawFileStackTests
     }
 
   }
+
+  /**
+   * Tests that the binary index is read incrementally and gives random access
+   * to records
+   * 
+   * @throws IOException
+   *           NA
+   */
+  @Test
+  public void testBinaryIndexIncrementalUpdate() throws IOException
+  {
+    final File lRootFolder =
+                           new File(File.createTempFile("test",
+                                                        "test")
+                                        .getParentFile(),
+                                    "LocalFileStackTests" + Math.random());
+    lRootFolder.mkdirs();
+
+    final RawFileStackSink lLocalFileStackSink =
+                                               new RawFileStackSink();
+    lLocalFileStackSink.setLocation(lRootFolder, "testSink");
+
+    final BasicRecycler<StackInterface, StackRequest> lStackRecycler =
+                                                                     new BasicRecycler<StackInterface, StackRequest>(new ContiguousOffHeapPlanarStackFactory(),
+                                                                                                                     cMaximalNumberOfAvailableStacks);
+    final RawFileStackSource lLocalFileStackSource =
+                                                   new RawFileStackSource(lStackRecycler);
+    lLocalFileStackSource.setLocation(lRootFolder, "testSink");
+
+    final OffHeapPlanarStack lStack =
+                                    OffHeapPlanarStack.createStack(cSizeX,
+                                                                   cSizeY,
+                                                                   cSizeZ);
+    lStack.getMetaData().setTimeStampInNanoseconds(System.nanoTime());
+
+    for (int i = 0; i < 3; i++)
+      assertTrue(lLocalFileStackSink.appendStack(lStack));
+
+    assertTrue(lLocalFileStackSource.update());
+    assertEquals(3, lLocalFileStackSource.getNumberOfStacks());
+
+    for (int i = 0; i < 2; i++)
+      assertTrue(lLocalFileStackSink.appendStack(lStack));
+
+    assertTrue(lLocalFileStackSource.update());
+    assertEquals(5, lLocalFileStackSource.getNumberOfStacks());
+
+    final BinaryStackIndex.Record lRecord =
+                                          lLocalFileStackSource.getIndexRecord(4);
+    assertEquals(4, lRecord.mStackIndex);
+    assertEquals(cSizeX, lRecord.mWidth);
+    assertEquals(cSizeY, lRecord.mHeight);
+    assertEquals(cSizeZ, lRecord.mDepth);
+    assertTrue(lRecord.mMetaDataOffsetInBytes > 0);
+
+    lLocalFileStackSink.close();
+
+    // a new sink appending to the same dataset continues the metadata offsets:
+    final long lMetaDataFileLength =
+                                   new File(lLocalFileStackSink.getFolder(),
+                                            "metadata.txt").length();
+    final RawFileStackSink lAppendingFileStackSink =
+                                                   new RawFileStackSink();
+    lAppendingFileStackSink.setLocation(lRootFolder, "testSink");
+    assertTrue(lAppendingFileStackSink.appendStack(lStack));
+    lAppendingFileStackSink.close();
+    assertEquals(lMetaDataFileLength,
+                 lLocalFileStackSource.getIndexRecord(5).mMetaDataOffsetInBytes);
+
+    lLocalFileStackSource.close();
+    lStack.free();
+
+    try
+    {
+      FileUtils.deleteDirectory(lRootFolder);
+    }
+    catch (Exception e)
+    {
+    }
+  }
+
+  /**
+   * Tests writing and reading back a container dataset spanning several
+   * segments
+   * 
+   * @throws IOException
+   *           NA
+   */
+  @Test
+  public void testContainerSinkAndSource() throws IOException
+  {
+    final File lRootFolder =
+                           new File(File.createTempFile("test",
+                                                        "test")
+                                        .getParentFile(),
+                                    "LocalFileStackTests" + Math.random());
+    lRootFolder.mkdirs();
+
+    final OffHeapPlanarStack lStack =
+                                    OffHeapPlanarStack.createStack(cSizeX,
+                                                                   cSizeY,
+                                                                   cSizeZ);
+    lStack.getMetaData().setTimeStampInNanoseconds(System.nanoTime());
+
+    // segments are just large enough for two stacks:
+    final ContainerFileStackSink lContainerFileStackSink =
+                                                         new ContainerFileStackSink(2 * lStack.getSizeInBytes(),
+                                                                                    4,
+                                                                                    1,
+                                                                                    TimeUnit.SECONDS);
+    lContainerFileStackSink.setLocation(lRootFolder, "testSink");
+
+    for (int i = 0; i < 5; i++)
+    {
+      lStack.getContiguousMemory().setCharAligned(0, (char) i);
+      assertTrue(lContainerFileStackSink.appendStack(lStack));
+    }
+    lContainerFileStackSink.close();
+
+    assertEquals(3,
+                 lContainerFileStackSink.getDataFolder()
+                                        .listFiles().length);
+
+    final BasicRecycler<StackInterface, StackRequest> lStackRecycler =
+                                                                     new BasicRecycler<StackInterface, StackRequest>(new ContiguousOffHeapPlanarStackFactory(),
+                                                                                                                     cMaximalNumberOfAvailableStacks);
+    final ContainerFileStackSource lContainerFileStackSource =
+                                                             new ContainerFileStackSource(lStackRecycler);
+    lContainerFileStackSource.setLocation(lRootFolder, "testSink");
+    assertTrue(lContainerFileStackSource.update());
+    assertEquals(5, lContainerFileStackSource.getNumberOfStacks());
+
+    for (int i = 0; i < 5; i++)
+    {
+      final StackInterface lReadStack =
+                                      lContainerFileStackSource.getStack(i);
+      assertEquals(cSizeZ, lReadStack.getDepth());
+      assertEquals(i,
+                   lReadStack.getContiguousMemory().getCharAligned(0));
+    }
+
+    lContainerFileStackSource.close();
+    lStack.free();
+
+    try
+    {
+      FileUtils.deleteDirectory(lRootFolder);
+    }
+    catch (Exception e)
+    {
+    }
+  }
+
+  /**
+   * Tests writing a dataset striped across several volumes and reading it back
+   * with the raw file stack source
+   * 
+   * @throws IOException
+   *           NA
+   */
+  @Test
+  public void testStripedSinkAndSource() throws IOException
+  {
+    final File lTempFolder = File.createTempFile("test", "test")
+                                 .getParentFile();
+    final File[] lVolumeRootFolders = new File[3];
+    for (int v = 0; v < lVolumeRootFolders.length; v++)
+    {
+      lVolumeRootFolders[v] = new File(lTempFolder,
+                                       "LocalFileStackTests" + Math.random());
+      lVolumeRootFolders[v].mkdirs();
+    }
+
+    final OffHeapPlanarStack lStack =
+                                    OffHeapPlanarStack.createStack(cSizeX,
+                                                                   cSizeY,
+                                                                   cSizeZ);
+    lStack.getMetaData().setTimeStampInNanoseconds(System.nanoTime());
+
+    final StripedRawFileStackSink lStripedRawFileStackSink =
+                                                           new StripedRawFileStackSink(2,
+                                                                                       lVolumeRootFolders[1],
+                                                                                       lVolumeRootFolders[2]);
+    lStripedRawFileStackSink.setStripingPolicy(StripingPolicy.RoundRobin);
+    lStripedRawFileStackSink.setLocation(lVolumeRootFolders[0],
+                                         "testSink");
+    assertEquals(3, lStripedRawFileStackSink.getNumberOfVolumes());
+
+    for (int i = 0; i < 6; i++)
+    {
+      lStack.getContiguousMemory().setCharAligned(0, (char) i);
+      assertTrue(lStripedRawFileStackSink.appendStack(lStack));
+    }
+    lStripedRawFileStackSink.close();
+
+    for (int v = 0; v < lVolumeRootFolders.length; v++)
+    {
+      assertEquals(2,
+                   new File(new File(lVolumeRootFolders[v], "testSink"),
+                            "stacks").listFiles().length);
+      assertEquals(0,
+                   (int) lStripedRawFileStackSink.getQueueDepthVariable(v)
+                                                 .get());
+      assertTrue(lStripedRawFileStackSink.getThroughputVariable(v)
+                                         .get() > 0);
+    }
+
+    final BasicRecycler<StackInterface, StackRequest> lStackRecycler =
+                                                                     new BasicRecycler<StackInterface, StackRequest>(new ContiguousOffHeapPlanarStackFactory(),
+                                                                                                                     cMaximalNumberOfAvailableStacks);
+    final RawFileStackSource lRawFileStackSource =
+                                                 new RawFileStackSource(lStackRecycler);
+    lRawFileStackSource.setLocation(lVolumeRootFolders[0], "testSink");
+    assertTrue(lRawFileStackSource.update());
+    assertEquals(6, lRawFileStackSource.getNumberOfStacks());
+
+    for (int i = 0; i < 6; i++)
+    {
+      final StackInterface lReadStack = lRawFileStackSource.getStack(i);
+      assertEquals(i,
+                   lReadStack.getContiguousMemory().getCharAligned(0));
+      lReadStack.release();
+    }
+
+    lRawFileStackSource.close();
+    lStack.free();
+
+    try
+    {
+      for (File lVolumeRootFolder : lVolumeRootFolders)
+        FileUtils.deleteDirectory(lVolumeRootFolder);
+    }
+    catch (Exception e)
+    {
+    }
+  }
 }
@@ -1,9 +1,15 @@
 package clearcontrol.stack.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -12,6 +18,7 @@ import clearcontrol.core.concurrent.thread.ThreadUtils;
 import clearcontrol.stack.ContiguousOffHeapPlanarStackFactory;
 import clearcontrol.stack.OffHeapPlanarStack;
 import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackLease;
 import clearcontrol.stack.StackRequest;
 import coremem.ContiguousMemoryInterface;
 import coremem.offheap.OffHeapMemory;
@@ -243,4 +250,83 @@ public class StackTests
                                           + 10);
 
   }
+
+  /**
+   * Tests that releasing a borrowed stack is deferred until it is given back,
+   * and that leases read borrowed stacks in place
+   * 
+   * @throws InterruptedException
+   *           NA
+   */
+  @Test
+  public void testBorrowing() throws InterruptedException
+  {
+    final RecyclerInterface<StackInterface, StackRequest> lRecycler =
+                                                                    new BasicRecycler<StackInterface, StackRequest>(new ContiguousOffHeapPlanarStackFactory(),
+                                                                                                                    cMaximumNumberOfObjects);
+
+    final OffHeapPlanarStack lStack =
+                                    OffHeapPlanarStack.getOrWaitWithRecycler(lRecycler,
+                                                                             10,
+                                                                             TimeUnit.SECONDS,
+                                                                             cSizeX,
+                                                                             cSizeY,
+                                                                             cSizeZ);
+    assertEquals(0, lRecycler.getNumberOfAvailableObjects());
+
+    assertTrue(lStack.borrow());
+    assertTrue(lStack.borrow());
+    lStack.release();
+    assertFalse(lStack.isReleased());
+    assertFalse(lStack.borrow());
+    lStack.giveBack();
+    assertFalse(lStack.isReleased());
+    lStack.giveBack();
+    assertTrue(lStack.isReleased());
+    assertEquals(1, lRecycler.getNumberOfAvailableObjects());
+
+    final OffHeapPlanarStack lOtherStack =
+                                         OffHeapPlanarStack.getOrWaitWithRecycler(lRecycler,
+                                                                                  10,
+                                                                                  TimeUnit.SECONDS,
+                                                                                  cSizeX,
+                                                                                  cSizeY,
+                                                                                  cSizeZ);
+    final int lAvailableBudget =
+                               StackLease.getAvailableBudgetInMegaBytes();
+    try (StackLease lStackLease = StackLease.acquire(lOtherStack))
+    {
+      assertTrue(lStackLease.isBorrowed());
+      assertSame(lOtherStack, lStackLease.getStack());
+      assertTrue(StackLease.getAvailableBudgetInMegaBytes() < lAvailableBudget);
+      lOtherStack.release();
+      assertFalse(lOtherStack.isReleased());
+    }
+    assertTrue(lOtherStack.isReleased());
+    assertEquals(lAvailableBudget,
+                 StackLease.getAvailableBudgetInMegaBytes());
+
+    // leases of released stacks are copies:
+    try (StackLease lStackLease = StackLease.acquire(lOtherStack))
+    {
+      assertFalse(lStackLease.isBorrowed());
+      assertNotSame(lOtherStack, lStackLease.getStack());
+    }
+
+    // leases acquired together return their whole budget once closed:
+    final ArrayList<StackLease> lStackLeases =
+                                             StackLease.acquireAll(Arrays.asList(lOtherStack,
+                                                                                 null,
+                                                                                 lOtherStack));
+    assertEquals(3, lStackLeases.size());
+    assertNull(lStackLeases.get(1));
+    assertTrue(StackLease.getAvailableBudgetInMegaBytes() < lAvailableBudget);
+    for (StackLease lStackLease : lStackLeases)
+      if (lStackLease != null)
+        lStackLease.close();
+    assertEquals(lAvailableBudget,
+                 StackLease.getAvailableBudgetInMegaBytes());
+
+    lRecycler.free();
+  }
 }